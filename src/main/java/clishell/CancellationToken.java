@@ -0,0 +1,180 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import clishell.ex.CliCommandCancelledException;
+
+/**
+ *
+ * Signals that the command (or commands) dispatched by the CLI should stop.
+ *
+ * Each command dispatched from a command line gets a token (see
+ * {@link CliRunner#getCancellationToken()}); plugins can either poll it
+ * (using {@link #isCancelled()} or {@link #throwIfCancelled()}) or register
+ * callbacks on it (e.g., to destroy a child process).  While a plugin
+ * command method runs, the CLI also interrupts its thread upon
+ * cancellation, so that blocking calls which honor interrupts return early.
+ *
+ * A "child" token is cancelled whenever its parent is, but may also be
+ * cancelled on its own.
+ *
+ */
+public class CancellationToken {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** parent token, or <code>null</code> if none */
+    private final CancellationToken mParent;
+
+    /** callback cancelling this token when its parent is cancelled */
+    private final Runnable mParentCallback;
+
+    /** callbacks to call upon cancellation */
+    private final List<Runnable> mCallbacks = new LinkedList<Runnable>();
+
+    /** set once the token is cancelled */
+    private volatile boolean mCancelled;
+
+    /** reason given for cancellation */
+    private volatile String mReason;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * Construct a token without a parent
+     */
+    public CancellationToken() {
+        mParent = null;
+        mParentCallback = null;
+    }
+
+
+    //
+    //  Private constructors
+    //
+
+    /**
+     * @param parent parent token
+     */
+    private CancellationToken(final CancellationToken parent) {
+        mParent = parent;
+        mParentCallback = new Runnable() {
+            public void run() {
+                cancel(parent.getReason());
+            }
+        };
+        parent.addCallback(mParentCallback);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return new token that's cancelled whenever this one is; call its
+     * {@link #release()} method when it's no longer needed
+     */
+    public CancellationToken newChild() {
+        return new CancellationToken(this);
+    }
+
+    /**
+     * Disconnects a child token from its parent (has no effect on a
+     * token without a parent)
+     */
+    public void release() {
+        if (mParent != null) {
+            mParent.removeCallback(mParentCallback);
+        }
+    }
+
+    /**
+     * @return true once the token has been cancelled
+     */
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * @return reason given for cancellation, or <code>null</code>
+     * if not (yet) cancelled
+     */
+    public String getReason() {
+        return mReason;
+    }
+
+    /**
+     * @throws CliCommandCancelledException the token has been cancelled
+     */
+    public void throwIfCancelled() throws CliCommandCancelledException {
+        if (mCancelled) {
+            throw new CliCommandCancelledException(mReason);
+        }
+    }
+
+    /**
+     * Cancels the token, calling its callbacks (only the first call
+     * has any effect)
+     * @param reason reason for cancellation, shown to the user
+     */
+    public void cancel(String reason) {
+
+        List<Runnable> callbacks;
+        synchronized(this) {
+            if (mCancelled) {
+                return;
+            }
+            mReason = (reason != null) ? reason : "cancelled";
+            mCancelled = true;
+            callbacks = new ArrayList<Runnable>(mCallbacks);
+        }
+
+        // NOTE: not holding our lock while calling out
+        for (Runnable callback : callbacks) {
+            callback.run();
+        }
+    }
+
+    /**
+     * @param callback callback to call upon cancellation; it's called
+     * right away if the token has already been cancelled
+     */
+    public void addCallback(Runnable callback) {
+        synchronized(this) {
+            if (!mCancelled) {
+                mCallbacks.add(callback);
+                return;
+            }
+        }
+        callback.run();
+    }
+
+    /**
+     * @param callback callback previously added using {@link #addCallback(Runnable)}
+     */
+    public synchronized void removeCallback(Runnable callback) {
+        mCallbacks.remove(callback);
+    }
+
+}
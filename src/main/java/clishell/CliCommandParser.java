@@ -13,6 +13,8 @@
 package clishell;
 
 import java.io.Reader;
+import java.io.StringReader;
+import java.util.List;
 
 
 /**
@@ -21,6 +23,9 @@ import java.io.Reader;
  */
 public class CliCommandParser extends StringListParser {
 
+    /** character separating the stages of a command pipeline */
+    public static final char PIPE_SEPARATOR = '|';
+
     /**
      * @param reader
      * @see StringListParser#StringListParser(Reader)
@@ -29,4 +34,15 @@ public class CliCommandParser extends StringListParser {
         super(reader);
     }
 
+    /**
+     * @param inputLine string containing command line to parse
+     * @return tokens of each stage of the command pipeline in
+     * <code>inputLine</code>, as separated by (unquoted) {@link #PIPE_SEPARATOR}
+     * characters; a command line without separators has a single stage
+     */
+    public static List<String[]> parsePipelineStages(String inputLine) {
+        return new CliCommandParser(new StringReader(inputLine))
+            .readLineTokenGroups(PIPE_SEPARATOR);
+    }
+
 }
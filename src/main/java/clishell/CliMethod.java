@@ -282,8 +282,10 @@ public final class CliMethod {
      */
     private CliMethodForm computeCliMethodForm() {
 
+        // an object returned by the method is handed back to whoever
+        // dispatched the command by CliRunner.dispatchCommandForResult()
         Class<?> methodReturnType = mMethod.getReturnType();
-        if (methodReturnType == void.class) {
+        if (methodReturnType == void.class || !methodReturnType.isPrimitive()) {
 
             Class<?>[] argTypes = mMethod.getParameterTypes();
             if (argTypes.length == 0) {
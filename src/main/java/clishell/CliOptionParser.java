@@ -153,6 +153,21 @@ public class CliOptionParser {
         return nextIndex;
     }
 
+    /**
+     * @return letters of the options allowed, in the order given in the syntax
+     */
+    public String getAllowedOptionLetters() {
+        return mAllowedOptionLetters;
+    }
+
+    /**
+     * @param optionLetter option letter
+     * @return <code>true</code> iff indicated option requires an argument
+     */
+    public boolean isArgumentRequired(char optionLetter) {
+        return optionTakesArgument(optionLetter);
+    }
+
     /**
      * @param optionLetter option selector parsed from command line
      * @throws CliRejectedInputException <code>optionLetter</code> is not recognized
@@ -49,6 +49,11 @@ public class CliPluginCommandMetadata extends CliPluginMethodMetadata {
      */
     private int mMaxArgs;
 
+    /**
+     * Limits on the resources used by this command, enforced by the CLI
+     */
+    private CommandLimits mLimits = CommandLimits.NONE;
+
 
     //
     //  Public instance methods
@@ -82,6 +87,20 @@ public class CliPluginCommandMetadata extends CliPluginMethodMetadata {
         mMaxArgs = maxArgs;
     }
 
+    /**
+     * @return the limits on the resources used by this command
+     */
+    public CommandLimits getLimits() {
+        return mLimits;
+    }
+
+    /**
+     * @param limits the limits on the resources used by this command
+     */
+    public void setLimits(CommandLimits limits) {
+        mLimits = limits;
+    }
+
     /**
      * @return command name(s)
      * @see CliPluginCommandMetadata#mNames
@@ -356,6 +356,16 @@ public class CliPluginLoader {
         commandMetadata.setMaxArgs(maxArgs);
         commandMetadata.setMinArgs(minArgs);
 
+        // load the limits on the resources used by the command
+        try {
+            commandMetadata.setLimits(CommandLimits.parse(commandAnnotation.timeout(),
+                commandAnnotation.maxoutput(), commandAnnotation.maxalloc()));
+        } catch(NumberFormatException nfe) {
+            throw new CliRejectedInputException("@CliPluginCommand limit attribute(s) invalid"
+                + " (" + nfe.getMessage() + ")"
+                + ": '" + cliMethod.getMethodSignature() + "'", nfe);
+        }
+
     }
 
     /**
@@ -19,7 +19,9 @@ import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.LinkedList;
@@ -33,13 +35,16 @@ import java.util.jar.Manifest;
 
 import clishell.anno.CliPlugin;
 import clishell.db.CliCommandDb;
+import clishell.db.CliHelpIndex;
 import clishell.db.CliPluginDb;
+import clishell.ex.CliCommandCancelledException;
 import clishell.ex.CliCommandResolutionException;
 import clishell.ex.CliException;
 import clishell.ex.CliInvariantViolationException;
 import clishell.ex.CliPluginMethodException;
 import clishell.ex.CliRejectedInputException;
 import clishell.ex.CliRunnerException;
+import clishell.util.SharedInputStream;
 import org.mortbay.util.WriterOutputStream;
 
 /**
@@ -71,6 +76,15 @@ public class CliRunner {
     /** module name prefix for CLI plugins */
     private static final String MODULENAME_VERSIONPREFIX_PLUGIN = "plugin.";
 
+    /** property naming how long a command cancelled for exceeding its limits may take to stop */
+    private static final String PROPERTY_COMMAND_LIMIT_GRACE = "command-limit-grace";
+
+    /** default value of {@link #PROPERTY_COMMAND_LIMIT_GRACE} */
+    private static final String DEFAULT_COMMAND_LIMIT_GRACE = "2s";
+
+    /** greatest number of commands suggested for a command not resolved */
+    private static final int MAX_COMMAND_SUGGESTIONS = 3;
+
 
     //
     // Private instance data
@@ -98,6 +112,11 @@ public class CliRunner {
      */
     private final CliCommandDb mCliCommandDb = new CliCommandDb();
 
+    /**
+     * index of the help of the CLI commands
+     */
+    private final CliHelpIndex mCliHelpIndex = new CliHelpIndex();
+
     /**
      * CLI properties
      */
@@ -112,6 +131,27 @@ public class CliRunner {
     /** CLI invocation options */
     private CliCommandOptions mCliOptions = new CliCommandOptions();
 
+    /** cancellation token of the command being dispatched by each thread */
+    private final ThreadLocal<CancellationToken> mCancellationTokens
+        = new ThreadLocal<CancellationToken>();
+
+    /** cancellation tokens of the command lines currently being dispatched */
+    private final Set<CancellationToken> mActiveCancellationTokens
+        = Collections.synchronizedSet(new LinkedHashSet<CancellationToken>());
+
+    /** limits requested for the next command dispatched by each thread */
+    private final ThreadLocal<CommandLimits> mInvocationLimits
+        = new ThreadLocal<CommandLimits>();
+
+    /** holder receiving the object returned by the next command dispatched by each thread */
+    private final ThreadLocal<Object[]> mCommandResults = new ThreadLocal<Object[]>();
+
+    /** summary of the command limits violated */
+    private final CommandLimitViolations mLimitViolations = new CommandLimitViolations();
+
+    /** commands running in the background, created when first needed */
+    private CommandJobs mCommandJobs;
+
 
     //
     // Public class methods
@@ -164,7 +204,7 @@ public class CliRunner {
         setOptions(options);
 
         // Setup the consoles
-        setInputConsole(System.in);
+        setInputConsole(SharedInputStream.getStandardInput());
         setMessageConsole(new PrintWriter(System.out, true));
         setErrorConsole(new PrintWriter(System.out, true));
 
@@ -400,7 +440,6 @@ public class CliRunner {
      */
     public void setErrorConsole(PrintWriter newErrorConsole) {
         mErrorConsoles.setConsole(newErrorConsole);
-        System.setErr(new PrintStream(new WriterOutputStream(newErrorConsole)));
         synchronizeStderr();
     }
 
@@ -481,6 +520,7 @@ public class CliRunner {
                 mCliPluginDb.removePlugin(pluginName);
                 continue;
             }
+            mCliHelpIndex.addCommands(pluginName, cliPluginMetadata.getCommands());
 
             // initialize the plugin AFTER it's been registered
             // if it fails, report the error, unregister the plugin
@@ -493,6 +533,7 @@ public class CliRunner {
                     + "', "
                     + cre.getMessage());
                 cre.printStackTrace(getErrorConsole());
+                mCliHelpIndex.removeCommands(pluginName);
                 mCliCommandDb.removeCommands(pluginName);
                 mCliPluginDb.removePlugin(pluginName);
                 continue;
@@ -519,8 +560,29 @@ public class CliRunner {
             throw new NullPointerException();
         }
 
-        // parse the command line into tokens and dispatch that
-        dispatchCommand(CliCommandParser.parseTokens(userCommandline));
+        // parse the command line into tokens, splitting it into
+        // the stages of a command pipeline if it contains any
+        List<String[]> pipelineStages = CliCommandParser.parsePipelineStages(userCommandline);
+
+        // dispatch a simple command as usual
+        if (pipelineStages.size() == 1) {
+            dispatchCommand(pipelineStages.get(0));
+            return;
+        }
+
+        // run the stages of a pipeline concurrently
+        CancellationToken cancellationToken = enterDispatch();
+        try {
+
+            new CommandPipeline(this, pipelineStages).run();
+
+        } catch(CliRunnerException cliRunnerException) {
+            if (!reportCommandException(cliRunnerException)) {
+                throw cliRunnerException;
+            }
+        } finally {
+            exitDispatch(cancellationToken);
+        }
     }
 
     /**
@@ -535,36 +597,66 @@ public class CliRunner {
             throw new NullPointerException();
         }
 
-        // handle plugin hint prefix, if present
-        String pluginNameHint = null;
-        if (userCommandTokens.length >= 1) {
-            if ((userCommandTokens[0].length() > 1)
-                    && (userCommandTokens[0].endsWith(":"))) {
-                pluginNameHint = userCommandTokens[0].substring(0,
-                        userCommandTokens[0].length() - 1);
-                userCommandTokens = Arrays.copyOfRange(userCommandTokens,
-                        1, userCommandTokens.length);
+        // execute command
+        CancellationToken cancellationToken = enterDispatch();
+        try {
+
+            dispatchCommandTokens(userCommandTokens);
+
+        } catch(CliRunnerException cliRunnerException) {
+            if (!reportCommandException(cliRunnerException)) {
+                throw cliRunnerException;
             }
+            // fall through
+        } finally {
+            exitDispatch(cancellationToken);
         }
 
-        // execute command
+    }
+
+    /**
+     * Dispatches a command subject to limits (in addition to any declared
+     * for the command itself), on behalf of the command being dispatched
+     * by the current thread
+     * @param limits limits to enforce
+     * @param commandTokens tokenized command, which may begin with a
+     * plugin hint prefix
+     * @throws CliRunnerException unhandled exception, including a
+     * <code>CliCommandCancelledException</code> if a limit was exceeded
+     */
+    public void dispatchCommand(CommandLimits limits, String... commandTokens)
+        throws CliRunnerException {
+
+        mInvocationLimits.set(limits);
         try {
+            dispatchCommandTokens(commandTokens);
+        } finally {
+            mInvocationLimits.remove();
+        }
 
-            dispatchCommand(pluginNameHint,
-                    new CommandName(userCommandTokens));
+    }
 
-        } catch(CliPluginMethodException crce) {
-            getMessageConsole().println("Command Exception: " + crce.getMessage());
-            crce.printStackTrace(mErrorConsoles.getConsole());
-            // fall through
-        } catch(CliCommandResolutionException ccre) {
-            getMessageConsole().println("Command Resolution Exception: " + ccre.getMessage());
-            // fall through
-        } catch(CliRejectedInputException iae) {
-            getMessageConsole().println("illegal argument: " + iae.getMessage());
-            iae.printStackTrace(mErrorConsoles.getConsole());
-            // fall through
+    /**
+     * Dispatches a command on behalf of the command being dispatched by
+     * the current thread (e.g., from a script), returning what the command
+     * method returned, rather than discarding it
+     * @param commandTokens tokenized command, which may begin with a
+     * plugin hint prefix
+     * @return object returned by the command method, or <code>null</code>
+     * if none (e.g., the method is <code>void</code>)
+     * @throws CliRunnerException unhandled exception, i.e. the failure of
+     * the command (which isn't reported to the user)
+     */
+    public Object dispatchCommandForResult(String... commandTokens) throws CliRunnerException {
+
+        Object[] commandResult = new Object[1];
+        mCommandResults.set(commandResult);
+        try {
+            dispatchCommandTokens(commandTokens);
+        } finally {
+            mCommandResults.remove();
         }
+        return commandResult[0];
 
     }
 
@@ -681,6 +773,7 @@ public class CliRunner {
             }
 
             // unregister the plugin commands and the plugin itself
+            mCliHelpIndex.removeCommands(pluginName);
             mCliCommandDb.removeCommands(pluginName);
             mCliPluginDb.removePlugin(pluginName);
 
@@ -716,6 +809,97 @@ public class CliRunner {
         return mCliPluginDb.cliPlugins();
     }
 
+    /**
+     * @return index of the help of the commands of the loaded plugins
+     */
+    public CliHelpIndex getHelpIndex() {
+        return mCliHelpIndex;
+    }
+
+    /**
+     * @param precedingWords command words preceding the word being completed
+     * (e.g., as entered so far), possibly abbreviated
+     * @param prefix beginning of the word being completed
+     * @return the command words that may follow <code>precedingWords</code>
+     * and begin with <code>prefix</code>, sorted
+     */
+    public Set<String> getCommandWordCompletions(String[] precedingWords, String prefix) {
+        return mCliCommandDb.getCompletions(precedingWords, prefix);
+    }
+
+    /**
+     * @param commandTokens tokenized command, as entered (e.g., so far)
+     * @return the command (as it would be dispatched) named by the initial
+     * <code>commandTokens</code>, or <code>null</code> if they don't name one
+     */
+    public CommandName resolveCommandName(String... commandTokens) {
+        try {
+            return resolveUserCommandInput(new CommandName(commandTokens));
+        } catch(CliCommandResolutionException cre) {
+            return null;
+        }
+    }
+
+    /**
+     * @param commandName command
+     * @return metadata of the command (of one of the plugins supporting it),
+     * or <code>null</code> if not found
+     */
+    public CliPluginCommandMetadata getCommandMetadata(CommandName commandName) {
+        return mCliCommandDb.getCommandMetadata(commandName);
+    }
+
+    /**
+     * @return cancellation token of the command being dispatched by the
+     * current thread; if no command is being dispatched, returns a new
+     * token that's not cancelled by anything
+     */
+    public CancellationToken getCancellationToken() {
+        CancellationToken cancellationToken = mCancellationTokens.get();
+        return (cancellationToken != null) ? cancellationToken : new CancellationToken();
+    }
+
+    /**
+     * Cancels the command lines currently being dispatched, except the one
+     * being dispatched by the current thread (if any)
+     * @param reason reason for cancellation, shown to the user
+     * @return number of command lines cancelled
+     */
+    public int cancelCommands(String reason) {
+        List<CancellationToken> activeCancellationTokens;
+        synchronized(mActiveCancellationTokens) {
+            activeCancellationTokens = new ArrayList<CancellationToken>(
+                mActiveCancellationTokens);
+        }
+        CancellationToken currentCancellationToken = mCancellationTokens.get();
+        int nCancelled = 0;
+        for (CancellationToken cancellationToken : activeCancellationTokens) {
+            if (cancellationToken != currentCancellationToken
+                    && !cancellationToken.isCancelled()) {
+                cancellationToken.cancel(reason);
+                nCancelled++;
+            }
+        }
+        return nCancelled;
+    }
+
+    /**
+     * @return summary of the command limits violated so far
+     */
+    public CommandLimitViolations getLimitViolations() {
+        return mLimitViolations;
+    }
+
+    /**
+     * @return table of commands running in the background
+     */
+    public synchronized CommandJobs getJobs() {
+        if (mCommandJobs == null) {
+            mCommandJobs = new CommandJobs(this);
+        }
+        return mCommandJobs;
+    }
+
     /**
      * Cause the CLI to quit instead of reading another command
      */
@@ -759,6 +943,103 @@ public class CliRunner {
     }
 
 
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * @param userCommandTokens tokenized user command line, which may
+     * begin with a plugin hint prefix
+     * @throws CliRunnerException unhandled exception, including errors
+     * resolving or executing the command
+     */
+    void dispatchCommandTokens(String[] userCommandTokens) throws CliRunnerException {
+
+        // handle plugin hint prefix, if present
+        String pluginNameHint = null;
+        if (userCommandTokens.length >= 1) {
+            if ((userCommandTokens[0].length() > 1)
+                    && (userCommandTokens[0].endsWith(":"))) {
+                pluginNameHint = userCommandTokens[0].substring(0,
+                        userCommandTokens[0].length() - 1);
+                userCommandTokens = Arrays.copyOfRange(userCommandTokens,
+                        1, userCommandTokens.length);
+            }
+        }
+
+        // execute command
+        dispatchCommand(pluginNameHint, new CommandName(userCommandTokens));
+
+    }
+
+    /**
+     * Reports an exception that resulted from the user's command to the user
+     * @param cliRunnerException exception thrown by {@link #dispatchCommandTokens(String[])}
+     * @return true if exception was reported; false if it's not a kind of
+     * exception that results from a user's command
+     */
+    boolean reportCommandException(CliRunnerException cliRunnerException) {
+
+        if (cliRunnerException instanceof CliCommandCancelledException) {
+            getMessageConsole().println("Command cancelled: " + cliRunnerException.getMessage());
+            return true;
+        }
+
+        if (cliRunnerException instanceof CliPluginMethodException) {
+            getMessageConsole().println("Command Exception: " + cliRunnerException.getMessage());
+            cliRunnerException.printStackTrace(mErrorConsoles.getConsole());
+            return true;
+        }
+
+        if (cliRunnerException instanceof CliCommandResolutionException) {
+            getMessageConsole().println("Command Resolution Exception: "
+                + cliRunnerException.getMessage());
+            return true;
+        }
+
+        if (cliRunnerException instanceof CliRejectedInputException) {
+            getMessageConsole().println("illegal argument: " + cliRunnerException.getMessage());
+            cliRunnerException.printStackTrace(mErrorConsoles.getConsole());
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Sets the cancellation token of the current thread, which is about to
+     * dispatch a command on behalf of another (e.g., a pipeline stage)
+     * @param cancellationToken cancellation token, or <code>null</code> to remove it
+     */
+    void setThreadCancellationToken(CancellationToken cancellationToken) {
+        if (cancellationToken == null) {
+            mCancellationTokens.remove();
+        } else {
+            mCancellationTokens.set(cancellationToken);
+        }
+    }
+
+    /**
+     * @return stack of input consoles
+     */
+    ConsoleStack<InputStream> getInputConsoleStack() {
+        return mInputConsoles;
+    }
+
+    /**
+     * @return stack of message consoles
+     */
+    ConsoleStack<PrintWriter> getMessageConsoleStack() {
+        return mMessageConsoles;
+    }
+
+    /**
+     * @return stack of error consoles
+     */
+    ConsoleStack<PrintWriter> getErrorConsoleStack() {
+        return mErrorConsoles;
+    }
+
     //
     // Private class methods
     //
@@ -854,6 +1135,14 @@ public class CliRunner {
             CommandName commandName)
         throws CliRunnerException {
 
+        // limits requested for this invocation apply to this command only
+        CommandLimits invocationLimits = mInvocationLimits.get();
+        mInvocationLimits.remove();
+
+        // as does the request for its result (not for those of the commands it dispatches)
+        final Object[] commandResult = mCommandResults.get();
+        mCommandResults.remove();
+
         //
         //  ------------------- TODO: START OF NEED TO COMBINE
         //
@@ -936,14 +1225,135 @@ public class CliRunner {
                 + " command argument(s) supplied");
         }
 
-        // invoke the command on the plugin instance,
-        // passing the full set of tokens entered by the user for the command,
-        // indicating where the command arguments begin within the set of tokens
-        cliMethod.invokeCliCommand(pluginInstance, commandOptions,
-            commandNameAsWordArray, firstCommandArgumentIndex);
+        // don't start the command if it's already been cancelled
+        getCancellationToken().throwIfCancelled();
+
+        // run the command subject to the limits declared for it and / or
+        // requested for this invocation, if any
+        CommandLimits limits = commandMetadata.getLimits().combine(invocationLimits);
+        if (!limits.isLimited()) {
+            Object result = invokeCommand(cliMethod, pluginInstance, commandOptions,
+                commandNameAsWordArray, firstCommandArgumentIndex);
+            if (commandResult != null) {
+                commandResult[0] = result;
+            }
+            return;
+        }
+
+        final CliMethod finalCliMethod = cliMethod;
+        final Object finalPluginInstance = pluginInstance;
+        final CliCommandOptions finalCommandOptions = commandOptions;
+        final String[] finalCommandNameAsWordArray = commandNameAsWordArray;
+        final int finalFirstCommandArgumentIndex = firstCommandArgumentIndex;
+        new CommandLimiter(this, foundFullCommand.toString(), limits,
+                getCommandLimitGraceMillis()).run(
+            new CommandLimiter.LimitedCommand() {
+                public void run() throws CliRunnerException {
+                    Object result = invokeCommand(finalCliMethod, finalPluginInstance,
+                        finalCommandOptions, finalCommandNameAsWordArray,
+                        finalFirstCommandArgumentIndex);
+                    if (commandResult != null) {
+                        commandResult[0] = result;
+                    }
+                }
+            }
+        );
 
     }
 
+    /**
+     * @return how long a command cancelled for exceeding its limits may
+     * take to stop before it's abandoned, in milliseconds
+     */
+    private long getCommandLimitGraceMillis() {
+        String graceString = getProperties().getProperty(PROPERTY_COMMAND_LIMIT_GRACE,
+            DEFAULT_COMMAND_LIMIT_GRACE);
+        try {
+            return CommandLimits.parseDuration(graceString);
+        } catch(NumberFormatException nfe) {
+            return CommandLimits.parseDuration(DEFAULT_COMMAND_LIMIT_GRACE);
+        }
+    }
+
+    /**
+     * Invokes a command method on the current thread, interrupting the
+     * thread if the command gets cancelled
+     * @param cliMethod command method
+     * @param pluginInstance plugin instance
+     * @param commandOptions parsed command options
+     * @param commandNameAsWordArray full set of tokens entered by the user
+     * @param firstCommandArgumentIndex index of the first command argument
+     * @return object returned by the command method, or <code>null</code> if none
+     * @throws CliRunnerException unhandled exception during processing of command
+     */
+    private Object invokeCommand(CliMethod cliMethod, Object pluginInstance,
+        CliCommandOptions commandOptions, String[] commandNameAsWordArray,
+        int firstCommandArgumentIndex) throws CliRunnerException {
+
+        CancellationToken cancellationToken = getCancellationToken();
+
+        // interrupt the command's thread if it gets cancelled
+        CommandInterrupter commandInterrupter = new CommandInterrupter(Thread.currentThread());
+        cancellationToken.addCallback(commandInterrupter);
+
+        Object result;
+        try {
+
+            // invoke the command on the plugin instance,
+            // passing the full set of tokens entered by the user for the command,
+            // indicating where the command arguments begin within the set of tokens
+            result = cliMethod.invokeCliCommand(pluginInstance, commandOptions,
+                commandNameAsWordArray, firstCommandArgumentIndex);
+
+        } catch(CliPluginMethodException cliPluginMethodException) {
+
+            // an exception caused by the cancellation (e.g., an
+            // InterruptedException) is reported as the cancellation
+            if (cancellationToken.isCancelled()) {
+                throw new CliCommandCancelledException(cancellationToken.getReason(),
+                    cliPluginMethodException);
+            }
+            throw cliPluginMethodException;
+
+        } finally {
+
+            cancellationToken.removeCallback(commandInterrupter);
+            commandInterrupter.deactivate();
+
+        }
+
+        cancellationToken.throwIfCancelled();
+        return result;
+
+    }
+
+    /**
+     * Gives the current thread a cancellation token for the command line
+     * it's about to dispatch, unless it already has one (i.e., it's
+     * dispatching a command on behalf of another command)
+     * @return new token, to be passed to {@link #exitDispatch(CancellationToken)};
+     * or <code>null</code> if the current thread already had one
+     */
+    private CancellationToken enterDispatch() {
+        if (mCancellationTokens.get() != null) {
+            return null;
+        }
+        CancellationToken cancellationToken = new CancellationToken();
+        mCancellationTokens.set(cancellationToken);
+        mActiveCancellationTokens.add(cancellationToken);
+        return cancellationToken;
+    }
+
+    /**
+     * @param cancellationToken value returned by {@link #enterDispatch()}
+     */
+    private void exitDispatch(CancellationToken cancellationToken) {
+        if (cancellationToken != null) {
+            mActiveCancellationTokens.remove(cancellationToken);
+            mCancellationTokens.remove();
+        }
+    }
+
     /**
      * @param userCommandNameWithArguments full command entered by user
      * (the command words may be abbreviated, and contains command arguments)
@@ -970,12 +1380,37 @@ public class CliRunner {
             // TODO investigate this case - only one found, but still ambiguous??
         }
 
+        // a command that begins other, longer commands (e.g., "transform" and
+        // "transform chain") is chosen if the words after it don't continue
+        // any of the longer commands
+        if (foundCommands.size() > 1) {
+            String[] userWords = userCommandNameWithArguments.getCommandNameAsWordArray();
+            CommandName shortestCommand = null;
+            boolean isShortestUnique = false;
+            for (CommandName foundCommand : foundCommands) {
+                int nWords = foundCommand.getCommandNameAsWordArray().length;
+                if (shortestCommand == null
+                        || nWords < shortestCommand.getCommandNameAsWordArray().length) {
+                    shortestCommand = foundCommand;
+                    isShortestUnique = true;
+                } else if (nWords == shortestCommand.getCommandNameAsWordArray().length) {
+                    isShortestUnique = false;
+                }
+            }
+            if (isShortestUnique
+                    && shortestCommand.getCommandNameAsWordArray().length <= userWords.length
+                    && mCliCommandDb.isCommandName(shortestCommand)) {
+                return shortestCommand;
+            }
+        }
+
         // if command was not found, or was ambiguous,
         // then reflect to user and return
         if (foundCommands.size() == 0) {
             throw new CliCommandResolutionException("command '"
                 + userCommandNameWithArguments
-                + "' could not be resolved to a known command");
+                + "' could not be resolved to a known command"
+                + getSuggestionsMessage(userCommandNameWithArguments));
         }
         StringBuffer ambiguousCommandsStringBuffer = new StringBuffer();
         ambiguousCommandsStringBuffer.append("command: '"
@@ -997,6 +1432,31 @@ public class CliRunner {
 
     }
 
+    /**
+     * @param userCommandNameWithArguments full command entered by user,
+     * not resolving to a known command
+     * @return "did you mean" clause naming the commands the user may have
+     * meant, or "" if there are none like it
+     */
+    private String getSuggestionsMessage(CommandName userCommandNameWithArguments) {
+
+        List<CommandName> suggestions = mCliHelpIndex.suggest(
+            userCommandNameWithArguments.getCommandNameAsWordArray(), MAX_COMMAND_SUGGESTIONS);
+        if (suggestions.isEmpty()) {
+            return "";
+        }
+
+        StringBuffer suggestionsStringBuffer = new StringBuffer("; did you mean ");
+        for (int i = 0; i < suggestions.size(); i++) {
+            if (i > 0) {
+                suggestionsStringBuffer.append((i < suggestions.size() - 1) ? ", " : " or ");
+            }
+            suggestionsStringBuffer.append("'" + suggestions.get(i) + "'");
+        }
+        suggestionsStringBuffer.append("?");
+        return suggestionsStringBuffer.toString();
+    }
+
     /**
      * @param pluginNameHint hint given by user as to which plugin
      * should execute this command
@@ -1294,6 +1754,10 @@ public class CliRunner {
      * <code>getMessageConsole()</code> changes.
      */
     private void synchronizeStdout() {
+        if (mMessageConsoles.hasThreadConsoles()) {
+            // System.out is shared by all threads; leave it alone
+            return;
+        }
         System.out.flush();
         System.setOut(new PrintStream(new WriterOutputStream(getMessageConsole())));
     }
@@ -1309,8 +1773,63 @@ public class CliRunner {
      * <code>getErrorConsole()</code> changes.
      */
     private void synchronizeStderr() {
+        if (mErrorConsoles.hasThreadConsoles()) {
+            // System.err is shared by all threads; leave it alone
+            return;
+        }
         System.err.flush();
         System.setErr(new PrintStream(new WriterOutputStream(getErrorConsole())));
     }
 
+
+    //
+    // Private instance classes
+    //
+
+    /**
+     * Cancellation callback that interrupts the thread running a command,
+     * until deactivated (so that a late callback can't interrupt whatever
+     * the thread goes on to do next)
+     */
+    private static class CommandInterrupter implements Runnable {
+
+        /** thread running the command */
+        private final Thread mThread;
+
+        /** true until the command returns */
+        private boolean mActive = true;
+
+        /** true once the thread has been interrupted by this callback */
+        private boolean mInterrupted;
+
+        /**
+         * @param thread thread running the command
+         */
+        CommandInterrupter(Thread thread) {
+            mThread = thread;
+        }
+
+        /**
+         * @see Runnable#run()
+         */
+        public synchronized void run() {
+            if (mActive) {
+                mInterrupted = true;
+                mThread.interrupt();
+            }
+        }
+
+        /**
+         * Stops interrupting the thread, and clears any interrupt
+         * this callback caused (must be called by the thread itself)
+         */
+        synchronized void deactivate() {
+            mActive = false;
+            if (mInterrupted) {
+                Thread.interrupted();
+            }
+        }
+
+    }
+
 }
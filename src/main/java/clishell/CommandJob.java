@@ -0,0 +1,446 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+import clishell.db.CliBuffer;
+import clishell.ex.CliCommandCancelledException;
+import clishell.ex.CliRunnerException;
+
+/**
+ *
+ * A command running in the "background" (see {@link CommandJobs}), on a
+ * (daemon) thread of its own.
+ *
+ * The job's thread has its own, private console stacks: its input console
+ * is empty, and its message and error consoles write into buffers, from
+ * which the output can be "streamed" to a console (even while the job is
+ * still running) using {@link #streamOutput(PrintWriter)}.  The job's
+ * consoles are therefore unaffected by the consoles pushed and popped
+ * by the foreground (e.g., by "capture" or "time"), and vice versa.
+ *
+ * A job has its own cancellation token, which isn't cancelled when the
+ * foreground command line is (e.g., by Ctrl-C).
+ *
+ */
+public class CommandJob {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * State of a job
+     */
+    public enum State {
+
+        /** command still running */
+        RUNNING,
+
+        /** command completed normally */
+        DONE,
+
+        /** command threw an exception */
+        FAILED,
+
+        /** command was cancelled */
+        CANCELLED;
+
+    }
+
+
+    //
+    //  Private instance data
+    //
+
+    /** CLI runner executing the command */
+    private final CliRunner mCliRunner;
+
+    /** number identifying the job */
+    private final int mId;
+
+    /** tokens of the command */
+    private final String[] mCommandTokens;
+
+    /** buffer receiving the command's message output */
+    private final CliBuffer mOutputBuffer;
+
+    /** buffer receiving the command's error output */
+    private final CliBuffer mErrorBuffer;
+
+    /** cancellation token of the job */
+    private final CancellationToken mCancellationToken = new CancellationToken();
+
+    /** thread running the command */
+    private final Thread mThread;
+
+    /** time the job started */
+    private final long mStartTime = System.currentTimeMillis();
+
+    /** time the job finished, or zero while it's running */
+    private long mEndTime;
+
+    /** state of the job */
+    private State mState = State.RUNNING;
+
+    /** message of exception thrown by the command, if any */
+    private String mFailure;
+
+    /** incremented each time output is flushed into the output buffer */
+    private long mOutputVersion;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param cliRunner CLI runner executing the command
+     * @param id number identifying the job
+     * @param commandTokens tokens of the command
+     * @param outputBuffer buffer to receive the command's message output
+     * @param errorBuffer buffer to receive the command's error output
+     */
+    CommandJob(CliRunner cliRunner, int id, String[] commandTokens,
+        CliBuffer outputBuffer, CliBuffer errorBuffer) {
+        mCliRunner = cliRunner;
+        mId = id;
+        mCommandTokens = commandTokens;
+        mOutputBuffer = outputBuffer;
+        mErrorBuffer = errorBuffer;
+        mThread = new Thread(new JobRunner(), "job-" + id);
+        mThread.setDaemon(true);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return number identifying the job
+     */
+    public int getId() {
+        return mId;
+    }
+
+    /**
+     * @return command run by the job
+     */
+    public CommandName getCommandName() {
+        return new CommandName(mCommandTokens);
+    }
+
+    /**
+     * @return state of the job
+     */
+    public synchronized State getState() {
+        return mState;
+    }
+
+    /**
+     * @return message of the exception thrown by the command,
+     * or <code>null</code> if none
+     */
+    public synchronized String getFailure() {
+        return mFailure;
+    }
+
+    /**
+     * @return number of milliseconds the job has been (or was) running
+     */
+    public synchronized long getElapsedMillis() {
+        return ((mEndTime != 0) ? mEndTime : System.currentTimeMillis()) - mStartTime;
+    }
+
+    /**
+     * @return number of bytes of output (messages and errors) produced so far
+     */
+    public long getOutputSize() {
+        return mOutputBuffer.getLength() + mErrorBuffer.getLength();
+    }
+
+    /**
+     * @return buffer receiving the command's message output
+     */
+    public CliBuffer getOutputBuffer() {
+        return mOutputBuffer;
+    }
+
+    /**
+     * @return buffer receiving the command's error output
+     */
+    public CliBuffer getErrorBuffer() {
+        return mErrorBuffer;
+    }
+
+    /**
+     * @param reason reason for cancellation, shown in the job's output
+     */
+    public void cancel(String reason) {
+        mCancellationToken.cancel(reason);
+    }
+
+    /**
+     * Waits for the job to finish
+     * @throws InterruptedException interrupted while waiting
+     */
+    public void waitFor() throws InterruptedException {
+        mThread.join();
+    }
+
+    /**
+     * Writes the job's message output to a console, from the beginning,
+     * following it as it's produced until the job finishes
+     * @param messageConsole console to receive the output
+     * @throws IOException error reading the output
+     * @throws InterruptedException interrupted while waiting for more output
+     */
+    public void streamOutput(PrintWriter messageConsole)
+        throws IOException, InterruptedException {
+
+        CharsetDecoder decoder = CliBuffer.CHARSET.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer byteBuffer = ByteBuffer.allocate(CliBuffer.CHUNK_SIZE);
+        CharBuffer charBuffer = CharBuffer.allocate(CliBuffer.CHUNK_SIZE);
+        long offset = 0;
+
+        while(true) {
+
+            // note the state before reading, so no output is missed
+            long outputVersion;
+            boolean isFinished;
+            synchronized(this) {
+                outputVersion = mOutputVersion;
+                isFinished = (mState != State.RUNNING);
+            }
+
+            // copy whatever's been added since last time
+            InputStream inputStream = mOutputBuffer.getInputStream();
+            try {
+                inputStream.skip(offset);
+                int len;
+                while((len = inputStream.read(byteBuffer.array(), byteBuffer.position(),
+                        byteBuffer.remaining())) > 0) {
+                    offset += len;
+                    byteBuffer.position(byteBuffer.position() + len);
+                    byteBuffer.flip();
+                    decoder.decode(byteBuffer, charBuffer, false);
+                    messageConsole.write(charBuffer.array(), 0, charBuffer.position());
+                    charBuffer.clear();
+                    // keep any incomplete character for next time
+                    byteBuffer.compact();
+                }
+            } finally {
+                inputStream.close();
+            }
+            messageConsole.flush();
+
+            if (isFinished) {
+                break;
+            }
+
+            synchronized(this) {
+                while(mOutputVersion == outputVersion && mState == State.RUNNING) {
+                    wait();
+                }
+            }
+        }
+
+    }
+
+    /**
+     * @return human-readable description of the job
+     */
+    @Override
+    public String toString() {
+        State state = getState();
+        return "[" + mId + "] "
+            + state.name().toLowerCase()
+            + " " + getElapsedMillis() + "ms"
+            + " " + getOutputSize() + " bytes"
+            + ": " + getCommandName()
+            + ((state == State.FAILED || state == State.CANCELLED)
+                ? (" (" + getFailure() + ")") : "");
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * Starts the job
+     */
+    void start() {
+        mThread.start();
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Notes that more output is available
+     */
+    private synchronized void outputFlushed() {
+        mOutputVersion++;
+        notifyAll();
+    }
+
+    /**
+     * @param state final state of the job
+     * @param failure message of the exception thrown by the command, if any
+     */
+    private synchronized void finished(State state, String failure) {
+        mState = state;
+        mFailure = failure;
+        mEndTime = System.currentTimeMillis();
+        notifyAll();
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Runs the job's command
+     */
+    private class JobRunner implements Runnable {
+
+        /**
+         * @see Runnable#run()
+         */
+        public void run() {
+
+            PrintWriter messageConsole = new PrintWriter(
+                new JobOutputWriter(mOutputBuffer.getWriter()), true);
+            PrintWriter errorConsole = new PrintWriter(
+                new JobOutputWriter(mErrorBuffer.getWriter()), true);
+
+            // give this thread its own consoles
+            ConsoleStack<InputStream> inputConsoleStack = mCliRunner.getInputConsoleStack();
+            ConsoleStack<PrintWriter> messageConsoleStack = mCliRunner.getMessageConsoleStack();
+            ConsoleStack<PrintWriter> errorConsoleStack = mCliRunner.getErrorConsoleStack();
+            inputConsoleStack.attachThreadConsoles(Arrays.<InputStream>asList(
+                new ByteArrayInputStream(new byte[0])));
+            messageConsoleStack.attachThreadConsoles(Arrays.<PrintWriter>asList(messageConsole));
+            errorConsoleStack.attachThreadConsoles(Arrays.<PrintWriter>asList(errorConsole));
+            mCliRunner.setThreadCancellationToken(mCancellationToken);
+
+            State state = State.DONE;
+            String failure = null;
+            try {
+
+                mCliRunner.dispatchCommandTokens(mCommandTokens);
+
+            } catch(CliRunnerException cliRunnerException) {
+
+                state = (cliRunnerException instanceof CliCommandCancelledException)
+                    ? State.CANCELLED : State.FAILED;
+                failure = cliRunnerException.getMessage();
+                if (!mCliRunner.reportCommandException(cliRunnerException)) {
+                    messageConsole.println("Unhandled Exception: " + failure);
+                    cliRunnerException.printStackTrace(errorConsole);
+                }
+
+            } catch(Throwable t) {
+
+                state = State.FAILED;
+                failure = t.toString();
+                t.printStackTrace(errorConsole);
+
+            } finally {
+
+                mCliRunner.setThreadCancellationToken(null);
+                inputConsoleStack.detachThreadConsoles();
+                messageConsoleStack.detachThreadConsoles();
+                errorConsoleStack.detachThreadConsoles();
+
+                // seal the buffers
+                messageConsole.close();
+                errorConsole.close();
+
+                finished(state, failure);
+
+            }
+        }
+
+    }
+
+    /**
+     * Writes into one of the job's buffers, noting when output is flushed
+     */
+    private class JobOutputWriter extends Writer {
+
+        /** writer into the buffer */
+        private final Writer mWriter;
+
+        /**
+         * @param writer writer into the buffer
+         */
+        JobOutputWriter(Writer writer) {
+            mWriter = writer;
+        }
+
+        /**
+         * @see Writer#write(char[], int, int)
+         */
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            mWriter.write(cbuf, off, len);
+        }
+
+        /**
+         * @see Writer#write(String, int, int)
+         */
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            mWriter.write(str, off, len);
+        }
+
+        /**
+         * @see Writer#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            mWriter.flush();
+            outputFlushed();
+        }
+
+        /**
+         * @see Writer#close()
+         */
+        @Override
+        public void close() throws IOException {
+            mWriter.close();
+            outputFlushed();
+        }
+
+    }
+
+}
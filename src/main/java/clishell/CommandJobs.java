@@ -0,0 +1,160 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import clishell.db.CliBuffer;
+import clishell.db.CliBufferDb;
+
+/**
+ *
+ * Table of the commands running (or that ran) in the "background"
+ * (see {@link CommandJob}), so that long-running commands don't
+ * block the command loop.
+ *
+ * The output of all jobs is held in a buffer database of its own (see
+ * {@link CliBufferDb}), limited to the memory budget given by the property
+ * "job-output-memory-budget"; beyond that, job output is spilled into
+ * temporary files.
+ *
+ */
+public class CommandJobs {
+
+
+    //
+    //  Private class data
+    //
+
+    /** property naming the memory budget for the output of all jobs */
+    private static final String PROPERTY_JOB_OUTPUT_MEMORY_BUDGET = "job-output-memory-budget";
+
+    /** property naming the directory into which job output is spilled */
+    private static final String PROPERTY_JOB_OUTPUT_SPILL_DIRECTORY = "buffer-spill-directory";
+
+    /** default value of {@link #PROPERTY_JOB_OUTPUT_MEMORY_BUDGET} */
+    private static final String DEFAULT_JOB_OUTPUT_MEMORY_BUDGET = "32m";
+
+
+    //
+    //  Private instance data
+    //
+
+    /** CLI runner executing the jobs */
+    private final CliRunner mCliRunner;
+
+    /** buffers holding the output of the jobs */
+    private final CliBufferDb mBufferDb;
+
+    /**
+     * Maps job numbers to jobs
+     * NOTE: use of <code>TreeMap</code> to list jobs in the order they were started
+     */
+    private final Map<Integer, CommandJob> mJobs = new TreeMap<Integer, CommandJob>();
+
+    /** number of the last job started */
+    private int mLastJobId;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param cliRunner CLI runner executing the jobs
+     */
+    CommandJobs(CliRunner cliRunner) {
+
+        mCliRunner = cliRunner;
+
+        CliProperties cliProperties = cliRunner.getProperties();
+        long memoryBudget;
+        try {
+            memoryBudget = CommandLimits.parseSize(cliProperties.getProperty(
+                PROPERTY_JOB_OUTPUT_MEMORY_BUDGET, DEFAULT_JOB_OUTPUT_MEMORY_BUDGET));
+        } catch(NumberFormatException nfe) {
+            memoryBudget = CommandLimits.parseSize(DEFAULT_JOB_OUTPUT_MEMORY_BUDGET);
+        }
+        String spillDirectory = cliProperties.getProperty(PROPERTY_JOB_OUTPUT_SPILL_DIRECTORY, "");
+        mBufferDb = new CliBufferDb(memoryBudget, 0,
+            (spillDirectory.trim().length() > 0) ? new File(spillDirectory.trim()) : null);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Starts a command in the background
+     * @param commandTokens tokenized command, which may begin with a plugin
+     * hint prefix
+     * @return job running the command
+     */
+    public synchronized CommandJob startJob(String... commandTokens) {
+        int jobId = ++mLastJobId;
+        CliBuffer outputBuffer = mBufferDb.newBuffer("job-" + jobId, CliBuffer.Type.CHAR);
+        CliBuffer errorBuffer = mBufferDb.newBuffer("job-" + jobId + ".err", CliBuffer.Type.CHAR);
+        mBufferDb.putBuffer(outputBuffer);
+        mBufferDb.putBuffer(errorBuffer);
+        CommandJob job = new CommandJob(mCliRunner, jobId, commandTokens.clone(),
+            outputBuffer, errorBuffer);
+        mJobs.put(jobId, job);
+        job.start();
+        return job;
+    }
+
+    /**
+     * @param jobId number identifying the job
+     * @return job, or <code>null</code> if not found
+     */
+    public synchronized CommandJob getJob(int jobId) {
+        return mJobs.get(jobId);
+    }
+
+    /**
+     * @return all jobs, in the order they were started
+     */
+    public synchronized List<CommandJob> getJobs() {
+        return new ArrayList<CommandJob>(mJobs.values());
+    }
+
+    /**
+     * @return number of bytes of memory used by the output of all jobs
+     */
+    public long getInMemoryBytes() {
+        return mBufferDb.getInMemoryBytes();
+    }
+
+    /**
+     * Forgets the jobs that have finished, deleting their output
+     * @return number of jobs forgotten
+     */
+    public synchronized int removeFinishedJobs() {
+        int nRemoved = 0;
+        for (CommandJob job : new ArrayList<CommandJob>(mJobs.values())) {
+            if (job.getState() != CommandJob.State.RUNNING) {
+                mJobs.remove(job.getId());
+                mBufferDb.removeBuffer(job.getOutputBuffer().getName());
+                mBufferDb.removeBuffer(job.getErrorBuffer().getName());
+                nRemoved++;
+            }
+        }
+        return nRemoved;
+    }
+
+}
@@ -0,0 +1,174 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+
+/**
+ *
+ * Summary of the command limits (see {@link CommandLimits}) violated
+ * since the CLI started.
+ *
+ */
+public class CommandLimitViolations {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Kind of limit violated
+     */
+    public enum Kind {
+
+        /** wall-clock deadline exceeded */
+        DEADLINE,
+
+        /** too much output written to the message console */
+        OUTPUT,
+
+        /** too much memory allocated */
+        ALLOCATION;
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** number of recent violations described */
+    private static final int MAX_RECENT_VIOLATIONS = 20;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** number of violations of each kind */
+    private final Map<Kind, Integer> mKindCounts = new LinkedHashMap<Kind, Integer>();
+
+    /** number of violations by each command */
+    private final Map<String, Integer> mCommandCounts = new TreeMap<String, Integer>();
+
+    /** descriptions of recent violations, most recent last */
+    private final LinkedList<String> mRecentViolations = new LinkedList<String>();
+
+    /** number of commands abandoned because they didn't stop when cancelled */
+    private int mAbandonedCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * Construct empty summary
+     */
+    public CommandLimitViolations() {
+        for (Kind kind : Kind.values()) {
+            mKindCounts.put(kind, 0);
+        }
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return total number of violations
+     */
+    public synchronized int getTotalCount() {
+        int totalCount = 0;
+        for (int count : mKindCounts.values()) {
+            totalCount += count;
+        }
+        return totalCount;
+    }
+
+    /**
+     * @param kind kind of limit
+     * @return number of violations of that kind
+     */
+    public synchronized int getCount(Kind kind) {
+        return mKindCounts.get(kind);
+    }
+
+    /**
+     * @return copy of map of command name to its number of violations
+     */
+    public synchronized Map<String, Integer> getCommandCounts() {
+        return new TreeMap<String, Integer>(mCommandCounts);
+    }
+
+    /**
+     * @return copy of descriptions of recent violations, most recent last
+     */
+    public synchronized List<String> getRecentViolations() {
+        return new LinkedList<String>(mRecentViolations);
+    }
+
+    /**
+     * @return number of commands abandoned because they didn't stop when cancelled
+     */
+    public synchronized int getAbandonedCount() {
+        return mAbandonedCount;
+    }
+
+    /**
+     * Resets the summary
+     */
+    public synchronized void clear() {
+        for (Kind kind : Kind.values()) {
+            mKindCounts.put(kind, 0);
+        }
+        mCommandCounts.clear();
+        mRecentViolations.clear();
+        mAbandonedCount = 0;
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * @param kind kind of limit violated
+     * @param commandName name of command that violated it
+     * @param description description of the violation
+     */
+    synchronized void recordViolation(Kind kind, String commandName, String description) {
+        mKindCounts.put(kind, mKindCounts.get(kind) + 1);
+        Integer commandCount = mCommandCounts.get(commandName);
+        mCommandCounts.put(commandName, (commandCount == null) ? 1 : (commandCount + 1));
+        mRecentViolations.add(commandName + ": " + description);
+        if (mRecentViolations.size() > MAX_RECENT_VIOLATIONS) {
+            mRecentViolations.removeFirst();
+        }
+    }
+
+    /**
+     * Records that a command was abandoned
+     */
+    synchronized void recordAbandoned() {
+        mAbandonedCount++;
+    }
+
+}
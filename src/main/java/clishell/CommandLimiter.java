@@ -0,0 +1,444 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.List;
+
+import clishell.ex.CliCommandCancelledException;
+import clishell.ex.CliRunnerException;
+
+/**
+ *
+ * Runs a command subject to {@link CommandLimits}.
+ *
+ * The command runs on a (daemon) worker thread of its own, with a copy of
+ * the dispatching thread's consoles, while the dispatching thread watches
+ * it: it enforces the deadline, and samples the number of bytes of memory
+ * allocated by the worker thread (using the JVM's thread allocation
+ * counters, where supported).  Output to the message console is counted as
+ * it's written.
+ *
+ * When a limit is exceeded, a dump of the worker thread's stack is written
+ * to the error console, the violation is recorded (see
+ * {@link CliRunner#getLimitViolations()}) and the command's cancellation
+ * token is cancelled.  Should the command not stop within a grace period
+ * after that, it's abandoned (its thread can't safely be killed), so that
+ * the dispatching thread (e.g., a script) can carry on with its next command.
+ *
+ * Note that memory allocated by other threads the command starts (e.g., the
+ * stages of a pipeline) isn't counted against the command.
+ *
+ */
+class CommandLimiter {
+
+
+    //
+    //  Package-private class classes
+    //
+
+    /**
+     * Command to run subject to the limits
+     */
+    interface LimitedCommand {
+
+        /**
+         * Runs the command
+         * @throws CliRunnerException exception thrown by the command
+         */
+        void run() throws CliRunnerException;
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** how often the worker thread's memory allocation is sampled */
+    private static final long SAMPLE_INTERVAL_MILLIS = 100;
+
+    /** number of worker threads started, used to name them */
+    private static int sWorkerCount;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** CLI runner executing the command */
+    private final CliRunner mCliRunner;
+
+    /** name of the command being run */
+    private final String mCommandName;
+
+    /** limits to enforce */
+    private final CommandLimits mLimits;
+
+    /** how long a cancelled command has to stop before it's abandoned */
+    private final long mGraceMillis;
+
+    /** cancellation token of the command */
+    private CancellationToken mCancellationToken;
+
+    /** error console at the time the command was started */
+    private PrintWriter mErrorConsole;
+
+    /** thread running the command */
+    private Thread mWorkerThread;
+
+    /** bytes allocated by the worker thread when it started, or -1 if unknown */
+    private volatile long mBaselineAllocatedBytes = -1;
+
+    /** exception thrown by the command, if any */
+    private volatile CliRunnerException mCommandException;
+
+    /** description of the limit exceeded, if any */
+    private String mViolation;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param cliRunner CLI runner executing the command
+     * @param commandName name of the command being run
+     * @param limits limits to enforce
+     * @param graceMillis how long a cancelled command has to stop before
+     * it's abandoned
+     */
+    CommandLimiter(CliRunner cliRunner, String commandName, CommandLimits limits,
+        long graceMillis) {
+        mCliRunner = cliRunner;
+        mCommandName = commandName;
+        mLimits = limits;
+        mGraceMillis = graceMillis;
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * Runs the command, waiting for it to finish, to be cancelled or to be abandoned
+     * @param limitedCommand command to run
+     * @throws CliRunnerException exception thrown by the command, including
+     * a <code>CliCommandCancelledException</code> if it exceeded a limit
+     */
+    void run(final LimitedCommand limitedCommand) throws CliRunnerException {
+
+        // snapshot the consoles in use now; the command starts with these
+        final List<InputStream> inputConsoles = mCliRunner.getInputConsoleStack().getConsoles();
+        final List<PrintWriter> messageConsoles = mCliRunner.getMessageConsoleStack().getConsoles();
+        final List<PrintWriter> errorConsoles = mCliRunner.getErrorConsoleStack().getConsoles();
+        mErrorConsole = mCliRunner.getErrorConsole();
+
+        mCancellationToken = mCliRunner.getCancellationToken().newChild();
+
+        final com.sun.management.ThreadMXBean threadMXBean = CommandLimits.getAllocationCounter();
+
+        mWorkerThread = new Thread(new Runnable() {
+            public void run() {
+
+                if (threadMXBean != null) {
+                    mBaselineAllocatedBytes = threadMXBean.getThreadAllocatedBytes(
+                        Thread.currentThread().getId());
+                }
+
+                ConsoleStack<InputStream> inputConsoleStack = mCliRunner.getInputConsoleStack();
+                ConsoleStack<PrintWriter> messageConsoleStack = mCliRunner.getMessageConsoleStack();
+                ConsoleStack<PrintWriter> errorConsoleStack = mCliRunner.getErrorConsoleStack();
+                inputConsoleStack.attachThreadConsoles(inputConsoles);
+                messageConsoleStack.attachThreadConsoles(messageConsoles);
+                errorConsoleStack.attachThreadConsoles(errorConsoles);
+                if (mLimits.getMaxOutputBytes() > 0) {
+                    messageConsoleStack.setConsole(new PrintWriter(
+                        new LimitedOutputWriter(messageConsoleStack.getConsole()), true));
+                }
+                mCliRunner.setThreadCancellationToken(mCancellationToken);
+
+                try {
+
+                    limitedCommand.run();
+
+                } catch(CliRunnerException cliRunnerException) {
+
+                    mCommandException = cliRunnerException;
+
+                } catch(Throwable t) {
+
+                    mCommandException = new CliRunnerException(
+                        "unhandled exception in command: '" + mCommandName + "'", t);
+
+                } finally {
+
+                    messageConsoleStack.getConsole().flush();
+                    mCliRunner.setThreadCancellationToken(null);
+                    inputConsoleStack.detachThreadConsoles();
+                    messageConsoleStack.detachThreadConsoles();
+                    errorConsoleStack.detachThreadConsoles();
+
+                }
+            }
+        }, "limited-command-" + nextWorkerNumber());
+        mWorkerThread.setDaemon(true);
+
+        // make sure what's been written so far comes out first
+        mCliRunner.getMessageConsole().flush();
+
+        boolean isInterrupted = false;
+        boolean isAbandoned = false;
+        long startTime = System.currentTimeMillis();
+        long cancelTime = 0;
+        mWorkerThread.start();
+
+        try {
+
+            while(mWorkerThread.isAlive()) {
+
+                long now = System.currentTimeMillis();
+                long waitMillis = SAMPLE_INTERVAL_MILLIS;
+                if (mLimits.getTimeoutMillis() > 0 && cancelTime == 0) {
+                    waitMillis = Math.min(waitMillis,
+                        Math.max(startTime + mLimits.getTimeoutMillis() - now, 1));
+                }
+
+                try {
+                    mWorkerThread.join(waitMillis);
+                } catch(InterruptedException ie) {
+                    // our own command line was cancelled; that cancels the
+                    // command too, since its token is a child of ours
+                    isInterrupted = true;
+                }
+
+                if (!mWorkerThread.isAlive()) {
+                    break;
+                }
+
+                now = System.currentTimeMillis();
+                if (mLimits.getTimeoutMillis() > 0
+                        && now - startTime >= mLimits.getTimeoutMillis()) {
+                    limitExceeded(CommandLimitViolations.Kind.DEADLINE,
+                        "deadline of " + mLimits.getTimeoutMillis() + "ms exceeded");
+                }
+
+                if (mLimits.getMaxAllocatedBytes() > 0 && threadMXBean != null
+                        && mBaselineAllocatedBytes >= 0) {
+                    long allocatedBytes = threadMXBean.getThreadAllocatedBytes(
+                        mWorkerThread.getId()) - mBaselineAllocatedBytes;
+                    if (allocatedBytes > mLimits.getMaxAllocatedBytes()) {
+                        limitExceeded(CommandLimitViolations.Kind.ALLOCATION,
+                            "allocation limit of " + mLimits.getMaxAllocatedBytes()
+                            + " bytes exceeded (" + allocatedBytes + " bytes allocated)");
+                    }
+                }
+
+                // give a cancelled command some time to stop, then abandon it
+                if (mCancellationToken.isCancelled()) {
+                    if (cancelTime == 0) {
+                        cancelTime = now;
+                    } else if (now - cancelTime >= mGraceMillis) {
+                        isAbandoned = true;
+                        break;
+                    }
+                }
+            }
+
+        } finally {
+
+            mCancellationToken.release();
+            if (isInterrupted) {
+                Thread.currentThread().interrupt();
+            }
+
+        }
+
+        if (isAbandoned) {
+            mCliRunner.getLimitViolations().recordAbandoned();
+            throw new CliCommandCancelledException(mCancellationToken.getReason()
+                + "; command abandoned since it didn't stop within "
+                + mGraceMillis + "ms");
+        }
+
+        if (mCommandException != null) {
+            throw mCommandException;
+        }
+
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @return next number to use to name a worker thread
+     */
+    private static synchronized int nextWorkerNumber() {
+        return ++sWorkerCount;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Handles a limit being exceeded (only the first call has any effect)
+     * @param kind kind of limit exceeded
+     * @param description description of the violation
+     */
+    private void limitExceeded(CommandLimitViolations.Kind kind, String description) {
+
+        synchronized(this) {
+            if (mViolation != null) {
+                return;
+            }
+            mViolation = description;
+        }
+
+        mCliRunner.getLimitViolations().recordViolation(kind, mCommandName, description);
+
+        synchronized(mErrorConsole) {
+            mErrorConsole.println("Command limit exceeded: '" + mCommandName
+                + "': " + description);
+            printThreadDump(mErrorConsole);
+            mErrorConsole.flush();
+        }
+
+        mCancellationToken.cancel(description);
+    }
+
+    /**
+     * @param printWriter writer to receive a dump of the worker thread's stack
+     */
+    private void printThreadDump(PrintWriter printWriter) {
+
+        ThreadInfo[] threadInfos = ManagementFactory.getThreadMXBean().getThreadInfo(
+            new long[] { mWorkerThread.getId() }, true, true);
+        if (threadInfos.length == 0 || threadInfos[0] == null) {
+            // thread has already finished
+            return;
+        }
+
+        ThreadInfo threadInfo = threadInfos[0];
+        printWriter.println("\"" + threadInfo.getThreadName() + "\" "
+            + threadInfo.getThreadState()
+            + ((threadInfo.getLockName() != null) ? (" on " + threadInfo.getLockName()) : "")
+            + ((threadInfo.getLockOwnerName() != null)
+                ? (" owned by \"" + threadInfo.getLockOwnerName() + "\"") : ""));
+        for (StackTraceElement stackTraceElement : threadInfo.getStackTrace()) {
+            printWriter.println("\tat " + stackTraceElement);
+        }
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Counts the bytes (encoded as UTF-8) written to the message console,
+     * dropping output once the limit has been exceeded
+     */
+    private class LimitedOutputWriter extends Writer {
+
+        /** writer receiving the output */
+        private final PrintWriter mPrintWriter;
+
+        /** number of bytes written so far */
+        private long mByteCount;
+
+        /** set once the limit has been exceeded */
+        private boolean mExceeded;
+
+        /**
+         * @param printWriter writer receiving the output
+         */
+        LimitedOutputWriter(PrintWriter printWriter) {
+            mPrintWriter = printWriter;
+        }
+
+        /**
+         * @see Writer#write(char[], int, int)
+         */
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+
+            if (mExceeded) {
+                return;
+            }
+
+            long maxOutputBytes = mLimits.getMaxOutputBytes();
+            int fence = off + len;
+            int allowedFence = off;
+            while(allowedFence < fence) {
+                long charBytes = utf8Length(cbuf[allowedFence]);
+                if (mByteCount + charBytes > maxOutputBytes) {
+                    mExceeded = true;
+                    break;
+                }
+                mByteCount += charBytes;
+                allowedFence++;
+            }
+
+            mPrintWriter.write(cbuf, off, allowedFence - off);
+
+            if (mExceeded) {
+                mPrintWriter.flush();
+                limitExceeded(CommandLimitViolations.Kind.OUTPUT,
+                    "output limit of " + maxOutputBytes + " bytes exceeded");
+            }
+        }
+
+        /**
+         * @see Writer#flush()
+         */
+        @Override
+        public void flush() {
+            mPrintWriter.flush();
+        }
+
+        /**
+         * @see Writer#close()
+         */
+        @Override
+        public void close() {
+            // NOTE: the underlying console belongs to someone else
+            mPrintWriter.flush();
+        }
+
+        /**
+         * @param c character (possibly half of a surrogate pair)
+         * @return number of bytes needed to encode it as UTF-8
+         */
+        private int utf8Length(char c) {
+            if (c < 0x80) {
+                return 1;
+            }
+            if (c < 0x800 || Character.isSurrogate(c)) {
+                return 2;
+            }
+            return 3;
+        }
+
+    }
+
+}
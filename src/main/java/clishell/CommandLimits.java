@@ -0,0 +1,273 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ *
+ * Limits on the resources a command may use, enforced by the CLI runner:
+ * a wall-clock deadline, the number of bytes it may write to the message
+ * console, and the number of bytes of memory its thread may allocate.
+ * A value of zero means "no limit".
+ *
+ * Limits are declared for a command using the <code>timeout</code>,
+ * <code>maxoutput</code> and <code>maxalloc</code> attributes of its
+ * <code>@CliPluginCommand</code> annotation, and / or given for a single
+ * invocation using the "limit" command.
+ *
+ */
+public class CommandLimits {
+
+
+    //
+    //  Public class data
+    //
+
+    /** no limits */
+    public static final CommandLimits NONE = new CommandLimits(0, 0, 0);
+
+
+    //
+    //  Private instance data
+    //
+
+    /** wall-clock deadline, in milliseconds from the start of the command */
+    private final long mTimeoutMillis;
+
+    /** maximum number of bytes the command may write to the message console */
+    private final long mMaxOutputBytes;
+
+    /** maximum number of bytes of memory the command's thread may allocate */
+    private final long mMaxAllocatedBytes;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param timeoutMillis wall-clock deadline, in milliseconds (0 for none)
+     * @param maxOutputBytes maximum number of bytes written to the message
+     * console (0 for no limit)
+     * @param maxAllocatedBytes maximum number of bytes of memory allocated
+     * (0 for no limit)
+     */
+    public CommandLimits(long timeoutMillis, long maxOutputBytes, long maxAllocatedBytes) {
+        mTimeoutMillis = Math.max(timeoutMillis, 0);
+        mMaxOutputBytes = Math.max(maxOutputBytes, 0);
+        mMaxAllocatedBytes = Math.max(maxAllocatedBytes, 0);
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @param timeout duration (see {@link #parseDuration(String)}), or "" for none
+     * @param maxOutput size (see {@link #parseSize(String)}), or "" for no limit
+     * @param maxAlloc size (see {@link #parseSize(String)}), or "" for no limit
+     * @return limits specified by the (e.g., annotation attribute) values
+     * @throws NumberFormatException invalid value
+     */
+    public static CommandLimits parse(String timeout, String maxOutput, String maxAlloc) {
+        return new CommandLimits(
+            (timeout.trim().length() == 0) ? 0 : parseDuration(timeout),
+            (maxOutput.trim().length() == 0) ? 0 : parseSize(maxOutput),
+            (maxAlloc.trim().length() == 0) ? 0 : parseSize(maxAlloc)
+        );
+    }
+
+    /**
+     * @param durationString duration, suffixed by "ms", "s", "m" or "h"
+     * (e.g., "500ms", "30s"); seconds if no suffix is given
+     * @return duration in milliseconds
+     * @throws NumberFormatException invalid duration
+     */
+    public static long parseDuration(String durationString) {
+
+        String digits = durationString.trim().toLowerCase();
+        long multiplier = 1000L;
+        if (digits.endsWith("ms")) {
+            multiplier = 1L;
+            digits = digits.substring(0, digits.length() - 2);
+        } else if (digits.endsWith("s")) {
+            digits = digits.substring(0, digits.length() - 1);
+        } else if (digits.endsWith("m")) {
+            multiplier = 60 * 1000L;
+            digits = digits.substring(0, digits.length() - 1);
+        } else if (digits.endsWith("h")) {
+            multiplier = 60 * 60 * 1000L;
+            digits = digits.substring(0, digits.length() - 1);
+        }
+
+        long duration = Long.parseLong(digits.trim());
+        if (duration < 0) {
+            throw new NumberFormatException("negative duration: '" + durationString + "'");
+        }
+        return duration * multiplier;
+    }
+
+    /**
+     * @param sizeString size in bytes, optionally suffixed by 'k', 'm'
+     * or 'g' (e.g., "64m")
+     * @return size in bytes
+     * @throws NumberFormatException invalid size
+     */
+    public static long parseSize(String sizeString) {
+
+        String digits = sizeString.trim().toLowerCase();
+        long multiplier = 1;
+        if (digits.endsWith("k")) {
+            multiplier = 1024L;
+        } else if (digits.endsWith("m")) {
+            multiplier = 1024L * 1024;
+        } else if (digits.endsWith("g")) {
+            multiplier = 1024L * 1024 * 1024;
+        }
+        if (multiplier > 1) {
+            digits = digits.substring(0, digits.length() - 1).trim();
+        }
+
+        long size = Long.parseLong(digits);
+        if (size < 0) {
+            throw new NumberFormatException("negative size: '" + sizeString + "'");
+        }
+        return size * multiplier;
+    }
+
+    /**
+     * @return bean providing the number of bytes allocated by a thread (see
+     * <code>getThreadAllocatedBytes()</code>), or <code>null</code> if this
+     * JVM doesn't support it
+     */
+    public static com.sun.management.ThreadMXBean getAllocationCounter() {
+
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (!(threadMXBean instanceof com.sun.management.ThreadMXBean)) {
+            return null;
+        }
+
+        com.sun.management.ThreadMXBean allocationCounter
+            = (com.sun.management.ThreadMXBean) threadMXBean;
+        try {
+            if (!allocationCounter.isThreadAllocatedMemorySupported()) {
+                return null;
+            }
+            if (!allocationCounter.isThreadAllocatedMemoryEnabled()) {
+                allocationCounter.setThreadAllocatedMemoryEnabled(true);
+            }
+        } catch(UnsupportedOperationException uoe) {
+            return null;
+        } catch(SecurityException se) {
+            return null;
+        }
+        return allocationCounter;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return wall-clock deadline, in milliseconds (0 for none)
+     */
+    public long getTimeoutMillis() {
+        return mTimeoutMillis;
+    }
+
+    /**
+     * @return maximum number of bytes written to the message console (0 for no limit)
+     */
+    public long getMaxOutputBytes() {
+        return mMaxOutputBytes;
+    }
+
+    /**
+     * @return maximum number of bytes of memory allocated (0 for no limit)
+     */
+    public long getMaxAllocatedBytes() {
+        return mMaxAllocatedBytes;
+    }
+
+    /**
+     * @return true if any limit is set
+     */
+    public boolean isLimited() {
+        return mTimeoutMillis > 0 || mMaxOutputBytes > 0 || mMaxAllocatedBytes > 0;
+    }
+
+    /**
+     * @param other other limits
+     * @return the most restrictive combination of these limits and <code>other</code>
+     */
+    public CommandLimits combine(CommandLimits other) {
+        if (other == null || !other.isLimited()) {
+            return this;
+        }
+        if (!isLimited()) {
+            return other;
+        }
+        return new CommandLimits(
+            min(mTimeoutMillis, other.mTimeoutMillis),
+            min(mMaxOutputBytes, other.mMaxOutputBytes),
+            min(mMaxAllocatedBytes, other.mMaxAllocatedBytes)
+        );
+    }
+
+    /**
+     * @return human-readable representation of limits
+     */
+    @Override
+    public String toString() {
+        if (!isLimited()) {
+            return "no limits";
+        }
+        StringBuffer stringBuffer = new StringBuffer();
+        if (mTimeoutMillis > 0) {
+            stringBuffer.append("timeout=" + mTimeoutMillis + "ms");
+        }
+        if (mMaxOutputBytes > 0) {
+            stringBuffer.append((stringBuffer.length() > 0 ? ", " : "")
+                + "maxoutput=" + mMaxOutputBytes);
+        }
+        if (mMaxAllocatedBytes > 0) {
+            stringBuffer.append((stringBuffer.length() > 0 ? ", " : "")
+                + "maxalloc=" + mMaxAllocatedBytes);
+        }
+        return stringBuffer.toString();
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param limit1 a limit (0 for none)
+     * @param limit2 another limit (0 for none)
+     * @return the more restrictive of the two limits
+     */
+    private static long min(long limit1, long limit2) {
+        if (limit1 == 0) {
+            return limit2;
+        }
+        if (limit2 == 0) {
+            return limit1;
+        }
+        return Math.min(limit1, limit2);
+    }
+
+}
@@ -0,0 +1,322 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell;
+
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.List;
+
+import clishell.ex.CliCommandCancelledException;
+import clishell.ex.CliRejectedInputException;
+import clishell.ex.CliRunnerException;
+import clishell.util.BoundedPipe;
+
+/**
+ *
+ * Runs the stages of a command pipeline (e.g., "<code>help | feed buffer ...</code>")
+ * concurrently, each on its own thread, connecting the message console of
+ * each stage to the input console of the next through a {@link BoundedPipe},
+ * so that memory use stays constant regardless of how much data flows
+ * through the pipeline.
+ *
+ * When a stage finishes, its message console is closed (so the next stage
+ * sees "end of stream"), and its input console is closed and any stages
+ * still running before it are cancelled (so they stop producing output
+ * nobody will read).  Each stage has its own cancellation token, a child
+ * of the pipeline's, so cancelling the pipeline cancels all of its stages.
+ * Exceptions thrown by the stages are reported once the whole pipeline
+ * has finished.
+ *
+ */
+class CommandPipeline {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** CLI runner executing the commands */
+    private final CliRunner mCliRunner;
+
+    /** tokens of the command of each stage */
+    private final List<String[]> mStageTokens;
+
+    /** threads running the stages */
+    private final Thread[] mStageThreads;
+
+    /** exception thrown by each stage, if any */
+    private final CliRunnerException[] mStageExceptions;
+
+    /** cancellation token of each stage */
+    private final CancellationToken[] mStageCancellationTokens;
+
+    /** set for each stage cancelled because a stage after it finished */
+    private final boolean[] mStageAbandoned;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param cliRunner CLI runner executing the commands
+     * @param stageTokens tokens of the command of each stage
+     */
+    CommandPipeline(CliRunner cliRunner, List<String[]> stageTokens) {
+        mCliRunner = cliRunner;
+        mStageTokens = stageTokens;
+        mStageThreads = new Thread[stageTokens.size()];
+        mStageExceptions = new CliRunnerException[stageTokens.size()];
+        mStageCancellationTokens = new CancellationToken[stageTokens.size()];
+        mStageAbandoned = new boolean[stageTokens.size()];
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * Runs the pipeline, waiting for all stages to finish
+     * @throws CliRunnerException exception(s) thrown by the stages, or
+     * the pipeline is invalid
+     */
+    void run() throws CliRunnerException {
+
+        int nStages = mStageTokens.size();
+        for (String[] tokens : mStageTokens) {
+            if (tokens.length == 0) {
+                throw new CliRejectedInputException("missing command in pipeline");
+            }
+        }
+
+        // snapshot the consoles in use now; each stage starts with these
+        List<InputStream> inputConsoles = mCliRunner.getInputConsoleStack().getConsoles();
+        List<PrintWriter> messageConsoles = mCliRunner.getMessageConsoleStack().getConsoles();
+        List<PrintWriter> errorConsoles = mCliRunner.getErrorConsoleStack().getConsoles();
+
+        // connect the stages
+        CancellationToken pipelineCancellationToken = mCliRunner.getCancellationToken();
+        InputStream stageInput = null;
+        for (int i = 0; i < nStages; i++) {
+            mStageCancellationTokens[i] = pipelineCancellationToken.newChild();
+            PrintWriter stageOutput = null;
+            InputStream nextStageInput = null;
+            if (i < nStages - 1) {
+                BoundedPipe pipe = new BoundedPipe();
+                stageOutput = new PrintWriter(new OutputStreamWriter(pipe.getOutputStream()), true);
+                nextStageInput = pipe.getInputStream();
+            }
+            mStageThreads[i] = new Thread(new StageRunner(i, stageInput, stageOutput,
+                inputConsoles, messageConsoles, errorConsoles), "pipeline-stage-" + i);
+            stageInput = nextStageInput;
+        }
+
+        // make sure what's been written so far comes out first
+        mCliRunner.getMessageConsole().flush();
+
+        for (Thread stageThread : mStageThreads) {
+            stageThread.start();
+        }
+
+        // wait for all stages to finish; if we get interrupted, pass it on
+        for (Thread stageThread : mStageThreads) {
+            while(stageThread.isAlive()) {
+                try {
+                    stageThread.join();
+                } catch(InterruptedException ie) {
+                    pipelineCancellationToken.cancel("interrupted");
+                }
+            }
+        }
+
+        for (CancellationToken stageCancellationToken : mStageCancellationTokens) {
+            stageCancellationToken.release();
+        }
+
+        // report what went wrong
+        CliRunnerException cliRunnerException = null;
+        for (int i = 0; i < nStages; i++) {
+            CliRunnerException stageException = mStageExceptions[i];
+            if (stageException == null) {
+                continue;
+            }
+            if (stageException instanceof CliCommandCancelledException
+                    && isAbandoned(i)) {
+                // nobody wanted the rest of its output anyway
+                continue;
+            }
+            if (mCliRunner.reportCommandException(stageException)) {
+                continue;
+            }
+            if (cliRunnerException == null) {
+                cliRunnerException = stageException;
+            } else {
+                cliRunnerException.add(stageException);
+            }
+        }
+
+        if (cliRunnerException != null) {
+            throw cliRunnerException;
+        }
+
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Called when a stage has finished; cancels the stages before it,
+     * since nobody will consume their output anymore
+     * @param stageIndex index of stage that finished
+     */
+    private void stageFinished(int stageIndex) {
+        for (int i = 0; i < stageIndex; i++) {
+            synchronized(mStageAbandoned) {
+                if (mStageCancellationTokens[i].isCancelled()) {
+                    continue;
+                }
+                mStageAbandoned[i] = true;
+            }
+            mStageCancellationTokens[i].cancel("output no longer read");
+        }
+    }
+
+    /**
+     * @param stageIndex index of stage
+     * @return true if stage was cancelled because a stage after it finished
+     */
+    private boolean isAbandoned(int stageIndex) {
+        synchronized(mStageAbandoned) {
+            return mStageAbandoned[stageIndex];
+        }
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Runs one stage of the pipeline
+     */
+    private class StageRunner implements Runnable {
+
+        /** index of stage */
+        private final int mStageIndex;
+
+        /** input from previous stage, or <code>null</code> for the first stage */
+        private final InputStream mStageInput;
+
+        /** output to next stage, or <code>null</code> for the last stage */
+        private final PrintWriter mStageOutput;
+
+        /** initial input consoles */
+        private final List<InputStream> mInputConsoles;
+
+        /** initial message consoles */
+        private final List<PrintWriter> mMessageConsoles;
+
+        /** initial error consoles */
+        private final List<PrintWriter> mErrorConsoles;
+
+        /**
+         * @param stageIndex index of stage
+         * @param stageInput input from previous stage, or <code>null</code>
+         * @param stageOutput output to next stage, or <code>null</code>
+         * @param inputConsoles initial input consoles
+         * @param messageConsoles initial message consoles
+         * @param errorConsoles initial error consoles
+         */
+        StageRunner(int stageIndex, InputStream stageInput, PrintWriter stageOutput,
+            List<InputStream> inputConsoles, List<PrintWriter> messageConsoles,
+            List<PrintWriter> errorConsoles) {
+            mStageIndex = stageIndex;
+            mStageInput = stageInput;
+            mStageOutput = stageOutput;
+            mInputConsoles = inputConsoles;
+            mMessageConsoles = messageConsoles;
+            mErrorConsoles = errorConsoles;
+        }
+
+        /**
+         * @see Runnable#run()
+         */
+        public void run() {
+
+            // give this thread its own consoles, connected to the pipes
+            ConsoleStack<InputStream> inputConsoleStack = mCliRunner.getInputConsoleStack();
+            ConsoleStack<PrintWriter> messageConsoleStack = mCliRunner.getMessageConsoleStack();
+            ConsoleStack<PrintWriter> errorConsoleStack = mCliRunner.getErrorConsoleStack();
+            inputConsoleStack.attachThreadConsoles(mInputConsoles);
+            messageConsoleStack.attachThreadConsoles(mMessageConsoles);
+            errorConsoleStack.attachThreadConsoles(mErrorConsoles);
+            if (mStageInput != null) {
+                inputConsoleStack.setConsole(mStageInput);
+            }
+            if (mStageOutput != null) {
+                messageConsoleStack.setConsole(mStageOutput);
+            }
+            mCliRunner.setThreadCancellationToken(mStageCancellationTokens[mStageIndex]);
+
+            try {
+
+                mCliRunner.dispatchCommandTokens(mStageTokens.get(mStageIndex));
+
+            } catch(CliRunnerException cliRunnerException) {
+
+                mStageExceptions[mStageIndex] = cliRunnerException;
+
+            } catch(RuntimeException runtimeException) {
+
+                mStageExceptions[mStageIndex] = new CliRunnerException(
+                    "unhandled exception in pipeline stage: '"
+                    + new CommandName(mStageTokens.get(mStageIndex))
+                    + "'", runtimeException);
+
+            } finally {
+
+                // signal "end of stream" to the next stage
+                if (mStageOutput != null) {
+                    mStageOutput.close();
+                }
+
+                // tell the previous stage to stop writing
+                if (mStageInput != null) {
+                    try {
+                        mStageInput.close();
+                    } catch(Throwable t) {
+                        // "old college try" ;-)
+                    }
+                    stageFinished(mStageIndex);
+                }
+
+                // flush what the last stage wrote to the (shared) console
+                if (mStageOutput == null) {
+                    messageConsoleStack.getConsole().flush();
+                }
+
+                mCliRunner.setThreadCancellationToken(null);
+                inputConsoleStack.detachThreadConsoles();
+                messageConsoleStack.detachThreadConsoles();
+                errorConsoleStack.detachThreadConsoles();
+
+            }
+        }
+
+    }
+
+}
@@ -15,6 +15,7 @@ package clishell;
 import java.io.PrintWriter;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 import clishell.ex.CliRunnerException;
 
@@ -25,6 +26,10 @@ import clishell.ex.CliRunnerException;
  * Currently, accepts either <code>java.io.PrintWriter</code>
  * or <code>java.io.InputStream</code> objects.
  *
+ * Normally, all threads share the same stack; a thread running a command
+ * concurrently with others (e.g., a stage of a command pipeline) can be
+ * given its own, private stack using {@link #attachThreadConsoles(List)}.
+ *
  */
 public class ConsoleStack<T> {
 
@@ -33,12 +38,50 @@ public class ConsoleStack<T> {
      */
     private final LinkedList<T> mConsoleStack = new LinkedList<T>();
 
+    /**
+     * Private stacks of threads that have one
+     */
+    private final ThreadLocal<LinkedList<T>> mThreadConsoleStack
+        = new ThreadLocal<LinkedList<T>>();
+
     /**
      * @return I/O object of type T in current use by <code>CliRunner</code>
      * will return <code>null</code> if stack is empty
      */
     public T getConsole() {
-        return mConsoleStack.peek();
+        return getStack().peek();
+    }
+
+    /**
+     * @return copy of the stack in use by the current thread, the
+     * current console object first
+     */
+    public List<T> getConsoles() {
+        return new LinkedList<T>(getStack());
+    }
+
+    /**
+     * Gives the current thread its own, private stack; subsequent calls made
+     * by the current thread will affect only that stack
+     * @param consoles initial content of stack, the current console object first
+     * (e.g., as returned by {@link #getConsoles()})
+     */
+    public void attachThreadConsoles(List<T> consoles) {
+        mThreadConsoleStack.set(new LinkedList<T>(consoles));
+    }
+
+    /**
+     * Returns the current thread to using the shared stack
+     */
+    public void detachThreadConsoles() {
+        mThreadConsoleStack.remove();
+    }
+
+    /**
+     * @return true iff the current thread has its own, private stack
+     */
+    public boolean hasThreadConsoles() {
+        return mThreadConsoleStack.get() != null;
     }
 
     /**
@@ -58,7 +101,7 @@ public class ConsoleStack<T> {
             // flush output which may have accumulated in the current console
             ((PrintWriter) consoleObject).flush();
         }
-        mConsoleStack.push(newConsole);
+        getStack().push(newConsole);
     }
 
     /**
@@ -72,23 +115,25 @@ public class ConsoleStack<T> {
      */
     public void unsetConsole(T oldConsole) throws CliRunnerException {
 
-        if (mConsoleStack.size() < 2) {
+        LinkedList<T> consoleStack = getStack();
+
+        if (consoleStack.size() < 2) {
             throw new CliRunnerException("attempt to pop last console object from stack");
         }
 
         // try use case #1; unset the object that's at the head of the stack
-        if (oldConsole == mConsoleStack.peek()) {
+        if (oldConsole == consoleStack.peek()) {
             if (oldConsole instanceof PrintWriter) {
                 // flush output which may have accumulated in the current console
                 ((PrintWriter) oldConsole).flush();
             }
-            mConsoleStack.pop();
+            consoleStack.pop();
             return;
         }
 
         // use case #2; look through the stack for the specified object,
         // and remove it if found, or throw an error if not
-        Iterator<T> consoleStackIterator = mConsoleStack.iterator();
+        Iterator<T> consoleStackIterator = consoleStack.iterator();
         while(consoleStackIterator.hasNext()) {
             T console = consoleStackIterator.next();
             if (oldConsole == console) {
@@ -100,4 +145,12 @@ public class ConsoleStack<T> {
         throw new CliRunnerException("could not unset specified console object; not found");
     }
 
+    /**
+     * @return stack in use by the current thread
+     */
+    private LinkedList<T> getStack() {
+        LinkedList<T> threadConsoleStack = mThreadConsoleStack.get();
+        return (threadConsoleStack != null) ? threadConsoleStack : mConsoleStack;
+    }
+
 }
@@ -19,6 +19,9 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 
 /**
@@ -53,6 +56,10 @@ public class FullCommandNameTree {
     private final Map<String, FullCommandNameTree> mSubcommandTreeMap
         = new LinkedHashMap<String, FullCommandNameTree>();
 
+    /** the same subcommand trees, sorted, for finding the words beginning with a prefix */
+    private final TreeMap<String, FullCommandNameTree> mSortedSubcommandTreeMap
+        = new TreeMap<String, FullCommandNameTree>();
+
 
     //
     //  Public instance methods
@@ -84,6 +91,7 @@ public class FullCommandNameTree {
             if (nextNode == null) {
                 nextNode = new FullCommandNameTree();
                 currentNode.mSubcommandTreeMap.put(commandNameWord, nextNode);
+                currentNode.mSortedSubcommandTreeMap.put(commandNameWord, nextNode);
             }
             currentNode = nextNode;
         }
@@ -111,6 +119,7 @@ public class FullCommandNameTree {
             if (currentNode.mSubcommandTreeMap.get(commandNameAsWordArray[i])
                     .mSubcommandTreeMap.size() == 0) {
                 currentNode.mSubcommandTreeMap.remove(commandNameAsWordArray[i]);
+                currentNode.mSortedSubcommandTreeMap.remove(commandNameAsWordArray[i]);
             }
         }
 
@@ -180,10 +189,50 @@ public class FullCommandNameTree {
     }
 
 
+    /**
+     * @param precedingWords command words preceding the word being completed,
+     * possibly abbreviated
+     * @param prefix beginning of the word being completed
+     * @return the (sorted) command words beginning with <code>prefix</code>
+     * that may follow <code>precedingWords</code>
+     */
+    public Set<String> getCompletions(String[] precedingWords, String prefix) {
+
+        // the nodes reached by the preceding words (several if abbreviated ambiguously)
+        Collection<FullCommandNameTree> nodes = Arrays.asList(this);
+        for (String precedingWord : precedingWords) {
+            Collection<FullCommandNameTree> nextNodes = new LinkedHashSet<FullCommandNameTree>();
+            for (FullCommandNameTree node : nodes) {
+                FullCommandNameTree nextNode = node.mSubcommandTreeMap.get(precedingWord);
+                if (nextNode != null) {
+                    nextNodes.add(nextNode);
+                } else {
+                    nextNodes.addAll(node.getSubcommandTrees(precedingWord).values());
+                }
+            }
+            nodes = nextNodes;
+        }
+
+        Set<String> completions = new TreeSet<String>();
+        for (FullCommandNameTree node : nodes) {
+            completions.addAll(node.getSubcommandTrees(prefix).keySet());
+        }
+        return completions;
+    }
+
+
     //
     //  Private instance methods
     //
 
+    /**
+     * @param prefix beginning of subcommand words
+     * @return view of the subcommand trees whose words begin with <code>prefix</code>
+     */
+    private SortedMap<String, FullCommandNameTree> getSubcommandTrees(String prefix) {
+        return mSortedSubcommandTreeMap.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
     /**
      * @param indentLevel beginning "indentation level" for output produced
      * @param out destination of output produced
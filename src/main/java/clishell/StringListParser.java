@@ -89,6 +89,49 @@ public class StringListParser {
         return commandList.toArray(new String[commandList.size()]);
     }
 
+    /**
+     * @param separator character (outside of quotes) separating groups of
+     * tokens; it also ends any token it's adjacent to
+     * @return groups of tokens read from the parser up until either an
+     * end-of-line or the end-of-file condition, split at each (unquoted)
+     * occurrence of <code>separator</code>; a quoted separator is part of an
+     * ordinary token.  There is always at least one (perhaps empty) group.
+     */
+    public List<String[]> readLineTokenGroups(char separator) {
+
+        mStreamTokenizer.ordinaryChar(separator);
+
+        List<String[]> groupList = new LinkedList<String[]>();
+        List<String> commandList = new LinkedList<String>();
+        try {
+            int ttype;
+            while((ttype = mStreamTokenizer.nextToken()) != StreamTokenizer.TT_EOL) {
+                if (ttype == StreamTokenizer.TT_EOF) {
+                    break;
+                }
+                if (ttype == separator) {
+                    groupList.add(commandList.toArray(new String[commandList.size()]));
+                    commandList.clear();
+                    continue;
+                }
+                if (
+                    (ttype == StreamTokenizer.TT_WORD)
+                        || (ttype == '"')
+                        || (ttype == '\'')
+                ) {
+                    commandList.add(mStreamTokenizer.sval);
+                    continue;
+                }
+            }
+        } catch(IOException ioex) {
+            // should never happen since parsing from String (er??)
+            throw new RuntimeException("I/O error while tokenizing input command line", ioex);
+        }
+
+        groupList.add(commandList.toArray(new String[commandList.size()]));
+        return groupList;
+    }
+
     /**
      * @param inputLine string containing input line to parse
      * @param delimiters additional set of characters to act as delimiters
@@ -56,4 +56,22 @@ public @interface CliPluginCommand {
 
     /** maximum number of arguments expected (negative value indicates "no maximum") */
     int maxargs() default -1;
+
+    /**
+     * wall-clock deadline enforced by the CLI (e.g., "500ms", "30s", "5m";
+     * empty indicates "no deadline"); when exceeded, the command is cancelled
+     */
+    String timeout() default "";
+
+    /**
+     * maximum number of bytes the command may write to the message console
+     * (e.g., "64k"; empty indicates "no limit"); when exceeded, the command is cancelled
+     */
+    String maxoutput() default "";
+
+    /**
+     * maximum number of bytes of memory the command's thread may allocate
+     * (e.g., "256m"; empty indicates "no limit"); when exceeded, the command is cancelled
+     */
+    String maxalloc() default "";
 }
@@ -0,0 +1,802 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.db;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ *
+ * Named buffer of captured data, managed by a {@link CliBufferDb}.
+ *
+ * Data is held in memory as a "rope" of fixed-size chunks (so that it's
+ * never copied as it grows), until the buffer is "spilled" to a temporary
+ * file - either because it grew past the spill threshold of its database,
+ * or because it was evicted to keep the database within its memory budget.
+ * Spilled buffers are read through memory-mapped views of their file.
+ *
+ * Character buffers hold their text encoded as UTF-8; byte buffers hold
+ * their data as-is.  A buffer is written once, using either
+ * {@link #getOutputStream()} or {@link #getWriter()}, and is "sealed" when
+ * that stream is closed; it may be read any number of times thereafter.
+ *
+ */
+public class CliBuffer {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Kind of data held by a buffer
+     */
+    public enum Type {
+
+        /** text (held as UTF-8) */
+        CHAR,
+
+        /** binary data */
+        BYTE;
+
+    }
+
+
+    //
+    //  Public class data
+    //
+
+    /** size of each in-memory chunk */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /** encoding of the text held by character buffers */
+    public static final Charset CHARSET = Charset.forName("UTF-8");
+
+
+    //
+    //  Private class data
+    //
+
+    /** maximum size of each memory-mapped view of a spill file */
+    private static final long MAP_SEGMENT_SIZE = 256L * 1024 * 1024;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** name of buffer */
+    private final String mName;
+
+    /** kind of data held by this buffer */
+    private final Type mType;
+
+    /** database managing this buffer's memory */
+    private final CliBufferDb mBufferDb;
+
+    /** in-memory chunks (empty once spilled) */
+    private final List<byte[]> mChunks = new ArrayList<byte[]>();
+
+    /** number of bytes used in the last chunk of <code>mChunks</code> */
+    private int mTailLength;
+
+    /** total number of bytes held by the buffer */
+    private long mLength;
+
+    /** number of characters written, for character buffers */
+    private long mCharCount;
+
+    /** spill file, or <code>null</code> if buffer is in memory */
+    private File mSpillFile;
+
+    /** stream appending to the spill file while buffer is being written */
+    private OutputStream mSpillStream;
+
+    /** true once a writer has been handed out */
+    private boolean mWriterTaken;
+
+    /** true once writing has finished */
+    private boolean mSealed;
+
+    /** true once buffer has been discarded */
+    private boolean mDiscarded;
+
+    /** value of database "clock" when last accessed (for LRU ordering) */
+    private long mLastAccess;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param bufferDb database managing this buffer's memory
+     * @param name name of buffer
+     * @param type kind of data held by the buffer
+     */
+    CliBuffer(CliBufferDb bufferDb, String name, Type type) {
+        mBufferDb = bufferDb;
+        mName = name;
+        mType = type;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return name of buffer
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return kind of data held by this buffer
+     */
+    public Type getType() {
+        return mType;
+    }
+
+    /**
+     * @return total number of bytes held by the buffer
+     */
+    public synchronized long getLength() {
+        return mLength;
+    }
+
+    /**
+     * @return number of characters held by a character buffer
+     * (as written), or the number of bytes held by a byte buffer
+     */
+    public synchronized long getCharCount() {
+        return (mType == Type.CHAR) ? mCharCount : mLength;
+    }
+
+    /**
+     * @return number of bytes of memory used by the buffer's chunks
+     */
+    public synchronized long getInMemoryBytes() {
+        return ((long) mChunks.size()) * CHUNK_SIZE;
+    }
+
+    /**
+     * @return number of bytes held in the buffer's spill file
+     */
+    public synchronized long getSpilledBytes() {
+        return (mSpillFile != null) ? mLength : 0;
+    }
+
+    /**
+     * @return true iff the buffer's data is held in a spill file
+     */
+    public synchronized boolean isSpilled() {
+        return mSpillFile != null;
+    }
+
+    /**
+     * @return true once writing has finished
+     */
+    public synchronized boolean isSealed() {
+        return mSealed;
+    }
+
+    /**
+     * @return stream used to write the buffer's data; closing it "seals"
+     * the buffer
+     * @throws IllegalStateException the buffer has already been written
+     */
+    public synchronized OutputStream getOutputStream() {
+        if (mWriterTaken) {
+            throw new IllegalStateException("buffer '" + mName + "' already written");
+        }
+        mWriterTaken = true;
+        return new BufferOutputStream();
+    }
+
+    /**
+     * @return writer used to write the buffer's text (encoded as UTF-8);
+     * closing it "seals" the buffer
+     * @throws IllegalStateException the buffer has already been written
+     */
+    public Writer getWriter() {
+        return new CountingWriter(new OutputStreamWriter(getOutputStream(), CHARSET));
+    }
+
+    /**
+     * @return new stream reading the buffer's data from the beginning
+     * @throws IOException error accessing spill file
+     */
+    public InputStream getInputStream() throws IOException {
+
+        // NOTE: database is locked before buffers, so not holding our lock here
+        mBufferDb.touch(this);
+
+        synchronized(this) {
+
+            if (mDiscarded) {
+                throw new IOException("buffer '" + mName + "' has been deleted");
+            }
+
+            if (mSpillFile == null) {
+                // snapshot of the rope; chunks are never modified once full,
+                // and the tail is only appended to
+                return new RopeInputStream(new ArrayList<byte[]>(mChunks), mLength);
+            }
+
+            if (mSpillStream != null) {
+                mSpillStream.flush();
+            }
+            return new MappedInputStream(mSpillFile, mLength);
+
+        }
+    }
+
+    /**
+     * @return new reader reading the buffer's text from the beginning
+     * @throws IOException error accessing spill file
+     */
+    public Reader getReader() throws IOException {
+        return new InputStreamReader(getInputStream(), CHARSET);
+    }
+
+    /**
+     * @return entire contents of the buffer, as a string
+     * @throws IOException error accessing spill file
+     */
+    public String getContents() throws IOException {
+        InputStream inputStream = getInputStream();
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream(
+                (int) Math.min(getLength(), Integer.MAX_VALUE - 8));
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int len;
+            while((len = inputStream.read(buffer)) > 0) {
+                contents.write(buffer, 0, len);
+            }
+            return new String(contents.toByteArray(), CHARSET);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Moves the buffer's data into its spill file (if not already there),
+     * so that another writer (e.g., a child process) can append to the
+     * file directly; the buffer must not be written otherwise until
+     * {@link #endExternalAppend()} is called
+     * @return spill file, to be appended to
+     * @throws IOException buffer sealed, or error writing spill file
+     */
+    public File beginExternalAppend() throws IOException {
+
+        // NOTE: database is locked before buffers, so not holding our lock here
+        mBufferDb.spillBuffer(this);
+
+        synchronized(this) {
+            if (mSealed || mDiscarded || mSpillStream == null) {
+                throw new IOException("buffer '" + mName + "' is closed");
+            }
+            mSpillStream.flush();
+            return mSpillFile;
+        }
+    }
+
+    /**
+     * Accounts for the data appended to the buffer's spill file since
+     * {@link #beginExternalAppend()} was called; for a character buffer,
+     * each byte appended counts as a character
+     */
+    public synchronized void endExternalAppend() {
+        if (mSpillFile == null || mDiscarded) {
+            return;
+        }
+        long appendedBytes = mSpillFile.length() - mLength;
+        if (appendedBytes > 0) {
+            mLength += appendedBytes;
+            mCharCount += appendedBytes;
+        }
+    }
+
+    /**
+     * @return human-readable description of the buffer's size and storage
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuffer description = new StringBuffer();
+        if (mType == Type.CHAR) {
+            description.append(mCharCount + " characters, ");
+        }
+        description.append(mLength + " bytes; ");
+        if (mSpillFile != null) {
+            description.append(mLength + " bytes spilled");
+        } else {
+            description.append(getInMemoryBytes() + " bytes in memory");
+        }
+        if (!mSealed) {
+            description.append("; being written");
+        }
+        return description.toString();
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * Moves the buffer's data to a spill file (if not already there)
+     * @param spillDirectory directory in which to create the spill file
+     * @return number of bytes of memory released
+     * @throws IOException error writing the spill file
+     */
+    synchronized long spill(File spillDirectory) throws IOException {
+
+        if (mSpillFile != null || mDiscarded) {
+            return 0;
+        }
+
+        File spillFile = File.createTempFile("clishell-buffer-", ".spill", spillDirectory);
+        spillFile.deleteOnExit();
+
+        // NOTE: appending, in case others append to the file too
+        // (see beginExternalAppend())
+        OutputStream spillStream = new BufferedOutputStream(
+            new FileOutputStream(spillFile, true), CHUNK_SIZE);
+        try {
+            for (int i = 0; i < mChunks.size(); i++) {
+                int len = (i < mChunks.size() - 1) ? CHUNK_SIZE : mTailLength;
+                spillStream.write(mChunks.get(i), 0, len);
+            }
+            spillStream.flush();
+        } catch(IOException ioex) {
+            spillStream.close();
+            spillFile.delete();
+            throw ioex;
+        }
+
+        long releasedBytes = getInMemoryBytes();
+        mChunks.clear();
+        mTailLength = 0;
+        mSpillFile = spillFile;
+
+        if (mSealed) {
+            spillStream.close();
+        } else {
+            // keep appending to the file while the buffer is written
+            mSpillStream = spillStream;
+        }
+
+        return releasedBytes;
+    }
+
+    /**
+     * Releases the buffer's memory and deletes any spill file
+     * @return number of bytes of memory released
+     */
+    synchronized long discard() {
+
+        long releasedBytes = getInMemoryBytes();
+        mChunks.clear();
+        mDiscarded = true;
+
+        if (mSpillStream != null) {
+            try {
+                mSpillStream.close();
+            } catch(IOException ioex) {
+                // "old college try" ;-)
+            }
+            mSpillStream = null;
+        }
+
+        if (mSpillFile != null) {
+            mSpillFile.delete();
+        }
+
+        return releasedBytes;
+    }
+
+    /**
+     * @return value of database "clock" when last accessed
+     */
+    long getLastAccess() {
+        return mLastAccess;
+    }
+
+    /**
+     * @param lastAccess value of database "clock" when last accessed
+     */
+    void setLastAccess(long lastAccess) {
+        mLastAccess = lastAccess;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Appends data to the buffer
+     * @param b data to append
+     * @param off offset of data
+     * @param len length of data
+     * @throws IOException buffer sealed, or error writing spill file
+     */
+    private void append(byte[] b, int off, int len) throws IOException {
+
+        long allocatedBytes = 0;
+
+        synchronized(this) {
+
+            if (mSealed || mDiscarded) {
+                throw new IOException("buffer '" + mName + "' is closed");
+            }
+
+            if (mSpillStream != null) {
+                mSpillStream.write(b, off, len);
+                mLength += len;
+                return;
+            }
+
+            int leftOff = off;
+            int fence = off + len;
+            while(leftOff < fence) {
+                if (mChunks.isEmpty() || mTailLength == CHUNK_SIZE) {
+                    mChunks.add(new byte[CHUNK_SIZE]);
+                    mTailLength = 0;
+                    allocatedBytes += CHUNK_SIZE;
+                }
+                int copyLen = Math.min(CHUNK_SIZE - mTailLength, fence - leftOff);
+                System.arraycopy(b, leftOff, mChunks.get(mChunks.size() - 1),
+                    mTailLength, copyLen);
+                mTailLength += copyLen;
+                mLength += copyLen;
+                leftOff += copyLen;
+            }
+
+        }
+
+        // NOTE: not holding our lock here, since the database may
+        // need to lock (and spill) other buffers, or this one
+        if (allocatedBytes > 0) {
+            mBufferDb.accountGrowth(this, allocatedBytes);
+        }
+    }
+
+    /**
+     * Finishes writing the buffer
+     * @throws IOException error writing spill file
+     */
+    private synchronized void seal() throws IOException {
+        if (mSealed) {
+            return;
+        }
+        mSealed = true;
+        if (mSpillStream != null) {
+            mSpillStream.close();
+            mSpillStream = null;
+        }
+    }
+
+    /**
+     * @param nChars number of characters written to a character buffer
+     */
+    private synchronized void addCharCount(int nChars) {
+        mCharCount += nChars;
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Stream appending to the buffer
+     */
+    private class BufferOutputStream extends OutputStream {
+
+        /** buffer for single-byte writes */
+        private final byte[] mByte = new byte[1];
+
+        /**
+         * @see OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            append(b, off, len);
+        }
+
+        /**
+         * @see OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            mByte[0] = (byte) b;
+            append(mByte, 0, 1);
+        }
+
+        /**
+         * @see OutputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            seal();
+        }
+
+    }
+
+    /**
+     * Writer that counts the characters written through it
+     */
+    private class CountingWriter extends Writer {
+
+        /** underlying (encoding) writer */
+        private final Writer mWriter;
+
+        /**
+         * @param writer underlying writer
+         */
+        CountingWriter(Writer writer) {
+            mWriter = writer;
+        }
+
+        /**
+         * @see Writer#write(char[], int, int)
+         */
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            mWriter.write(cbuf, off, len);
+            addCharCount(len);
+        }
+
+        /**
+         * @see Writer#write(String, int, int)
+         */
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            mWriter.write(str, off, len);
+            addCharCount(len);
+        }
+
+        /**
+         * @see Writer#flush()
+         */
+        @Override
+        public void flush() throws IOException {
+            mWriter.flush();
+        }
+
+        /**
+         * @see Writer#close()
+         */
+        @Override
+        public void close() throws IOException {
+            mWriter.close();
+        }
+
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Stream reading a snapshot of an in-memory rope of chunks
+     */
+    private static class RopeInputStream extends InputStream {
+
+        /** chunks of the rope */
+        private final List<byte[]> mChunks;
+
+        /** number of bytes in the rope */
+        private final long mLength;
+
+        /** number of bytes read so far */
+        private long mPosition;
+
+        /**
+         * @param chunks chunks of the rope
+         * @param length number of bytes in the rope
+         */
+        RopeInputStream(List<byte[]> chunks, long length) {
+            mChunks = chunks;
+            mLength = length;
+        }
+
+        /**
+         * @see InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mPosition >= mLength) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            int chunkOffset = (int) (mPosition % CHUNK_SIZE);
+            byte[] chunk = mChunks.get((int) (mPosition / CHUNK_SIZE));
+            int readLen = (int) Math.min(Math.min(len, CHUNK_SIZE - chunkOffset),
+                mLength - mPosition);
+            System.arraycopy(chunk, chunkOffset, b, off, readLen);
+            mPosition += readLen;
+            return readLen;
+        }
+
+        /**
+         * @see InputStream#read()
+         */
+        @Override
+        public int read() {
+            if (mPosition >= mLength) {
+                return -1;
+            }
+            byte[] chunk = mChunks.get((int) (mPosition / CHUNK_SIZE));
+            return chunk[(int) (mPosition++ % CHUNK_SIZE)] & 0xff;
+        }
+
+        /**
+         * @see InputStream#available()
+         */
+        @Override
+        public int available() {
+            return (int) Math.min(mLength - mPosition, Integer.MAX_VALUE);
+        }
+
+        /**
+         * @see InputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) {
+            long skipLen = Math.max(Math.min(n, mLength - mPosition), 0);
+            mPosition += skipLen;
+            return skipLen;
+        }
+
+    }
+
+    /**
+     * Stream reading a spill file through memory-mapped views
+     */
+    private static class MappedInputStream extends InputStream {
+
+        /** file being read */
+        private final File mFile;
+
+        /** number of bytes to read */
+        private final long mLength;
+
+        /** offset within the file of the current view */
+        private long mSegmentOffset;
+
+        /** current view of the file, or <code>null</code> if none mapped yet */
+        private MappedByteBuffer mSegment;
+
+        /** position within the next view mapped at which to start reading */
+        private int mPendingPosition;
+
+        /**
+         * @param file file to read
+         * @param length number of bytes to read
+         */
+        MappedInputStream(File file, long length) {
+            mFile = file;
+            mLength = length;
+        }
+
+        /**
+         * @see InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!ensureSegment()) {
+                return -1;
+            }
+            int readLen = Math.min(len, mSegment.remaining());
+            mSegment.get(b, off, readLen);
+            return readLen;
+        }
+
+        /**
+         * @see InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            if (!ensureSegment()) {
+                return -1;
+            }
+            return mSegment.get() & 0xff;
+        }
+
+        /**
+         * @see InputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) {
+            long position = mSegmentOffset
+                + ((mSegment != null) ? mSegment.position() : mPendingPosition);
+            long target = Math.max(Math.min(position + n, mLength), position);
+            if (mSegment != null && target < mSegmentOffset + mSegment.capacity()) {
+                mSegment.position((int) (target - mSegmentOffset));
+            } else {
+                // map the view containing the target when next read
+                mSegment = null;
+                mSegmentOffset = target - (target % MAP_SEGMENT_SIZE);
+                mPendingPosition = (int) (target % MAP_SEGMENT_SIZE);
+            }
+            return target - position;
+        }
+
+        /**
+         * @see InputStream#close()
+         */
+        @Override
+        public void close() {
+            // mapping is released when collected
+            mSegment = null;
+        }
+
+        /**
+         * @return true if the current view has data to read (mapping
+         * the next one if necessary), or false at end of stream
+         * @throws IOException error mapping the file
+         */
+        private boolean ensureSegment() throws IOException {
+
+            if (mSegment != null && mSegment.hasRemaining()) {
+                return true;
+            }
+
+            if (mSegment != null) {
+                mSegmentOffset += mSegment.capacity();
+            }
+
+            if (mSegmentOffset >= mLength) {
+                return false;
+            }
+
+            RandomAccessFile file = new RandomAccessFile(mFile, "r");
+            try {
+                mSegment = file.getChannel().map(FileChannel.MapMode.READ_ONLY,
+                    mSegmentOffset, Math.min(MAP_SEGMENT_SIZE, mLength - mSegmentOffset));
+            } finally {
+                // the mapping stays valid after the channel is closed
+                file.close();
+            }
+            mSegment.position(mPendingPosition);
+            mPendingPosition = 0;
+
+            return mSegment.hasRemaining();
+        }
+
+    }
+
+}
@@ -0,0 +1,267 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import clishell.db.CliBuffer.Type;
+
+/**
+ *
+ * Encapsulates the set of named buffers, keeping the memory they use
+ * within a budget.
+ *
+ * Each buffer that grows past the "spill threshold" is moved to a
+ * temporary file; when the memory used by all buffers exceeds the
+ * "memory budget", the least recently used finished buffers are moved
+ * to temporary files until it no longer does.
+ *
+ */
+public class CliBufferDb {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** maximum number of bytes of memory to be used by all buffers */
+    private final long mMemoryBudget;
+
+    /** maximum number of bytes of memory to be used by any one buffer */
+    private final long mSpillThreshold;
+
+    /** directory into which buffers are spilled */
+    private final File mSpillDirectory;
+
+    /**
+     * Maps buffer names to buffers
+     * NOTE: use of <code>TreeMap</code> to list buffers in name order
+     */
+    private final Map<String, CliBuffer> mBufferMap = new TreeMap<String, CliBuffer>();
+
+    /** all buffers using memory, whether named yet or not */
+    private final Map<CliBuffer, CliBuffer> mLiveBuffers = new IdentityHashMap<CliBuffer, CliBuffer>();
+
+    /** number of bytes of memory used by all buffers */
+    private long mInMemoryBytes;
+
+    /** "clock" used to order buffers by last access */
+    private long mClock;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param memoryBudget maximum number of bytes of memory to be used
+     * by all buffers (or zero for no limit)
+     * @param spillThreshold maximum number of bytes of memory to be used
+     * by any one buffer (or zero for no limit)
+     * @param spillDirectory directory into which buffers are spilled, or
+     * <code>null</code> for the system's temporary directory
+     */
+    public CliBufferDb(long memoryBudget, long spillThreshold, File spillDirectory) {
+        mMemoryBudget = memoryBudget;
+        mSpillThreshold = spillThreshold;
+        mSpillDirectory = spillDirectory;
+    }
+
+
+    //
+    //  Public methods
+    //
+
+    /**
+     * Creates a new buffer, to be named (using {@link #putBuffer(CliBuffer)})
+     * once it has been written successfully
+     * @param bufferName name of buffer
+     * @param type kind of data to be held by the buffer
+     * @return new, empty buffer
+     */
+    public synchronized CliBuffer newBuffer(String bufferName, Type type) {
+        CliBuffer buffer = new CliBuffer(this, bufferName, type);
+        buffer.setLastAccess(++mClock);
+        mLiveBuffers.put(buffer, buffer);
+        return buffer;
+    }
+
+    /**
+     * Names a buffer, deleting any buffer previously having its name
+     * @param buffer buffer created by {@link #newBuffer(String, Type)}
+     */
+    public synchronized void putBuffer(CliBuffer buffer) {
+        CliBuffer oldBuffer = mBufferMap.put(buffer.getName(), buffer);
+        if (oldBuffer != null && oldBuffer != buffer) {
+            discardBuffer(oldBuffer);
+        }
+        buffer.setLastAccess(++mClock);
+    }
+
+    /**
+     * Deletes a buffer that was created but never named (e.g., because
+     * writing it failed)
+     * @param buffer buffer created by {@link #newBuffer(String, Type)}
+     */
+    public synchronized void discardBuffer(CliBuffer buffer) {
+        if (mLiveBuffers.remove(buffer) != null) {
+            mInMemoryBytes -= buffer.discard();
+        }
+    }
+
+    /**
+     * @param bufferName name of buffer to retrieve
+     * @return named buffer, or <code>null</code> if not found
+     */
+    public synchronized CliBuffer getBuffer(String bufferName) {
+        CliBuffer buffer = mBufferMap.get(bufferName);
+        if (buffer != null) {
+            buffer.setLastAccess(++mClock);
+        }
+        return buffer;
+    }
+
+    /**
+     * @param bufferName name of buffer to delete
+     * @return buffer deleted, or <code>null</code> if not found
+     */
+    public synchronized CliBuffer removeBuffer(String bufferName) {
+        CliBuffer buffer = mBufferMap.remove(bufferName);
+        if (buffer != null) {
+            discardBuffer(buffer);
+        }
+        return buffer;
+    }
+
+    /**
+     * @return names of buffers, in name order
+     */
+    public synchronized List<String> getBufferNames() {
+        return new ArrayList<String>(mBufferMap.keySet());
+    }
+
+    /**
+     * @return number of bytes of memory used by all buffers
+     */
+    public synchronized long getInMemoryBytes() {
+        return mInMemoryBytes;
+    }
+
+    /**
+     * @return maximum number of bytes of memory to be used by all buffers
+     */
+    public long getMemoryBudget() {
+        return mMemoryBudget;
+    }
+
+    /**
+     * @return maximum number of bytes of memory to be used by any one buffer
+     */
+    public long getSpillThreshold() {
+        return mSpillThreshold;
+    }
+
+    /**
+     * Deletes all buffers
+     */
+    public synchronized void clear() {
+        for (CliBuffer buffer : new ArrayList<CliBuffer>(mLiveBuffers.keySet())) {
+            discardBuffer(buffer);
+        }
+        mBufferMap.clear();
+    }
+
+
+    //
+    //  Package-private methods
+    //
+
+    /**
+     * Marks a buffer as most recently used
+     * @param buffer buffer accessed
+     */
+    synchronized void touch(CliBuffer buffer) {
+        buffer.setLastAccess(++mClock);
+    }
+
+    /**
+     * Moves a buffer's data into a spill file
+     * @param buffer buffer to spill
+     * @throws IOException error spilling the buffer
+     */
+    synchronized void spillBuffer(CliBuffer buffer) throws IOException {
+        mInMemoryBytes -= buffer.spill(mSpillDirectory);
+    }
+
+    /**
+     * Accounts for memory allocated by a buffer as it's written, spilling
+     * it and / or other buffers to keep within the limits
+     * @param buffer buffer that allocated memory
+     * @param allocatedBytes number of bytes of memory allocated
+     * @throws IOException error spilling a buffer
+     */
+    synchronized void accountGrowth(CliBuffer buffer, long allocatedBytes)
+        throws IOException {
+
+        mInMemoryBytes += allocatedBytes;
+
+        if (mSpillThreshold > 0 && buffer.getInMemoryBytes() > mSpillThreshold) {
+            mInMemoryBytes -= buffer.spill(mSpillDirectory);
+        }
+
+        if (mMemoryBudget <= 0) {
+            return;
+        }
+
+        while(mInMemoryBytes > mMemoryBudget) {
+            CliBuffer victim = findEvictionCandidate(buffer);
+            if (victim == null) {
+                // only the growing buffer is left to be spilled
+                mInMemoryBytes -= buffer.spill(mSpillDirectory);
+                break;
+            }
+            mInMemoryBytes -= victim.spill(mSpillDirectory);
+        }
+    }
+
+
+    //
+    //  Private methods
+    //
+
+    /**
+     * @param growingBuffer buffer being written (not to be evicted)
+     * @return least recently used finished buffer holding memory, or
+     * <code>null</code> if none
+     */
+    private CliBuffer findEvictionCandidate(CliBuffer growingBuffer) {
+        CliBuffer candidate = null;
+        for (CliBuffer buffer : mLiveBuffers.keySet()) {
+            if (buffer == growingBuffer || !buffer.isSealed()
+             || buffer.getInMemoryBytes() == 0) {
+                continue;
+            }
+            if (candidate == null || buffer.getLastAccess() < candidate.getLastAccess()) {
+                candidate = buffer;
+            }
+        }
+        return candidate;
+    }
+
+}
@@ -13,9 +13,13 @@
 package clishell.db;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -30,6 +34,12 @@ import clishell.ex.CliRunnerException;
  * Encapsulates data structures used to store and quickly find the set
  * of cli commands currently loaded across all plugins.
  *
+ * The data structures are never changed once published: each change
+ * (i.e., adding or removing a plugin's commands) builds a new snapshot
+ * of them, which replaces the current one at once.  Commands are thus
+ * looked up without locking or copying, even while plugins are being
+ * loaded or unloaded, and always in a consistent state.
+ *
  */
 public class CliCommandDb {
 
@@ -38,12 +48,10 @@ public class CliCommandDb {
     //  Private instance data
     //
 
-    /** map of command name to map of supporting plugins */
-    private final Map<CommandName, Map<String, CliPluginCommandMetadata>> mCommandMap
-        = new LinkedHashMap<CommandName, Map<String, CliPluginCommandMetadata>>();
-
-    /** tree structure backing command names for quick navigation */
-    private final FullCommandNameTree mCommandNameTree = new FullCommandNameTree();
+    /** current snapshot of the commands; replaced, never changed */
+    private volatile Snapshot mSnapshot = new Snapshot(
+        new LinkedHashMap<CommandName, Map<String, CliPluginCommandMetadata>>(),
+        new HashMap<String, List<CommandName>>());
 
 
     //
@@ -56,7 +64,16 @@ public class CliCommandDb {
      * @see FullCommandNameTree#findCommandNamesFromCommandLine(CommandName)
      */
     public Set<CommandName> findCommandNamesFromCommandLine(CommandName commandWithParameters) {
-        return mCommandNameTree.findCommandNamesFromCommandLine(commandWithParameters);
+        return mSnapshot.mCommandNameTree.findCommandNamesFromCommandLine(commandWithParameters);
+    }
+
+    /**
+     * @return the command words that may follow <code>precedingWords</code>
+     * and begin with <code>prefix</code>, sorted
+     * @see FullCommandNameTree#getCompletions(String[], String)
+     */
+    public Set<String> getCompletions(String[] precedingWords, String prefix) {
+        return mSnapshot.mCommandNameTree.getCompletions(precedingWords, prefix);
     }
 
     /**
@@ -64,45 +81,70 @@ public class CliCommandDb {
      * mainly useful for debugging
      */
     public void printCommandDbAsTree(PrintWriter out) {
-        mCommandNameTree.printAsTree(out);
+        mSnapshot.mCommandNameTree.printAsTree(out);
     }
 
     /**
      * @param pluginName plugin supporting the commands in <code>commandMetadataCollection</code>
      * @param commandMetadataCollection collection of commands to register into command database
      * @throws CliRunnerException unhandled exception from adding command(s); NOTE: if thrown,
-     * it's likely that not all commands in the collection were loaded for the plugin
+     * none of the commands in the collection were loaded for the plugin
      */
-    public void addCommands(String pluginName,
+    public synchronized void addCommands(String pluginName,
         Collection<CliPluginCommandMetadata> commandMetadataCollection)
         throws CliRunnerException {
 
+        Snapshot snapshot = mSnapshot;
+        Map<CommandName, Map<String, CliPluginCommandMetadata>> commandMap
+            = new LinkedHashMap<CommandName, Map<String, CliPluginCommandMetadata>>(
+                snapshot.mCommandMap);
+        Set<CommandName> pluginCommandNames = new LinkedHashSet<CommandName>();
+        List<CommandName> previousPluginCommandNames = snapshot.mPluginCommandNames.get(pluginName);
+        if (previousPluginCommandNames != null) {
+            pluginCommandNames.addAll(previousPluginCommandNames);
+        }
+
         // for each command in the collection...
         for (CliPluginCommandMetadata cliPluginCommandMetadata : commandMetadataCollection) {
             // register the command in the command database
             // under each of the names it's known by
             for (CommandName commandName : cliPluginCommandMetadata.getNames()) {
-                addCommandName(pluginName, commandName, cliPluginCommandMetadata);
+                addCommandName(commandMap, pluginName, commandName, cliPluginCommandMetadata);
+                pluginCommandNames.add(commandName);
             }
         }
 
+        Map<String, List<CommandName>> pluginCommandNamesMap
+            = new HashMap<String, List<CommandName>>(snapshot.mPluginCommandNames);
+        pluginCommandNamesMap.put(pluginName,
+            Collections.unmodifiableList(new ArrayList<CommandName>(pluginCommandNames)));
+        mSnapshot = new Snapshot(commandMap, pluginCommandNamesMap);
     }
 
     /**
      * Removes all commands registered for the specified plugin
      * @param pluginName unique identifier for plugin
      */
-    public void removeCommands(String pluginName) {
+    public synchronized void removeCommands(String pluginName) {
 
-        // iterate over a copy of the keys to the map, since we're going
-        // to be deleting the map entries
-        CommandName[] commandNamesToRemove = mCommandMap.keySet()
-            .toArray(new CommandName[0]);
+        // only the names the plugin registered its commands under
+        Snapshot snapshot = mSnapshot;
+        List<CommandName> commandNamesToRemove = snapshot.mPluginCommandNames.get(pluginName);
+        if (commandNamesToRemove == null) {
+            return;
+        }
 
+        Map<CommandName, Map<String, CliPluginCommandMetadata>> commandMap
+            = new LinkedHashMap<CommandName, Map<String, CliPluginCommandMetadata>>(
+                snapshot.mCommandMap);
         for (CommandName commandName : commandNamesToRemove) {
-            removeCommandName(pluginName, commandName);
+            removeCommandName(commandMap, pluginName, commandName);
         }
 
+        Map<String, List<CommandName>> pluginCommandNamesMap
+            = new HashMap<String, List<CommandName>>(snapshot.mPluginCommandNames);
+        pluginCommandNamesMap.remove(pluginName);
+        mSnapshot = new Snapshot(commandMap, pluginCommandNamesMap);
     }
 
     /**
@@ -115,7 +157,7 @@ public class CliCommandDb {
             CommandName commandName) {
 
         Map<String, CliPluginCommandMetadata> supportingPluginMap
-            = mCommandMap.get(commandName);
+            = mSnapshot.mCommandMap.get(commandName);
 
         if (supportingPluginMap == null) {
             return null;
@@ -124,64 +166,94 @@ public class CliCommandDb {
         return supportingPluginMap.get(pluginName);
     }
 
+    /**
+     * @param commandName specifies command for which to retrieve metadata
+     * @return CLI plugin command metadata of one of the plugins supporting
+     * <code>commandName</code>, or <code>null</code> if not found
+     */
+    public CliPluginCommandMetadata getCommandMetadata(CommandName commandName) {
+
+        Map<String, CliPluginCommandMetadata> supportingPluginMap
+            = mSnapshot.mCommandMap.get(commandName);
+
+        if (supportingPluginMap == null || supportingPluginMap.isEmpty()) {
+            return null;
+        }
+
+        return supportingPluginMap.values().iterator().next();
+    }
+
+    /**
+     * @param commandName command name to check
+     * @return true if <code>commandName</code> is supported by at least one
+     * plugin (vs. being only the beginning of longer command names)
+     */
+    public boolean isCommandName(CommandName commandName) {
+        Map<String, CliPluginCommandMetadata> supportingPluginMap
+            = mSnapshot.mCommandMap.get(commandName);
+        return supportingPluginMap != null && !supportingPluginMap.isEmpty();
+    }
+
 
     //
     //  Private, internal methods
     //
 
     /**
+     * @param commandMap (input/output) map of command name to map of supporting
+     * plugins, being built for a new snapshot
      * @param pluginName unique identifier for plugin
      * @param commandName specifies command name under which to register
      * <code>cliPluginCommandMetadata</code>, supported by <code>supportingPlugin</code>
      * @throws CliRunnerException unsupported attempt detected to re-register
      * the same-named plugin for the same named command
      */
-    private void addCommandName(String pluginName, CommandName commandName,
+    private void addCommandName(Map<CommandName, Map<String, CliPluginCommandMetadata>> commandMap,
+        String pluginName, CommandName commandName,
         CliPluginCommandMetadata cliPluginCommandMetadata)
         throws CliRunnerException {
 
-        // ensure that commandName is registered in the command name tree
-        mCommandNameTree.addCommandName(commandName);
-
         // retrieve the map of supporting plugins for this command
-        Map<String, CliPluginCommandMetadata> supportingPluginMap
-            = mCommandMap.get(commandName);
-
-        // if there is currently no supporting plugins map on file for this
-        // command, then create one, and register it for retrieval next time
-        if (supportingPluginMap == null) {
-            // NOTE: can use HashMap (vs. LinkedHashMap or TreeMap)
-            // since we don't care about order of supporting plugins
-            supportingPluginMap = new HashMap<String, CliPluginCommandMetadata>();
-            mCommandMap.put(commandName, supportingPluginMap);
-        }
+        Map<String, CliPluginCommandMetadata> supportingPluginMap = commandMap.get(commandName);
 
         // if this command is already implemented by the specified plugin,
         // throw an exception, since we don't support "replacement" of already
         // registered plugins for a command
-        if (supportingPluginMap.get(pluginName) != null) {
+        if (supportingPluginMap != null && supportingPluginMap.get(pluginName) != null) {
             throw new CliRunnerException("attempt to add already existing plugin command '"
                 + getCanonicalPluginCommandName(pluginName, commandName)
                 + "'"
             );
         }
 
-        // register the metadata for the specified supporting plugin
-        supportingPluginMap.put(pluginName, cliPluginCommandMetadata);
+        // register the metadata for the specified supporting plugin, in a
+        // copy of the map of supporting plugins (that of the current snapshot
+        // being left as is)
+        // NOTE: can use HashMap (vs. LinkedHashMap or TreeMap)
+        // since we don't care about order of supporting plugins
+        Map<String, CliPluginCommandMetadata> newSupportingPluginMap
+            = new HashMap<String, CliPluginCommandMetadata>();
+        if (supportingPluginMap != null) {
+            newSupportingPluginMap.putAll(supportingPluginMap);
+        }
+        newSupportingPluginMap.put(pluginName, cliPluginCommandMetadata);
+        commandMap.put(commandName, Collections.unmodifiableMap(newSupportingPluginMap));
     }
 
     /**
      * Unregisters support for the specified command name by the specified
      * plugin.
+     * @param commandMap (input/output) map of command name to map of supporting
+     * plugins, being built for a new snapshot
      * @param pluginName unique identifier for plugin
      * @param commandName specifies command name to remove from database
      */
-    private CliPluginCommandMetadata removeCommandName(String pluginName,
-            CommandName commandName) {
+    private CliPluginCommandMetadata removeCommandName(
+            Map<CommandName, Map<String, CliPluginCommandMetadata>> commandMap,
+            String pluginName, CommandName commandName) {
 
         // get the map of supporting plugins for this command
-        Map<String, CliPluginCommandMetadata> supportingPluginMap
-            = mCommandMap.get(commandName);
+        Map<String, CliPluginCommandMetadata> supportingPluginMap = commandMap.get(commandName);
 
         // retrieve metadata for the specified plugin for supporting this command
         CliPluginCommandMetadata cliPluginCommandMetadata = null;
@@ -195,14 +267,16 @@ public class CliCommandDb {
             return null;
         }
 
-        // remove the specified supporting plugin
-        supportingPluginMap.remove(pluginName);
-
         // if this was the only plugin supporting this command,
-        // then remove the command altogether from the database
-        if (supportingPluginMap.size() == 0) {
-            mCommandMap.remove(commandName);
-            mCommandNameTree.removeCommandName(commandName);
+        // then remove the command altogether from the database;
+        // otherwise remove the specified supporting plugin from a copy
+        if (supportingPluginMap.size() == 1) {
+            commandMap.remove(commandName);
+        } else {
+            Map<String, CliPluginCommandMetadata> newSupportingPluginMap
+                = new HashMap<String, CliPluginCommandMetadata>(supportingPluginMap);
+            newSupportingPluginMap.remove(pluginName);
+            commandMap.put(commandName, Collections.unmodifiableMap(newSupportingPluginMap));
         }
 
         // return the plugin support metadata for the command
@@ -219,4 +293,39 @@ public class CliCommandDb {
         return pluginName + ":" + commandName;
     }
 
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Commands loaded at some point; never changed once built
+     */
+    private static class Snapshot {
+
+        /** map of command name to map of supporting plugins */
+        final Map<CommandName, Map<String, CliPluginCommandMetadata>> mCommandMap;
+
+        /** names each plugin's commands are registered under, by plugin name */
+        final Map<String, List<CommandName>> mPluginCommandNames;
+
+        /** tree structure backing command names for quick navigation */
+        final FullCommandNameTree mCommandNameTree = new FullCommandNameTree();
+
+        /**
+         * @param commandMap map of command name to map of supporting plugins
+         * @param pluginCommandNames names each plugin's commands are registered
+         * under, by plugin name
+         */
+        Snapshot(Map<CommandName, Map<String, CliPluginCommandMetadata>> commandMap,
+                Map<String, List<CommandName>> pluginCommandNames) {
+            mCommandMap = Collections.unmodifiableMap(commandMap);
+            mPluginCommandNames = Collections.unmodifiableMap(pluginCommandNames);
+            for (CommandName commandName : commandMap.keySet()) {
+                mCommandNameTree.addCommandName(commandName);
+            }
+        }
+
+    }
+
 }
@@ -0,0 +1,610 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import clishell.CliPluginCommandMetadata;
+import clishell.CommandName;
+import clishell.anno.CliPluginCommand;
+
+/**
+ *
+ * Index of the help of the commands currently loaded, kept up to date as
+ * plugins are loaded and unloaded, so that neither listing, searching
+ * the help nor suggesting commands for a mistyped one has to visit every
+ * command (or reflect on its method).
+ *
+ * It holds:
+ * <ol>
+ *   <li>the names of the commands, sorted, for finding them by prefix</li>
+ *   <li>an inverted index of the words of their names, syntax and help
+ *   text, for ranked search</li>
+ *   <li>the words of their names, with each word's variants missing one
+ *   letter (a "symmetric delete" index), for finding the words within an
+ *   edit of a mistyped word without comparing it to every word</li>
+ * </ol>
+ *
+ */
+public class CliHelpIndex {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Help of a command, as declared by its plugin; entries sort in the
+     * order they were added (i.e., grouped by plugin, in load order)
+     */
+    public static class HelpEntry implements Comparable<HelpEntry> {
+
+        /** name of the plugin of the command */
+        private final String mPluginName;
+
+        /** name under which the command is displayed */
+        private final String mDisplayName;
+
+        /** names of the command */
+        private final Set<CommandName> mNames;
+
+        /** syntax of the command's arguments */
+        private final String mSyntax;
+
+        /** help text of the command */
+        private final String[] mHelptext;
+
+        /** order in which the command was added, so entries list in load order */
+        private final long mSequence;
+
+        /**
+         * @param pluginName name of the plugin of the command
+         * @param commandMetadata metadata of the command
+         * @param sequence order in which the command was added
+         */
+        HelpEntry(String pluginName, CliPluginCommandMetadata commandMetadata,
+                long sequence) {
+            CliPluginCommand cliPluginCommand = commandMetadata.getCliMethod()
+                .getMethod().getAnnotation(CliPluginCommand.class);
+            mPluginName = pluginName;
+            mDisplayName = commandMetadata.getDisplayName();
+            mNames = commandMetadata.getNames();
+            mSyntax = (cliPluginCommand == null) ? "" : cliPluginCommand.syntax();
+            mHelptext = (cliPluginCommand == null) ? new String[0] : cliPluginCommand.helptext();
+            mSequence = sequence;
+        }
+
+        /**
+         * @return name of the plugin of the command
+         */
+        public String getPluginName() {
+            return mPluginName;
+        }
+
+        /**
+         * @return name under which the command is displayed
+         */
+        public String getDisplayName() {
+            return mDisplayName;
+        }
+
+        /**
+         * @return names of the command
+         */
+        public Set<CommandName> getNames() {
+            return mNames;
+        }
+
+        /**
+         * @return syntax of the command's arguments ("" if none)
+         */
+        public String getSyntax() {
+            return mSyntax;
+        }
+
+        /**
+         * @return help text of the command
+         */
+        public String[] getHelptext() {
+            return mHelptext;
+        }
+
+        /**
+         * @see Comparable#compareTo(Object)
+         */
+        public int compareTo(HelpEntry entry) {
+            return Long.compare(mSequence, entry.mSequence);
+        }
+
+    }
+
+
+    //
+    //  Private class constants
+    //
+
+    /** weight of a term found in a command's name */
+    private static final int NAME_WEIGHT = 8;
+
+    /** weight of a term found in a command's syntax */
+    private static final int SYNTAX_WEIGHT = 3;
+
+    /** weight of a term found in a command's help text */
+    private static final int HELPTEXT_WEIGHT = 1;
+
+    /** greatest number of edits from a word a suggested word may be */
+    private static final int MAX_SUGGESTION_DISTANCE = 2;
+
+
+
+    //
+    //  Private instance data
+    //
+
+    /** entries of the commands of each plugin, by plugin name */
+    private final Map<String, List<HelpEntry>> mPluginEntries
+        = new LinkedHashMap<String, List<HelpEntry>>();
+
+    /** entries by each of their command names (as strings), sorted */
+    private final TreeMap<String, Set<HelpEntry>> mNameEntries
+        = new TreeMap<String, Set<HelpEntry>>();
+
+    /** weight of each entry containing each term, by term, sorted */
+    private final TreeMap<String, Map<HelpEntry, Integer>> mTermPostings
+        = new TreeMap<String, Map<HelpEntry, Integer>>();
+
+    /** command names beginning with each word, by word, sorted */
+    private final TreeMap<String, Set<CommandName>> mFirstWordNames
+        = new TreeMap<String, Set<CommandName>>();
+
+    /** words of the command names, by each of their variants missing a letter */
+    private final Map<String, Set<String>> mWordDeletes = new HashMap<String, Set<String>>();
+
+    /** number of command names using each word, by word */
+    private final Map<String, Integer> mWordCounts = new HashMap<String, Integer>();
+
+    /** order of the next entry added */
+    private long mNextSequence;
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @param pluginName name of plugin whose commands are to be added
+     * @param commandMetadataIterable metadata of the plugin's commands
+     */
+    public synchronized void addCommands(String pluginName,
+            Iterable<CliPluginCommandMetadata> commandMetadataIterable) {
+
+        removeCommands(pluginName);
+
+        List<HelpEntry> entries = new ArrayList<HelpEntry>();
+        for (CliPluginCommandMetadata commandMetadata : commandMetadataIterable) {
+            HelpEntry entry = new HelpEntry(pluginName, commandMetadata, mNextSequence++);
+            entries.add(entry);
+            for (CommandName commandName : entry.mNames) {
+                addToSet(mNameEntries, commandName.toString(), entry);
+                String[] words = commandName.getCommandNameAsWordArray();
+                addToSet(mFirstWordNames, words[0], commandName);
+                for (String word : words) {
+                    addWord(word);
+                }
+            }
+            for (Map.Entry<String, Integer> termWeight : getTermWeights(entry).entrySet()) {
+                Map<HelpEntry, Integer> postings = mTermPostings.get(termWeight.getKey());
+                if (postings == null) {
+                    postings = new IdentityHashMap<HelpEntry, Integer>();
+                    mTermPostings.put(termWeight.getKey(), postings);
+                }
+                postings.put(entry, termWeight.getValue());
+            }
+        }
+        mPluginEntries.put(pluginName, entries);
+    }
+
+    /**
+     * @param pluginName name of plugin whose commands are to be removed
+     */
+    public synchronized void removeCommands(String pluginName) {
+
+        List<HelpEntry> entries = mPluginEntries.remove(pluginName);
+        if (entries == null) {
+            return;
+        }
+
+        for (HelpEntry entry : entries) {
+            for (CommandName commandName : entry.mNames) {
+                removeFromSet(mNameEntries, commandName.toString(), entry);
+                String[] words = commandName.getCommandNameAsWordArray();
+                // NOTE: another plugin may have a command of the same name
+                if (!mNameEntries.containsKey(commandName.toString())) {
+                    removeFromSet(mFirstWordNames, words[0], commandName);
+                }
+                for (String word : words) {
+                    removeWord(word);
+                }
+            }
+            for (String term : getTermWeights(entry).keySet()) {
+                Map<HelpEntry, Integer> postings = mTermPostings.get(term);
+                if (postings != null) {
+                    postings.remove(entry);
+                    if (postings.isEmpty()) {
+                        mTermPostings.remove(term);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return entries of all commands, in the order they were added
+     */
+    public synchronized List<HelpEntry> getEntries() {
+        List<HelpEntry> entries = new ArrayList<HelpEntry>();
+        for (List<HelpEntry> pluginEntries : mPluginEntries.values()) {
+            entries.addAll(pluginEntries);
+        }
+        return entries;
+    }
+
+    /**
+     * @param prefix beginning of command name(s)
+     * @return entries of the commands having a name beginning with
+     * <code>prefix</code>, in the order they were added
+     */
+    public synchronized List<HelpEntry> getEntriesByNamePrefix(String prefix) {
+        Set<HelpEntry> entries = new HashSet<HelpEntry>();
+        for (Set<HelpEntry> nameEntries : prefixMap(mNameEntries, prefix).values()) {
+            entries.addAll(nameEntries);
+        }
+        List<HelpEntry> sortedEntries = new ArrayList<HelpEntry>(entries);
+        Collections.sort(sortedEntries);
+        return sortedEntries;
+    }
+
+    /**
+     * Searches the names, syntax and help text of the commands; each term
+     * matches the words it begins, and entries are ranked by the number of
+     * terms they match, then by where they match them (name, syntax, text)
+     * @param terms search terms
+     * @return entries matching any of the terms, best match first
+     */
+    public synchronized List<HelpEntry> search(String... terms) {
+
+        final Map<HelpEntry, int[]> scores = new HashMap<HelpEntry, int[]>();
+        for (String term : terms) {
+            for (String termWord : getWords(term)) {
+                // an entry counts the best weight of the words a term begins
+                Map<HelpEntry, Integer> termScores = new HashMap<HelpEntry, Integer>();
+                for (Map<HelpEntry, Integer> postings : prefixMap(mTermPostings, termWord).values()) {
+                    for (Map.Entry<HelpEntry, Integer> posting : postings.entrySet()) {
+                        Integer score = termScores.get(posting.getKey());
+                        if (score == null || score < posting.getValue()) {
+                            termScores.put(posting.getKey(), posting.getValue());
+                        }
+                    }
+                }
+                for (Map.Entry<HelpEntry, Integer> termScore : termScores.entrySet()) {
+                    int[] score = scores.get(termScore.getKey());
+                    if (score == null) {
+                        score = new int[2];
+                        scores.put(termScore.getKey(), score);
+                    }
+                    score[0]++;
+                    score[1] += termScore.getValue();
+                }
+            }
+        }
+
+        List<HelpEntry> entries = new ArrayList<HelpEntry>(scores.keySet());
+        Collections.sort(entries, new Comparator<HelpEntry>() {
+            public int compare(HelpEntry entry1, HelpEntry entry2) {
+                int[] score1 = scores.get(entry1);
+                int[] score2 = scores.get(entry2);
+                if (score1[0] != score2[0]) {
+                    return score2[0] - score1[0];
+                }
+                if (score1[1] != score2[1]) {
+                    return score2[1] - score1[1];
+                }
+                return entry1.compareTo(entry2);
+            }
+        });
+        return entries;
+    }
+
+    /**
+     * Suggests the commands a user may have meant by words not resolving to
+     * a command; a command is suggested if each of its words (as many as
+     * were entered) is begun by, or within a couple of edits of, the
+     * corresponding word entered
+     * @param userWords words entered (the command, possibly followed by
+     * its arguments)
+     * @param maxSuggestions greatest number of suggestions
+     * @return names of the commands suggested, most likely first
+     */
+    public synchronized List<CommandName> suggest(String[] userWords, int maxSuggestions) {
+
+        if (userWords.length == 0 || maxSuggestions <= 0) {
+            return Collections.<CommandName>emptyList();
+        }
+
+        // commands beginning with a word like the first word entered
+        Set<CommandName> candidates = new LinkedHashSet<CommandName>();
+        for (String firstWord : getSimilarWords(userWords[0])) {
+            Set<CommandName> names = mFirstWordNames.get(firstWord);
+            if (names != null) {
+                candidates.addAll(names);
+            }
+        }
+
+        // rank them by the number of their words matched, then by the edits needed
+        final Map<CommandName, int[]> scores = new HashMap<CommandName, int[]>();
+        for (CommandName candidate : candidates) {
+            String[] words = candidate.getCommandNameAsWordArray();
+            int nWords = Math.min(words.length, userWords.length);
+            int distance = 0;
+            int i;
+            for (i = 0; i < nWords; i++) {
+                int wordDistance = getWordDistance(userWords[i], words[i]);
+                if (wordDistance > MAX_SUGGESTION_DISTANCE) {
+                    break;
+                }
+                distance += wordDistance;
+            }
+            if (i == nWords) {
+                scores.put(candidate, new int[] { nWords, distance });
+            }
+        }
+
+        List<CommandName> suggestions = new ArrayList<CommandName>(scores.keySet());
+        Collections.sort(suggestions, new Comparator<CommandName>() {
+            public int compare(CommandName name1, CommandName name2) {
+                int[] score1 = scores.get(name1);
+                int[] score2 = scores.get(name2);
+                if (score1[0] != score2[0]) {
+                    return score2[0] - score1[0];
+                }
+                if (score1[1] != score2[1]) {
+                    return score1[1] - score2[1];
+                }
+                return name1.toString().compareTo(name2.toString());
+            }
+        });
+        return (suggestions.size() > maxSuggestions)
+            ? new ArrayList<CommandName>(suggestions.subList(0, maxSuggestions))
+            : suggestions;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param word word of a command name being added
+     */
+    private void addWord(String word) {
+        Integer count = mWordCounts.get(word);
+        mWordCounts.put(word, (count == null) ? 1 : count + 1);
+        if (count == null) {
+            for (String delete : getDeletes(word)) {
+                addToSet(mWordDeletes, delete, word);
+            }
+        }
+    }
+
+    /**
+     * @param word word of a command name being removed
+     */
+    private void removeWord(String word) {
+        Integer count = mWordCounts.get(word);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mWordCounts.put(word, count - 1);
+            return;
+        }
+        mWordCounts.remove(word);
+        for (String delete : getDeletes(word)) {
+            removeFromSet(mWordDeletes, delete, word);
+        }
+    }
+
+    /**
+     * @param userWord word entered
+     * @return first words of command names begun by, or within an edit
+     * (a letter inserted, removed, changed, or two swapped) of,
+     * <code>userWord</code>
+     */
+    private Set<String> getSimilarWords(String userWord) {
+
+        Set<String> similarWords = new LinkedHashSet<String>();
+        similarWords.addAll(prefixMap(mFirstWordNames, userWord).keySet());
+
+        // NOTE: words sharing a variant missing a letter are within an edit or two
+        Set<String> variants = getDeletes(userWord);
+        variants.add(userWord);
+        for (String variant : variants) {
+            if (mWordCounts.containsKey(variant)) {
+                similarWords.add(variant);
+            }
+            Set<String> words = mWordDeletes.get(variant);
+            if (words != null) {
+                similarWords.addAll(words);
+            }
+        }
+
+        return similarWords;
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param entry help of a command
+     * @return weight of each term of the entry's names, syntax and help text
+     */
+    private static Map<String, Integer> getTermWeights(HelpEntry entry) {
+        Map<String, Integer> termWeights = new HashMap<String, Integer>();
+        for (CommandName commandName : entry.mNames) {
+            addTermWeights(termWeights, commandName.toString(), NAME_WEIGHT);
+        }
+        addTermWeights(termWeights, entry.mSyntax, SYNTAX_WEIGHT);
+        for (String helpLine : entry.mHelptext) {
+            addTermWeights(termWeights, helpLine, HELPTEXT_WEIGHT);
+        }
+        return termWeights;
+    }
+
+    /**
+     * @param termWeights weight of each term, keeping the greatest
+     * @param text text whose words are terms
+     * @param weight weight of the terms of <code>text</code>
+     */
+    private static void addTermWeights(Map<String, Integer> termWeights, String text,
+            int weight) {
+        for (String word : getWords(text)) {
+            Integer termWeight = termWeights.get(word);
+            if (termWeight == null || termWeight < weight) {
+                termWeights.put(word, weight);
+            }
+        }
+    }
+
+    /**
+     * @param text text
+     * @return words (runs of letters and digits) of <code>text</code>, in lower case
+     */
+    private static List<String> getWords(String text) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = (i < text.length()) ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                word.append(Character.toLowerCase(c));
+            } else if (word.length() > 0) {
+                words.add(word.toString());
+                word.setLength(0);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * @param word word
+     * @return variants of <code>word</code> missing one of its letters
+     */
+    private static Set<String> getDeletes(String word) {
+        Set<String> deletes = new HashSet<String>();
+        if (word.length() > 1) {
+            for (int i = 0; i < word.length(); i++) {
+                deletes.add(word.substring(0, i) + word.substring(i + 1));
+            }
+        }
+        return deletes;
+    }
+
+    /**
+     * @param userWord word entered, possibly abbreviated
+     * @param word word of a command name
+     * @return zero if <code>userWord</code> begins <code>word</code>,
+     * otherwise the number of edits (letters inserted, removed, changed or
+     * two swapped) between them
+     */
+    private static int getWordDistance(String userWord, String word) {
+
+        if (word.startsWith(userWord)) {
+            return 0;
+        }
+
+        // optimal string alignment distance
+        int[][] d = new int[userWord.length() + 1][word.length() + 1];
+        for (int i = 0; i <= userWord.length(); i++) {
+            d[i][0] = i;
+        }
+        for (int j = 0; j <= word.length(); j++) {
+            d[0][j] = j;
+        }
+        for (int i = 1; i <= userWord.length(); i++) {
+            for (int j = 1; j <= word.length(); j++) {
+                int cost = (userWord.charAt(i - 1) == word.charAt(j - 1)) ? 0 : 1;
+                d[i][j] = Math.min(Math.min(d[i - 1][j] + 1, d[i][j - 1] + 1),
+                    d[i - 1][j - 1] + cost);
+                if (i > 1 && j > 1 && userWord.charAt(i - 1) == word.charAt(j - 2)
+                        && userWord.charAt(i - 2) == word.charAt(j - 1)) {
+                    d[i][j] = Math.min(d[i][j], d[i - 2][j - 2] + 1);
+                }
+            }
+        }
+        return d[userWord.length()][word.length()];
+    }
+
+    /**
+     * @param sortedMap map keyed by strings
+     * @param prefix beginning of keys
+     * @return view of the entries of <code>sortedMap</code> whose keys
+     * begin with <code>prefix</code>
+     */
+    private static <V> SortedMap<String, V> prefixMap(TreeMap<String, V> sortedMap,
+            String prefix) {
+        return sortedMap.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * @param map map of sets
+     * @param key key of set
+     * @param value value to add to the set, created if necessary
+     */
+    private static <K, V> void addToSet(Map<K, Set<V>> map, K key, V value) {
+        Set<V> values = map.get(key);
+        if (values == null) {
+            values = new LinkedHashSet<V>();
+            map.put(key, values);
+        }
+        values.add(value);
+    }
+
+    /**
+     * @param map map of sets
+     * @param key key of set
+     * @param value value to remove from the set, removed once empty
+     */
+    private static <K, V> void removeFromSet(Map<K, Set<V>> map, K key, V value) {
+        Set<V> values = map.get(key);
+        if (values != null) {
+            values.remove(value);
+            if (values.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+}
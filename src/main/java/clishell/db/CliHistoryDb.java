@@ -0,0 +1,784 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.db;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * History of the commands entered, numbered from 1 (oldest) on, kept in a
+ * log file (one command per line) shared by all sessions.
+ *
+ * <ul>
+ *   <li>on opening, the log is memory-mapped and only its line boundaries
+ *   are found; commands are decoded when asked for</li>
+ *   <li>commands entered are appended to the log through a buffer, which
+ *   is written and synced to disk periodically (and on closing)</li>
+ *   <li>commands are found by the words they contain using an index of
+ *   their trigrams (sequences of three characters), built in the background
+ *   on opening, and kept up to date as commands are added</li>
+ *   <li>once the log holds a quarter more commands than it's to retain,
+ *   it's rewritten, in the background, with only the latest of them</li>
+ * </ul>
+ *
+ * NOTE: sessions share the log by holding a lock on it while appending
+ * (whole lines) and while rewriting it; the log's rewritten from the file,
+ * so keeping the commands of the other sessions, and a session finding the
+ * log replaced by another's rewrite reopens it before appending.  A log
+ * that's created is readable by its owner only.
+ *
+ */
+public class CliHistoryDb {
+
+
+    //
+    //  Private class constants
+    //
+
+    /** encoding of the log */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** size of the buffer of commands being appended to the log */
+    private static final int WRITE_BUFFER_SIZE = 8 * 1024;
+
+    /** number of commands indexed at a time, in the background */
+    private static final int INDEX_CHUNK_SIZE = 10000;
+
+    /** length of the character sequences indexed */
+    private static final int NGRAM_LENGTH = 3;
+
+    /**
+     * held while locking a log, since the lock is held by the process (and
+     * taking it twice fails) rather than waiting for the other thread
+     */
+    private static final Object LOG_MONITOR = new Object();
+
+
+    //
+    //  Private instance data
+    //
+
+    /** log file, or <code>null</code> if the history isn't kept */
+    private final File mFile;
+
+    /** number of commands retained in the log */
+    private final int mMaxEntries;
+
+    /** log, as it was when opened (or <code>null</code> if empty) */
+    private MappedByteBuffer mMappedLog;
+
+    /** offsets of the commands in the mapped log (one more than their number) */
+    private long[] mMappedOffsets = new long[] { 0 };
+
+    /** number of commands in the mapped log */
+    private int mMappedCount;
+
+    /** commands added since the log was opened */
+    private final List<String> mAddedEntries = new ArrayList<String>();
+
+    /**
+     * number of commands in the log file (which may be more than retained),
+     * not counting those appended by other sessions since it was last rewritten
+     */
+    private int mLogCount;
+
+    /** channel appending to the log, or <code>null</code> if not kept */
+    private FileChannel mLogChannel;
+
+    /**
+     * identity (e.g., device and inode) of the log file appended to, or
+     * <code>null</code> if the file system doesn't tell
+     */
+    private Object mLogFileKey;
+
+    /** commands being appended to the log */
+    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+
+    /** set if the log has been written to since last synced */
+    private boolean mIsUnsynced;
+
+    /** numbers (less one) of the commands containing each trigram, ascending, by trigram */
+    private final Map<Long, IntList> mPostings = new HashMap<Long, IntList>();
+
+    /** number of (the first) commands indexed */
+    private int mIndexedCount;
+
+    /** set while the log is being rewritten */
+    private boolean mIsCompacting;
+
+    /** thread syncing, indexing and compacting the log */
+    private ScheduledExecutorService mBackgroundExecutor;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * History not kept beyond the session
+     */
+    public CliHistoryDb() {
+        mFile = null;
+        mMaxEntries = 0;
+    }
+
+    /**
+     * @param file log file (created, readable by its owner only, if it doesn't exist)
+     * @param maxEntries number of commands retained in the log
+     * @param syncIntervalMillis number of milliseconds between syncs of the log
+     * @throws IOException error opening the log
+     */
+    public CliHistoryDb(File file, int maxEntries, long syncIntervalMillis) throws IOException {
+
+        mFile = file;
+        mMaxEntries = Math.max(1, maxEntries);
+
+        mapLog();
+        mLogCount = mMappedCount;
+        openLog();
+
+        ScheduledThreadPoolExecutor backgroundExecutor = new ScheduledThreadPoolExecutor(1,
+            new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "history");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        backgroundExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        mBackgroundExecutor = backgroundExecutor;
+
+        mBackgroundExecutor.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    sync();
+                } catch(Throwable t) {
+                    // "old college try" ;-)
+                }
+            }
+        }, syncIntervalMillis, Math.max(1, syncIntervalMillis), TimeUnit.MILLISECONDS);
+
+        mBackgroundExecutor.execute(new Runnable() {
+            public void run() {
+                while(indexChunk()) {
+                    // until caught up
+                }
+            }
+        });
+
+        compactIfNeeded();
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return number of commands in the history
+     */
+    public synchronized int size() {
+        return mMappedCount + mAddedEntries.size();
+    }
+
+    /**
+     * @param number number of a command (from 1)
+     * @return the command, or <code>null</code> if there's no such command
+     */
+    public synchronized String get(int number) {
+        int index = number - 1;
+        if (index < 0 || index >= size()) {
+            return null;
+        }
+        return getEntry(index);
+    }
+
+    /**
+     * Adds a command to the history, unless empty or the same as the last
+     * @param line command
+     * @throws IOException error appending the command to the log
+     */
+    public synchronized void add(String line) throws IOException {
+
+        line = line.replace('\n', ' ').replace('\r', ' ');
+        int size = size();
+        if (line.trim().length() == 0 || (size > 0 && getEntry(size - 1).equals(line))) {
+            return;
+        }
+
+        mAddedEntries.add(line);
+        if (mIndexedCount == size) {
+            indexEntry(size, line);
+            mIndexedCount++;
+        }
+
+        if (mLogChannel != null) {
+            byte[] bytes = (line + "\n").getBytes(CHARSET);
+            if (bytes.length > mWriteBuffer.remaining()) {
+                flush();
+            }
+            if (bytes.length > mWriteBuffer.remaining()) {
+                writeFully(ByteBuffer.wrap(bytes));
+            } else {
+                mWriteBuffer.put(bytes);
+            }
+            mLogCount++;
+            compactIfNeeded();
+        }
+    }
+
+    /**
+     * @param prefix beginning of a command
+     * @return number of the latest command beginning with <code>prefix</code>,
+     * or zero if none
+     */
+    public synchronized int findLatest(String prefix) {
+        for (int index = size() - 1; index >= 0; index--) {
+            if (getEntry(index).startsWith(prefix)) {
+                return index + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param text text contained (regardless of case) by a command
+     * @param beforeNumber number of the command before which to search
+     * @return number of the latest command before <code>beforeNumber</code>
+     * containing <code>text</code>, or zero if none
+     */
+    public synchronized int searchBackward(String text, int beforeNumber) {
+        String[] terms = new String[] { text.toLowerCase() };
+        int end = Math.min(beforeNumber - 1, size());
+        int[] candidates = getCandidates(terms);
+        for (int index = end - 1; index >= 0; index--) {
+            if (candidates != null && index < mIndexedCount
+                    && Arrays.binarySearch(candidates, index) < 0) {
+                continue;
+            }
+            if (isMatching(getEntry(index), terms)) {
+                return index + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @param terms text each of the commands found is to contain (regardless of case)
+     * @param maxResults greatest number of commands found
+     * @return numbers of the (distinct) commands containing all the terms,
+     * latest first
+     */
+    public synchronized List<Integer> search(String[] terms, int maxResults) {
+
+        String[] lowerCaseTerms = new String[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lowerCaseTerms[i] = terms[i].toLowerCase();
+        }
+
+        List<Integer> numbers = new ArrayList<Integer>();
+        Set<String> entriesFound = new HashSet<String>();
+        int[] candidates = getCandidates(lowerCaseTerms);
+
+        // the commands not yet indexed, then the indexed ones
+        for (int index = size() - 1; index >= mIndexedCount && numbers.size() < maxResults; index--) {
+            addIfMatching(index, lowerCaseTerms, entriesFound, numbers);
+        }
+        if (candidates == null) {
+            for (int index = mIndexedCount - 1; index >= 0 && numbers.size() < maxResults; index--) {
+                addIfMatching(index, lowerCaseTerms, entriesFound, numbers);
+            }
+        } else {
+            for (int i = candidates.length - 1; i >= 0 && numbers.size() < maxResults; i--) {
+                addIfMatching(candidates[i], lowerCaseTerms, entriesFound, numbers);
+            }
+        }
+
+        return numbers;
+    }
+
+    /**
+     * Writes the commands added to the log, and syncs it to disk
+     * @throws IOException error writing the log
+     */
+    public synchronized void sync() throws IOException {
+        if (mLogChannel == null) {
+            return;
+        }
+        flush();
+        if (mIsUnsynced) {
+            mLogChannel.force(false);
+            mIsUnsynced = false;
+        }
+    }
+
+    /**
+     * Syncs and closes the log, after which commands are no longer kept
+     * @throws IOException error writing the log
+     */
+    public void close() throws IOException {
+
+        if (mBackgroundExecutor != null) {
+            mBackgroundExecutor.shutdown();
+            try {
+                // NOTE: let a rewrite of the log finish
+                mBackgroundExecutor.awaitTermination(10, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // the log's left holding no more commands than it's to retain
+        if (isCompactionNeeded()) {
+            compact();
+        }
+
+        synchronized(this) {
+            if (mLogChannel != null) {
+                try {
+                    sync();
+                } finally {
+                    mLogChannel.close();
+                    mLogChannel = null;
+                }
+            }
+        }
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Memory-maps the log, and finds the offsets of its commands
+     * @throws IOException error reading the log
+     */
+    private void mapLog() throws IOException {
+
+        if (!mFile.exists() || mFile.length() == 0) {
+            return;
+        }
+
+        FileChannel logChannel = FileChannel.open(mFile.toPath(), StandardOpenOption.READ);
+        try {
+            // NOTE: a log beyond 2G (far more commands than anyone retains) is read in part
+            long length = Math.min(logChannel.size(), Integer.MAX_VALUE);
+            mMappedLog = logChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        } finally {
+            logChannel.close();
+        }
+
+        // NOTE: a partial last line (e.g., of a session that crashed) is ignored
+        int length = mMappedLog.limit();
+        long[] offsets = new long[1024];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            if (mMappedLog.get(i) == '\n') {
+                if (count + 2 > offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[++count] = i + 1;
+            }
+        }
+        mMappedOffsets = offsets;
+        mMappedCount = count;
+    }
+
+    /**
+     * Opens the log for appending, creating it (readable by its owner only)
+     * if it doesn't exist
+     * @throws IOException error opening the log
+     */
+    private void openLog() throws IOException {
+        Path path = mFile.toPath();
+        Set<OpenOption> options = new HashSet<OpenOption>(Arrays.asList(StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND));
+        if (path.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            mLogChannel = FileChannel.open(path, options, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rw-------")));
+        } else {
+            mLogChannel = FileChannel.open(path, options);
+        }
+        mLogFileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Locks the log against the other sessions, first reopening it if another
+     * session has replaced it (i.e., rewritten it); called holding
+     * <code>LOG_MONITOR</code>
+     * @return the lock, to be released once done with the log
+     * @throws IOException error locking the log
+     */
+    private FileLock lockLog() throws IOException {
+        while(true) {
+            FileLock lock = mLogChannel.lock();
+            if (!isLogReplaced()) {
+                return lock;
+            }
+            // NOTE: closing the channel releases the lock
+            mLogChannel.close();
+            openLog();
+        }
+    }
+
+    /**
+     * @return true if the log file appended to is no longer the log (i.e.,
+     * it's been replaced or deleted)
+     * @throws IOException error reading the log's attributes
+     */
+    private boolean isLogReplaced() throws IOException {
+        Object fileKey;
+        try {
+            fileKey = Files.readAttributes(mFile.toPath(), BasicFileAttributes.class).fileKey();
+        } catch(NoSuchFileException nsfe) {
+            return true;
+        }
+        return fileKey != null && !fileKey.equals(mLogFileKey);
+    }
+
+    /**
+     * @param index index of a command
+     * @return the command
+     */
+    private String getEntry(int index) {
+        if (index >= mMappedCount) {
+            return mAddedEntries.get(index - mMappedCount);
+        }
+        int offset = (int) mMappedOffsets[index];
+        byte[] bytes = new byte[(int) mMappedOffsets[index + 1] - 1 - offset];
+        mMappedLog.get(offset, bytes, 0, bytes.length);
+        return new String(bytes, CHARSET);
+    }
+
+    /**
+     * Indexes some of the commands not yet indexed
+     * @return true if there are still commands to index
+     */
+    private synchronized boolean indexChunk() {
+        int end = Math.min(size(), mIndexedCount + INDEX_CHUNK_SIZE);
+        for (int index = mIndexedCount; index < end; index++) {
+            indexEntry(index, getEntry(index));
+        }
+        mIndexedCount = end;
+        return mIndexedCount < size();
+    }
+
+    /**
+     * @param index index of a command
+     * @param entry the command
+     */
+    private void indexEntry(int index, String entry) {
+        Set<Long> ngrams = new HashSet<Long>();
+        addNgrams(entry.toLowerCase(), ngrams);
+        for (Long ngram : ngrams) {
+            IntList postings = mPostings.get(ngram);
+            if (postings == null) {
+                postings = new IntList();
+                mPostings.put(ngram, postings);
+            }
+            postings.add(index);
+        }
+    }
+
+    /**
+     * @param lowerCaseTerms search terms, in lower case
+     * @return indexes (ascending) of the indexed commands which may contain
+     * all of the terms, or <code>null</code> if the index can't narrow them
+     * (i.e., the terms are all too short)
+     */
+    private int[] getCandidates(String[] lowerCaseTerms) {
+
+        Set<Long> ngrams = new HashSet<Long>();
+        for (String term : lowerCaseTerms) {
+            addNgrams(term, ngrams);
+        }
+        if (ngrams.isEmpty()) {
+            return null;
+        }
+
+        // intersect the postings, shortest first
+        List<IntList> postingsList = new ArrayList<IntList>();
+        for (Long ngram : ngrams) {
+            IntList postings = mPostings.get(ngram);
+            if (postings == null) {
+                return new int[0];
+            }
+            postingsList.add(postings);
+        }
+        IntList shortestPostings = postingsList.get(0);
+        for (IntList postings : postingsList) {
+            if (postings.mSize < shortestPostings.mSize) {
+                shortestPostings = postings;
+            }
+        }
+        int[] candidates = Arrays.copyOf(shortestPostings.mValues, shortestPostings.mSize);
+        for (IntList postings : postingsList) {
+            if (postings != shortestPostings) {
+                candidates = intersect(candidates, postings);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @param index index of a command
+     * @param lowerCaseTerms search terms, in lower case
+     * @param entriesFound (input/output) commands found so far
+     * @param numbers (output) numbers of the commands found
+     */
+    private void addIfMatching(int index, String[] lowerCaseTerms, Set<String> entriesFound,
+            List<Integer> numbers) {
+        String entry = getEntry(index);
+        if (isMatching(entry, lowerCaseTerms) && entriesFound.add(entry)) {
+            numbers.add(index + 1);
+        }
+    }
+
+    /**
+     * Writes the buffered commands to the log
+     * @throws IOException error writing the log
+     */
+    private void flush() throws IOException {
+        mWriteBuffer.flip();
+        try {
+            writeFully(mWriteBuffer);
+        } finally {
+            mWriteBuffer.clear();
+        }
+    }
+
+    /**
+     * @param buffer whole lines to append to the log
+     * @throws IOException error writing the log
+     */
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        if (!buffer.hasRemaining()) {
+            return;
+        }
+        synchronized(LOG_MONITOR) {
+            FileLock lock = lockLog();
+            try {
+                while(buffer.hasRemaining()) {
+                    mLogChannel.write(buffer);
+                    mIsUnsynced = true;
+                }
+            } finally {
+                lock.release();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the log, in the background, if it holds a quarter more
+     * commands than it's to retain
+     */
+    private synchronized void compactIfNeeded() {
+        if (!isCompactionNeeded()) {
+            return;
+        }
+        mIsCompacting = true;
+        mBackgroundExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    compact();
+                } catch(Throwable t) {
+                    // "old college try" ;-) - tried again once more commands are added
+                } finally {
+                    synchronized(CliHistoryDb.this) {
+                        mIsCompacting = false;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true if the log holds a quarter more commands than it's to
+     * retain, and isn't already being rewritten
+     */
+    private synchronized boolean isCompactionNeeded() {
+        return mLogChannel != null && !mIsCompacting
+            && mLogCount > mMaxEntries + mMaxEntries / 4;
+    }
+
+    /**
+     * Rewrites the log with only the latest commands it's to retain
+     * @throws IOException error rewriting the log
+     */
+    private synchronized void compact() throws IOException {
+
+        if (mLogChannel == null) {
+            return;
+        }
+        flush();
+
+        synchronized(LOG_MONITOR) {
+            FileLock lock = lockLog();
+            File compactedFile = null;
+            try {
+
+                // the log as the other sessions have left it too
+                // NOTE: a partial last line (e.g., of a session that crashed) is dropped
+                byte[] log = Files.readAllBytes(mFile.toPath());
+                int end = 0;
+                int count = 0;
+                for (int i = 0; i < log.length; i++) {
+                    if (log[i] == '\n') {
+                        end = i + 1;
+                        count++;
+                    }
+                }
+                int start = 0;
+                for (int skipped = 0; skipped < count - mMaxEntries; start++) {
+                    if (log[start] == '\n') {
+                        skipped++;
+                    }
+                }
+
+                // replace it while locked, so that no session appends to the old one
+                if (start > 0 || end < log.length) {
+                    compactedFile = Files.createTempFile(
+                        mFile.getAbsoluteFile().getParentFile().toPath(), mFile.getName(), ".tmp")
+                        .toFile();
+                    OutputStream compactedOutputStream = new FileOutputStream(compactedFile);
+                    try {
+                        compactedOutputStream.write(log, start, end - start);
+                    } finally {
+                        compactedOutputStream.close();
+                    }
+                    Files.move(compactedFile.toPath(), mFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                mLogCount = Math.min(count, mMaxEntries);
+
+            } finally {
+                lock.release();
+                if (compactedFile != null) {
+                    compactedFile.delete();
+                }
+            }
+        }
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param lowerCaseText text, in lower case
+     * @param ngrams (output) the character sequences of <code>lowerCaseText</code>,
+     * each packed into a long
+     */
+    private static void addNgrams(String lowerCaseText, Set<Long> ngrams) {
+        for (int i = 0; i + NGRAM_LENGTH <= lowerCaseText.length(); i++) {
+            long ngram = 0;
+            for (int j = 0; j < NGRAM_LENGTH; j++) {
+                ngram = (ngram << 16) | lowerCaseText.charAt(i + j);
+            }
+            ngrams.add(ngram);
+        }
+    }
+
+    /**
+     * @param entry command
+     * @param lowerCaseTerms search terms, in lower case
+     * @return true if <code>entry</code> contains all of the terms (regardless of case)
+     */
+    private static boolean isMatching(String entry, String[] lowerCaseTerms) {
+        String lowerCaseEntry = entry.toLowerCase();
+        for (String term : lowerCaseTerms) {
+            if (!lowerCaseEntry.contains(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param values ascending values
+     * @param postings ascending values
+     * @return the values in both, ascending
+     */
+    private static int[] intersect(int[] values, IntList postings) {
+        int[] intersection = new int[values.length];
+        int count = 0;
+        int j = 0;
+        for (int value : values) {
+            while(j < postings.mSize && postings.mValues[j] < value) {
+                j++;
+            }
+            if (j < postings.mSize && postings.mValues[j] == value) {
+                intersection[count++] = value;
+            }
+        }
+        return Arrays.copyOf(intersection, count);
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Growable list of ints, without boxing them
+     */
+    private static class IntList {
+
+        /** the values, followed by room for more */
+        private int[] mValues = new int[4];
+
+        /** number of values */
+        private int mSize;
+
+        /**
+         * @param value value to append
+         */
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+    }
+
+}
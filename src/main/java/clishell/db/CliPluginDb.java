@@ -12,7 +12,7 @@
 
 package clishell.db;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -24,6 +24,10 @@ import clishell.ex.CliRejectedInputException;
  * Encapsulates data structures used to store and quickly search plugins
  * to / from the set of plugins currently loaded into the CLI.
  *
+ * The plugin map is never changed once published: adding or removing a
+ * plugin builds a new one, which replaces the current one at once, so
+ * that plugins are looked up and listed without locking or copying.
+ *
  */
 public class CliPluginDb<T extends NamedPlugin> {
 
@@ -33,10 +37,10 @@ public class CliPluginDb<T extends NamedPlugin> {
     //
 
     /**
-     * Maps plugin names to plugin instances
+     * Maps plugin names to plugin instances; replaced, never changed
      * NOTE: use of <code>LinkedHashMap</code> to preserve ordering of entries
      */
-    private final Map<String, T> mPluginMap = new LinkedHashMap<String, T>();
+    private volatile Map<String, T> mPluginMap = Collections.emptyMap();
 
 
     //
@@ -50,22 +54,30 @@ public class CliPluginDb<T extends NamedPlugin> {
      * a plugin with the same identifier (<code>pluginName</code>)
      * is already contained in the plugin database.
      */
-    public void addPlugin(String pluginName, T namedPlugin)
+    public synchronized void addPlugin(String pluginName, T namedPlugin)
         throws CliRejectedInputException {
         if (mPluginMap.get(pluginName) != null) {
             throw new CliRejectedInputException("plugin named '"
                 + pluginName
                 + "' already loaded");
         }
-        mPluginMap.put(pluginName, namedPlugin);
+        Map<String, T> pluginMap = new LinkedHashMap<String, T>(mPluginMap);
+        pluginMap.put(pluginName, namedPlugin);
+        mPluginMap = Collections.unmodifiableMap(pluginMap);
     }
 
     /**
      * @param pluginName name of plugin to remove
      * @return metadata for plugin removed, or <code>null</code> if not found
      */
-    public T removePlugin(String pluginName) {
-        return mPluginMap.remove(pluginName);
+    public synchronized T removePlugin(String pluginName) {
+        if (!mPluginMap.containsKey(pluginName)) {
+            return null;
+        }
+        Map<String, T> pluginMap = new LinkedHashMap<String, T>(mPluginMap);
+        T namedPlugin = pluginMap.remove(pluginName);
+        mPluginMap = Collections.unmodifiableMap(pluginMap);
+        return namedPlugin;
     }
 
     /**
@@ -78,10 +90,11 @@ public class CliPluginDb<T extends NamedPlugin> {
 
     /**
      * @return iterable to list of plugins in the order they
-     * were loaded into the plugin database
+     * were loaded into the plugin database (as of the call, unaffected
+     * by plugins added or removed later)
      */
     public Iterable<T> cliPlugins() {
-        return new ArrayList<T>(mPluginMap.values());
+        return mPluginMap.values();
     }
 
     /**
@@ -89,7 +102,7 @@ public class CliPluginDb<T extends NamedPlugin> {
      * were loaded into the database
      */
     public Iterable<String> cliPluginNames() {
-        return new ArrayList<String>(mPluginMap.keySet());
+        return mPluginMap.keySet();
     }
 
 
@@ -0,0 +1,52 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.ex;
+
+
+/**
+ *
+ * Signals that a command was cancelled (e.g., by the user pressing Ctrl-C,
+ * quitting the output pager, or using the "cancel" command) before it
+ * finished.
+ *
+ */
+public class CliCommandCancelledException extends CliRunnerException {
+
+    /**
+     *
+     */
+    private static final long serialVersionUID = 2911783L;
+
+    /**
+     *
+     */
+    public CliCommandCancelledException() {
+        // nothing to do
+    }
+
+    /**
+     * @param message exception message
+     */
+    public CliCommandCancelledException(String message) {
+        super(message);
+    }
+
+    /**
+     * @param message exception message
+     * @param throwable nested exception
+     */
+    public CliCommandCancelledException(String message, Throwable throwable) {
+        super(message, throwable);
+    }
+
+}
@@ -0,0 +1,33 @@
+package clishell.net;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ *  Signals that a server responded to a request for a resource with an
+ *  error status (400 or above).
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** status code of the response */
+    private final int mStatusCode;
+
+    /**
+     * @param statusCode status code of the response
+     * @param url URL of the resource requested
+     */
+    public HttpStatusException(int statusCode, URL url) {
+        super("Server returned HTTP response code: " + statusCode + " for URL: " + url);
+        mStatusCode = statusCode;
+    }
+
+    /**
+     * @return status code of the response
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+}
@@ -0,0 +1,477 @@
+package clishell.net;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import clishell.util.BatchUtil;
+
+/**
+ *  Downloads an HTTP resource into a file using several concurrent
+ *  requests, each retrieving a range of its bytes.
+ *
+ *  The server is first asked for the resource's first byte: if it answers
+ *  with a partial response (206) giving the resource's length, the file is
+ *  preallocated, and the ranges are retrieved by a pool of threads, each
+ *  writing into its part of the file.  A range whose retrieval fails is
+ *  retrieved again (from where it left off), up to a few times.  If the
+ *  server doesn't support ranges, the resource is downloaded using the
+ *  (complete) response to that first request, or (if the server can't
+ *  satisfy it, as for an empty resource) to the same request without a
+ *  range.
+ *
+ *  Ranged requests are made conditional on the resource being unchanged
+ *  (<code>If-Range</code>), so a resource changing during the download
+ *  isn't assembled from different versions.
+ */
+public class SegmentedDownloader {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     *  Outcome of a download
+     */
+    public static class Result {
+
+        /** number of bytes downloaded */
+        private final long mLength;
+
+        /** number of ranges retrieved concurrently, or 1 if downloaded as a whole */
+        private final int mSegmentCount;
+
+        /** number of times retrieving a range was retried */
+        private final int mRetryCount;
+
+        /** number of milliseconds taken */
+        private final long mMillis;
+
+        /**
+         * @param length number of bytes downloaded
+         * @param segmentCount number of ranges retrieved concurrently
+         * @param retryCount number of times retrieving a range was retried
+         * @param millis number of milliseconds taken
+         */
+        Result(long length, int segmentCount, int retryCount, long millis) {
+            mLength = length;
+            mSegmentCount = segmentCount;
+            mRetryCount = retryCount;
+            mMillis = millis;
+        }
+
+        /**
+         * @return number of bytes downloaded
+         */
+        public long getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return number of ranges retrieved concurrently, or 1 if the
+         * resource was downloaded as a whole
+         */
+        public int getSegmentCount() {
+            return mSegmentCount;
+        }
+
+        /**
+         * @return number of times retrieving a range was retried
+         */
+        public int getRetryCount() {
+            return mRetryCount;
+        }
+
+        /**
+         * @return number of milliseconds taken
+         */
+        public long getMillis() {
+            return mMillis;
+        }
+
+        /**
+         * @return human-readable description of the outcome
+         */
+        @Override
+        public String toString() {
+            return String.format("%d bytes in %.1fs (%.2f MB/s), %s%s",
+                mLength, mMillis / 1000.0,
+                mLength * 1000.0 / Math.max(1, mMillis) / (1024 * 1024),
+                (mSegmentCount > 1) ? mSegmentCount + " segments" : "single stream",
+                (mRetryCount > 0) ? ", " + mRetryCount + " retries" : "");
+        }
+
+    }
+
+
+    //
+    //  Public class data
+    //
+
+    /** default number of times retrieving a range is retried */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /** smallest range retrieved by a request of its own */
+    public static final long MIN_SEGMENT_SIZE = 64 * 1024;
+
+
+    //
+    //  Private class data
+    //
+
+    /** size of the buffers used to copy ranges into the file */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** number of milliseconds waited before retrying a range, times the attempt number */
+    private static final long RETRY_DELAY_MILLIS = 250;
+
+    /** <code>Content-Range</code> header of a partial response */
+    private static final Pattern CONTENT_RANGE_PATTERN
+        = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+
+
+    //
+    //  Private instance data
+    //
+
+    /** URL of the resource (which may contain authentication credentials) */
+    private final URL mUrl;
+
+    /** means by which the ranges are retrieved */
+    private final UrlResourceInputStream.Transport mTransport;
+
+    /** maximum number of ranges retrieved concurrently */
+    private final int mMaxSegmentCount;
+
+    /** number of times retrieving a range is retried */
+    private final int mMaxRetries;
+
+    /** number of times retrieving a range was retried */
+    private final AtomicInteger mRetryCount = new AtomicInteger();
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param url URL of the resource (which may contain authentication credentials)
+     * @param transport means by which the resource is retrieved
+     * @param maxSegmentCount maximum number of ranges retrieved concurrently
+     * @param maxRetries number of times retrieving a range is retried
+     */
+    public SegmentedDownloader(URL url, UrlResourceInputStream.Transport transport,
+            int maxSegmentCount, int maxRetries) {
+        mUrl = url;
+        mTransport = transport;
+        mMaxSegmentCount = Math.max(1, maxSegmentCount);
+        mMaxRetries = Math.max(0, maxRetries);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Downloads the resource, blocking until done
+     * @param file file receiving the resource (replaced if it exists; removed
+     * if the download fails)
+     * @return outcome of the download
+     * @throws IOException error retrieving the resource (after retries), or
+     * its length, or that of a range, isn't as announced; if interrupted, an
+     * <code>InterruptedIOException</code>
+     */
+    public Result download(File file) throws IOException {
+
+        long startTime = System.currentTimeMillis();
+        mRetryCount.set(0);
+
+        Map<String, String> requestHeaders = new HashMap<String, String>();
+        requestHeaders.put("Range", "bytes=0-0");
+        // NOTE: ranges are of the content as sent, so it mustn't be compressed
+        requestHeaders.put("Accept-Encoding", "identity");
+        UrlResourceInputStream probeInputStream;
+        try {
+            probeInputStream = new UrlResourceInputStream(mUrl, null, null,
+                mTransport, requestHeaders);
+        } catch(HttpStatusException hse) {
+            if (hse.getStatusCode() != 416) {
+                throw hse;
+            }
+            // NOTE: an empty resource has no first byte to ask for; no ranges, then
+            requestHeaders.remove("Range");
+            probeInputStream = new UrlResourceInputStream(mUrl, null, null,
+                mTransport, requestHeaders);
+        }
+
+        boolean isDownloaded = false;
+        RandomAccessFile randomAccessFile = null;
+        try {
+
+            randomAccessFile = new RandomAccessFile(file, "rw");
+            FileChannel fileChannel = randomAccessFile.getChannel();
+            fileChannel.truncate(0);
+
+            Matcher matcher = CONTENT_RANGE_PATTERN.matcher(
+                String.valueOf(probeInputStream.getResponseHeader("Content-Range")));
+            if (probeInputStream.getStatusCode() != 206 || !matcher.find()) {
+
+                // no ranges, then: download it using the response we've got
+                long length = copy(probeInputStream, fileChannel, 0, Long.MAX_VALUE);
+                String contentLength = probeInputStream.getResponseHeader("Content-Length");
+                if (contentLength != null && Long.parseLong(contentLength.trim()) != length) {
+                    throw new IOException("expected " + contentLength.trim()
+                        + " bytes but received " + length + " from " + mUrl);
+                }
+                isDownloaded = true;
+                return new Result(length, 1, 0, System.currentTimeMillis() - startTime);
+            }
+
+            long length = Long.parseLong(matcher.group(3));
+            String validator = probeInputStream.getResponseHeader("ETag");
+            if (validator == null || validator.startsWith("W/")) {
+                // NOTE: weak entity tags can't be used with If-Range
+                validator = probeInputStream.getResponseHeader("Last-Modified");
+            }
+            probeInputStream.close();
+
+            randomAccessFile.setLength(length);
+            int segmentCount = (int) Math.max(1, Math.min(mMaxSegmentCount,
+                (length + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE));
+            // NOTE: every range is checked to have been received in full
+            downloadSegments(fileChannel, length, segmentCount, validator);
+
+            fileChannel.force(false);
+            isDownloaded = true;
+            return new Result(length, segmentCount, mRetryCount.get(),
+                System.currentTimeMillis() - startTime);
+
+        } finally {
+
+            try {
+                probeInputStream.close();
+            } catch(Throwable t) {
+                // "old college try" ;-)
+            }
+            if (randomAccessFile != null) {
+                try {
+                    randomAccessFile.close();
+                } catch(Throwable t) {
+                    // "old college try" ;-)
+                }
+            }
+            if (!isDownloaded) {
+                file.delete();
+            }
+
+        }
+
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * Copies a stream into a file, at a given position
+     * @param inputStream stream to copy
+     * @param fileChannel channel of the file
+     * @param position position in the file of the first byte
+     * @param maxLength maximum number of bytes copied
+     * @return number of bytes copied (fewer than <code>maxLength</code>
+     * if the stream ended)
+     * @throws IOException error reading the stream or writing the file
+     */
+    private static long copy(InputStream inputStream, FileChannel fileChannel, long position,
+            long maxLength) throws IOException {
+
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long nCopied = 0;
+        int nRead;
+        while(nCopied < maxLength
+                && (nRead = inputStream.read(buffer, 0,
+                    (int) Math.min(buffer.length, maxLength - nCopied))) >= 0) {
+            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, nRead);
+            while(byteBuffer.hasRemaining()) {
+                // NOTE: positional writes leave the channel's position alone, so
+                // several threads can write into the file at once
+                nCopied += fileChannel.write(byteBuffer, position + nCopied);
+            }
+        }
+        return nCopied;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Retrieves all ranges of the resource, concurrently
+     * @param fileChannel channel of the (preallocated) file
+     * @param length number of bytes of the resource
+     * @param segmentCount number of ranges
+     * @param validator entity tag or modification time of the resource, or <code>null</code>
+     * @throws IOException error retrieving a range (after retries)
+     */
+    private void downloadSegments(final FileChannel fileChannel, final long length,
+            int segmentCount, final String validator) throws IOException {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(segmentCount,
+            BatchUtil.newWorkerThreadFactory("download"));
+
+        try {
+
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            long segmentSize = (length + segmentCount - 1) / segmentCount;
+            for (long start = 0; start < length; start += segmentSize) {
+                final long segmentStart = start;
+                final long segmentEnd = Math.min(length, start + segmentSize) - 1;
+                futures.add(executorService.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        downloadSegment(fileChannel, length, segmentStart, segmentEnd, validator);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch(ExecutionException ee) {
+                    if (ee.getCause() instanceof IOException) {
+                        throw (IOException) ee.getCause();
+                    }
+                    throw new IOException("error downloading " + mUrl + ": "
+                        + ee.getCause(), ee.getCause());
+                }
+            }
+
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted downloading " + mUrl);
+        } finally {
+            executorService.shutdownNow();
+        }
+
+    }
+
+    /**
+     * Retrieves a range of the resource, retrying from where it left off
+     * @param fileChannel channel of the (preallocated) file
+     * @param length number of bytes of the resource
+     * @param start position of the first byte of the range
+     * @param end position of the last byte of the range
+     * @param validator entity tag or modification time of the resource, or <code>null</code>
+     * @throws IOException error retrieving the range (after retries), or
+     * the server sent another range than the one requested
+     */
+    private void downloadSegment(FileChannel fileChannel, long length, long start, long end,
+            String validator) throws IOException {
+
+        long position = start;
+        for (int attempt = 0; ; attempt++) {
+
+            Map<String, String> requestHeaders = new HashMap<String, String>();
+            requestHeaders.put("Range", "bytes=" + position + "-" + end);
+            requestHeaders.put("Accept-Encoding", "identity");
+            if (validator != null) {
+                requestHeaders.put("If-Range", validator);
+            }
+
+            try {
+
+                UrlResourceInputStream inputStream = new UrlResourceInputStream(mUrl, null, null,
+                    mTransport, requestHeaders);
+                try {
+                    if (inputStream.getStatusCode() != 206) {
+                        // NOTE: the whole resource is sent if it's changed (If-Range)
+                        throw new ResourceChangedException("resource changed while downloading "
+                            + mUrl + " (HTTP status " + inputStream.getStatusCode() + ")");
+                    }
+                    String contentRange = inputStream.getResponseHeader("Content-Range");
+                    Matcher matcher = CONTENT_RANGE_PATTERN.matcher(String.valueOf(contentRange));
+                    if (!matcher.find() || Long.parseLong(matcher.group(1)) != position) {
+                        throw new IOException("requested range " + position + "-" + end
+                            + " of " + mUrl + " but received " + contentRange);
+                    }
+                    if (Long.parseLong(matcher.group(3)) != length) {
+                        throw new ResourceChangedException("resource changed while downloading "
+                            + mUrl + " (length " + matcher.group(3) + " instead of " + length + ")");
+                    }
+                    position += copy(inputStream, fileChannel, position, end - position + 1);
+                } finally {
+                    inputStream.close();
+                }
+                if (position > end) {
+                    return;
+                }
+                if (attempt >= mMaxRetries) {
+                    throw new IOException("range " + start + "-" + end + " of " + mUrl
+                        + " ended after " + (position - start) + " bytes");
+                }
+
+            } catch(ResourceChangedException rce) {
+                throw rce;
+            } catch(InterruptedIOException iioe) {
+                throw iioe;
+            } catch(IOException ioex) {
+                if (attempt >= mMaxRetries || Thread.currentThread().isInterrupted()) {
+                    throw ioex;
+                }
+            }
+
+            mRetryCount.incrementAndGet();
+            try {
+                Thread.sleep(RETRY_DELAY_MILLIS * (attempt + 1));
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted downloading " + mUrl);
+            }
+        }
+
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     *  Signals that the resource changed during the download (so that
+     *  retrying a range is pointless)
+     */
+    private static class ResourceChangedException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * @param message description of the change
+         */
+        ResourceChangedException(String message) {
+            super(message);
+        }
+
+    }
+
+}
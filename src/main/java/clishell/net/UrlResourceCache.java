@@ -0,0 +1,824 @@
+package clishell.net;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ *  A size-bounded, on-disk cache of HTTP resources retrieved by
+ *  {@link UrlResourceInputStream}, so that resources fetched again and
+ *  again are transferred only when they've changed.
+ *
+ *  Each resource's body is kept in a file, next to a file of its metadata
+ *  (its <code>ETag</code>, <code>Last-Modified</code> and freshness lifetime,
+ *  from <code>Cache-Control: max-age</code> or <code>Expires</code>).  A
+ *  fresh resource is served from the cache; a stale one is revalidated
+ *  using a conditional GET, and served from the cache if the server says it
+ *  hasn't been modified (304).  In "offline" mode, cached resources are
+ *  served however stale they are, without contacting the server.
+ *
+ *  Cached bodies are read through memory-mapped files.  When the bodies
+ *  exceed the cache's size, the least recently used are evicted.
+ *  Resources sent with <code>Cache-Control: no-store</code> aren't cached,
+ *  nor are those requested with credentials.
+ *
+ *  The cache's directory, and its files, are accessible by the user only;
+ *  a directory owned by another user, or writable by others (who could
+ *  plant entries in it), isn't used.
+ */
+public class UrlResourceCache {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     *  Description of a cached resource
+     */
+    public static class Entry {
+
+        /** URL of the resource (without credentials) */
+        private final String mUrl;
+
+        /** name of the files of the entry (without suffix) */
+        private final String mFileName;
+
+        /** number of bytes in the body */
+        private long mLength;
+
+        /** entity tag of the resource, or <code>null</code> */
+        private String mETag;
+
+        /** last modification time sent by the server, as sent, or <code>null</code> */
+        private String mLastModified;
+
+        /** time the resource was last retrieved or revalidated */
+        private long mValidatedTime;
+
+        /** time after which the resource is stale, or zero if it always is */
+        private long mExpiresTime;
+
+        /** number of times the entry was served */
+        private long mHitCount;
+
+        /**
+         * @param url URL of the resource
+         * @param fileName name of the files of the entry (without suffix)
+         */
+        Entry(String url, String fileName) {
+            mUrl = url;
+            mFileName = fileName;
+        }
+
+        /**
+         * @return URL of the resource (without credentials)
+         */
+        public String getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * @return number of bytes in the body
+         */
+        public long getLength() {
+            return mLength;
+        }
+
+        /**
+         * @return entity tag of the resource, or <code>null</code>
+         */
+        public String getETag() {
+            return mETag;
+        }
+
+        /**
+         * @return last modification time sent by the server, or <code>null</code>
+         */
+        public String getLastModified() {
+            return mLastModified;
+        }
+
+        /**
+         * @return true if the resource can be used without revalidating it
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < mExpiresTime;
+        }
+
+        /**
+         * @return number of times the entry was served
+         */
+        public long getHitCount() {
+            return mHitCount;
+        }
+
+        /**
+         * @return human-readable description of the entry
+         */
+        @Override
+        public String toString() {
+            return mUrl
+                + " (" + mLength + " bytes"
+                + ", " + (isFresh() ? "fresh" : "stale")
+                + ", validated " + ((System.currentTimeMillis() - mValidatedTime) / 1000) + "s ago"
+                + ((mETag != null) ? ", ETag " + mETag : "")
+                + ((mLastModified != null) ? ", Last-Modified " + mLastModified : "")
+                + ", " + mHitCount + " hit(s))";
+        }
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** suffix of the files holding bodies */
+    private static final String BODY_SUFFIX = ".body";
+
+    /** suffix of the files holding metadata */
+    private static final String META_SUFFIX = ".meta";
+
+    /** "max-age" (or "s-maxage") directive of a <code>Cache-Control</code> header */
+    private static final Pattern MAX_AGE_PATTERN
+        = Pattern.compile("(?:^|[,\\s])s?-?max-?age\\s*=\\s*\"?(\\d+)");
+
+
+    //
+    //  Private instance data
+    //
+
+    /** directory containing the cache's files */
+    private final File mDirectory;
+
+    /** maximum number of bytes of bodies kept */
+    private final long mMaxBytes;
+
+    /**
+     * Maps URLs to entries
+     * NOTE: use of access-ordered <code>LinkedHashMap</code> to evict
+     * the least recently used
+     */
+    private final LinkedHashMap<String, Entry> mEntries
+        = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /** number of bytes of bodies kept */
+    private long mTotalBytes;
+
+    /** number of resources served from the cache without contacting the server */
+    private long mHitCount;
+
+    /** number of resources served from the cache after the server said they're unmodified */
+    private long mRevalidatedCount;
+
+    /** number of resources served from the cache in offline mode, although stale */
+    private long mStaleHitCount;
+
+    /** number of resources retrieved from the server */
+    private long mMissCount;
+
+    /** number of entries evicted to stay within bounds */
+    private long mEvictionCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param directory directory containing the cache's files (created
+     * if needed, accessible by the user only); entries already there are kept
+     * @param maxBytes maximum number of bytes of bodies kept
+     * @throws IOException couldn't create the directory, or it's owned by
+     * another user, or writable by others
+     */
+    public UrlResourceCache(File directory, long maxBytes) throws IOException {
+        mDirectory = directory;
+        mMaxBytes = maxBytes;
+        createPrivateDirectory(directory.toPath());
+        loadEntries();
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @param url URL of an HTTP resource (which may contain authentication credentials)
+     * @param userName default user name to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used)
+     * @param password default password to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used)
+     * @param transport means by which the resource is retrieved, if it is
+     * @param isOffline if set, a cached resource is served however stale,
+     * and a resource not cached isn't retrieved
+     * @return stream of the resource's body
+     * @throws IOException error retrieving the resource, or (offline)
+     * the resource isn't cached
+     */
+    public InputStream open(URL url, String userName, String password,
+            UrlResourceInputStream.Transport transport, boolean isOffline) throws IOException {
+
+        String key = getKey(url);
+
+        // NOTE: a resource requested with credentials isn't cached, lest it be
+        // served to a request without them (or with others)
+        if (url.getUserInfo() != null || userName != null || password != null) {
+            if (isOffline) {
+                throw new IOException("offline, and resources requested with credentials"
+                    + " aren't cached: " + key);
+            }
+            return new UrlResourceInputStream(url, userName, password, transport);
+        }
+
+        Map<String, String> requestHeaders = new HashMap<String, String>();
+        synchronized(this) {
+            Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (entry.isFresh() || isOffline) {
+                    if (entry.isFresh()) {
+                        mHitCount++;
+                    } else {
+                        mStaleHitCount++;
+                    }
+                    return openBody(entry);
+                }
+                if (entry.mETag != null) {
+                    requestHeaders.put("If-None-Match", entry.mETag);
+                }
+                if (entry.mLastModified != null) {
+                    requestHeaders.put("If-Modified-Since", entry.mLastModified);
+                }
+            } else if (isOffline) {
+                throw new IOException("offline, and not in resource cache: " + key);
+            }
+        }
+
+        UrlResourceInputStream inputStream = new UrlResourceInputStream(url, userName, password,
+            transport, requestHeaders);
+        File bodyFile = null;
+        try {
+
+            if (inputStream.getStatusCode() == 304) {
+                synchronized(this) {
+                    Entry entry = mEntries.get(key);
+                    if (entry != null) {
+                        mRevalidatedCount++;
+                        setValidation(entry, inputStream);
+                        writeMetadata(entry);
+                        return openBody(entry);
+                    }
+                }
+                // NOTE: evicted meanwhile; fetch it again, unconditionally
+                inputStream.close();
+                return open(url, userName, password, transport, false);
+            }
+
+            synchronized(this) {
+                mMissCount++;
+            }
+
+            // keep the body, then serve it from the cache
+            // NOTE: created accessible by the user only (where supported)
+            bodyFile = Files.createTempFile(mDirectory.toPath(), "fetch", ".tmp").toFile();
+            OutputStream outputStream = new FileOutputStream(bodyFile);
+            try {
+                inputStream.transferTo(outputStream);
+            } finally {
+                outputStream.close();
+            }
+
+            String cacheControl = inputStream.getResponseHeader("Cache-Control");
+            if (inputStream.getStatusCode() != 200 || bodyFile.length() > mMaxBytes
+                    || (cacheControl != null && cacheControl.toLowerCase().contains("no-store"))) {
+                // not to be cached: serve it from the (already deleted) file
+                InputStream bodyInputStream = openMapped(bodyFile);
+                bodyFile.delete();
+                bodyFile = null;
+                return bodyInputStream;
+            }
+
+            synchronized(this) {
+                Entry entry = mEntries.remove(key);
+                if (entry != null) {
+                    mTotalBytes -= entry.mLength;
+                } else {
+                    entry = new Entry(key, getFileName(key));
+                }
+                entry.mLength = bodyFile.length();
+                entry.mETag = inputStream.getResponseHeader("ETag");
+                entry.mLastModified = inputStream.getResponseHeader("Last-Modified");
+                setValidation(entry, inputStream);
+                Files.move(bodyFile.toPath(), getBodyFile(entry).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+                bodyFile = null;
+                writeMetadata(entry);
+                mEntries.put(key, entry);
+                mTotalBytes += entry.mLength;
+                evict();
+                return openBody(entry);
+            }
+
+        } finally {
+
+            try {
+                inputStream.close();
+            } catch(Throwable t) {
+                // "old college try" ;-)
+            }
+            if (bodyFile != null) {
+                bodyFile.delete();
+            }
+
+        }
+
+    }
+
+    /**
+     * @param urlPattern pattern of the URLs of the entries to remove, in
+     * which '*' matches any characters
+     * @return number of entries removed
+     */
+    public synchronized int purge(String urlPattern) {
+        StringBuilder regex = new StringBuilder();
+        for (String literal : urlPattern.split("\\*", -1)) {
+            if (regex.length() > 0) {
+                regex.append(".*");
+            }
+            regex.append(Pattern.quote(literal));
+        }
+        Pattern pattern = Pattern.compile(regex.toString());
+        int purgeCount = 0;
+        for (Iterator<Entry> it = mEntries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (pattern.matcher(entry.mUrl).matches()) {
+                it.remove();
+                removeFiles(entry);
+                purgeCount++;
+            }
+        }
+        return purgeCount;
+    }
+
+    /**
+     * @return the entries, least recently used first
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(mEntries.values());
+    }
+
+    /**
+     * @return directory containing the cache's files
+     */
+    public File getDirectory() {
+        return mDirectory;
+    }
+
+    /**
+     * @return maximum number of bytes of bodies kept
+     */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /**
+     * @return number of bytes of bodies kept
+     */
+    public synchronized long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return number of resources served from the cache without contacting the server
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of resources served from the cache after the server
+     * said they're unmodified
+     */
+    public synchronized long getRevalidatedCount() {
+        return mRevalidatedCount;
+    }
+
+    /**
+     * @return number of resources served from the cache in offline mode, although stale
+     */
+    public synchronized long getStaleHitCount() {
+        return mStaleHitCount;
+    }
+
+    /**
+     * @return number of resources retrieved from the server
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of entries evicted to stay within bounds
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Resets the statistics (and the entries' hit counts)
+     */
+    public synchronized void clearStatistics() {
+        mHitCount = 0;
+        mRevalidatedCount = 0;
+        mStaleHitCount = 0;
+        mMissCount = 0;
+        mEvictionCount = 0;
+        for (Entry entry : mEntries.values()) {
+            entry.mHitCount = 0;
+        }
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param url URL of a resource
+     * @return key of the resource in the cache: its URL, without credentials
+     */
+    private static String getKey(URL url) {
+        String key = url.toExternalForm();
+        if (url.getUserInfo() != null) {
+            key = key.replace(url.getUserInfo() + "@", "");
+        }
+        return key;
+    }
+
+    /**
+     * Creates a directory (and its parents) if needed, accessible by the user
+     * only; an existing directory must be owned by the user, and not writable
+     * by others
+     * @param directory the directory
+     * @throws IOException couldn't create the directory, or it's unfit
+     */
+    private static void createPrivateDirectory(Path directory) throws IOException {
+
+        boolean isPosix = directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+
+        if (!Files.isDirectory(directory)) {
+            if (directory.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(directory.toAbsolutePath().getParent());
+            }
+            if (isPosix) {
+                Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(
+                    PosixFilePermissions.fromString("rwx------")));
+            } else {
+                Files.createDirectory(directory);
+            }
+            return;
+        }
+
+        UserPrincipal user;
+        try {
+            user = directory.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        } catch(IOException ioex) {
+            // can't tell who the user is; just check the permissions
+            user = null;
+        } catch(UnsupportedOperationException uoe) {
+            user = null;
+        }
+        UserPrincipal owner = Files.getOwner(directory);
+        if (user != null && !user.equals(owner)) {
+            throw new IOException("resource cache directory '" + directory
+                + "' is owned by " + owner.getName() + ", not " + user.getName());
+        }
+
+        if (isPosix) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(directory);
+            if (permissions.contains(PosixFilePermission.GROUP_WRITE)
+                    || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("resource cache directory '" + directory
+                    + "' is writable by others");
+            }
+        }
+    }
+
+    /**
+     * @param key key of a resource
+     * @return name of the files of the resource's entry (a digest of the key)
+     */
+    private static String getFileName(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(
+                key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder fileName = new StringBuilder();
+            for (byte b : digest) {
+                fileName.append(String.format("%02x", b & 0xff));
+            }
+            return fileName.toString();
+        } catch(NoSuchAlgorithmException nsae) {
+            // NOTE: can't happen; every JVM has SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /**
+     * Notes when an entry was (re)validated, and until when it's fresh
+     * @param entry the entry
+     * @param inputStream response of the server
+     */
+    private static void setValidation(Entry entry, UrlResourceInputStream inputStream) {
+
+        long now = System.currentTimeMillis();
+        entry.mValidatedTime = now;
+        entry.mExpiresTime = 0;
+
+        String cacheControl = inputStream.getResponseHeader("Cache-Control");
+        if (cacheControl != null) {
+            String lowerCaseCacheControl = cacheControl.toLowerCase();
+            if (lowerCaseCacheControl.contains("no-cache")) {
+                return;
+            }
+            Matcher matcher = MAX_AGE_PATTERN.matcher(lowerCaseCacheControl);
+            if (matcher.find()) {
+                try {
+                    entry.mExpiresTime = now + Long.parseLong(matcher.group(1)) * 1000;
+                } catch(NumberFormatException nfe) {
+                    // i.e., stale
+                }
+                return;
+            }
+        }
+
+        String expires = inputStream.getResponseHeader("Expires");
+        if (expires != null) {
+            try {
+                entry.mExpiresTime = ZonedDateTime.parse(expires.trim(),
+                    DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch(DateTimeParseException dtpe) {
+                // i.e., stale
+            }
+        }
+    }
+
+    /**
+     * @param file file to read
+     * @return stream reading the file through a memory mapping (which
+     * remains valid after the file is removed)
+     * @throws IOException error mapping the file
+     */
+    private static InputStream openMapped(File file) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (fileChannel.size() > Integer.MAX_VALUE) {
+                // too big to map at once; read it
+                return new FileInputStream(file);
+            }
+            return new ByteBufferInputStream(
+                fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size()));
+        } finally {
+            fileChannel.close();
+        }
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param entry an entry
+     * @return file holding the entry's body
+     */
+    private File getBodyFile(Entry entry) {
+        return new File(mDirectory, entry.mFileName + BODY_SUFFIX);
+    }
+
+    /**
+     * @param entry an entry
+     * @return file holding the entry's metadata
+     */
+    private File getMetaFile(Entry entry) {
+        return new File(mDirectory, entry.mFileName + META_SUFFIX);
+    }
+
+    /**
+     * Serves an entry's body, noting its use
+     * @param entry the entry
+     * @return stream of the entry's body
+     * @throws IOException error mapping the body
+     */
+    private InputStream openBody(Entry entry) throws IOException {
+        entry.mHitCount++;
+        // NOTE: the metadata file's time notes when the entry was last used
+        getMetaFile(entry).setLastModified(System.currentTimeMillis());
+        return openMapped(getBodyFile(entry));
+    }
+
+    /**
+     * Writes an entry's metadata file
+     * @param entry the entry
+     * @throws IOException error writing the file
+     */
+    private void writeMetadata(Entry entry) throws IOException {
+        Properties metadata = new Properties();
+        metadata.setProperty("url", entry.mUrl);
+        metadata.setProperty("length", String.valueOf(entry.mLength));
+        if (entry.mETag != null) {
+            metadata.setProperty("etag", entry.mETag);
+        }
+        if (entry.mLastModified != null) {
+            metadata.setProperty("last-modified", entry.mLastModified);
+        }
+        metadata.setProperty("validated", String.valueOf(entry.mValidatedTime));
+        metadata.setProperty("expires", String.valueOf(entry.mExpiresTime));
+
+        File tempFile = Files.createTempFile(mDirectory.toPath(), "meta", ".tmp").toFile();
+        OutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            metadata.store(outputStream, null);
+        } finally {
+            outputStream.close();
+        }
+        Files.move(tempFile.toPath(), getMetaFile(entry).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Loads the entries kept in the cache's directory, most recently used
+     * last, removing any files left incomplete
+     */
+    private void loadEntries() {
+
+        File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File file1, File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+
+        for (File file : files) {
+            String name = file.getName();
+            if (name.endsWith(".tmp")) {
+                file.delete();
+                continue;
+            }
+            if (!name.endsWith(META_SUFFIX)) {
+                continue;
+            }
+            Properties metadata = new Properties();
+            try {
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    metadata.load(inputStream);
+                } finally {
+                    inputStream.close();
+                }
+                Entry entry = new Entry(metadata.getProperty("url"),
+                    name.substring(0, name.length() - META_SUFFIX.length()));
+                entry.mLength = Long.parseLong(metadata.getProperty("length"));
+                entry.mETag = metadata.getProperty("etag");
+                entry.mLastModified = metadata.getProperty("last-modified");
+                entry.mValidatedTime = Long.parseLong(metadata.getProperty("validated"));
+                entry.mExpiresTime = Long.parseLong(metadata.getProperty("expires"));
+                if (entry.mUrl == null || getBodyFile(entry).length() != entry.mLength) {
+                    throw new IOException("incomplete entry");
+                }
+                mEntries.put(entry.mUrl, entry);
+                mTotalBytes += entry.mLength;
+            } catch(Exception ex) {
+                // unusable; forget it
+                file.delete();
+                new File(mDirectory, name.substring(0, name.length() - META_SUFFIX.length())
+                    + BODY_SUFFIX).delete();
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Evicts the least recently used entries until within bounds
+     */
+    private void evict() {
+        for (Iterator<Entry> it = mEntries.values().iterator();
+                mTotalBytes > mMaxBytes && it.hasNext(); ) {
+            Entry entry = it.next();
+            it.remove();
+            removeFiles(entry);
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Removes an entry's files, noting the bytes freed
+     * @param entry the entry, no longer in the cache
+     */
+    private void removeFiles(Entry entry) {
+        mTotalBytes -= entry.mLength;
+        getMetaFile(entry).delete();
+        getBodyFile(entry).delete();
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     *  Stream reading a (memory-mapped) buffer
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        /** the buffer, positioned at the next byte to read */
+        private final ByteBuffer mByteBuffer;
+
+        /**
+         * @param byteBuffer the buffer
+         */
+        ByteBufferInputStream(ByteBuffer byteBuffer) {
+            mByteBuffer = byteBuffer;
+        }
+
+        /**
+         * @see InputStream#read()
+         */
+        @Override
+        public int read() {
+            return mByteBuffer.hasRemaining() ? (mByteBuffer.get() & 0xff) : -1;
+        }
+
+        /**
+         * @see InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!mByteBuffer.hasRemaining()) {
+                return -1;
+            }
+            int nRead = Math.min(len, mByteBuffer.remaining());
+            mByteBuffer.get(b, off, nRead);
+            return nRead;
+        }
+
+        /**
+         * @see InputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) {
+            int nSkipped = (int) Math.max(0, Math.min(n, mByteBuffer.remaining()));
+            mByteBuffer.position(mByteBuffer.position() + nSkipped);
+            return nSkipped;
+        }
+
+        /**
+         * @see InputStream#available()
+         */
+        @Override
+        public int available() {
+            return mByteBuffer.remaining();
+        }
+
+    }
+
+}
@@ -1,12 +1,32 @@
 package clishell.net;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.Authenticator;
+import java.net.HttpURLConnection;
 import java.net.PasswordAuthentication;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManager;
 
 /**
  *  An input stream that will retrieve the network-based resource
@@ -15,9 +35,77 @@ import java.security.GeneralSecurityException;
  */
 public class UrlResourceInputStream extends InputStream {
 
+    /**
+     *  Means by which resources are retrieved
+     */
+    public enum Transport {
+
+        /** a <code>URLConnection</code> opened for each resource */
+        URL_CONNECTION,
+
+        /**
+         * a shared <code>java.net.http.HttpClient</code>, which reuses
+         * connections, uses HTTP/2 where the server supports it, and
+         * asks for compressed (gzip or deflate) content, decoding it;
+         * used for "http" and "https" URLs only
+         */
+        HTTP_CLIENT;
+
+        /**
+         * @param transportName name of transport (case-insensitive; '-' may be
+         * used in place of '_', e.g. "http-client")
+         * @return transport named by <code>transportName</code>
+         * @throws IllegalArgumentException unknown transport name
+         */
+        public static Transport fromName(String transportName) {
+            return valueOf(transportName.trim().toUpperCase().replace('-', '_'));
+        }
+
+    }
+
+    /** size of the buffer used to decode compressed content */
+    private static final int DECODE_BUFFER_SIZE = 8192;
+
+    /**
+     * maximum number of bytes of a response read (and discarded) when its
+     * stream is closed, so that its connection can be reused
+     */
+    private static final int DRAIN_LIMIT = 64 * 1024;
+
+    /**
+     * maximum number of redirects followed by the {@link Transport#HTTP_CLIENT}
+     * transport (as by the client itself, by default)
+     */
+    private static final int MAX_REDIRECTS = 5;
+
+    /** client shared by the {@link Transport#HTTP_CLIENT} transport, created when first needed */
+    private static HttpClient sHttpClient;
+
+    /** headers added to the request (e.g., for a conditional request) */
+    private final Map<String, String> mRequestHeaders;
+
+    /**
+     * number of milliseconds to wait for a connection, a response, or
+     * (by the {@link Transport#URL_CONNECTION} transport only) each read of
+     * its content, or zero to wait indefinitely
+     */
+    private final long mTimeoutMillis;
+
+    /** headers of the response, or <code>null</code> if not an HTTP resource */
+    private Map<String, List<String>> mResponseHeaders;
+
+    /** status code of the response, or -1 if not an HTTP resource */
+    private int mStatusCode = -1;
+
     /** the underlying InputStream */
     private final InputStream mInputStream;
 
+    /** connection of the {@link Transport#URL_CONNECTION} transport, if HTTP */
+    private volatile HttpURLConnection mHttpUrlConnection;
+
+    /** stream of the (undecoded) response of the {@link Transport#HTTP_CLIENT} transport */
+    private volatile InputStream mResponseInputStream;
+
     /**
      * @param inputStreamUrl URL endpoint of network-based resource
      * @param userName default user name to use when authenticating URL request
@@ -26,19 +114,86 @@ public class UrlResourceInputStream extends InputStream {
      * @param password default password to use when authenticating URL request
      * (may be <code>null</code> if no authentication is to be used); will be
      * overridden if authentication credentials passed in URL
+     * @param transport means by which the resource is retrieved
+     * @param requestHeaders headers added to the request, if an HTTP
+     * resource (e.g., "If-None-Match"), or <code>null</code>
+     * @param timeoutMillis number of milliseconds to wait for a connection,
+     * a response, or each read of its content, or zero to wait indefinitely;
+     * NOTE: the {@link Transport#HTTP_CLIENT} transport waits only for the
+     * headers of the response this long, not for its content, whose reads
+     * are bounded only by {@link #abort()}
+     * @throws HttpStatusException the server responded with an error status
      */
-    public UrlResourceInputStream(URL inputStreamUrl,
-        String userName, String password) throws IOException {
+    public UrlResourceInputStream(URL inputStreamUrl, String userName, String password,
+        Transport transport, Map<String, String> requestHeaders, long timeoutMillis)
+        throws IOException {
+
+        mRequestHeaders = (requestHeaders != null)
+            ? requestHeaders : Collections.<String, String>emptyMap();
+        mTimeoutMillis = Math.max(0, timeoutMillis);
 
         // if authentication credentials were specified in URL, use them
         String userInfo = inputStreamUrl.getUserInfo();
         if (userInfo != null) {
-            String[] userInfoArray = userInfo.split(":");
+            String[] userInfoArray = userInfo.split(":", 2);
             userName = userInfoArray[0];
-            password = userInfoArray[1];
+            password = (userInfoArray.length > 1) ? userInfoArray[1] : "";
         }
 
-        mInputStream = getRawInputStream(inputStreamUrl, userName, password);
+        String protocol = inputStreamUrl.getProtocol();
+        if (transport == Transport.HTTP_CLIENT
+                && ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol))) {
+            mInputStream = getHttpClientInputStream(inputStreamUrl, userName, password);
+        } else {
+            mInputStream = getRawInputStream(inputStreamUrl, userName, password);
+        }
+    }
+
+    /**
+     * @param inputStreamUrl URL endpoint of network-based resource
+     * @param userName default user name to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     * @param password default password to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     * @param transport means by which the resource is retrieved
+     * @param requestHeaders headers added to the request, if an HTTP
+     * resource (e.g., "If-None-Match"), or <code>null</code>
+     * @throws HttpStatusException the server responded with an error status
+     */
+    public UrlResourceInputStream(URL inputStreamUrl, String userName, String password,
+        Transport transport, Map<String, String> requestHeaders) throws IOException {
+        this(inputStreamUrl, userName, password, transport, requestHeaders, 0);
+    }
+
+    /**
+     * @param inputStreamUrl URL endpoint of network-based resource
+     * @param userName default user name to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     * @param password default password to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     * @param transport means by which the resource is retrieved
+     */
+    public UrlResourceInputStream(URL inputStreamUrl,
+        String userName, String password, Transport transport) throws IOException {
+        this(inputStreamUrl, userName, password, transport, null);
+    }
+
+    /**
+     * @param inputStreamUrl URL endpoint of network-based resource
+     * @param userName default user name to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     * @param password default password to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used); will be
+     * overridden if authentication credentials passed in URL
+     */
+    public UrlResourceInputStream(URL inputStreamUrl,
+        String userName, String password) throws IOException {
+        this(inputStreamUrl, userName, password, Transport.URL_CONNECTION);
     }
 
     /**
@@ -49,15 +204,71 @@ public class UrlResourceInputStream extends InputStream {
         this(inputStreamUrl, null, null);
     }
 
+    /**
+     * @return status code of the HTTP response (e.g., 304 if not modified
+     * since a conditional request), or -1 if not an HTTP resource
+     */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /**
+     * @param name name of a header (case-insensitive)
+     * @return (first) value of the header in the HTTP response, or
+     * <code>null</code> if absent, or not an HTTP resource
+     */
+    public String getResponseHeader(String name) {
+        if (mResponseHeaders == null) {
+            return null;
+        }
+        for (Map.Entry<String, List<String>> header : mResponseHeaders.entrySet()) {
+            if (name.equalsIgnoreCase(header.getKey()) && header.getValue().size() > 0) {
+                return header.getValue().get(0);
+            }
+        }
+        return null;
+    }
+
     /**
      * @see InputStream#read()
      */
     @Override
     public int read() throws IOException {
-        // TODO Auto-generated method stub
         return mInputStream.read();
     }
 
+    /**
+     * @see InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return mInputStream.read(b, off, len);
+    }
+
+    /**
+     * @see InputStream#skip(long)
+     */
+    @Override
+    public long skip(long n) throws IOException {
+        return mInputStream.skip(n);
+    }
+
+    /**
+     * @see InputStream#available()
+     */
+    @Override
+    public int available() throws IOException {
+        return mInputStream.available();
+    }
+
+    /**
+     * @see InputStream#transferTo(OutputStream)
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        return mInputStream.transferTo(out);
+    }
+
     /**
      * @see InputStream#close()
      */
@@ -66,6 +277,22 @@ public class UrlResourceInputStream extends InputStream {
         mInputStream.close();
     }
 
+    /**
+     * Drops the connection, without reading what's left of the response (as
+     * {@link #close()} may, so that it can be reused); may be called from
+     * another thread, to stop one reading a response that's taking too long
+     * @throws IOException error closing the connection
+     */
+    public void abort() throws IOException {
+        if (mHttpUrlConnection != null) {
+            mHttpUrlConnection.disconnect();
+        } else if (mResponseInputStream != null) {
+            mResponseInputStream.close();
+        } else {
+            mInputStream.close();
+        }
+    }
+
 
     //
     //  Protected instance methods
@@ -82,15 +309,6 @@ public class UrlResourceInputStream extends InputStream {
             final String userName, final String password)
         throws IOException {
 
-        if (userName != null || password != null) {
-            Authenticator.setDefault(new Authenticator() {
-                protected PasswordAuthentication getPasswordAuthentication() {
-                    return new PasswordAuthentication(userName,
-                            password.toCharArray());
-                }
-            });
-        }
-
         // connect to the website
         URLConnection urlConnection = inputStreamUrl.openConnection();
         try {
@@ -99,9 +317,291 @@ public class UrlResourceInputStream extends InputStream {
             throw new IOException(
                 "couldn't configure SSL socket to accept self signed certificate", gse);
         }
+
+        // NOTE: the credentials are given to this connection only (rather than
+        // set as the JVM's default authenticator, for all connections), and
+        // only to the host of the URL (not one it redirects to)
+        if ((userName != null || password != null)
+                && urlConnection instanceof HttpURLConnection) {
+            final String host = inputStreamUrl.getHost();
+            final int port = (inputStreamUrl.getPort() >= 0)
+                ? inputStreamUrl.getPort() : inputStreamUrl.getDefaultPort();
+            ((HttpURLConnection) urlConnection).setAuthenticator(new Authenticator() {
+                protected PasswordAuthentication getPasswordAuthentication() {
+                    if (getRequestorType() != RequestorType.SERVER
+                            || !host.equalsIgnoreCase(getRequestingHost())
+                            || port != getRequestingPort()) {
+                        return null;
+                    }
+                    return new PasswordAuthentication(userName,
+                            (password != null) ? password.toCharArray() : new char[0]);
+                }
+            });
+        }
+
+        for (Map.Entry<String, String> requestHeader : mRequestHeaders.entrySet()) {
+            urlConnection.setRequestProperty(requestHeader.getKey(), requestHeader.getValue());
+        }
+
+        if (mTimeoutMillis > 0) {
+            int timeoutMillis = (int) Math.min(Integer.MAX_VALUE, mTimeoutMillis);
+            urlConnection.setConnectTimeout(timeoutMillis);
+            urlConnection.setReadTimeout(timeoutMillis);
+        }
+
         urlConnection.connect();
 
+        if (urlConnection instanceof HttpURLConnection) {
+            mHttpUrlConnection = (HttpURLConnection) urlConnection;
+            mStatusCode = ((HttpURLConnection) urlConnection).getResponseCode();
+            mResponseHeaders = urlConnection.getHeaderFields();
+            if (mStatusCode >= 400) {
+                ((HttpURLConnection) urlConnection).disconnect();
+                throw new HttpStatusException(mStatusCode, inputStreamUrl);
+            }
+        }
+
         return urlConnection.getInputStream();
     }
 
+    /**
+     * @param inputStreamUrl URL endpoint of "http" or "https" resource
+     * @param userName user name to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used)
+     * @param password password to use when authenticating URL request
+     * (may be <code>null</code> if no authentication is to be used)
+     * @return stream of the (decoded) content of the resource
+     * @throws IOException error retrieving the resource
+     * @throws HttpStatusException the server responded with an error status
+     */
+    protected InputStream getHttpClientInputStream(URL inputStreamUrl,
+            String userName, String password)
+        throws IOException {
+
+        URI uri;
+        try {
+            uri = inputStreamUrl.toURI();
+            if (uri.getRawUserInfo() != null) {
+                uri = new URI(uri.toString().replace(uri.getRawUserInfo() + "@", ""));
+            }
+        } catch(URISyntaxException use) {
+            throw new IOException("invalid URL: " + inputStreamUrl, use);
+        }
+
+        String authorization = null;
+        if (userName != null || password != null) {
+            // NOTE: sent with the request (rather than waiting for a challenge)
+            String credentials = ((userName != null) ? userName : "")
+                + ":" + ((password != null) ? password : "");
+            authorization = "Basic "
+                + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+        }
+
+        // NOTE: redirects are followed here (rather than by the client), so
+        // that the credentials are only sent to the origin of the URL
+        URI origin = uri;
+        HttpResponse<InputStream> response;
+        for (int nRedirects = 0; ; nRedirects++) {
+
+            try {
+                response = getHttpClient().send(
+                    newHttpRequest(uri, isSameOrigin(uri, origin) ? authorization : null),
+                    HttpResponse.BodyHandlers.ofInputStream());
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted retrieving " + inputStreamUrl);
+            }
+
+            URI redirectUri = getRedirectUri(uri, response);
+            if (redirectUri == null) {
+                break;
+            }
+            response.body().close();
+            if (nRedirects == MAX_REDIRECTS) {
+                throw new IOException("too many redirects retrieving " + inputStreamUrl);
+            }
+            uri = redirectUri;
+        }
+
+        mStatusCode = response.statusCode();
+        mResponseHeaders = response.headers().map();
+
+        InputStream inputStream = response.body();
+        mResponseInputStream = inputStream;
+        if (response.statusCode() >= 400) {
+            inputStream.close();
+            throw new HttpStatusException(response.statusCode(), inputStreamUrl);
+        }
+
+        String contentEncoding = response.headers().firstValue("Content-Encoding").orElse("");
+        if (contentEncoding.equalsIgnoreCase("gzip") || contentEncoding.equalsIgnoreCase("x-gzip")) {
+            return new DecodedInputStream(new GZIPInputStream(inputStream, DECODE_BUFFER_SIZE),
+                inputStream);
+        }
+        if (contentEncoding.equalsIgnoreCase("deflate")) {
+            return new DecodedInputStream(new InflaterInputStream(inputStream), inputStream);
+        }
+        return inputStream;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param uri URI of "http" or "https" resource
+     * @param authorization value of the "Authorization" header, or
+     * <code>null</code> if none is to be sent
+     * @return request for the resource
+     */
+    private HttpRequest newHttpRequest(URI uri, String authorization) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(uri)
+            .header("Accept-Encoding", "gzip, deflate")
+            .GET();
+        if (authorization != null) {
+            requestBuilder.header("Authorization", authorization);
+        }
+        if (mTimeoutMillis > 0) {
+            requestBuilder.timeout(Duration.ofMillis(mTimeoutMillis));
+        }
+        for (Map.Entry<String, String> requestHeader : mRequestHeaders.entrySet()) {
+            // NOTE: replaces a default header of the same name (e.g., "Accept-Encoding")
+            requestBuilder.setHeader(requestHeader.getKey(), requestHeader.getValue());
+        }
+        return requestBuilder.build();
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param uri URI of the resource requested
+     * @param response response to the request
+     * @return URI to which the response redirects, or <code>null</code> if it
+     * isn't a redirect to be followed (e.g., from "https" to "http", which
+     * isn't followed, as by the client itself)
+     */
+    private static URI getRedirectUri(URI uri, HttpResponse<?> response) {
+        int statusCode = response.statusCode();
+        if (statusCode != 301 && statusCode != 302 && statusCode != 303
+                && statusCode != 307 && statusCode != 308) {
+            return null;
+        }
+        String location = response.headers().firstValue("Location").orElse(null);
+        if (location == null) {
+            return null;
+        }
+        URI redirectUri;
+        try {
+            redirectUri = uri.resolve(location);
+        } catch(IllegalArgumentException iae) {
+            return null;
+        }
+        String scheme = redirectUri.getScheme();
+        if ("https".equalsIgnoreCase(scheme)
+                || ("http".equalsIgnoreCase(scheme) && "http".equalsIgnoreCase(uri.getScheme()))) {
+            return redirectUri;
+        }
+        return null;
+    }
+
+    /**
+     * @param uri a URI
+     * @param otherUri another URI
+     * @return true if both have the same scheme, host and port
+     */
+    private static boolean isSameOrigin(URI uri, URI otherUri) {
+        return uri.getScheme().equalsIgnoreCase(otherUri.getScheme())
+            && uri.getHost() != null && uri.getHost().equalsIgnoreCase(otherUri.getHost())
+            && getPort(uri) == getPort(otherUri);
+    }
+
+    /**
+     * @param uri "http" or "https" URI
+     * @return its port, or the default port of its scheme
+     */
+    private static int getPort(URI uri) {
+        if (uri.getPort() >= 0) {
+            return uri.getPort();
+        }
+        return "https".equalsIgnoreCase(uri.getScheme()) ? 443 : 80;
+    }
+
+    /**
+     * @return client shared by the {@link Transport#HTTP_CLIENT} transport
+     * @throws IOException couldn't configure SSL
+     */
+    private static synchronized HttpClient getHttpClient() throws IOException {
+
+        if (sHttpClient == null) {
+
+            // accept self-signed certificates, as the URL_CONNECTION transport does
+            SSLContext sslContext;
+            try {
+                sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, new TrustManager[] {new EasyX509TrustManager(null)}, null);
+            } catch(GeneralSecurityException gse) {
+                throw new IOException(
+                    "couldn't configure SSL context to accept self signed certificate", gse);
+            }
+
+            sHttpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .followRedirects(HttpClient.Redirect.NEVER)
+                .sslContext(sslContext)
+                .build();
+        }
+
+        return sHttpClient;
+    }
+
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     *  Stream of decoded (e.g., gunzipped) content which, when closed, reads
+     *  what's left of the encoded content (e.g., the end of a chunked response,
+     *  after the end of the compressed data) so that the connection is reused
+     */
+    private static class DecodedInputStream extends FilterInputStream {
+
+        /** stream of the encoded content */
+        private final InputStream mEncodedInputStream;
+
+        /**
+         * @param decodedInputStream stream of decoded content
+         * @param encodedInputStream stream of the encoded content, being decoded
+         */
+        DecodedInputStream(InputStream decodedInputStream, InputStream encodedInputStream) {
+            super(decodedInputStream);
+            mEncodedInputStream = encodedInputStream;
+        }
+
+        /**
+         * @see FilterInputStream#close()
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                byte[] buffer = new byte[DECODE_BUFFER_SIZE];
+                int nDrained = 0;
+                int nRead;
+                while(nDrained < DRAIN_LIMIT
+                        && (nRead = mEncodedInputStream.read(buffer)) >= 0) {
+                    nDrained += nRead;
+                }
+            } catch(IOException ioex) {
+                // the connection just won't be reused
+            }
+            super.close();
+        }
+
+    }
+
 }
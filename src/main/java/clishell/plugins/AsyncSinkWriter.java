@@ -0,0 +1,722 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+
+
+/**
+ *
+ * Writer that decouples its writer(s) from a (possibly slow) underlying
+ * "sink" writer: characters written are copied into pooled chunks that
+ * are placed on a bounded queue, and a dedicated drain thread writes them
+ * to the sink.  What happens when the queue is full is determined by the
+ * {@link OverflowPolicy} given when the writer is created.
+ *
+ * {@link #flush()} returns once everything written before the call has
+ * been written to (or dropped) and flushed by the sink; {@link #close()}
+ * waits for everything to be written, then stops the drain thread and
+ * closes the sink if it's "owned".
+ * An I/O error raised by the sink is re-thrown by the next call to
+ * <code>write()</code>, <code>flush()</code> or <code>close()</code>.
+ *
+ * @author mross
+ *
+ */
+public class AsyncSinkWriter extends Writer {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * What to do with new output when the queue of a sink is full
+     */
+    public enum OverflowPolicy {
+
+        /** writer waits until the drain thread makes room */
+        BLOCK,
+
+        /** oldest queued chunk is discarded to make room */
+        DROP_OLDEST,
+
+        /** new output is appended to a temporary file, drained later */
+        SPILL;
+
+        /**
+         * @param policyName name of policy (case-insensitive; '-' may be
+         * used in place of '_', e.g. "drop-oldest")
+         * @return policy named by <code>policyName</code>
+         * @throws IllegalArgumentException unknown policy name
+         */
+        public static OverflowPolicy fromName(String policyName) {
+            return valueOf(policyName.trim().toUpperCase().replace('-', '_'));
+        }
+
+    }
+
+
+    //
+    //  Public class data
+    //
+
+    /** number of characters in each pooled chunk */
+    public static final int CHUNK_SIZE = 4096;
+
+    /** default maximum number of chunks queued for a sink */
+    public static final int DEFAULT_MAX_QUEUED_CHUNKS = 64;
+
+
+    //
+    //  Private class data
+    //
+
+    /** writers currently open (used for reporting) */
+    private static final Collection<AsyncSinkWriter> sOpenWriters
+        = new LinkedList<AsyncSinkWriter>();
+
+    /** used to generate unique drain thread names */
+    private static int sThreadSequence;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** user-visible name of sink */
+    private final String mName;
+
+    /** underlying (sink) writer */
+    private final Writer mSink;
+
+    /** true iff we "own" (should close) the sink */
+    private final boolean mOwned;
+
+    /** policy applied when the queue is full */
+    private final OverflowPolicy mPolicy;
+
+    /** maximum number of chunks held in the queue */
+    private final int mMaxQueuedChunks;
+
+    /** queue of chunks waiting for the drain thread */
+    private final LinkedList<Chunk> mQueue = new LinkedList<Chunk>();
+
+    /** free list of chunks available for reuse */
+    private final LinkedList<Chunk> mChunkPool = new LinkedList<Chunk>();
+
+    /** spill file writer while spilling (<code>null</code> when not spilling) */
+    private Writer mSpillWriter;
+
+    /** spill file being written while spilling */
+    private File mSpillFile;
+
+    /** total number of characters accepted by <code>write()</code> */
+    private long mAcceptedChars;
+
+    /** total number of characters written to the sink */
+    private long mWrittenChars;
+
+    /** total number of characters discarded by the DROP_OLDEST policy */
+    private long mDroppedChars;
+
+    /** total number of characters that were routed through spill files */
+    private long mSpilledChars;
+
+    /** highest value of <code>mAcceptedChars</code> a caller is waiting to see flushed */
+    private long mFlushTarget;
+
+    /** number of characters written (or dropped) as of the last flush of the sink */
+    private long mFlushedChars;
+
+    /** set once <code>close()</code> has been called */
+    private boolean mClosed;
+
+    /** first I/O error raised by the sink (or the spill file) */
+    private IOException mSinkException;
+
+    /** thread moving chunks from the queue to the sink */
+    private final Thread mDrainThread;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param name user-visible name of the sink (used for reporting)
+     * @param sink underlying writer that will receive the output
+     * @param owned true iff the sink is to be closed by {@link #close()}
+     * @param policy what to do when the queue of the sink is full
+     * @param maxQueuedChunks maximum number of chunks (of
+     * {@link #CHUNK_SIZE} characters each) queued for the sink
+     */
+    public AsyncSinkWriter(String name, Writer sink, boolean owned,
+            OverflowPolicy policy, int maxQueuedChunks) {
+
+        if (maxQueuedChunks < 1) {
+            throw new IllegalArgumentException("invalid queue size: " + maxQueuedChunks);
+        }
+
+        mName = name;
+        mSink = sink;
+        mOwned = owned;
+        mPolicy = policy;
+        mMaxQueuedChunks = maxQueuedChunks;
+
+        mDrainThread = new Thread(new Runnable() {
+            public void run() {
+                drainLoop();
+            }
+        }, "tee-sink-" + nextThreadSequence() + "-" + name);
+        mDrainThread.setDaemon(true);
+        mDrainThread.start();
+
+        synchronized(sOpenWriters) {
+            sOpenWriters.add(this);
+        }
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @return snapshot of the currently open writers
+     */
+    public static List<AsyncSinkWriter> getOpenWriters() {
+        synchronized(sOpenWriters) {
+            return new ArrayList<AsyncSinkWriter>(sOpenWriters);
+        }
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return user-visible name of sink
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * @return underlying (sink) writer
+     */
+    public Writer getSink() {
+        return mSink;
+    }
+
+    /**
+     * @return policy applied when the queue is full
+     */
+    public OverflowPolicy getPolicy() {
+        return mPolicy;
+    }
+
+    /**
+     * @return number of characters accepted but not yet written to
+     * the sink (including any characters waiting in a spill file)
+     */
+    public synchronized long getLagChars() {
+        return mAcceptedChars - mDroppedChars - mWrittenChars;
+    }
+
+    /**
+     * @return number of chunks currently waiting in the queue
+     */
+    public synchronized int getQueuedChunks() {
+        return mQueue.size();
+    }
+
+    /**
+     * @return total number of characters written to the sink
+     */
+    public synchronized long getWrittenChars() {
+        return mWrittenChars;
+    }
+
+    /**
+     * @return total number of characters discarded due to overflow
+     */
+    public synchronized long getDroppedChars() {
+        return mDroppedChars;
+    }
+
+    /**
+     * @return total number of characters routed through spill files
+     */
+    public synchronized long getSpilledChars() {
+        return mSpilledChars;
+    }
+
+
+    //
+    //  Public implementations / overrides of base class methods
+    //
+
+    /**
+     * Queues data for the sink, applying the overflow policy if needed.
+     * @see java.io.Writer#write(char[], int, int)
+     */
+    @Override
+    public synchronized void write(char[] cbuf, int off, int len) throws IOException {
+
+        assertUsable();
+
+        int leftOff = off;
+        int fence = off + len;
+        while(leftOff < fence) {
+
+            // once spilling, everything goes to the spill file
+            // until the drain thread has caught up with it
+            if (mSpillWriter != null) {
+                spill(cbuf, leftOff, fence - leftOff);
+                break;
+            }
+
+            // coalesce small writes into the last queued chunk if possible
+            Chunk tail = mQueue.isEmpty() ? null : mQueue.getLast();
+            if (tail == null || tail.mLength == CHUNK_SIZE) {
+                if (!makeRoom()) {
+                    // policy said to spill the rest
+                    continue;
+                }
+                tail = allocateChunk();
+                mQueue.addLast(tail);
+                notifyAll();
+            }
+
+            int copyLen = Math.min(CHUNK_SIZE - tail.mLength, fence - leftOff);
+            System.arraycopy(cbuf, leftOff, tail.mBuffer, tail.mLength, copyLen);
+            tail.mLength += copyLen;
+            mAcceptedChars += copyLen;
+            leftOff += copyLen;
+        }
+
+    }
+
+    /**
+     * Waits until all data written before this call has been
+     * written to the sink (or dropped), and the sink has been flushed.
+     * @see java.io.Writer#flush()
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+
+        assertUsable();
+
+        long flushTarget = mAcceptedChars;
+        if (flushTarget > mFlushTarget) {
+            mFlushTarget = flushTarget;
+            notifyAll();
+        }
+
+        while(mFlushedChars < flushTarget && mSinkException == null) {
+            try {
+                wait();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for sink '" + mName + "'");
+            }
+        }
+
+        assertUsable();
+    }
+
+    /**
+     * Waits until all data has been written to the sink, stops the
+     * drain thread, then closes the sink if it's "owned" (the sink
+     * is flushed in any case).  Subsequent calls have no effect.
+     * @see java.io.Writer#close()
+     */
+    @Override
+    public void close() throws IOException {
+
+        synchronized(this) {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            notifyAll();
+        }
+
+        boolean isInterrupted = false;
+        while(mDrainThread.isAlive()) {
+            try {
+                mDrainThread.join();
+            } catch(InterruptedException ie) {
+                // the queued output must still get to the sink
+                isInterrupted = true;
+            }
+        }
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        synchronized(sOpenWriters) {
+            sOpenWriters.remove(this);
+        }
+
+        IOException sinkException;
+        synchronized(this) {
+            discardSpillFile();
+            sinkException = mSinkException;
+        }
+
+        if (mOwned) {
+            mSink.close();
+        }
+
+        if (sinkException != null) {
+            throw new IOException("sink '" + mName + "' failed", sinkException);
+        }
+
+    }
+
+    /**
+     * @return human-readable summary of the state of the sink
+     */
+    @Override
+    public synchronized String toString() {
+        return mName
+            + " (" + mPolicy.name().toLowerCase().replace('_', '-') + ")"
+            + ": lag=" + getLagChars()
+            + ", queued=" + mQueue.size() + "/" + mMaxQueuedChunks
+            + ", written=" + mWrittenChars
+            + ", dropped=" + mDroppedChars
+            + ", spilled=" + mSpilledChars
+            + ((mSinkException != null) ? ", failed: " + mSinkException.getMessage() : "");
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @return next value in drain thread naming sequence
+     */
+    private static synchronized int nextThreadSequence() {
+        return ++sThreadSequence;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Precondition: caller holds the monitor of this object
+     * @throws IOException sink failed previously, or writer is closed
+     */
+    private void assertUsable() throws IOException {
+        if (mSinkException != null) {
+            throw new IOException("sink '" + mName + "' failed", mSinkException);
+        }
+        if (mClosed) {
+            throw new IOException("sink '" + mName + "' is closed");
+        }
+    }
+
+    /**
+     * Precondition: caller holds the monitor of this object; ensures there
+     * is room in the queue for another chunk, according to the policy
+     * @return true if there is now room in the queue, or false if spilling
+     * was started instead
+     * @throws IOException sink failed, or could not start spilling
+     */
+    private boolean makeRoom() throws IOException {
+
+        while(mQueue.size() >= mMaxQueuedChunks) {
+
+            if (mPolicy == OverflowPolicy.DROP_OLDEST) {
+                Chunk chunk = mQueue.removeFirst();
+                mDroppedChars += chunk.mLength;
+                releaseChunk(chunk);
+                continue;
+            }
+
+            if (mPolicy == OverflowPolicy.SPILL) {
+                mSpillFile = File.createTempFile("clishell-tee-", ".spill");
+                mSpillFile.deleteOnExit();
+                mSpillWriter = new BufferedWriter(new OutputStreamWriter(
+                    new FileOutputStream(mSpillFile), "UTF-8"), CHUNK_SIZE);
+                return false;
+            }
+
+            // BLOCK
+            try {
+                wait();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted waiting for sink '" + mName + "'");
+            }
+            assertUsable();
+        }
+
+        return true;
+    }
+
+    /**
+     * Precondition: caller holds the monitor of this object
+     * @param cbuf characters to spill
+     * @param off offset of first character to spill
+     * @param len number of characters to spill
+     * @throws IOException error writing the spill file
+     */
+    private void spill(char[] cbuf, int off, int len) throws IOException {
+        try {
+            mSpillWriter.write(cbuf, off, len);
+        } catch(IOException ioex) {
+            failSink(ioex);
+            throw ioex;
+        }
+        mSpilledChars += len;
+        mAcceptedChars += len;
+    }
+
+    /**
+     * Precondition: caller holds the monitor of this object
+     * @return a chunk from the pool, or a new one if the pool is empty
+     */
+    private Chunk allocateChunk() {
+        if (mChunkPool.isEmpty()) {
+            return new Chunk(new char[CHUNK_SIZE]);
+        }
+        Chunk chunk = mChunkPool.removeFirst();
+        chunk.mLength = 0;
+        return chunk;
+    }
+
+    /**
+     * Precondition: caller holds the monitor of this object
+     * @param chunk chunk to return to the pool
+     */
+    private void releaseChunk(Chunk chunk) {
+        if (mChunkPool.size() < mMaxQueuedChunks) {
+            mChunkPool.addLast(chunk);
+        }
+    }
+
+    /**
+     * Precondition: caller holds the monitor of this object; closes and
+     * deletes any spill file (used after the sink has failed, or on close)
+     */
+    private void discardSpillFile() {
+        if (mSpillWriter != null) {
+            try {
+                mSpillWriter.close();
+            } catch(IOException ioex) {
+                // "old college try" ;-)
+            }
+            mSpillWriter = null;
+        }
+        if (mSpillFile != null) {
+            mSpillFile.delete();
+            mSpillFile = null;
+        }
+    }
+
+    /**
+     * Body of the drain thread: moves chunks from the queue (and any spill
+     * file) to the sink until the writer is closed and there's nothing left.
+     */
+    private void drainLoop() {
+
+        while(true) {
+
+            Chunk chunk = null;
+            File spillFile = null;
+            boolean isExiting = false;
+
+            synchronized(this) {
+                while(mQueue.isEmpty() && mSpillWriter == null && !mClosed
+                        && mFlushTarget <= mFlushedChars) {
+                    try {
+                        wait();
+                    } catch(InterruptedException ie) {
+                        // keep draining; only "close()" stops this thread
+                    }
+                }
+                if (!mQueue.isEmpty()) {
+                    chunk = mQueue.removeFirst();
+                    // let any blocked writer know there is room now
+                    notifyAll();
+                } else if (mSpillWriter != null) {
+                    // queue is empty, so the spill file holds the oldest output;
+                    // take it over, and let new output go to the queue again
+                    try {
+                        mSpillWriter.close();
+                    } catch(IOException ioex) {
+                        failSink(ioex);
+                    }
+                    mSpillWriter = null;
+                    spillFile = mSpillFile;
+                    mSpillFile = null;
+                } else {
+                    // nothing to write; flush (and possibly exit)
+                    isExiting = mClosed;
+                }
+            }
+
+            if (spillFile != null) {
+                drainSpillFile(spillFile);
+            } else if (chunk != null) {
+                try {
+                    if (!hasSinkFailed()) {
+                        mSink.write(chunk.mBuffer, 0, chunk.mLength);
+                    }
+                } catch(IOException ioex) {
+                    failSink(ioex);
+                }
+                synchronized(this) {
+                    mWrittenChars += chunk.mLength;
+                    releaseChunk(chunk);
+                }
+            }
+
+            // flush adaptively: when caught up, or when someone's waiting
+            flushSinkIfNeeded();
+
+            if (isExiting) {
+                return;
+            }
+        }
+
+    }
+
+    /**
+     * Flushes the sink if all queued output has been written, or if there
+     * are callers of {@link #flush()} waiting, and notifies them
+     */
+    private void flushSinkIfNeeded() {
+
+        long flushedChars;
+        synchronized(this) {
+            boolean isIdle = mQueue.isEmpty() && mSpillWriter == null;
+            if (!isIdle && mFlushTarget <= mFlushedChars) {
+                return;
+            }
+            flushedChars = mWrittenChars + mDroppedChars;
+        }
+
+        try {
+            if (!hasSinkFailed()) {
+                mSink.flush();
+            }
+        } catch(IOException ioex) {
+            failSink(ioex);
+        }
+
+        synchronized(this) {
+            if (flushedChars > mFlushedChars) {
+                mFlushedChars = flushedChars;
+            }
+            notifyAll();
+        }
+
+    }
+
+    /**
+     * Copies a spill file to the sink, then deletes it
+     * @param spillFile spill file to copy
+     */
+    private void drainSpillFile(File spillFile) {
+
+        try {
+            Reader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(spillFile), "UTF-8"), CHUNK_SIZE);
+            try {
+                char[] buffer = new char[CHUNK_SIZE];
+                int len;
+                while((len = reader.read(buffer)) > 0) {
+                    if (!hasSinkFailed()) {
+                        mSink.write(buffer, 0, len);
+                    }
+                    synchronized(this) {
+                        mWrittenChars += len;
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch(IOException ioex) {
+            failSink(ioex);
+        } finally {
+            spillFile.delete();
+        }
+
+    }
+
+    /**
+     * @return true if the sink has failed
+     */
+    private synchronized boolean hasSinkFailed() {
+        return mSinkException != null;
+    }
+
+    /**
+     * Records a sink failure; from now on, queued data is discarded
+     * and callers get an exception
+     * @param ioex exception raised by the sink
+     */
+    private synchronized void failSink(IOException ioex) {
+        if (mSinkException == null) {
+            mSinkException = ioex;
+        }
+        notifyAll();
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Unit of queued output: a (pooled) buffer of characters
+     */
+    private static class Chunk {
+
+        /** character data */
+        private final char[] mBuffer;
+
+        /** number of valid characters in <code>mBuffer</code> */
+        private int mLength;
+
+        /**
+         * @param buffer character buffer
+         */
+        Chunk(char[] buffer) {
+            mBuffer = buffer;
+        }
+
+    }
+
+}
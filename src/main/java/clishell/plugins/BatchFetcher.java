@@ -0,0 +1,350 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import clishell.net.HttpStatusException;
+import clishell.net.UrlResourceInputStream;
+import clishell.util.BatchUtil;
+import clishell.util.BatchUtil.CountingInputStream;
+
+/**
+ *
+ * Retrieves a batch of (named) resources concurrently, on a pool of worker
+ * threads which bounds the number of requests in flight, handing the
+ * content of each to a {@link Receiver}.
+ *
+ * Each request must complete within a time limit: the connection, the
+ * response and (by the URL_CONNECTION transport only) each read of its
+ * content are given the limit, and the request is aborted (its worker
+ * interrupted, and its connection dropped) if it exceeds it as a whole;
+ * NOTE: the latter is all that bounds reading the content by the
+ * HTTP_CLIENT transport, which waits for the response headers only.
+ *
+ * Connections to the same server are reused from one request to the next
+ * (by either transport), provided the content is read to its end.
+ *
+ */
+public class BatchFetcher {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Consumer of the content of the resources retrieved
+     */
+    public interface Receiver {
+
+        /**
+         * Called (by a worker thread) with the content of a resource; if
+         * reading the content fails, whatever has been received is to be
+         * discarded
+         * @param name name of the resource
+         * @param inputStream content of the resource (closed by the caller)
+         * @throws IOException error reading the content, or storing it
+         */
+        void receive(String name, InputStream inputStream) throws IOException;
+
+    }
+
+    /**
+     * Outcome of retrieving a resource
+     */
+    public static class Result {
+
+        /** name of the resource */
+        private final String mName;
+
+        /** URL of the resource */
+        private final URL mUrl;
+
+        /** status code of the HTTP response, or -1 if none */
+        private int mStatusCode = -1;
+
+        /** number of bytes of content received */
+        private long mByteCount;
+
+        /** number of milliseconds taken */
+        private long mMillis;
+
+        /** description of the failure, or <code>null</code> if retrieved */
+        private String mError;
+
+        /** set once the request is done, so that it's no longer interrupted */
+        private boolean mIsDone;
+
+        /** set if the request was interrupted for exceeding its time limit */
+        private boolean mIsTimedOut;
+
+        /** stream of the response, once there is one */
+        private UrlResourceInputStream mInputStream;
+
+        /**
+         * @param name name of the resource
+         * @param url URL of the resource
+         */
+        Result(String name, URL url) {
+            mName = name;
+            mUrl = url;
+        }
+
+        /**
+         * @return name of the resource
+         */
+        public String getName() {
+            return mName;
+        }
+
+        /**
+         * @return URL of the resource
+         */
+        public URL getUrl() {
+            return mUrl;
+        }
+
+        /**
+         * @return true if the resource was retrieved
+         */
+        public boolean isRetrieved() {
+            return mError == null;
+        }
+
+        /**
+         * @return status code of the HTTP response, or -1 if none (e.g.,
+         * not an HTTP resource, or no response)
+         */
+        public int getStatusCode() {
+            return mStatusCode;
+        }
+
+        /**
+         * @return number of bytes of content received
+         */
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /**
+         * @return number of milliseconds taken
+         */
+        public long getMillis() {
+            return mMillis;
+        }
+
+        /**
+         * @return description of the failure, or <code>null</code> if retrieved
+         */
+        public String getError() {
+            return mError;
+        }
+
+    }
+
+
+    //
+    //  Private instance data
+    //
+
+    /** means by which the resources are retrieved */
+    private final UrlResourceInputStream.Transport mTransport;
+
+    /** maximum number of requests in flight */
+    private final int mWorkerCount;
+
+    /** number of milliseconds each request may take, or zero for no limit */
+    private final long mTimeoutMillis;
+
+    /** interrupts requests exceeding their time limit */
+    private ScheduledExecutorService mWatchdog;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param transport means by which the resources are retrieved
+     * @param workerCount maximum number of requests in flight
+     * @param timeoutMillis number of milliseconds each request may take,
+     * or zero for no limit
+     */
+    public BatchFetcher(UrlResourceInputStream.Transport transport, int workerCount,
+            long timeoutMillis) {
+        mTransport = transport;
+        mWorkerCount = Math.max(1, workerCount);
+        mTimeoutMillis = Math.max(0, timeoutMillis);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Retrieves resources, blocking until all are done
+     * @param resources URLs of the resources, by name
+     * @param receiver consumer of the content of the resources
+     * @return the results, in the order of <code>resources</code>
+     * @throws InterruptedException interrupted while waiting; the resources
+     * not yet retrieved are abandoned
+     */
+    public List<Result> fetch(Map<String, URL> resources, final Receiver receiver)
+        throws InterruptedException {
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+            Math.min(mWorkerCount, Math.max(1, resources.size())),
+            BatchUtil.newWorkerThreadFactory("fetch"));
+        mWatchdog = Executors.newSingleThreadScheduledExecutor(
+            BatchUtil.newWorkerThreadFactory("fetch-watchdog"));
+
+        List<Result> results = new ArrayList<Result>();
+        try {
+
+            CompletionService<Result> completionService
+                = new ExecutorCompletionService<Result>(executorService);
+            for (Map.Entry<String, URL> resource : resources.entrySet()) {
+                final Result result = new Result(resource.getKey(), resource.getValue());
+                results.add(result);
+                completionService.submit(new Callable<Result>() {
+                    public Result call() {
+                        fetch(result, receiver);
+                        return result;
+                    }
+                });
+            }
+
+            for (int i = 0; i < resources.size(); i++) {
+                try {
+                    completionService.take().get();
+                } catch(ExecutionException ee) {
+                    // NOTE: can't happen, since fetch() notes its failures
+                }
+            }
+
+        } finally {
+            executorService.shutdownNow();
+            mWatchdog.shutdownNow();
+        }
+
+        return results;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Retrieves a resource, noting the outcome in its result
+     * @param result result of the resource, naming it
+     * @param receiver consumer of the content of the resource
+     */
+    private void fetch(final Result result, Receiver receiver) {
+
+        long startTime = System.currentTimeMillis();
+
+        // interrupt the request if it exceeds its time limit
+        ScheduledFuture<?> timeout = null;
+        if (mTimeoutMillis > 0) {
+            final Thread workerThread = Thread.currentThread();
+            timeout = mWatchdog.schedule(new Runnable() {
+                public void run() {
+                    synchronized(result) {
+                        if (!result.mIsDone) {
+                            result.mIsTimedOut = true;
+                            workerThread.interrupt();
+                            if (result.mInputStream != null) {
+                                // NOTE: a blocked read isn't always interruptible
+                                try {
+                                    result.mInputStream.abort();
+                                } catch(Throwable t) {
+                                    // "old college try" ;-)
+                                }
+                            }
+                        }
+                    }
+                }
+            }, mTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        UrlResourceInputStream inputStream = null;
+        CountingInputStream countingInputStream = null;
+        try {
+
+            inputStream = new UrlResourceInputStream(result.mUrl, null, null, mTransport,
+                null, mTimeoutMillis);
+            synchronized(result) {
+                result.mInputStream = inputStream;
+                if (result.mIsTimedOut) {
+                    throw new InterruptedIOException();
+                }
+            }
+            result.mStatusCode = inputStream.getStatusCode();
+            // NOTE: a time limit may interrupt a read that's blocked
+            countingInputStream = new CountingInputStream(inputStream, true);
+            receiver.receive(result.mName, countingInputStream);
+
+        } catch(HttpStatusException hse) {
+            result.mStatusCode = hse.getStatusCode();
+            result.mError = "HTTP status " + hse.getStatusCode();
+        } catch(Exception ex) {
+            result.mError = ex.toString();
+        } finally {
+
+            synchronized(result) {
+                result.mIsDone = true;
+            }
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (result.mIsTimedOut) {
+                result.mError = "timed out after " + mTimeoutMillis + "ms";
+            }
+            // NOTE: a time limit may have interrupted this thread; its next request mustn't be
+            Thread.interrupted();
+
+            if (countingInputStream != null) {
+                result.mByteCount = countingInputStream.getByteCount();
+            }
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+            result.mMillis = System.currentTimeMillis() - startTime;
+
+        }
+
+    }
+
+}
@@ -0,0 +1,525 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import clishell.util.BatchUtil;
+
+/**
+ *
+ * Transforms a batch of documents using one compiled stylesheet, on a pool
+ * of worker threads, each of which uses its own <code>Transformer</code>
+ * (created from the shared <code>Templates</code>).
+ *
+ * A document that fails to transform doesn't stop the batch: the failure
+ * is noted (see {@link #getFailures()}), and its (partial) output deleted.
+ * Each document's output is written to a temporary file, which replaces
+ * the output file only once the document has been transformed.
+ *
+ */
+public class BatchTransformer {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * A document to transform
+     */
+    public static class Document {
+
+        /** file containing the document */
+        private final Path mInputPath;
+
+        /** path of the output, relative to the output directory */
+        private final Path mOutputPath;
+
+        /**
+         * @param inputPath file containing the document
+         * @param outputPath path of the output, relative to the output directory
+         */
+        public Document(Path inputPath, Path outputPath) {
+            mInputPath = inputPath;
+            mOutputPath = outputPath;
+        }
+
+        /**
+         * @return file containing the document
+         */
+        public Path getInputPath() {
+            return mInputPath;
+        }
+
+        /**
+         * @return path of the output, relative to the output directory
+         */
+        public Path getOutputPath() {
+            return mOutputPath;
+        }
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** size of the buffers used to read and write documents */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** number of milliseconds between progress reports */
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** compiled stylesheet */
+    private final Templates mTemplates;
+
+    /** number of worker threads */
+    private final int mWorkerCount;
+
+    /** transformer used by each worker thread, created when first needed */
+    private final ThreadLocal<Transformer> mTransformers = new ThreadLocal<Transformer>();
+
+    /** descriptions of the documents that failed to transform */
+    private final List<String> mFailures = Collections.synchronizedList(new ArrayList<String>());
+
+    /** number of documents transformed (successfully or not) */
+    private int mDocumentCount;
+
+    /** number of bytes of input transformed successfully */
+    private long mByteCount;
+
+    /** time the batch started */
+    private long mStartTime;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param templates compiled stylesheet
+     * @param workerCount number of worker threads
+     */
+    public BatchTransformer(Templates templates, int workerCount) {
+        mTemplates = templates;
+        mWorkerCount = Math.max(1, workerCount);
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * Finds the documents described by an input specification, which is one of:
+     * <ul>
+     * <li><code>@&lt;file&gt;</code> - the files named by the lines of <code>file</code>
+     * (output named by their file names)</li>
+     * <li>a glob pattern (e.g., <code>docs/**&#47;*.xml</code>) - the matching files
+     * (output named by their paths below the pattern's first wildcard directory);
+     * <code>**&#47;</code> matches any number of directories, including none</li>
+     * <li>a directory - the <code>.xml</code> files in it</li>
+     * <li>a file - the file itself</li>
+     * </ul>
+     * @param inputSpec input specification
+     * @return the documents, in name order
+     * @throws IOException error reading the list of files, or a directory
+     * @throws IllegalArgumentException several documents would be written
+     * to the same output (e.g., files of the same name, listed by <code>@&lt;file&gt;</code>)
+     */
+    public static List<Document> findDocuments(String inputSpec) throws IOException {
+
+        List<Document> documents = new ArrayList<Document>();
+
+        if (inputSpec.startsWith("@")) {
+            BufferedReader reader = Files.newBufferedReader(Paths.get(inputSpec.substring(1)));
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    if (line.trim().length() > 0) {
+                        Path inputPath = Paths.get(line.trim());
+                        documents.add(new Document(inputPath, inputPath.getFileName()));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            checkOutputPaths(documents);
+            return documents;
+        }
+
+        // split the pattern into the directory to search and what to match there
+        String pattern = inputSpec.replace('\\', '/');
+        Path baseDirectory;
+        if (pattern.matches(".*[*?\\[{].*")) {
+            int wildcardIndex = pattern.replaceAll("[*?\\[{].*$", "").lastIndexOf('/');
+            baseDirectory = Paths.get((wildcardIndex >= 0) ? pattern.substring(0, wildcardIndex + 1) : ".");
+            pattern = pattern.substring(wildcardIndex + 1);
+        } else if (Files.isDirectory(Paths.get(inputSpec))) {
+            baseDirectory = Paths.get(inputSpec);
+            pattern = "*.xml";
+        } else {
+            Path inputPath = Paths.get(inputSpec);
+            documents.add(new Document(inputPath, inputPath.getFileName()));
+            return documents;
+        }
+
+        // NOTE: the glob syntax's "**/" matches one or more directories, so the
+        // pattern is also matched without it (e.g., "**/*.xml" as "*.xml")
+        Set<String> patterns = new LinkedHashSet<String>();
+        addPatternsWithoutAnyDirectories(pattern, 0, patterns);
+        List<PathMatcher> pathMatchers = new ArrayList<PathMatcher>();
+        for (String matchedPattern : patterns) {
+            pathMatchers.add(FileSystems.getDefault().getPathMatcher("glob:" + matchedPattern));
+        }
+
+        int maxDepth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+        List<Path> inputPaths = new ArrayList<Path>();
+        Stream<Path> paths = Files.walk(baseDirectory, maxDepth);
+        try {
+            for (Iterator<Path> it = paths.iterator(); it.hasNext(); ) {
+                Path path = it.next();
+                if (!Files.isRegularFile(path)) {
+                    continue;
+                }
+                Path relativePath = baseDirectory.relativize(path);
+                for (PathMatcher pathMatcher : pathMatchers) {
+                    if (pathMatcher.matches(relativePath)) {
+                        inputPaths.add(path);
+                        break;
+                    }
+                }
+            }
+        } finally {
+            paths.close();
+        }
+        Collections.sort(inputPaths);
+        for (Path inputPath : inputPaths) {
+            documents.add(new Document(inputPath, baseDirectory.relativize(inputPath)));
+        }
+        return documents;
+    }
+
+    /**
+     * @param documents documents to transform
+     * @param outputDirectory directory receiving the output
+     * @throws IOException error reading the paths of the documents, or their output
+     * @throws IllegalArgumentException the output of a document would replace
+     * one of the documents (e.g., the output directory is the input directory)
+     */
+    public static void checkOutputDirectory(List<Document> documents, Path outputDirectory)
+            throws IOException {
+        Map<Path, Path> inputPaths = new HashMap<Path, Path>();
+        for (Document document : documents) {
+            if (Files.exists(document.getInputPath())) {
+                inputPaths.put(document.getInputPath().toRealPath(), document.getInputPath());
+            }
+        }
+        for (Document document : documents) {
+            Path outputPath = outputDirectory.resolve(document.getOutputPath());
+            if (!Files.exists(outputPath)) {
+                continue;
+            }
+            Path inputPath = inputPaths.get(outputPath.toRealPath());
+            if (inputPath != null) {
+                throw new IllegalArgumentException("'" + inputPath
+                    + "' would be replaced by the output of '" + document.getInputPath() + "'");
+            }
+        }
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Transforms documents, blocking until all are done
+     * @param documents documents to transform
+     * @param outputDirectory directory receiving the output
+     * @param progressWriter writer receiving progress reports
+     * @throws InterruptedException interrupted while waiting; the documents
+     * not yet transformed are abandoned
+     */
+    public void transform(List<Document> documents, final Path outputDirectory,
+            PrintWriter progressWriter) throws InterruptedException {
+
+        mStartTime = System.currentTimeMillis();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(mWorkerCount,
+            BatchUtil.newWorkerThreadFactory("transform"));
+
+        try {
+
+            CompletionService<Long> completionService
+                = new ExecutorCompletionService<Long>(executorService);
+            for (final Document document : documents) {
+                completionService.submit(new Callable<Long>() {
+                    public Long call() {
+                        return transform(document, outputDirectory);
+                    }
+                });
+            }
+
+            long lastProgressTime = mStartTime;
+            for (int i = 0; i < documents.size(); i++) {
+                long inputBytes;
+                try {
+                    inputBytes = completionService.take().get();
+                } catch(ExecutionException ee) {
+                    // NOTE: failures are noted by the task itself
+                    inputBytes = 0;
+                }
+                synchronized(this) {
+                    mDocumentCount++;
+                    mByteCount += inputBytes;
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= PROGRESS_INTERVAL_MILLIS && i < documents.size() - 1) {
+                    lastProgressTime = now;
+                    progressWriter.println(getProgress() + "; "
+                        + (documents.size() - i - 1) + " to go");
+                    progressWriter.flush();
+                }
+            }
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+    }
+
+    /**
+     * @return descriptions of the documents that failed to transform
+     */
+    public List<String> getFailures() {
+        synchronized(mFailures) {
+            return new ArrayList<String>(mFailures);
+        }
+    }
+
+    /**
+     * @return human-readable report of the progress of the batch, with
+     * its throughput
+     */
+    public synchronized String getProgress() {
+        return BatchUtil.formatProgress(mDocumentCount, "transformed", mFailures.size(), "failed",
+            mByteCount, mStartTime);
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * Adds a glob pattern, and the patterns it becomes when any of its
+     * <code>**&#47;</code> (from the given index on) matches no directory
+     * @param pattern glob pattern
+     * @param fromIndex index from which to look for <code>**&#47;</code>
+     * @param patterns set receiving the patterns
+     */
+    private static void addPatternsWithoutAnyDirectories(String pattern, int fromIndex,
+            Set<String> patterns) {
+        patterns.add(pattern);
+        for (int i = pattern.indexOf("**/", fromIndex); i >= 0; i = pattern.indexOf("**/", i + 1)) {
+            if (i == 0 || pattern.charAt(i - 1) == '/') {
+                addPatternsWithoutAnyDirectories(pattern.substring(0, i) + pattern.substring(i + 3),
+                    i, patterns);
+            }
+        }
+    }
+
+    /**
+     * @param documents documents to transform
+     * @throws IllegalArgumentException several documents would be written
+     * to the same output
+     */
+    private static void checkOutputPaths(List<Document> documents) {
+        Map<Path, Path> inputPaths = new HashMap<Path, Path>();
+        for (Document document : documents) {
+            Path outputPath = document.getOutputPath().normalize();
+            Path inputPath = inputPaths.put(outputPath, document.getInputPath());
+            if (inputPath != null) {
+                throw new IllegalArgumentException("'" + inputPath + "' and '"
+                    + document.getInputPath() + "' would both be written to '" + outputPath + "'");
+            }
+        }
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Transforms a document, noting any failure
+     * @param document document to transform
+     * @param outputDirectory directory receiving the output
+     * @return number of bytes of input transformed (zero if it failed)
+     */
+    private long transform(Document document, Path outputDirectory) {
+
+        Path outputPath = outputDirectory.resolve(document.getOutputPath()).toAbsolutePath();
+        Path tempPath = null;
+        InputStream inputStream = null;
+        OutputStream outputStream = null;
+        boolean isTransformed = false;
+        long inputBytes = 0;
+
+        try {
+
+            Transformer transformer = mTransformers.get();
+            if (transformer == null) {
+                transformer = mTemplates.newTransformer();
+                transformer.setErrorListener(new FailingErrorListener());
+                mTransformers.set(transformer);
+            }
+
+            FileChannel inputChannel = FileChannel.open(document.getInputPath(),
+                StandardOpenOption.READ);
+            inputBytes = inputChannel.size();
+            inputStream = new BufferedInputStream(Channels.newInputStream(inputChannel), BUFFER_SIZE);
+
+            Files.createDirectories(outputPath.getParent());
+            tempPath = Files.createTempFile(outputPath.getParent(),
+                outputPath.getFileName().toString(), ".tmp");
+            outputStream = new BufferedOutputStream(Channels.newOutputStream(FileChannel.open(
+                tempPath, StandardOpenOption.WRITE)), BUFFER_SIZE);
+
+            try {
+                transformer.transform(
+                    new StreamSource(inputStream, document.getInputPath().toUri().toString()),
+                    new StreamResult(outputStream));
+            } finally {
+                transformer.reset();
+                transformer.setErrorListener(new FailingErrorListener());
+            }
+            outputStream.close();
+            Files.move(tempPath, outputPath, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+            isTransformed = true;
+
+        } catch(Exception ex) {
+
+            // report the underlying problem, not the wrappers around it
+            mFailures.add(document.getInputPath() + ": " + BatchUtil.unwrapCause(ex).getMessage());
+
+        } finally {
+
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+            if (outputStream != null) {
+                try {
+                    outputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+            if (!isTransformed && tempPath != null) {
+                try {
+                    Files.deleteIfExists(tempPath);
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+
+        }
+
+        return isTransformed ? inputBytes : 0;
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Fails the transformation of a document upon any error, rather than
+     * writing it to <code>System.err</code> (and maybe carrying on)
+     */
+    private static class FailingErrorListener implements ErrorListener {
+
+        /**
+         * @see ErrorListener#warning(TransformerException)
+         */
+        public void warning(TransformerException exception) {
+            // ignored
+        }
+
+        /**
+         * @see ErrorListener#error(TransformerException)
+         */
+        public void error(TransformerException exception) throws TransformerException {
+            throw exception;
+        }
+
+        /**
+         * @see ErrorListener#fatalError(TransformerException)
+         */
+        public void fatalError(TransformerException exception) throws TransformerException {
+            throw exception;
+        }
+
+    }
+
+}
@@ -0,0 +1,379 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.net.URL;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.Validator;
+
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import clishell.util.BatchUtil;
+import clishell.util.BatchUtil.CountingInputStream;
+
+/**
+ *
+ * Validates a batch of documents against one compiled schema, on a pool
+ * of worker threads, each of which uses its own <code>Validator</code>
+ * (created from the shared <code>Schema</code>).
+ *
+ * All errors in a document are counted (not just the first), though only
+ * the first few are kept for reporting.
+ *
+ */
+public class BatchValidator {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Outcome of validating a document
+     */
+    public static class Result {
+
+        /** input containing the document */
+        private final String mInput;
+
+        /** validation errors (and a fatal error, if any) kept for reporting */
+        private final List<String> mErrors = new ArrayList<String>();
+
+        /** number of validation errors (and a fatal error, if any) */
+        private int mErrorCount;
+
+        /** number of warnings */
+        private int mWarningCount;
+
+        /** number of bytes of the document read */
+        private long mByteCount;
+
+        /**
+         * @param input input containing the document
+         */
+        Result(String input) {
+            mInput = input;
+        }
+
+        /**
+         * @return input containing the document
+         */
+        public String getInput() {
+            return mInput;
+        }
+
+        /**
+         * @return true if the document is valid
+         */
+        public boolean isValid() {
+            return mErrorCount == 0;
+        }
+
+        /**
+         * @return number of validation errors (and a fatal error, if any)
+         */
+        public int getErrorCount() {
+            return mErrorCount;
+        }
+
+        /**
+         * @return number of warnings
+         */
+        public int getWarningCount() {
+            return mWarningCount;
+        }
+
+        /**
+         * @return the first few errors, e.g., <code>"12:7: cvc-..."</code>
+         */
+        public List<String> getErrors() {
+            return mErrors;
+        }
+
+        /**
+         * @return number of bytes of the document read
+         */
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /**
+         * @param error description of an error
+         */
+        void addError(String error) {
+            if (mErrors.size() < MAX_ERRORS_KEPT) {
+                mErrors.add(error);
+            }
+            mErrorCount++;
+        }
+
+    }
+
+
+    //
+    //  Public class data
+    //
+
+    /** name of the input read from the input console */
+    public static final String CONSOLE_INPUT = "-";
+
+
+    //
+    //  Private class data
+    //
+
+    /** number of errors kept for reporting, per document */
+    private static final int MAX_ERRORS_KEPT = 10;
+
+    /** size of the buffers used to read documents */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** number of milliseconds between progress reports */
+    private static final long PROGRESS_INTERVAL_MILLIS = 1000;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** compiled schema */
+    private final Schema mSchema;
+
+    /** number of worker threads */
+    private final int mWorkerCount;
+
+    /** validator used by each worker thread, created when first needed */
+    private final ThreadLocal<Validator> mValidators = new ThreadLocal<Validator>();
+
+    /** number of documents validated */
+    private int mDocumentCount;
+
+    /** number of documents found to be invalid */
+    private int mInvalidCount;
+
+    /** number of bytes of input validated */
+    private long mByteCount;
+
+    /** time the batch started */
+    private long mStartTime;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param schema compiled schema
+     * @param workerCount number of worker threads
+     */
+    public BatchValidator(Schema schema, int workerCount) {
+        mSchema = schema;
+        mWorkerCount = Math.max(1, workerCount);
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Validates documents, blocking until all are done
+     * @param inputs inputs containing the documents: filenames, URLs or
+     * {@link #CONSOLE_INPUT}
+     * @param consoleInputStream stream read for {@link #CONSOLE_INPUT} (not closed)
+     * @param progressWriter writer receiving progress reports
+     * @return the results, in the order of <code>inputs</code>
+     * @throws InterruptedException interrupted while waiting; the documents
+     * not yet validated are abandoned
+     */
+    public List<Result> validate(List<String> inputs, final InputStream consoleInputStream,
+            PrintWriter progressWriter) throws InterruptedException {
+
+        mStartTime = System.currentTimeMillis();
+
+        ExecutorService executorService = Executors.newFixedThreadPool(
+            Math.min(mWorkerCount, Math.max(1, inputs.size())),
+            BatchUtil.newWorkerThreadFactory("validate"));
+
+        List<Result> results = new ArrayList<Result>();
+        try {
+
+            CompletionService<Result> completionService
+                = new ExecutorCompletionService<Result>(executorService);
+            for (String input : inputs) {
+                final Result result = new Result(input);
+                results.add(result);
+                completionService.submit(new Callable<Result>() {
+                    public Result call() {
+                        validate(result, consoleInputStream);
+                        return result;
+                    }
+                });
+            }
+
+            long lastProgressTime = mStartTime;
+            for (int i = 0; i < inputs.size(); i++) {
+                Result result;
+                try {
+                    result = completionService.take().get();
+                } catch(ExecutionException ee) {
+                    // NOTE: can't happen, since validate() notes its failures
+                    continue;
+                }
+                synchronized(this) {
+                    mDocumentCount++;
+                    mByteCount += result.getByteCount();
+                    if (!result.isValid()) {
+                        mInvalidCount++;
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastProgressTime >= PROGRESS_INTERVAL_MILLIS && i < inputs.size() - 1) {
+                    lastProgressTime = now;
+                    progressWriter.println(getProgress() + "; " + (inputs.size() - i - 1) + " to go");
+                    progressWriter.flush();
+                }
+            }
+
+        } finally {
+            executorService.shutdownNow();
+        }
+
+        return results;
+    }
+
+    /**
+     * @return human-readable report of the progress of the batch, with
+     * its throughput
+     */
+    public synchronized String getProgress() {
+        return BatchUtil.formatProgress(mDocumentCount, "validated", mInvalidCount, "invalid",
+            mByteCount, mStartTime);
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Validates a document, noting the outcome in its result
+     * @param result result of the document, naming its input
+     * @param consoleInputStream stream read for {@link #CONSOLE_INPUT}
+     */
+    private void validate(final Result result, InputStream consoleInputStream) {
+
+        String input = result.getInput();
+        InputStream inputStream = null;
+        boolean isInputStreamOurs = true;
+        CountingInputStream countingInputStream = null;
+
+        try {
+
+            Validator validator = mValidators.get();
+            if (validator == null) {
+                validator = mSchema.newValidator();
+                mValidators.set(validator);
+            }
+
+            String systemId = null;
+            if (input.equals(CONSOLE_INPUT)) {
+                inputStream = consoleInputStream;
+                isInputStreamOurs = false;
+            } else if (input.contains("://")) {
+                inputStream = CliPluginUtil.newUrlResourceInputStream(new URL(input));
+                systemId = input;
+            } else {
+                inputStream = new BufferedInputStream(Channels.newInputStream(
+                    FileChannel.open(Paths.get(input), StandardOpenOption.READ)), BUFFER_SIZE);
+                systemId = new File(input).toURI().toString();
+            }
+            countingInputStream = new CountingInputStream(inputStream, false);
+
+            validator.setErrorHandler(new ErrorHandler() {
+                public void warning(SAXParseException exception) {
+                    result.mWarningCount++;
+                }
+                public void error(SAXParseException exception) {
+                    result.addError(describe(exception));
+                }
+                public void fatalError(SAXParseException exception) throws SAXException {
+                    throw exception;
+                }
+            });
+            try {
+                validator.validate(new StreamSource(countingInputStream, systemId));
+            } finally {
+                validator.reset();
+            }
+
+        } catch(SAXParseException spe) {
+            result.addError(describe(spe));
+        } catch(NoSuchFileException nsfe) {
+            result.addError("no such file");
+        } catch(Exception ex) {
+            // report the underlying problem, not the wrappers around it
+            result.addError(BatchUtil.unwrapCause(ex).getMessage());
+        } finally {
+
+            if (countingInputStream != null) {
+                result.mByteCount = countingInputStream.getByteCount();
+            }
+            if (inputStream != null && isInputStreamOurs) {
+                try {
+                    inputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+
+        }
+
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param exception validation error
+     * @return description of the error, with its location
+     */
+    private static String describe(SAXParseException exception) {
+        return exception.getLineNumber() + ":" + exception.getColumnNumber() + ": "
+            + exception.getMessage();
+    }
+
+}
@@ -12,18 +12,25 @@
 
 package clishell.plugins;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.net.URL;
 import java.util.Collection;
 import java.util.Set;
 
 import clishell.CliCommandOptions;
 import clishell.CliCommandParser;
+import clishell.CliProperties;
 import clishell.CliRunner;
+import clishell.CommandLimits;
 import clishell.CommandName;
 import clishell.FullCommandNameTree;
 import clishell.ex.CliRejectedInputException;
 import clishell.ex.CliRunnerException;
+import clishell.net.UrlResourceCache;
+import clishell.net.UrlResourceInputStream;
 import clishell.reflection.BeanGetter;
 import clishell.util.PropertyReferenceResolver;
 
@@ -34,6 +41,47 @@ import clishell.util.PropertyReferenceResolver;
  */
 public final class CliPluginUtil {
 
+
+    //
+    //  Public class data
+    //
+
+    /** property selecting "sync" (default) or "async" teeing of captured output */
+    public static final String PROPERTY_CAPTURE_TEE_MODE = "capture-tee-mode";
+
+    /** property selecting the overflow policy of "async" tee sinks */
+    public static final String PROPERTY_CAPTURE_TEE_OVERFLOW = "capture-tee-overflow";
+
+    /** property selecting the queue size (in chunks) of "async" tee sinks */
+    public static final String PROPERTY_CAPTURE_TEE_QUEUE_CHUNKS = "capture-tee-queue-chunks";
+
+    /** property selecting the transport ("url-connection" or "http-client") used to retrieve URLs */
+    public static final String PROPERTY_URL_TRANSPORT = "url-transport";
+
+    /** property limiting the size of the on-disk cache of HTTP resources (0 disables it) */
+    public static final String PROPERTY_RESOURCE_CACHE_SIZE = "resource-cache-size";
+
+    /** property naming the directory of the on-disk cache of HTTP resources */
+    public static final String PROPERTY_RESOURCE_CACHE_DIRECTORY = "resource-cache-directory";
+
+    /** property which, if "true", serves cached HTTP resources without contacting servers */
+    public static final String PROPERTY_RESOURCE_CACHE_OFFLINE = "resource-cache-offline";
+
+
+    //
+    //  Private class data
+    //
+
+    /** default value of {@link #PROPERTY_RESOURCE_CACHE_SIZE}: disabled */
+    private static final long DEFAULT_RESOURCE_CACHE_SIZE = 0;
+
+    /** name of the default directory of the resource cache, in the user's home directory */
+    private static final String DEFAULT_RESOURCE_CACHE_DIRECTORY_NAME = ".clishell_resource_cache";
+
+    /** on-disk cache of HTTP resources, created when first needed */
+    private static UrlResourceCache sResourceCache;
+
+
     /**
      * Utility class - no instantiation necessary
      */
@@ -41,6 +89,43 @@ public final class CliPluginUtil {
         // no instantiate
     }
 
+    /**
+     * @param properties properties containing the value
+     * @param propertyName name of property specifying a size in bytes,
+     * optionally suffixed by 'k', 'm' or 'g' (e.g., "64m")
+     * @param defaultValue value to return if the property is not set
+     * @return value of the property, in bytes
+     * @throws CliRejectedInputException invalid property value
+     */
+    public static long getSizeProperty(CliProperties properties, String propertyName,
+        long defaultValue) throws CliRejectedInputException {
+
+        String sizeString = properties.getProperty(propertyName);
+        if (sizeString == null || sizeString.trim().length() == 0) {
+            return defaultValue;
+        }
+
+        try {
+            return parseSize(sizeString);
+        } catch(NumberFormatException nfe) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + propertyName
+                + "': '"
+                + sizeString
+                + "'", nfe);
+        }
+    }
+
+    /**
+     * @param sizeString size in bytes, optionally suffixed by 'k', 'm'
+     * or 'g' (e.g., "64m")
+     * @return size in bytes
+     * @throws NumberFormatException invalid size
+     */
+    public static long parseSize(String sizeString) {
+        return CommandLimits.parseSize(sizeString);
+    }
+
     /**
      * @param args
      * @param subcommands
@@ -61,6 +146,83 @@ public final class CliPluginUtil {
             + "'");
     }
 
+    /**
+     * @param url URL of a resource (which may contain authentication credentials)
+     * @return stream retrieving the resource, using the transport selected
+     * by {@link #PROPERTY_URL_TRANSPORT}, and (for HTTP resources) the
+     * on-disk resource cache, if enabled
+     * @throws IOException error retrieving the resource
+     * @throws CliRejectedInputException invalid property value
+     */
+    public static InputStream newUrlResourceInputStream(URL url)
+        throws IOException, CliRejectedInputException {
+
+        UrlResourceInputStream.Transport transport = getUrlTransport();
+
+        String protocol = url.getProtocol();
+        if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+            UrlResourceCache resourceCache = getResourceCache();
+            if (resourceCache != null) {
+                boolean isOffline = Boolean.parseBoolean(CliRunner.getInstance().getProperties()
+                    .getProperty(PROPERTY_RESOURCE_CACHE_OFFLINE, "false").trim());
+                return resourceCache.open(url, null, null, transport, isOffline);
+            }
+        }
+
+        return new UrlResourceInputStream(url, null, null, transport);
+    }
+
+    /**
+     * @return transport used to retrieve URLs, as selected by {@link #PROPERTY_URL_TRANSPORT}
+     * @throws CliRejectedInputException invalid property value
+     */
+    public static UrlResourceInputStream.Transport getUrlTransport()
+        throws CliRejectedInputException {
+
+        String transportName = CliRunner.getInstance().getProperties().getProperty(
+            PROPERTY_URL_TRANSPORT, "url-connection");
+        try {
+            return UrlResourceInputStream.Transport.fromName(transportName);
+        } catch(IllegalArgumentException iae) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_URL_TRANSPORT
+                + "': '"
+                + transportName
+                + "'; expected 'url-connection' or 'http-client'", iae);
+        }
+    }
+
+    /**
+     * @return the on-disk cache of HTTP resources, as configured by
+     * {@link #PROPERTY_RESOURCE_CACHE_SIZE} and {@link #PROPERTY_RESOURCE_CACHE_DIRECTORY},
+     * or <code>null</code> if it's disabled (as it is by default)
+     * @throws IOException error creating the cache's directory, or it's
+     * unfit (e.g., owned by another user)
+     * @throws CliRejectedInputException invalid property value
+     */
+    public static synchronized UrlResourceCache getResourceCache()
+        throws IOException, CliRejectedInputException {
+
+        CliProperties properties = CliRunner.getInstance().getProperties();
+        long maxBytes = getSizeProperty(properties, PROPERTY_RESOURCE_CACHE_SIZE,
+            DEFAULT_RESOURCE_CACHE_SIZE);
+        if (maxBytes <= 0) {
+            return null;
+        }
+
+        String directoryName = properties.getProperty(PROPERTY_RESOURCE_CACHE_DIRECTORY, "").trim();
+        File directory = (directoryName.length() > 0)
+            ? new File(directoryName)
+            : new File(System.getProperty("user.home"), DEFAULT_RESOURCE_CACHE_DIRECTORY_NAME);
+
+        // NOTE: the properties may have been changed since the cache was created
+        if (sResourceCache == null || sResourceCache.getMaxBytes() != maxBytes
+                || !sResourceCache.getDirectory().equals(directory)) {
+            sResourceCache = new UrlResourceCache(directory, maxBytes);
+        }
+        return sResourceCache;
+    }
+
     /**
      * @param printWriter output destination
      * @param beanCollection collection of beans
@@ -99,6 +261,10 @@ public final class CliPluginUtil {
      *     unless otherwise specified.
      *   </li>
      * </ul>
+     * When output is routed to both consoles and the "capture-tee-mode" property is
+     * "async", each console is written to from its own queue (see {@link AsyncSinkWriter}),
+     * so that a slow capture destination doesn't hold up the current console; all
+     * captured output has been written by the time this method returns.
      * @param inputConsole new input console to use, or <code>null</code> to use existing
      * @param messageConsole new message (and possibly error) console to use, or <code>null</code>
      * to use existing
@@ -114,14 +280,17 @@ public final class CliPluginUtil {
         // new error console is unchanged unless specified
         PrintWriter newErrorConsole = null;
 
+        // tee writer, if messages are routed to both consoles
+        TeeWriter teeWriter = null;
+
         // new message console is as specified by user
         PrintWriter newMessageConsole = messageConsole;
         if (messageConsole != null) {
             if (!options.isOptionSet('q')) {
                 // but if it's not null and 'q' option is not set,
                 // then route messages also to the old console
-                TeeWriter teeWriter = new TeeWriter(true, messageConsole,
-                        false, cliInstance.getMessageConsole());
+                teeWriter = newCaptureTeeWriter(cliInstance.getProperties(),
+                    messageConsole, cliInstance.getMessageConsole());
                 newMessageConsole = new PrintWriter(teeWriter);
             }
             if (options.isOptionSet('e')) {
@@ -129,17 +298,117 @@ public final class CliPluginUtil {
             }
         }
 
-        cliInstance.dispatchCommand(inputConsole, newMessageConsole,
-            newErrorConsole, commandTokens);
+        CliRunnerException cliRunnerException = null;
+
+        try {
+
+            cliInstance.dispatchCommand(inputConsole, newMessageConsole,
+                newErrorConsole, commandTokens);
+
+        } catch(CliRunnerException dispatchException) {
+
+            cliRunnerException = dispatchException;
+
+        } finally {
+
+            if (newMessageConsole != null) {
+                newMessageConsole.flush();
+            }
+
+            if (newErrorConsole != null) {
+                newErrorConsole.flush();
+            }
 
-        if (newMessageConsole != null) {
-            newMessageConsole.flush();
+            // asynchronous sinks have threads that must be stopped
+            // (NOTE: this doesn't close the consoles themselves)
+            if (teeWriter != null && teeWriter.hasAsyncWriters()) {
+                try {
+                    teeWriter.close();
+                } catch(IOException ioex) {
+                    if (cliRunnerException != null) {
+                        cliRunnerException.add(ioex);
+                    } else {
+                        cliRunnerException = new CliRunnerException(
+                            "error writing captured output: " + ioex.getMessage(), ioex);
+                    }
+                }
+            }
+
+        }
+
+        if (cliRunnerException != null) {
+            throw cliRunnerException;
+        }
+
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param properties properties selecting the mode of the tee writer
+     * (see {@link #PROPERTY_CAPTURE_TEE_MODE} and friends)
+     * @param captureConsole console capturing the output
+     * @param currentConsole console output was going to until now
+     * @return tee writer sending its output to both consoles; if "async"
+     * mode is configured, neither console is "owned" by the tee writer
+     * @throws CliRejectedInputException invalid property value
+     */
+    private static TeeWriter newCaptureTeeWriter(CliProperties properties,
+            PrintWriter captureConsole, PrintWriter currentConsole)
+        throws CliRejectedInputException {
+
+        String teeMode = properties.getProperty(PROPERTY_CAPTURE_TEE_MODE, "sync").trim();
+
+        if ("sync".equalsIgnoreCase(teeMode)) {
+            return new TeeWriter(true, captureConsole, false, currentConsole);
         }
 
-        if (newErrorConsole != null) {
-            newErrorConsole.flush();
+        if (!"async".equalsIgnoreCase(teeMode)) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_CAPTURE_TEE_MODE
+                + "': '"
+                + teeMode
+                + "'; expected 'sync' or 'async'");
+        }
+
+        AsyncSinkWriter.OverflowPolicy policy;
+        String policyName = properties.getProperty(PROPERTY_CAPTURE_TEE_OVERFLOW, "block");
+        try {
+            policy = AsyncSinkWriter.OverflowPolicy.fromName(policyName);
+        } catch(IllegalArgumentException iae) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_CAPTURE_TEE_OVERFLOW
+                + "': '"
+                + policyName
+                + "'; expected 'block', 'drop-oldest' or 'spill'", iae);
+        }
+
+        int maxQueuedChunks;
+        String maxQueuedChunksString = properties.getProperty(
+            PROPERTY_CAPTURE_TEE_QUEUE_CHUNKS,
+            String.valueOf(AsyncSinkWriter.DEFAULT_MAX_QUEUED_CHUNKS));
+        try {
+            maxQueuedChunks = Integer.parseInt(maxQueuedChunksString.trim());
+        } catch(NumberFormatException nfe) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_CAPTURE_TEE_QUEUE_CHUNKS
+                + "': '"
+                + maxQueuedChunksString
+                + "'", nfe);
+        }
+        if (maxQueuedChunks < 1) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_CAPTURE_TEE_QUEUE_CHUNKS
+                + "': must be at least 1");
         }
 
+        TeeWriter teeWriter = new TeeWriter();
+        teeWriter.addAsyncWriter("capture", false, captureConsole, policy, maxQueuedChunks);
+        teeWriter.addAsyncWriter("console", false, currentConsole, policy, maxQueuedChunks);
+        return teeWriter;
     }
 
 }
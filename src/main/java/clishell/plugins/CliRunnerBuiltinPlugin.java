@@ -12,33 +12,53 @@
 
 package clishell.plugins;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.io.PrintWriter;
 import java.sql.Date;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
+import clishell.CancellationToken;
 import clishell.CliCommandOptions;
-import clishell.CliPluginCommandMetadata;
+import clishell.CliCommandParser;
 import clishell.CliPluginMetadata;
 import clishell.CliRunner;
+import clishell.CommandJob;
+import clishell.CommandJobs;
+import clishell.CommandLimitViolations;
+import clishell.CommandLimits;
 import clishell.CommandName;
+import clishell.StringListParser;
 import clishell.anno.CliPlugin;
 import clishell.anno.CliPluginCommand;
 import clishell.anno.CliPluginFinalizer;
+import clishell.db.CliHelpIndex;
 import clishell.ex.CliInvariantViolationException;
 import clishell.ex.CliPluginMethodException;
 import clishell.ex.CliRejectedInputException;
 import clishell.ex.CliRunnerException;
+import clishell.util.BatchUtil;
+import clishell.util.SharedInputStream;
 import org.mortbay.util.WriterOutputStream;
 
 /**
@@ -55,6 +75,14 @@ import org.mortbay.util.WriterOutputStream;
 public class CliRunnerBuiltinPlugin {
 
 
+    //
+    // Private class data
+    //
+
+    /** "help" command filter without regular expression syntax, looked up by prefix */
+    private static final Pattern LITERAL_COMMAND_FILTER_PATTERN = Pattern.compile("[\\w -]*");
+
+
     //
     // Private instance data
     //
@@ -65,6 +93,9 @@ public class CliRunnerBuiltinPlugin {
     /** errordisplay console printwriter (wraps the buffer writer) when turned "on" */
     private PrintWriter mErrorDisplayConsole;
 
+    /** system shell kept running for "system -s", or <code>null</code> if not started */
+    private SysShellCoprocess mSysShellCoprocess;
+
 
     //
     // Public plugin finalization methods
@@ -74,6 +105,10 @@ public class CliRunnerBuiltinPlugin {
     public void fini() {
         // deactivate any currently active error display buffer
         deactivateErrorDisplayBuffer();
+        // stop the system shell, if started
+        if (mSysShellCoprocess != null) {
+            mSysShellCoprocess.close();
+        }
     }
 
 
@@ -96,8 +131,8 @@ public class CliRunnerBuiltinPlugin {
 
     @CliPluginCommand(
           name = "help"
-    ,   syntax = "[-v] [-p <plugin-list>] [<command-filter> [<command-filter> [...]]]"
-    ,  options = "vp:"
+    ,   syntax = "[-v] [-p <plugin-list>] [-s] [<command-filter> [<command-filter> [...]]]"
+    ,  options = "vp:s"
     , ordering = "a2"
     , helptext = {
           "Prints syntax diagram(s) of currently loaded commands matching <command-filter>(s)."
@@ -106,6 +141,9 @@ public class CliRunnerBuiltinPlugin {
         , "Options:"
         , "   -v   includes help text for each command"
         , "   -p   only include the specified plugin(s) in the search"
+        , "   -s   (search) treats each <command-filter> as a search term instead, listing"
+        , "        the commands whose names, syntax or help text contain words it begins,"
+        , "        best match first"
       }
     )
     public void helpCommand(CliCommandOptions options, String... commandNameFilters) {
@@ -119,104 +157,88 @@ public class CliRunnerBuiltinPlugin {
             }
         }
 
-        //
-        // setup any command filters present
-        //
-
-        Pattern[] commandNameFilterPatterns = new Pattern[commandNameFilters.length];
-        for (int i = 0; i < commandNameFilterPatterns.length; i++) {
-            commandNameFilterPatterns[i] = Pattern.compile(commandNameFilters[i]);
-        }
-
-        //
-        // get helper objects for building user output
-        //
-
-        // CliRunner
-        CliRunner cliRunner = CliRunner.getInstance();
+        // index of the help of all loaded commands
+        CliHelpIndex helpIndex = CliRunner.getInstance().getHelpIndex();
 
         // console writer
-        PrintWriter messageConsoleWriter = cliRunner.getMessageConsole();
-
-        // list of commands to show user for "current" plugin
-        LinkedList<String> matchingPluginCommands = new LinkedList<String>();
-
-        // buffer for building up "current" command entry in output
-        StringBuffer commandEntry = new StringBuffer();
+        PrintWriter messageConsoleWriter = CliRunner.getInstance().getMessageConsole();
 
         // quick flag to tell if "verbose" option was specified
         boolean verboseFlag = options.isOptionSet('v');
 
-        // scan all plugins...
-        for (CliPluginMetadata pluginMetadata : cliRunner.getPlugins()) {
-            matchingPluginCommands.clear(); // no commands for this plugin - yet
+        //
+        // ranked search: list the best matches first, naming their plugins
+        //
 
-            // if there's a plugin list specified, check that this plugin is in the list
-            if (pluginList != null) {
-                if (!pluginList.contains(pluginMetadata.getName())) {
-                    // skip this plugin - it's not in the list
+        if (options.isOptionSet('s')) {
+            boolean isFound = false;
+            for (CliHelpIndex.HelpEntry entry : helpIndex.search(commandNameFilters)) {
+                if (pluginList != null && !pluginList.contains(entry.getPluginName())) {
                     continue;
                 }
+                messageConsoleWriter.println(" " + getHelpEntryLine(entry)
+                    + "  (plugin: " + entry.getPluginName() + ")");
+                if (verboseFlag) {
+                    printHelptext(messageConsoleWriter, entry);
+                }
+                isFound = true;
             }
+            if (!isFound) {
+                messageConsoleWriter.println("no commands found matching: "
+                    + Arrays.toString(commandNameFilters));
+            }
+            return;
+        }
 
-            // scan all commands supported by current plugin...
-            for (CliPluginCommandMetadata commandMetadata : pluginMetadata.getCommands()) {
-
-                // apply any command filters that may have been specified...
-                if (commandNameFilterPatterns.length > 0) {
-
-                    // say it doesn't match unless we see that it does...
-                    boolean matched = false;
+        //
+        // find the commands matching any command filters present: those
+        // not using regular expression syntax are looked up by prefix,
+        // the others matched against all command names
+        //
 
-                    // try to match using all names current command goes by...
-                    for (CommandName commandName : commandMetadata.getNames()) {
-                        // try all command filters specified by user...
-                        for (Pattern commandNameFilterPattern : commandNameFilterPatterns) {
-                            matched = commandNameFilterPattern
-                                .matcher(commandName.toString()).lookingAt();
-                            if (matched) {
-                                break;          // if it matches, no need to check for more
-                            }
-                        }
-                        if (matched) {
-                            break;              // if it matches, no need to check for more
-                        }
-                    }
-                    if (!matched) {
-                        continue;               // if command didn't match, skip it
+        Collection<CliHelpIndex.HelpEntry> matchingEntries;
+        if (commandNameFilters.length == 0) {
+            matchingEntries = helpIndex.getEntries();
+        } else {
+            matchingEntries = new TreeSet<CliHelpIndex.HelpEntry>();
+            List<Pattern> commandNameFilterPatterns = new ArrayList<Pattern>();
+            for (String commandNameFilter : commandNameFilters) {
+                if (LITERAL_COMMAND_FILTER_PATTERN.matcher(commandNameFilter).matches()) {
+                    matchingEntries.addAll(helpIndex.getEntriesByNamePrefix(commandNameFilter));
+                } else {
+                    commandNameFilterPatterns.add(Pattern.compile(commandNameFilter));
+                }
+            }
+            if (commandNameFilterPatterns.size() > 0) {
+                for (CliHelpIndex.HelpEntry entry : helpIndex.getEntries()) {
+                    if (isMatchingCommand(entry, commandNameFilterPatterns)) {
+                        matchingEntries.add(entry);
                     }
                 }
+            }
+        }
 
-                // build the command entry
-                CliPluginCommand cliPluginCommand = commandMetadata
-                    .getCliMethod().getMethod().getAnnotation(CliPluginCommand.class);
+        //
+        // print the matching commands, grouped by plugin, prefixed with the plugin name
+        //
 
-                commandEntry.setLength(0);
-                commandEntry.append(commandMetadata.getDisplayName());
-                String syntax = cliPluginCommand.syntax();
-                if (!"".equals(syntax)) {
-                    commandEntry.append(" " + syntax);
-                }
+        String currentPluginName = null;
+        for (CliHelpIndex.HelpEntry entry : matchingEntries) {
 
-                // add the command entry to the list for this plugin
-                matchingPluginCommands.add(commandEntry.toString());
+            // if there's a plugin list specified, check that this plugin is in the list
+            if (pluginList != null && !pluginList.contains(entry.getPluginName())) {
+                continue;
+            }
 
-                // if "verbose" is selected, then add in the help text underneath
-                if (verboseFlag) {
-                    for (String helpLine : cliPluginCommand.helptext()) {
-                        matchingPluginCommands.add("    " + helpLine);
-                    }
-                    matchingPluginCommands.add("");
-                }
+            if (!entry.getPluginName().equals(currentPluginName)) {
+                currentPluginName = entry.getPluginName();
+                messageConsoleWriter.println("plugin: " + currentPluginName);
             }
+            messageConsoleWriter.println(" " + getHelpEntryLine(entry));
 
-            // if this plugin had any matching commands, then print them on the console
-            if (matchingPluginCommands.size() > 0) {
-                // ... prefixed with the plugin name
-                messageConsoleWriter.println("plugin: " + pluginMetadata.getName());
-                for (String command : matchingPluginCommands) {
-                    messageConsoleWriter.println(" " + command);
-                }
+            // if "verbose" is selected, then add in the help text underneath
+            if (verboseFlag) {
+                printHelptext(messageConsoleWriter, entry);
             }
         }
     }
@@ -274,7 +296,8 @@ public class CliRunnerBuiltinPlugin {
     public void captureFile(CliCommandOptions options, String... args) throws CliRunnerException, IOException {
 
         // setup to write output to specified file
-        PrintWriter messageConsole = new PrintWriter(new FileWriter(args[0]));
+        // (with -q, system commands may append to it directly)
+        PrintWriter messageConsole = new FileConsoleWriter(new File(args[0]));
 
         // dispatch the command in args[1..n] using the new message console
         CliPluginUtil.dispatchCommand(options, null, messageConsole,
@@ -286,6 +309,33 @@ public class CliRunnerBuiltinPlugin {
 
     }
 
+    @CliPluginCommand(
+          name = "list tee sinks"
+    , ordering = "capture file 2"
+    , helptext = {
+              "Lists the asynchronous sinks of currently active \"capture\" commands (see the"
+          ,   "\"capture-tee-mode\" property), showing for each its overflow policy, lag (the number"
+          ,   "of characters not yet written), queued chunks, and characters written, dropped and"
+          ,   "spilled to disk."
+          }
+    )
+    public void listTeeSinks() {
+
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+
+        // take the snapshot first, since listing can itself be captured
+        List<AsyncSinkWriter> openWriters = AsyncSinkWriter.getOpenWriters();
+        if (openWriters.size() == 0) {
+            messageConsole.println("(no asynchronous sinks active)");
+            return;
+        }
+
+        for (AsyncSinkWriter asyncSinkWriter : openWriters) {
+            messageConsole.println(asyncSinkWriter.toString());
+        }
+
+    }
+
     @CliPluginCommand(
         name = "load properties"
       , syntax = "<propertyFilename>"
@@ -403,39 +453,489 @@ public class CliRunnerBuiltinPlugin {
 
     @CliPluginCommand(
         name = "system"
-    , syntax = "[<command> [<arg> [<arg> [...]]]]"
+    , syntax = "[-r <property-name>] [-p | -s] [<command> [<arg> [<arg> [...]]]]"
+    , options = "psr:"
     , helptext = { "Invokes a system command, or the system's shell"
                  , "if no arguments are specified."
+                 , "Options:"
+                 , "  -s  the arguments are a command line for a (POSIX) system shell that's kept"
+                 , "      running for the rest of the session, so that the command doesn't cost"
+                 , "      starting a process, and changes to the shell's working directory and"
+                 , "      environment persist; the shell is restarted if it exits.  Its commands"
+                 , "      can't read the console, only redirected console input.  A single"
+                 , "      argument is the whole command line (e.g., \"cd /tmp && ls\"); several"
+                 , "      are the words of a command, each passed to it as given"
+                 , "  -p  the arguments are a pipeline of commands separated by '|', whose"
+                 , "      processes are connected directly by the operating system; since an"
+                 , "      unquoted '|' separates CLI commands, quote the pipeline, e.g.:"
+                 , "      system -p \"grep -v '^#' f.txt | sort | uniq -c\""
+                 , "      or (keeping each argument as given) quote each '|', e.g.:"
+                 , "      system -p grep \"a b\" f.txt \"|\" wc -l"
+                 , "      the exit status of each command is reported if any is nonzero"
+                 , "  -r  sets the property <property-name> to the exit status of the (last)"
+                 , "      command, and (with -p) <property-name>.<n> to that of the n'th"
+                 , "      command (from 1) and <property-name>.count to the number of commands"
             }
     , minargs = 0
     )
-    public void invokeSystem(String... cmdArray)
-        throws IOException {
+    public void invokeSystem(CliCommandOptions options, String... cmdArray)
+        throws IOException, CliRunnerException {
 
         CliRunner instance = CliRunner.getInstance();
-        SysCommandInvoker syscmdInvoker = new SysCommandInvoker();
 
-        String[] args = cmdArray;
+        if (options.isOptionSet('s')) {
+            if (options.isOptionSet('p')) {
+                throw new CliRejectedInputException("options '-p' and '-s' can't be combined");
+            }
+            if (cmdArray.length == 0) {
+                throw new CliRejectedInputException("no command specified");
+            }
+            int exitStatus = executeInSystemShell(getShellCommandLine(cmdArray));
+            if (options.isOptionSet('r')) {
+                instance.getProperties().setProperty(options.getOptionValue('r'),
+                    String.valueOf(exitStatus));
+            }
+            return;
+        }
+
+        final SysCommandInvoker syscmdInvoker = new SysCommandInvoker();
 
-        // if user didn't give any arguments, simply invoke
-        // the system shell, if it can be found
-        if (cmdArray.length == 0) {
+        List<String[]> stages;
+        if (options.isOptionSet('p')) {
+            stages = getPipelineStages(cmdArray);
+            for (String[] stage : stages) {
+                if (stage.length == 0) {
+                    throw new CliRejectedInputException("empty command in pipeline");
+                }
+            }
+        } else if (cmdArray.length > 0) {
+            stages = Arrays.<String[]>asList(new String[][] { cmdArray });
+        } else {
+            // if user didn't give any arguments, simply invoke
+            // the system shell, if it can be found
             String shellCommand = syscmdInvoker.getShellCommand();
             if (shellCommand == null) {
                 throw new IOException("can't find system shell");
             }
-            args = new String[] {shellCommand };
+            stages = Arrays.<String[]>asList(new String[][] { { shellCommand } });
         }
 
-        syscmdInvoker.system(
-            new WriterOutputStream(instance.getMessageConsole()),
-            new WriterOutputStream(instance.getErrorConsole()),
-            null,
-            args
-        );
+        if (stages.size() == 0) {
+            throw new CliRejectedInputException("no command specified");
+        }
+
+        // feed the command from the input console if it was redirected
+        // (e.g., by "feed buffer" or a command pipeline)
+        InputStream inputConsole = instance.getInputConsole();
+        if (inputConsole == SharedInputStream.getStandardInput()) {
+            inputConsole = null;
+        }
+
+        // have the process write straight into the file if output
+        // is being captured into one (e.g., by "capture file -q")
+        PrintWriter messageConsole = instance.getMessageConsole();
+        FileBackedConsole fileBackedConsole = null;
+        if (messageConsole instanceof FileBackedConsole) {
+            fileBackedConsole = (FileBackedConsole) messageConsole;
+            File outputFile = fileBackedConsole.beginAppend();
+            syscmdInvoker.redirectOutput(outputFile);
+            if (instance.getErrorConsole() == messageConsole) {
+                syscmdInvoker.redirectError(outputFile);
+            }
+        }
+
+        // destroy the process if the command gets cancelled
+        Runnable cancellationCallback = new Runnable() {
+            public void run() {
+                syscmdInvoker.abortWait();
+            }
+        };
+        CancellationToken cancellationToken = instance.getCancellationToken();
+        cancellationToken.addCallback(cancellationCallback);
+
+        int[] exitStatuses;
+        try {
+            exitStatuses = syscmdInvoker.system(
+                new WriterOutputStream(messageConsole),
+                new WriterOutputStream(instance.getErrorConsole()),
+                inputConsole,
+                stages
+            );
+        } finally {
+            cancellationToken.removeCallback(cancellationCallback);
+            if (fileBackedConsole != null) {
+                fileBackedConsole.endAppend();
+            }
+        }
+
+        // report the status of each command in a pipeline, if any failed
+        StringBuilder exitStatusesText = new StringBuilder();
+        boolean isFailed = false;
+        for (int exitStatus : exitStatuses) {
+            exitStatusesText.append(' ').append(exitStatus);
+            isFailed |= (exitStatus != 0);
+        }
+        if (options.isOptionSet('p') && isFailed) {
+            instance.getErrorConsole().println("pipeline exit status:" + exitStatusesText);
+        }
+
+        if (options.isOptionSet('r')) {
+            String propertyName = options.getOptionValue('r');
+            Properties properties = instance.getProperties();
+            properties.setProperty(propertyName,
+                String.valueOf(exitStatuses[exitStatuses.length - 1]));
+            if (options.isOptionSet('p')) {
+                properties.setProperty(propertyName + ".count",
+                    String.valueOf(exitStatuses.length));
+                for (int i = 0; i < exitStatuses.length; i++) {
+                    properties.setProperty(propertyName + "." + (i + 1),
+                        String.valueOf(exitStatuses[i]));
+                }
+            }
+        }
+
+    }
+
+    @CliPluginCommand(
+        name = "parallel"
+    , syntax = "[-P <n>] [-m <output-mode>] [-x] [-r <property-name>] [-f <file> | -p <property-name>]"
+             + " <command> [<arg> [<arg> [...]]]"
+    , options = "P:m:xr:f:p:"
+    , minargs = 1
+    , helptext = { "Invokes a system command once for each of a list of argument sets (e.g., file"
+                 , "names), several at a time.  The argument sets are the lines of <file>, the"
+                 , "comma-separated items of the property <property-name>, or the lines of the"
+                 , "console input (e.g., from 'feed buffer'); each set's (space-separated) arguments"
+                 , "replace any '{}' in the command's arguments, or are appended to them if none."
+                 , "A summary of the failures and timings is written to the error console."
+                 , "Options:"
+                 , "  -P  maximum number of commands run at a time (default: number of processors)"
+                 , "  -m  output mode: 'interleaved' (as produced), 'grouped' (per command, as each"
+                 , "      finishes; the default) or 'ordered' (per command, in the order given)"
+                 , "  -x  stops at the first failure, destroying the commands still running"
+                 , "  -r  sets the property <property-name> to the number of commands that failed"
+            }
+    )
+    public void invokeParallel(CliCommandOptions options, String... cmdArray)
+        throws IOException, CliRunnerException {
+
+        CliRunner instance = CliRunner.getInstance();
+
+        int maxProcesses = options.isOptionSet('P')
+            ? BatchUtil.parseRequestCount(options.getOptionValue('P'), "commands")
+            : Runtime.getRuntime().availableProcessors();
+
+        ParallelSysCommandRunner.OutputMode outputMode = ParallelSysCommandRunner.OutputMode.GROUPED;
+        if (options.isOptionSet('m')) {
+            try {
+                outputMode = ParallelSysCommandRunner.OutputMode.valueOf(
+                    options.getOptionValue('m').toUpperCase());
+            } catch(IllegalArgumentException iae) {
+                throw new CliRejectedInputException("invalid output mode: "
+                    + options.getOptionValue('m'));
+            }
+        }
+
+        // gather the argument sets
+        List<String> argumentSets = new LinkedList<String>();
+        if (options.isOptionSet('p')) {
+            String propertyName = options.getOptionValue('p');
+            String propertyValue = instance.getProperties().getProperty(propertyName);
+            if (propertyValue == null) {
+                throw new CliRejectedInputException("property '" + propertyName + "' not found");
+            }
+            argumentSets.addAll(Arrays.asList(propertyValue.split(",")));
+        } else {
+            InputStream inputStream;
+            if (options.isOptionSet('f')) {
+                inputStream = new FileInputStream(options.getOptionValue('f'));
+            } else {
+                inputStream = instance.getInputConsole();
+                if (inputStream == SharedInputStream.getStandardInput()) {
+                    throw new CliRejectedInputException(
+                        "no argument sets given (use -f, -p, or redirect the console input)");
+                }
+            }
+            BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+            try {
+                String line;
+                while((line = reader.readLine()) != null) {
+                    argumentSets.add(line);
+                }
+            } finally {
+                if (options.isOptionSet('f')) {
+                    reader.close();
+                }
+            }
+        }
+
+        // build the commands
+        boolean isTemplate = false;
+        for (String arg : cmdArray) {
+            isTemplate |= (arg.indexOf("{}") >= 0);
+        }
+        List<String[]> commands = new LinkedList<String[]>();
+        for (String argumentSet : argumentSets) {
+            String[] setArgs = StringListParser.parseTokens(argumentSet.trim());
+            if (setArgs == null || setArgs.length == 0) {
+                // skip blank lines
+                continue;
+            }
+            List<String> command = new LinkedList<String>();
+            for (String arg : cmdArray) {
+                command.add(isTemplate ? arg.replace("{}", String.join(" ", setArgs)) : arg);
+            }
+            if (!isTemplate) {
+                command.addAll(Arrays.asList(setArgs));
+            }
+            commands.add(command.toArray(new String[command.size()]));
+        }
+
+        final ParallelSysCommandRunner parallelRunner = new ParallelSysCommandRunner(
+            commands, maxProcesses, outputMode, options.isOptionSet('x'));
+
+        // destroy the processes if the command gets cancelled
+        Runnable cancellationCallback = new Runnable() {
+            public void run() {
+                parallelRunner.stop();
+            }
+        };
+        CancellationToken cancellationToken = instance.getCancellationToken();
+        cancellationToken.addCallback(cancellationCallback);
+
+        try {
+            parallelRunner.run(
+                new WriterOutputStream(instance.getMessageConsole()),
+                new WriterOutputStream(instance.getErrorConsole())
+            );
+        } finally {
+            cancellationToken.removeCallback(cancellationCallback);
+        }
+
+        parallelRunner.printSummary(instance.getErrorConsole());
+
+        if (options.isOptionSet('r')) {
+            instance.getProperties().setProperty(options.getOptionValue('r'),
+                String.valueOf(parallelRunner.getFailedCount()));
+        }
+
+        cancellationToken.throwIfCancelled();
 
     }
 
+    @CliPluginCommand(
+          name = "cancel"
+    , helptext = {
+                  "Cancels the command lines currently running on behalf of other"
+                , "command lines or threads (as Ctrl-C does for the command line"
+                , "running in the console)"
+            }
+    ,  maxargs = 0
+    )
+    public void cancelCommands() {
+        int nCancelled = CliRunner.getInstance().cancelCommands("cancelled by user");
+        CliRunner.getInstance().getMessageConsole().println(nCancelled
+            + " command line(s) cancelled");
+    }
+
+    @CliPluginCommand(
+          name = "limit"
+    ,   syntax = "[-t <duration>] [-o <size>] [-m <size>] <command> [<command-arg> [<command-arg> [...]]"
+    ,  options = "t:o:m:"
+    ,  minargs = 1
+    , helptext = {
+            "Executes <command> subject to limits on the resources it may use.  When a limit is"
+        ,   "exceeded, a dump of the command's thread is written to the error console and the"
+        ,   "command is cancelled; a command that doesn't stop soon after (see the property"
+        ,   "'command-limit-grace') is abandoned, so that a script can carry on with its next"
+        ,   "command.  Limits declared by the command itself still apply."
+        ,   "Options:"
+        ,   "  -t  wall-clock deadline (e.g., '500ms', '30s', '5m'; seconds if no unit)"
+        ,   "  -o  maximum number of bytes written to the message console (e.g., '64k')"
+        ,   "  -m  maximum number of bytes of memory allocated by the command's thread (e.g., '100m')"
+        }
+    )
+    public void limit(CliCommandOptions options, String... args) throws CliRunnerException {
+
+        CommandLimits limits;
+        try {
+            limits = new CommandLimits(
+                options.isOptionSet('t') ? CommandLimits.parseDuration(options.getOptionValue('t')) : 0,
+                options.isOptionSet('o') ? CommandLimits.parseSize(options.getOptionValue('o')) : 0,
+                options.isOptionSet('m') ? CommandLimits.parseSize(options.getOptionValue('m')) : 0
+            );
+        } catch(NumberFormatException nfe) {
+            throw new CliRejectedInputException("invalid limit: " + nfe.getMessage());
+        }
+
+        if (!limits.isLimited()) {
+            throw new CliRejectedInputException("no limit specified");
+        }
+
+        CliRunner.getInstance().dispatchCommand(limits, args);
+
+    }
+
+    @CliPluginCommand(
+          name = "list limit violations"
+    ,   syntax = "[-c]"
+    ,  options = "c"
+    ,  maxargs = 0
+    , helptext = {
+            "Summarizes the command limits (see 'limit') violated since the CLI started."
+        ,   "Options:"
+        ,   "  -c  clears the summary after listing it"
+        }
+    )
+    public void listLimitViolations(CliCommandOptions options) {
+
+        CommandLimitViolations limitViolations = CliRunner.getInstance().getLimitViolations();
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+
+        messageConsole.println(limitViolations.getTotalCount() + " violation(s):");
+        for (CommandLimitViolations.Kind kind : CommandLimitViolations.Kind.values()) {
+            messageConsole.println("  " + kind.name().toLowerCase() + ": "
+                + limitViolations.getCount(kind));
+        }
+        messageConsole.println(limitViolations.getAbandonedCount() + " command(s) abandoned");
+
+        Map<String, Integer> commandCounts = limitViolations.getCommandCounts();
+        if (commandCounts.size() > 0) {
+            messageConsole.println("By command:");
+            for (Map.Entry<String, Integer> commandCount : commandCounts.entrySet()) {
+                messageConsole.println("  " + commandCount.getKey() + ": " + commandCount.getValue());
+            }
+            messageConsole.println("Most recent:");
+            for (String violation : limitViolations.getRecentViolations()) {
+                messageConsole.println("  " + violation);
+            }
+        }
+
+        if (options.isOptionSet('c')) {
+            limitViolations.clear();
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "bg"
+    ,   syntax = "<command> [<command-arg> [<command-arg> [...]]"
+    ,  minargs = 1
+    , helptext = {
+            "Executes <command> in the background, so that other commands can be entered while it"
+        ,   "runs.  The command's output is kept (see 'fg'); it can't read from the console, and"
+        ,   "isn't cancelled by Ctrl-C or 'cancel' (see 'kill')."
+        }
+    )
+    public void background(String... args) {
+        CommandJob job = CliRunner.getInstance().getJobs().startJob(args);
+        CliRunner.getInstance().getMessageConsole().println("[" + job.getId() + "] started");
+    }
+
+    @CliPluginCommand(
+          name = "jobs"
+    ,   syntax = "[-c]"
+    ,  options = "c"
+    ,  maxargs = 0
+    , helptext = {
+            "Lists the commands running (or that ran) in the background, showing how long they've"
+        ,   "been running and how much output they've produced."
+        ,   "Options:"
+        ,   "  -c  forgets jobs that have finished (deleting their output) after listing them"
+        }
+    )
+    public void listJobs(CliCommandOptions options) {
+
+        CommandJobs commandJobs = CliRunner.getInstance().getJobs();
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+        for (CommandJob job : commandJobs.getJobs()) {
+            messageConsole.println(job);
+        }
+
+        if (options.isOptionSet('c')) {
+            messageConsole.println(commandJobs.removeFinishedJobs() + " finished job(s) forgotten");
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "wait"
+    ,   syntax = "[<job-id> [<job-id> [...]]]"
+    , helptext = {
+            "Waits for the given background jobs (or all running jobs, if none given) to finish."
+        }
+    )
+    public void waitJobs(String... args) throws CliRunnerException {
+
+        List<CommandJob> jobs = getJobs(args);
+        if (args.length == 0) {
+            for (Iterator<CommandJob> it = jobs.iterator(); it.hasNext(); ) {
+                if (it.next().getState() != CommandJob.State.RUNNING) {
+                    it.remove();
+                }
+            }
+        }
+
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+        for (CommandJob job : jobs) {
+            try {
+                job.waitFor();
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                CliRunner.getInstance().getCancellationToken().throwIfCancelled();
+                return;
+            }
+            messageConsole.println(job);
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "fg"
+    ,   syntax = "<job-id>"
+    ,  minargs = 1
+    ,  maxargs = 1
+    , helptext = {
+            "Writes the output of a background job to the console, following it as it's produced"
+        ,   "until the job finishes.  Cancelling 'fg' (e.g., Ctrl-C) leaves the job running."
+        }
+    )
+    public void foreground(String jobIdString) throws CliRunnerException {
+
+        CommandJob job = getJobs(jobIdString).get(0);
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+        try {
+            job.streamOutput(messageConsole);
+            if (job.getErrorBuffer().getLength() > 0) {
+                PrintWriter errorConsole = CliRunner.getInstance().getErrorConsole();
+                errorConsole.print(job.getErrorBuffer().getContents());
+                errorConsole.flush();
+            }
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            CliRunner.getInstance().getCancellationToken().throwIfCancelled();
+            return;
+        } catch(IOException ioe) {
+            throw new CliRunnerException("can't read output of job " + job.getId(), ioe);
+        }
+        messageConsole.println(job);
+
+    }
+
+    @CliPluginCommand(
+          name = "kill"
+    ,   syntax = "<job-id> [<job-id> [...]]"
+    ,  minargs = 1
+    , helptext = {
+            "Cancels the given background jobs."
+        }
+    )
+    public void killJobs(String... args) throws CliRejectedInputException {
+        for (CommandJob job : getJobs(args)) {
+            job.cancel("killed by user");
+        }
+    }
+
     @CliPluginCommand(
         name = "echo"
       , ordering = "z end"
@@ -626,6 +1126,154 @@ public class CliRunnerBuiltinPlugin {
     // Private instance methods
     //
 
+    /**
+     * Executes a command line in the system shell kept running for the
+     * session (see "system -s"), starting it if needed
+     * @param commandLine command line to execute
+     * @return exit status of the command
+     * @throws IOException error starting or communicating with the shell
+     * @throws CliRunnerException the command was cancelled
+     */
+    private int executeInSystemShell(String commandLine)
+        throws IOException, CliRunnerException {
+
+        CliRunner instance = CliRunner.getInstance();
+
+        final SysShellCoprocess sysShellCoprocess;
+        synchronized(this) {
+            if (mSysShellCoprocess == null) {
+                String shellCommand = new SysCommandInvoker().getShellCommand();
+                mSysShellCoprocess = new SysShellCoprocess(
+                    (shellCommand != null) ? shellCommand : "sh");
+            }
+            sysShellCoprocess = mSysShellCoprocess;
+        }
+
+        // the shell's "stdin" carries the commands, so redirected console
+        // input (e.g., from "feed buffer") is given to the command in a file
+        File inputFile = null;
+        InputStream inputConsole = instance.getInputConsole();
+        if (inputConsole != SharedInputStream.getStandardInput()) {
+            inputFile = File.createTempFile("clishell-input-", ".in");
+            try {
+                Files.copy(inputConsole, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } catch(IOException ioex) {
+                inputFile.delete();
+                throw ioex;
+            }
+        }
+
+        // have the command write straight into the file if output
+        // is being captured into one (e.g., by "capture file -q")
+        PrintWriter messageConsole = instance.getMessageConsole();
+        FileBackedConsole fileBackedConsole = null;
+        File outputFile = null;
+        if (messageConsole instanceof FileBackedConsole) {
+            fileBackedConsole = (FileBackedConsole) messageConsole;
+            outputFile = fileBackedConsole.beginAppend();
+        }
+
+        // destroy the command's processes if the command gets cancelled
+        Runnable cancellationCallback = new Runnable() {
+            public void run() {
+                sysShellCoprocess.cancel();
+            }
+        };
+        CancellationToken cancellationToken = instance.getCancellationToken();
+        cancellationToken.addCallback(cancellationCallback);
+
+        int exitStatus;
+        try {
+            exitStatus = sysShellCoprocess.execute(
+                commandLine,
+                new WriterOutputStream(messageConsole),
+                new WriterOutputStream(instance.getErrorConsole()),
+                inputFile,
+                outputFile,
+                instance.getErrorConsole() == messageConsole
+            );
+        } finally {
+            cancellationToken.removeCallback(cancellationCallback);
+            if (fileBackedConsole != null) {
+                fileBackedConsole.endAppend();
+            }
+            if (inputFile != null) {
+                inputFile.delete();
+            }
+        }
+
+        cancellationToken.throwIfCancelled();
+        return exitStatus;
+    }
+
+    /**
+     * @param jobIdStrings numbers identifying jobs
+     * @return the jobs identified, or all jobs if none identified
+     * @throws CliRejectedInputException job number invalid or not found
+     */
+    private List<CommandJob> getJobs(String... jobIdStrings) throws CliRejectedInputException {
+
+        CommandJobs commandJobs = CliRunner.getInstance().getJobs();
+        if (jobIdStrings.length == 0) {
+            return commandJobs.getJobs();
+        }
+
+        List<CommandJob> jobs = new LinkedList<CommandJob>();
+        for (String jobIdString : jobIdStrings) {
+            CommandJob job = null;
+            try {
+                job = commandJobs.getJob(Integer.parseInt(jobIdString.replaceFirst("^%", "")));
+            } catch(NumberFormatException nfe) {
+                // reported below
+            }
+            if (job == null) {
+                throw new CliRejectedInputException("no such job: '" + jobIdString + "'");
+            }
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * @param entry help of a command
+     * @return the command's display name, followed by its syntax (if any)
+     */
+    private String getHelpEntryLine(CliHelpIndex.HelpEntry entry) {
+        String syntax = entry.getSyntax();
+        return "".equals(syntax)
+            ? entry.getDisplayName()
+            : entry.getDisplayName() + " " + syntax;
+    }
+
+    /**
+     * @param messageConsoleWriter writer on which to print
+     * @param entry help of a command, whose help text is printed, indented
+     */
+    private void printHelptext(PrintWriter messageConsoleWriter, CliHelpIndex.HelpEntry entry) {
+        for (String helpLine : entry.getHelptext()) {
+            messageConsoleWriter.println("     " + helpLine);
+        }
+        messageConsoleWriter.println(" ");
+    }
+
+    /**
+     * @param entry help of a command
+     * @param commandNameFilterPatterns "help" command filters
+     * @return true if any of the filters matches the beginning of any of
+     * the command's names
+     */
+    private boolean isMatchingCommand(CliHelpIndex.HelpEntry entry,
+            List<Pattern> commandNameFilterPatterns) {
+        for (CommandName commandName : entry.getNames()) {
+            for (Pattern commandNameFilterPattern : commandNameFilterPatterns) {
+                if (commandNameFilterPattern.matcher(commandName.toString()).lookingAt()) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     /**
      * Deactivate error display buffer
      */
@@ -650,4 +1298,57 @@ public class CliRunnerBuiltinPlugin {
     }
 
 
+    //
+    // Private class methods
+    //
+
+    /**
+     * @param cmdArray arguments of "system -s": either the whole command line
+     * as one (quoted) argument, or the words of a command
+     * @return command line for the shell
+     */
+    private static String getShellCommandLine(String[] cmdArray) {
+
+        if (cmdArray.length == 1) {
+            return cmdArray[0];
+        }
+
+        // NOTE: the arguments have already been parsed (and unquoted),
+        // so they're quoted for the shell to get them as they are
+        StringBuilder commandLine = new StringBuilder();
+        for (String arg : cmdArray) {
+            if (commandLine.length() > 0) {
+                commandLine.append(' ');
+            }
+            commandLine.append(SysShellCoprocess.quote(arg));
+        }
+        return commandLine.toString();
+    }
+
+    /**
+     * @param cmdArray arguments of "system -p": either the whole pipeline as
+     * one (quoted) argument, or the arguments of its commands, separated by
+     * '|' arguments
+     * @return arguments of each command of the pipeline
+     */
+    private static List<String[]> getPipelineStages(String[] cmdArray) {
+
+        if (cmdArray.length == 1) {
+            return CliCommandParser.parsePipelineStages(cmdArray[0]);
+        }
+
+        // NOTE: the arguments have already been parsed (and unquoted),
+        // so they're kept as they are
+        List<String[]> stages = new ArrayList<String[]>();
+        int stageStart = 0;
+        for (int i = 0; i <= cmdArray.length; i++) {
+            if (i == cmdArray.length || cmdArray[i].equals("|")) {
+                stages.add(Arrays.copyOfRange(cmdArray, stageStart, i));
+                stageStart = i + 1;
+            }
+        }
+        return stages;
+    }
+
+
 }
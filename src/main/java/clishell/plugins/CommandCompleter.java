@@ -0,0 +1,278 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import clishell.CliOptionParser;
+import clishell.CliPluginCommandMetadata;
+import clishell.CliPluginMetadata;
+import clishell.CliRunner;
+import clishell.CommandName;
+import clishell.anno.CliPluginCommand;
+
+/**
+ *
+ * Completes command lines being edited: the words of command names (found
+ * by prefix in the command name tree, rather than by listing all commands),
+ * the letters of a command's options, and the arguments the command's
+ * syntax names as buffer names, property names or (nested) commands, as
+ * well as property references (<code>${</code><i>property-name</i><code>}</code>).
+ *
+ */
+public class CommandCompleter implements LineEditor.Completer {
+
+
+    //
+    //  Private class constants
+    //
+
+    /** option taking an argument, within a command's syntax (e.g., "-P &lt;n&gt;") */
+    private static final Pattern OPTION_ARGUMENT_PATTERN
+        = Pattern.compile("-([A-Za-z])\\s+<([^>]+)>");
+
+    /** argument, within a command's syntax (e.g., "&lt;buffer-name&gt;") */
+    private static final Pattern ARGUMENT_PATTERN = Pattern.compile("<([^>]+)>");
+
+    /** beginning of a property reference */
+    private static final String PROPERTY_REFERENCE_PREFIX = "${";
+
+
+    //
+    //  Private instance data
+    //
+
+    /** CLI runner whose commands are completed */
+    private final CliRunner mCliRunner;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param cliRunner CLI runner whose commands are completed
+     */
+    public CommandCompleter(CliRunner cliRunner) {
+        mCliRunner = cliRunner;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @see LineEditor.Completer#complete(String, int, List)
+     */
+    public int complete(String line, int cursor, List<String> candidates) {
+
+        String text = line.substring(0, cursor);
+        int wordStart = text.lastIndexOf(' ') + 1;
+        String word = text.substring(wordStart);
+        String precedingText = text.substring(0, wordStart).trim();
+        String[] precedingWords = (precedingText.length() == 0)
+            ? new String[0] : precedingText.split("\\s+");
+
+        // a property reference completes wherever it is
+        int referenceIndex = word.lastIndexOf(PROPERTY_REFERENCE_PREFIX);
+        if (referenceIndex >= 0) {
+            String namePrefix = word.substring(referenceIndex + PROPERTY_REFERENCE_PREFIX.length());
+            for (String propertyName : getPropertyNames(namePrefix)) {
+                candidates.add(PROPERTY_REFERENCE_PREFIX + propertyName + "}");
+            }
+            return wordStart + referenceIndex;
+        }
+
+        Set<String> completions = new LinkedHashSet<String>();
+        completeCommand(precedingWords, word, completions);
+        candidates.addAll(completions);
+        return wordStart;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param precedingWords words of the command preceding the word being completed
+     * @param word beginning of the word being completed
+     * @param completions (output) completions of the word
+     */
+    private void completeCommand(String[] precedingWords, String word, Set<String> completions) {
+
+        // the next word of a command name
+        if (!word.startsWith("-")) {
+            completions.addAll(mCliRunner.getCommandWordCompletions(precedingWords, word));
+        }
+
+        // an option or argument of the command named by the preceding words
+        if (precedingWords.length == 0) {
+            return;
+        }
+        CommandName commandName = mCliRunner.resolveCommandName(precedingWords);
+        CliPluginCommandMetadata commandMetadata = (commandName == null)
+            ? null : mCliRunner.getCommandMetadata(commandName);
+        if (commandMetadata == null) {
+            return;
+        }
+        CliOptionParser optionParser = commandMetadata.getOptionParser();
+        CliPluginCommand cliPluginCommand = commandMetadata.getCliMethod().getMethod()
+            .getAnnotation(CliPluginCommand.class);
+        String syntax = (cliPluginCommand == null) ? "" : cliPluginCommand.syntax();
+
+        // the arguments named in the syntax: those of options, and the others, in order
+        Map<Character, String> optionArguments = new LinkedHashMap<Character, String>();
+        Matcher optionArgumentMatcher = OPTION_ARGUMENT_PATTERN.matcher(syntax);
+        while(optionArgumentMatcher.find()) {
+            optionArguments.put(optionArgumentMatcher.group(1).charAt(0),
+                optionArgumentMatcher.group(2));
+        }
+        List<String> arguments = new ArrayList<String>();
+        Matcher argumentMatcher = ARGUMENT_PATTERN.matcher(
+            OPTION_ARGUMENT_PATTERN.matcher(syntax).replaceAll(""));
+        while(argumentMatcher.find()) {
+            arguments.add(argumentMatcher.group(1));
+        }
+
+        // find which argument is being completed, skipping the options
+        String[] argumentWords = Arrays.copyOfRange(precedingWords,
+            commandName.getCommandNameAsWordArray().length, precedingWords.length);
+        String argument = null;
+        int argumentIndex = 0;
+        boolean isOptionAllowed = true;
+        for (int i = 0; i < argumentWords.length; i++) {
+            String argumentWord = argumentWords[i];
+            if (argument != null) {
+                // the word was the argument of an option
+                argument = null;
+                continue;
+            }
+            if (isOptionAllowed && argumentWord.startsWith("-") && argumentWord.length() > 1) {
+                char optionLetter = argumentWord.charAt(argumentWord.length() - 1);
+                if (argumentWord.length() == 2 && optionParser != null
+                        && optionParser.isArgumentRequired(optionLetter)) {
+                    argument = optionArguments.containsKey(optionLetter)
+                        ? optionArguments.get(optionLetter) : "";
+                }
+                continue;
+            }
+            isOptionAllowed = false;
+            if (isCommandArgument(syntax, getArgument(arguments, argumentIndex++))) {
+                // the rest is a command of its own
+                completeCommand(Arrays.copyOfRange(argumentWords, i, argumentWords.length),
+                    word, completions);
+                return;
+            }
+        }
+
+        // the letters of options not yet given
+        if (argument == null && isOptionAllowed && word.startsWith("-") && optionParser != null) {
+            for (char optionLetter : optionParser.getAllowedOptionLetters().toCharArray()) {
+                if (word.indexOf(optionLetter, 1) < 0) {
+                    completions.add(word + optionLetter);
+                }
+            }
+            return;
+        }
+
+        if (argument == null) {
+            argument = getArgument(arguments, argumentIndex);
+        }
+        String lowerCaseArgument = argument.toLowerCase();
+        if (isCommandArgument(syntax, argument)) {
+            completeCommand(new String[0], word, completions);
+        } else if (lowerCaseArgument.startsWith("command")) {
+            // e.g., a "help" command filter
+            completions.addAll(mCliRunner.getCommandWordCompletions(new String[0], word));
+        } else if (lowerCaseArgument.contains("buffer")) {
+            completions.addAll(getBufferNames(word));
+        } else if (lowerCaseArgument.contains("property")) {
+            completions.addAll(getPropertyNames(word));
+        }
+    }
+
+    /**
+     * @param prefix beginning of property names
+     * @return names of the properties beginning with <code>prefix</code>, sorted
+     */
+    private Set<String> getPropertyNames(String prefix) {
+        Set<String> propertyNames = new TreeSet<String>();
+        for (String propertyName : mCliRunner.getProperties().stringPropertyNames()) {
+            if (propertyName.startsWith(prefix)) {
+                propertyNames.add(propertyName);
+            }
+        }
+        return propertyNames;
+    }
+
+    /**
+     * @param prefix beginning of buffer names
+     * @return names of the buffers (of the scripting plugin, if loaded)
+     * beginning with <code>prefix</code>, sorted
+     */
+    private Set<String> getBufferNames(String prefix) {
+        Set<String> bufferNames = new TreeSet<String>();
+        for (CliPluginMetadata pluginMetadata : mCliRunner.getPlugins()) {
+            if (pluginMetadata.getPluginInstance() instanceof ScriptingPlugin) {
+                ScriptingPlugin scriptingPlugin = (ScriptingPlugin) pluginMetadata.getPluginInstance();
+                for (String bufferName : scriptingPlugin.getBufferNames()) {
+                    if (bufferName.startsWith(prefix)) {
+                        bufferNames.add(bufferName);
+                    }
+                }
+            }
+        }
+        return bufferNames;
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param syntax syntax of a command
+     * @param argument name of one of its arguments
+     * @return true if the argument is a CLI command to be run by the command
+     * (e.g., "capture buffer"), followed by that command's arguments
+     */
+    private static boolean isCommandArgument(String syntax, String argument) {
+        // NOTE: e.g. "system" names its (system) command's arguments "<arg>"
+        return argument.equals("command") && syntax.contains("<command-arg>");
+    }
+
+    /**
+     * @param arguments arguments named in a command's syntax
+     * @param argumentIndex index of an argument
+     * @return name of the argument; beyond the last, the last (as it's the
+     * one repeated), or "" if none
+     */
+    private static String getArgument(List<String> arguments, int argumentIndex) {
+        if (arguments.isEmpty()) {
+            return "";
+        }
+        return arguments.get(Math.min(argumentIndex, arguments.size() - 1));
+    }
+
+}
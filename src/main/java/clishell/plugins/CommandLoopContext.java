@@ -20,6 +20,7 @@ import java.io.Reader;
 import clishell.CliProperties;
 import clishell.CliRunner;
 import clishell.ex.CliRunnerException;
+import clishell.util.SharedInputStream;
 
 
 /**
@@ -64,7 +65,7 @@ public class CommandLoopContext {
      * @param cliRunner CLI runner to dispatch commands to
      */
     public CommandLoopContext(CliRunner cliRunner) {
-        this(cliRunner, new InputStreamReader(System.in));
+        this(cliRunner, new InputStreamReader(SharedInputStream.getStandardInput()));
     }
 
     /**
@@ -139,6 +140,27 @@ public class CommandLoopContext {
     //  Protected instance methods
     //
 
+    /**
+     * @return CLI runner to dispatch commands to
+     */
+    protected CliRunner getCliRunner() {
+        return mCliRunner;
+    }
+
+    /**
+     * @return reader from which command lines are obtained
+     */
+    protected BufferedReader getCommandReader() {
+        return mCommandReader;
+    }
+
+    /**
+     * @return command prompt, or <code>null</code> if none
+     */
+    protected String getCommandPrompt() {
+        return mCommandPrompt;
+    }
+
     /**
      * @return quit flag - if true, command loop will terminate
      * instead of reading the next command
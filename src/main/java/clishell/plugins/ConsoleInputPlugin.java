@@ -12,15 +12,21 @@
 
 package clishell.plugins;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
 import java.util.Properties;
 
+import clishell.CliCommandOptions;
 import clishell.CliRunner;
+import clishell.CommandLimits;
 import clishell.anno.CliPlugin;
 import clishell.anno.CliPluginCommand;
 import clishell.anno.CliPluginFinalizer;
 import clishell.anno.CliPluginInitializer;
 import clishell.anno.CliPluginMain;
+import clishell.db.CliHistoryDb;
 import clishell.ex.CliInvariantViolationException;
 import clishell.ex.CliRejectedInputException;
 import clishell.ex.CliRunnerException;
@@ -45,6 +51,38 @@ public class ConsoleInputPlugin {
     /** command loop context object */
     private ConsoleCommandLoopContext mConsoleCommandLoopContext;
 
+    /** history of the commands entered */
+    private CliHistoryDb mHistoryDb;
+
+
+    //
+    // Private class data
+    //
+
+    /** exit code used when Ctrl-C is pressed while no command is running */
+    private static final int INTERRUPTED_EXIT_CODE = 130;
+
+    /** property enabling the editing (and completion) of commands as they're typed */
+    private static final String PROPERTY_LINE_EDITOR = "line-editor";
+
+    /** property naming the file keeping the history of commands */
+    private static final String PROPERTY_HISTORY_FILE = "history-file";
+
+    /** property limiting the number of commands kept in the history file (0: none) */
+    private static final String PROPERTY_HISTORY_SIZE = "history-size";
+
+    /** property giving the time between syncs of the history file */
+    private static final String PROPERTY_HISTORY_SYNC_INTERVAL = "history-sync-interval";
+
+    /** default history file, within the user's home directory */
+    private static final String DEFAULT_HISTORY_FILE_NAME = ".clishell_history";
+
+    /** default number of commands listed by "history" */
+    private static final int DEFAULT_HISTORY_COUNT = 20;
+
+    /** beginning of a reference to a command in the history (e.g., "!12", "!get") */
+    private static final String HISTORY_REFERENCE_PREFIX = "!";
+
 
     //
     //  Public plugin "main" methods
@@ -55,6 +93,7 @@ public class ConsoleInputPlugin {
      */
     @CliPluginInitializer
     public void init() {
+        mHistoryDb = openHistoryDb();
         mConsoleCommandLoopContext = new ConsoleCommandLoopContext();
     }
 
@@ -74,8 +113,19 @@ public class ConsoleInputPlugin {
             cliRunner.getMessageConsole().println(signonBannerString);
         }
 
-        // execute the command loop using a customized console command reader
-        mConsoleCommandLoopContext.commandLoop();
+        // let Ctrl-C cancel the running command, rather than the whole CLI
+        Object previousInterruptHandler = installInterruptHandler();
+
+        try {
+
+            // execute the command loop using a customized console command reader
+            mConsoleCommandLoopContext.commandLoop();
+
+        } finally {
+
+            InterruptSignal.restore(previousInterruptHandler);
+
+        }
     }
 
     /**
@@ -90,6 +140,13 @@ public class ConsoleInputPlugin {
 
         // deactivate any active message console
         deactivateMessageConsole();
+
+        try {
+            mHistoryDb.close();
+        } catch(IOException ioex) {
+            CliRunner.getInstance().getErrorConsole().println(
+                "history not saved: " + ioex.getMessage());
+        }
     }
 
     //
@@ -131,6 +188,46 @@ public class ConsoleInputPlugin {
 
     }
 
+    @CliPluginCommand(
+          name = "history"
+    ,   syntax = "[-c <count>]"
+    , helptext = {
+            "Lists the latest commands entered (default: " + DEFAULT_HISTORY_COUNT + "), numbered",
+            "so that they can be entered again as '!<n>'; '!!' is the last command,",
+            "'!-<n>' the <n>th last, and '!<prefix>' the last beginning with <prefix>.",
+            "The history is kept in 'history-file' (see 'history-size')"
+            }
+    ,  options = "c:"
+    ,  maxargs = 0
+    )
+    public void listHistory(CliCommandOptions options) throws CliRejectedInputException {
+        int size = mHistoryDb.size();
+        int count = getHistoryCount(options);
+        for (int number = Math.max(1, size - count + 1); number <= size; number++) {
+            printHistoryEntry(number);
+        }
+    }
+
+    @CliPluginCommand(
+          name = "history search"
+    ,   syntax = "[-c <count>] <term> [<term> [...]]"
+    , helptext = {
+            "Lists the latest distinct commands entered containing all the terms",
+            "(regardless of case), latest first (default: at most "
+                + DEFAULT_HISTORY_COUNT + " of them).",
+            "In the line editor, Ctrl-R searches the history as the text is typed"
+            }
+    ,  options = "c:"
+    ,  minargs = 1
+    )
+    public void searchHistory(CliCommandOptions options, String[] terms)
+        throws CliRejectedInputException {
+        List<Integer> numbers = mHistoryDb.search(terms, getHistoryCount(options));
+        for (int number : numbers) {
+            printHistoryEntry(number);
+        }
+    }
+
     /**
      * @param num number of lines to generate
      */
@@ -162,6 +259,24 @@ public class ConsoleInputPlugin {
      */
     private class ConsoleCommandLoopContext extends CommandLoopContext {
 
+        /** editor of the commands typed, or <code>null</code> if not enabled */
+        private final LineEditor mLineEditor;
+
+        /**
+         * Sets up the editing of commands as they're typed, if enabled
+         * and the console is a terminal
+         */
+        public ConsoleCommandLoopContext() {
+            String lineEditorString = getCliRunner().getProperties()
+                .getProperty(PROPERTY_LINE_EDITOR, "false");
+            if (Boolean.parseBoolean(lineEditorString.trim()) && LineEditor.isTerminal()) {
+                mLineEditor = new LineEditor(getCommandReader(),
+                    new CommandCompleter(getCliRunner()), mHistoryDb);
+            } else {
+                mLineEditor = null;
+            }
+        }
+
         /**
          * start a "new console output page" prior
          * to prompting for a command
@@ -169,16 +284,170 @@ public class ConsoleInputPlugin {
          */
         public void promptUser() {
 
+            startNewPage();
+
+            // prompt the "user" to enter a command
+            super.promptUser();
+
+        }
+
+        /**
+         * reads the command with the line editor, if enabled
+         * @see CommandLoopContext#getCommandline()
+         */
+        protected String getCommandline() {
+
+            if (mLineEditor == null) {
+                return super.getCommandline();
+            }
+
+            startNewPage();
+            try {
+                return mLineEditor.readLine(getCliRunner().getMessageConsole(),
+                    getCommandPrompt());
+            } catch(IOException ioex) {
+                return null;
+            }
+        }
+
+        /**
+         * expands a reference to a command in the history, and adds
+         * the command to the history
+         * @see CommandLoopContext#preprocessCommandline(String)
+         */
+        protected String preprocessCommandline(String commandLine) {
+
+            String trimmedCommandLine = commandLine.trim();
+            if (trimmedCommandLine.startsWith(HISTORY_REFERENCE_PREFIX)
+                    && trimmedCommandLine.length() > HISTORY_REFERENCE_PREFIX.length()) {
+                String reference = trimmedCommandLine.substring(HISTORY_REFERENCE_PREFIX.length());
+                commandLine = expandHistoryReference(reference);
+                if (commandLine == null) {
+                    getCliRunner().getErrorConsole().println("not in history: "
+                        + trimmedCommandLine);
+                    return null;
+                }
+                // show the command being run
+                getCliRunner().getMessageConsole().println(commandLine);
+            }
+
+            try {
+                mHistoryDb.add(commandLine);
+            } catch(IOException ioex) {
+                getCliRunner().getErrorConsole().println("history not saved: "
+                    + ioex.getMessage());
+            }
+
+            return super.preprocessCommandline(commandLine);
+        }
+
+        /**
+         * starts a new "output page" if there's a paging console
+         */
+        private void startNewPage() {
             if (mMessageDisplayConsoleWriter != null) {
-                // start new "output page" if there's a paging console
                 mMessageDisplayConsoleWriter.setCurrentLineNumber(0);
             }
+        }
 
-            // prompt the "user" to enter a command
-            super.promptUser();
+    }
+
+    /**
+     * @return history of commands, kept in the file configured if it's to
+     * keep any; otherwise (or if the file can't be opened), not kept beyond
+     * the session
+     */
+    private CliHistoryDb openHistoryDb() {
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        Properties properties = cliRunner.getProperties();
 
+        String sizeString = properties.getProperty(PROPERTY_HISTORY_SIZE, "0").trim();
+        String syncIntervalString = properties.getProperty(PROPERTY_HISTORY_SYNC_INTERVAL, "5s").trim();
+        String fileName = properties.getProperty(PROPERTY_HISTORY_FILE, "").trim();
+        File file = (fileName.length() > 0)
+            ? new File(fileName)
+            : new File(System.getProperty("user.home"), DEFAULT_HISTORY_FILE_NAME);
+
+        try {
+            int maxEntries = Integer.parseInt(sizeString);
+            long syncIntervalMillis = CommandLimits.parseDuration(syncIntervalString);
+            if (maxEntries > 0) {
+                return new CliHistoryDb(file, maxEntries, syncIntervalMillis);
+            }
+        } catch(NumberFormatException nfe) {
+            cliRunner.getErrorConsole().println("history not kept: invalid value for property '"
+                + PROPERTY_HISTORY_SIZE + "' or '" + PROPERTY_HISTORY_SYNC_INTERVAL + "': '"
+                + sizeString + "', '" + syncIntervalString + "'");
+        } catch(IOException ioex) {
+            cliRunner.getErrorConsole().println("history not kept: " + file + ": "
+                + ioex.getMessage());
+        }
+        return new CliHistoryDb();
+    }
+
+    /**
+     * @param reference reference to a command in the history, after its "!":
+     * "!" for the last, a number, "-" and a number counting back from the last,
+     * or the beginning of a command
+     * @return the command, or <code>null</code> if there's no such command
+     */
+    private String expandHistoryReference(String reference) {
+        int size = mHistoryDb.size();
+        if (reference.equals(HISTORY_REFERENCE_PREFIX)) {
+            return mHistoryDb.get(size);
+        }
+        if (reference.matches("-?\\d+")) {
+            int number = Integer.parseInt(reference);
+            return mHistoryDb.get((number < 0) ? size + 1 + number : number);
+        }
+        int number = mHistoryDb.findLatest(reference);
+        return (number == 0) ? null : mHistoryDb.get(number);
+    }
+
+    /**
+     * @param options command options, possibly giving a count ("-c")
+     * @return number of commands to list
+     * @throws CliRejectedInputException invalid count
+     */
+    private static int getHistoryCount(CliCommandOptions options) throws CliRejectedInputException {
+        if (!options.isOptionSet('c')) {
+            return DEFAULT_HISTORY_COUNT;
+        }
+        String countString = options.getOptionValue('c');
+        try {
+            int count = Integer.parseInt(countString.trim());
+            if (count > 0) {
+                return count;
+            }
+        } catch(NumberFormatException nfe) {
+            // rejected below
         }
+        throw new CliRejectedInputException("invalid count: '" + countString + "'");
+    }
 
+    /**
+     * @param number number of a command in the history, to be listed
+     */
+    private void printHistoryEntry(int number) {
+        CliRunner.getInstance().getMessageConsole().printf("%5d  %s%n", number, mHistoryDb.get(number));
+    }
+
+    /**
+     * Installs a handler for the interrupt signal (Ctrl-C) that cancels
+     * the command(s) currently running; if none are running, exits as usual
+     * @return previous handler, or <code>null</code> if the handler couldn't
+     * be installed in this environment
+     * @see InterruptSignal#install(Runnable)
+     */
+    private Object installInterruptHandler() {
+        return InterruptSignal.install(new Runnable() {
+            public void run() {
+                if (CliRunner.getInstance().cancelCommands("interrupted") == 0) {
+                    System.exit(INTERRUPTED_EXIT_CODE);
+                }
+            }
+        });
     }
 
     /**
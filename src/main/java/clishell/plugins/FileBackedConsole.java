@@ -0,0 +1,43 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+import java.io.IOException;
+
+
+/**
+ *
+ * Interface for message consoles whose output ends up in a file, so
+ * that a child process can append its output to that file directly
+ * (see {@link SysCommandInvoker#redirectOutput(File)}), rather than
+ * having it copied through the CLI.
+ *
+ */
+public interface FileBackedConsole {
+
+    /**
+     * Flushes the console, and makes its file ready to be appended to
+     * @return file to which output may be appended until {@link #endAppend()}
+     * is called
+     * @throws IOException error flushing the console
+     */
+    File beginAppend() throws IOException;
+
+    /**
+     * Resumes writing through the console, after its file was appended to
+     * @throws IOException error accessing the file
+     */
+    void endAppend() throws IOException;
+
+}
@@ -0,0 +1,95 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+
+/**
+ *
+ * Message console writing to a file, which child processes may append
+ * to directly (see {@link FileBackedConsole}).
+ *
+ * NOTE: the file is written in "append" mode, so that output written
+ * through the console after a child process appended to the file
+ * follows the child's output, rather than overwriting it.
+ *
+ */
+public class FileConsoleWriter extends PrintWriter implements FileBackedConsole {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** file being written */
+    private final File mFile;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param file file to write (replacing any existing contents)
+     * @throws IOException error creating the file
+     */
+    public FileConsoleWriter(File file) throws IOException {
+        super(new OutputStreamWriter(newAppendingStream(file)));
+        mFile = file;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @see FileBackedConsole#beginAppend()
+     */
+    public File beginAppend() throws IOException {
+        flush();
+        if (checkError()) {
+            throw new IOException("error writing file '" + mFile + "'");
+        }
+        return mFile;
+    }
+
+    /**
+     * @see FileBackedConsole#endAppend()
+     */
+    public void endAppend() {
+        // nothing to do; we're appending too
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param file file to write
+     * @return stream appending to the file, which has been emptied
+     * @throws IOException error creating the file
+     */
+    private static OutputStream newAppendingStream(File file) throws IOException {
+        new FileOutputStream(file).close();
+        return new FileOutputStream(file, true);
+    }
+
+}
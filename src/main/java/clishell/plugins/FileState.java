@@ -0,0 +1,75 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+
+/**
+ *
+ * Modification time and size of a file, at some point in time, used to
+ * tell whether something compiled from the file is still current.
+ *
+ */
+class FileState {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** the file */
+    private final File mFile;
+
+    /** modification time of the file */
+    private final long mLastModified;
+
+    /** size of the file */
+    private final long mLength;
+
+
+    //
+    //  Package-private constructors
+    //
+
+    /**
+     * @param file the file, whose current state is noted
+     */
+    FileState(File file) {
+        mFile = file;
+        mLastModified = file.lastModified();
+        mLength = file.length();
+    }
+
+
+    //
+    //  Package-private instance methods
+    //
+
+    /**
+     * @return true if the file hasn't changed since its state was noted
+     */
+    boolean isCurrent() {
+        return mFile.lastModified() == mLastModified && mFile.length() == mLength;
+    }
+
+    /**
+     * @param fileState state of a file
+     * @return true if <code>fileState</code> is the same state of the same file
+     */
+    boolean isSameAs(FileState fileState) {
+        return mFile.equals(fileState.mFile)
+            && mLastModified == fileState.mLastModified
+            && mLength == fileState.mLength;
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ *
+ * Handles the interrupt signal (Ctrl-C), using the JDK's internal
+ * <code>sun.misc.Signal</code> API, which is looked up reflectively so that
+ * the build doesn't depend upon it (nor warn about it); where it isn't
+ * available, the signal is left alone.
+ *
+ */
+class InterruptSignal {
+
+
+    //
+    //  Private class constants
+    //
+
+    /** name of the interrupt signal */
+    private static final String SIGNAL_NAME = "INT";
+
+    /** class of signals */
+    private static final String SIGNAL_CLASS_NAME = "sun.misc.Signal";
+
+    /** interface of signal handlers */
+    private static final String SIGNAL_HANDLER_CLASS_NAME = "sun.misc.SignalHandler";
+
+
+    //
+    //  Package-private class methods
+    //
+
+    /**
+     * @param handler run (on a thread of its own) each time the signal is received
+     * @return the handler previously installed, to be restored with
+     * {@link #restore(Object)}, or <code>null</code> if the handler couldn't be
+     * installed in this environment
+     */
+    static Object install(final Runnable handler) {
+        try {
+            Class<?> signalHandlerClass = Class.forName(SIGNAL_HANDLER_CLASS_NAME);
+            Object signalHandler = Proxy.newProxyInstance(signalHandlerClass.getClassLoader(),
+                new Class<?>[] { signalHandlerClass }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("handle")) {
+                            handler.run();
+                            return null;
+                        }
+                        if (method.getName().equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        if (method.getName().equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        }
+                        return "interrupt handler";
+                    }
+                });
+            return handle(signalHandler);
+        } catch(ReflectiveOperationException roe) {
+            // signal not supported here; leave Ctrl-C alone
+            return null;
+        } catch(IllegalArgumentException iae) {
+            return null;
+        }
+    }
+
+    /**
+     * @param previousHandler handler returned by {@link #install(Runnable)}
+     * (ignored if <code>null</code>)
+     */
+    static void restore(Object previousHandler) {
+        if (previousHandler == null) {
+            return;
+        }
+        try {
+            handle(previousHandler);
+        } catch(ReflectiveOperationException roe) {
+            // "old college try" ;-)
+        } catch(IllegalArgumentException iae) {
+            // "old college try" ;-)
+        }
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param signalHandler handler of the signal (a <code>sun.misc.SignalHandler</code>)
+     * @return handler it replaced
+     * @throws ReflectiveOperationException signal API not available
+     * @throws IllegalArgumentException signal not supported here
+     */
+    private static Object handle(Object signalHandler) throws ReflectiveOperationException {
+        Class<?> signalClass = Class.forName(SIGNAL_CLASS_NAME);
+        Class<?> signalHandlerClass = Class.forName(SIGNAL_HANDLER_CLASS_NAME);
+        Object signal = signalClass.getConstructor(String.class).newInstance(SIGNAL_NAME);
+        try {
+            return signalClass.getMethod("handle", signalClass, signalHandlerClass)
+                .invoke(null, signal, signalHandler);
+        } catch(InvocationTargetException ite) {
+            if (ite.getCause() instanceof IllegalArgumentException) {
+                throw (IllegalArgumentException) ite.getCause();
+            }
+            throw ite;
+        }
+    }
+
+}
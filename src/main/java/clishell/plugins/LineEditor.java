@@ -0,0 +1,670 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+import clishell.db.CliHistoryDb;
+
+/**
+ *
+ * Reads lines from a terminal, letting the user edit them as they're typed
+ * (moving the cursor, deleting words, recalling earlier commands, searching
+ * them with Ctrl-R) and complete the word at the cursor with the Tab key.
+ *
+ * The terminal is put into "raw" (non-canonical, non-echoing) mode for the
+ * time it takes to read each line, using <code>stty</code>, so that keys
+ * arrive as typed; control keys, and the ANSI escape sequences of the
+ * arrow, Home, End and Delete keys, are interpreted here.  Signals (e.g.,
+ * Ctrl-C) are left to the terminal.  Where the terminal can't be put into
+ * raw mode, lines are read as usual.
+ *
+ */
+public class LineEditor {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Source of completions for the word at the cursor
+     */
+    public interface Completer {
+
+        /**
+         * @param line line being edited
+         * @param cursor position of the cursor within <code>line</code>
+         * @param candidates (output) words which may replace the word being
+         * completed, most likely first
+         * @return position within <code>line</code> of the beginning of the
+         * word being completed (i.e., replaced by a candidate)
+         */
+        int complete(String line, int cursor, List<String> candidates);
+
+    }
+
+
+    //
+    //  Private class constants
+    //
+
+    /** escape character, beginning the sequences sent by special keys */
+    private static final int ESC = 27;
+
+    /** "Control Sequence Introducer" */
+    private static final String CSI = "\033[";
+
+
+    //
+    //  Private instance data
+    //
+
+    /** source of the keys typed */
+    private final Reader mReader;
+
+    /** source of completions, or <code>null</code> if none */
+    private final Completer mCompleter;
+
+    /** commands recalled, or <code>null</code> if none */
+    private final CliHistoryDb mHistoryDb;
+
+    /** writer echoing the line being edited (i.e., to the terminal) */
+    private PrintWriter mWriter;
+
+    /** prompt preceding the line being edited */
+    private String mPrompt;
+
+    /** line being edited */
+    private final StringBuilder mLine = new StringBuilder();
+
+    /** position of the cursor within the line being edited */
+    private int mCursor;
+
+    /** set if the last key was Tab, so that a second one lists the completions */
+    private boolean mIsCompleting;
+
+    /** number within the history of the line shown (one past the last for the line being entered) */
+    private int mHistoryNumber;
+
+    /** line being entered, while one from the history is shown */
+    private String mEnteredLine;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param reader source of the keys typed (i.e., the terminal)
+     * @param completer source of completions, or <code>null</code> if none
+     * @param historyDb commands recalled (added to by the caller), or
+     * <code>null</code> if none
+     */
+    public LineEditor(Reader reader, Completer completer, CliHistoryDb historyDb) {
+        mReader = reader;
+        mCompleter = completer;
+        mHistoryDb = (historyDb == null) ? new CliHistoryDb() : historyDb;
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @return true if the standard input and output are a terminal that
+     * can be put into raw mode
+     */
+    public static boolean isTerminal() {
+        return System.console() != null && stty("-g") != null;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Prompts for, and reads, a line
+     * @param writer writer on which to prompt, and echo the line being edited
+     * @param prompt prompt (may be <code>null</code>)
+     * @return line read (without its line terminator), or <code>null</code>
+     * at the end of input
+     * @throws IOException error reading the line
+     */
+    public String readLine(PrintWriter writer, String prompt) throws IOException {
+
+        mWriter = writer;
+        mPrompt = (prompt == null) ? "" : prompt;
+        mLine.setLength(0);
+        mCursor = 0;
+        mIsCompleting = false;
+
+        mWriter.print(mPrompt);
+        mWriter.flush();
+
+        String savedMode = stty("-g");
+        if (savedMode == null || stty("-icanon -echo min 1") == null) {
+            return readPlainLine();
+        }
+
+        try {
+            return readEditedLine();
+        } finally {
+            stty(savedMode);
+        }
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @return line read as typed (i.e., edited by the terminal), or
+     * <code>null</code> at the end of input
+     * @throws IOException error reading the line
+     */
+    private String readPlainLine() throws IOException {
+        int c;
+        while((c = mReader.read()) >= 0 && c != '\n') {
+            if (c != '\r') {
+                mLine.append((char) c);
+            }
+        }
+        return (c < 0 && mLine.length() == 0) ? null : mLine.toString();
+    }
+
+    /**
+     * @return line read, edited as the keys are typed, or <code>null</code>
+     * at the end of input
+     * @throws IOException error reading the line
+     */
+    private String readEditedLine() throws IOException {
+
+        mHistoryNumber = mHistoryDb.size() + 1;
+        mEnteredLine = "";
+
+        while(true) {
+
+            int c = mReader.read();
+            boolean wasCompleting = mIsCompleting;
+            mIsCompleting = false;
+
+            switch(c) {
+
+            case -1:
+                // end of input
+                mWriter.println();
+                mWriter.flush();
+                return (mLine.length() == 0) ? null : mLine.toString();
+
+            case '\r':
+            case '\n':
+                mWriter.println();
+                mWriter.flush();
+                return mLine.toString();
+
+            case 4:
+                // Ctrl-D: end of input on an empty line, otherwise delete
+                if (mLine.length() == 0) {
+                    mWriter.println();
+                    mWriter.flush();
+                    return null;
+                }
+                deleteChars(mCursor, mCursor + 1);
+                break;
+
+            case '\t':
+                complete(wasCompleting);
+                break;
+
+            case 18:
+                // Ctrl-R: search the history backward, as the text is typed
+                if (searchHistory()) {
+                    mWriter.println();
+                    mWriter.flush();
+                    return mLine.toString();
+                }
+                mHistoryNumber = mHistoryDb.size() + 1;
+                break;
+
+            case 1:
+                // Ctrl-A
+                moveCursor(0);
+                break;
+
+            case 5:
+                // Ctrl-E
+                moveCursor(mLine.length());
+                break;
+
+            case 2:
+                // Ctrl-B
+                moveCursor(mCursor - 1);
+                break;
+
+            case 6:
+                // Ctrl-F
+                moveCursor(mCursor + 1);
+                break;
+
+            case 8:
+            case 127:
+                // Backspace
+                deleteChars(mCursor - 1, mCursor);
+                break;
+
+            case 11:
+                // Ctrl-K: delete to the end of the line
+                deleteChars(mCursor, mLine.length());
+                break;
+
+            case 21:
+                // Ctrl-U: delete to the beginning of the line
+                deleteChars(0, mCursor);
+                break;
+
+            case 23:
+                // Ctrl-W: delete the word before the cursor
+                int wordStart = mCursor;
+                while(wordStart > 0 && mLine.charAt(wordStart - 1) == ' ') {
+                    wordStart--;
+                }
+                while(wordStart > 0 && mLine.charAt(wordStart - 1) != ' ') {
+                    wordStart--;
+                }
+                deleteChars(wordStart, mCursor);
+                break;
+
+            case 12:
+                // Ctrl-L: clear the screen
+                mWriter.print(CSI + "H" + CSI + "2J");
+                redraw();
+                break;
+
+            case 16:
+                // Ctrl-P: previous line
+                moveInHistory(-1);
+                break;
+
+            case 14:
+                // Ctrl-N: next line
+                moveInHistory(1);
+                break;
+
+            case ESC:
+                switch(readEscapeSequence()) {
+                case 'A':
+                    moveInHistory(-1);
+                    break;
+                case 'B':
+                    moveInHistory(1);
+                    break;
+                case 'C':
+                    moveCursor(mCursor + 1);
+                    break;
+                case 'D':
+                    moveCursor(mCursor - 1);
+                    break;
+                case 'H':
+                    moveCursor(0);
+                    break;
+                case 'F':
+                    moveCursor(mLine.length());
+                    break;
+                case '3':
+                    // Delete
+                    deleteChars(mCursor, mCursor + 1);
+                    break;
+                default:
+                    // not supported
+                    break;
+                }
+                break;
+
+            default:
+                if (c >= ' ') {
+                    mLine.insert(mCursor++, (char) c);
+                    if (mCursor == mLine.length()) {
+                        mWriter.print((char) c);
+                        mWriter.flush();
+                    } else {
+                        redraw();
+                    }
+                }
+                break;
+
+            }
+        }
+    }
+
+    /**
+     * Shows the previous or next line of the history (after the last, the
+     * line being entered)
+     * @param direction -1 for the previous line, 1 for the next
+     */
+    private void moveInHistory(int direction) {
+        int newHistoryNumber = mHistoryNumber + direction;
+        int historySize = mHistoryDb.size();
+        if (newHistoryNumber < 1 || newHistoryNumber > historySize + 1) {
+            bell();
+            return;
+        }
+        if (mHistoryNumber > historySize) {
+            mEnteredLine = mLine.toString();
+        }
+        mHistoryNumber = newHistoryNumber;
+        setLine((mHistoryNumber > historySize)
+            ? mEnteredLine : mHistoryDb.get(mHistoryNumber));
+    }
+
+    /**
+     * Searches the history backward for the text typed, showing the latest
+     * command containing it as each key is typed; Ctrl-R again finds the one
+     * before, Backspace removes the last character typed, and Ctrl-G cancels
+     * the search.  Any other key ends the search, leaving the command found
+     * to be edited (or, for Enter, entered)
+     * @return true if the command found was entered
+     * @throws IOException error reading the keys typed
+     */
+    private boolean searchHistory() throws IOException {
+
+        String originalLine = mLine.toString();
+        StringBuilder text = new StringBuilder();
+        int number = mHistoryDb.size() + 1;
+        String found = originalLine;
+
+        while(true) {
+
+            mWriter.print("\r(reverse-i-search)'" + text + "': " + found + CSI + "K");
+            mWriter.flush();
+
+            int c = mReader.read();
+            int newNumber = 0;
+            switch(c) {
+
+            case 18:
+                // Ctrl-R: the one before
+                newNumber = mHistoryDb.searchBackward(text.toString(), number);
+                break;
+
+            case 8:
+            case 127:
+                // Backspace: search again, from the latest
+                if (text.length() > 0) {
+                    text.setLength(text.length() - 1);
+                }
+                newNumber = (text.length() == 0) ? 0
+                    : mHistoryDb.searchBackward(text.toString(), mHistoryDb.size() + 1);
+                if (newNumber == 0) {
+                    number = mHistoryDb.size() + 1;
+                    found = (text.length() == 0) ? originalLine : found;
+                }
+                break;
+
+            case 7:
+            case -1:
+                // Ctrl-G (or the end of input): cancel
+                setLine(originalLine);
+                return false;
+
+            case '\r':
+            case '\n':
+                mLine.setLength(0);
+                mLine.append(found);
+                mCursor = mLine.length();
+                redraw();
+                return true;
+
+            default:
+                if (c < ' ') {
+                    if (c == ESC) {
+                        readEscapeSequence();
+                    }
+                    setLine(found);
+                    return false;
+                }
+                // the text typed may still be in the command found
+                text.append((char) c);
+                newNumber = mHistoryDb.searchBackward(text.toString(), number + 1);
+                break;
+
+            }
+
+            if (newNumber > 0) {
+                number = newNumber;
+                found = mHistoryDb.get(number);
+            } else if (c != 8 && c != 127) {
+                bell();
+            }
+        }
+    }
+
+    /**
+     * Reads the rest of an escape sequence, after its escape character
+     * @return key of the sequence: 'A' to 'D' for the arrows, 'H' for Home,
+     * 'F' for End, '3' for Delete, or 0 if not recognized
+     * @throws IOException error reading the sequence
+     */
+    private int readEscapeSequence() throws IOException {
+
+        int c = mReader.read();
+        if (c != '[' && c != 'O') {
+            return 0;
+        }
+
+        // parameters, then the final character
+        StringBuilder parameters = new StringBuilder();
+        while((c = mReader.read()) >= 0 && (c < 0x40 || c > 0x7e)) {
+            parameters.append((char) c);
+        }
+
+        if (c == '~') {
+            String parameter = parameters.toString();
+            if (parameter.equals("1") || parameter.equals("7")) {
+                return 'H';
+            }
+            if (parameter.equals("4") || parameter.equals("8")) {
+                return 'F';
+            }
+            if (parameter.equals("3")) {
+                return '3';
+            }
+            return 0;
+        }
+        return (c >= 'A' && c <= 'D') || c == 'H' || c == 'F' ? c : 0;
+    }
+
+    /**
+     * Completes the word at the cursor: with the only completion, if there
+     * is one, otherwise with what all completions begin with; if that
+     * doesn't add anything, lists the completions on a second Tab
+     * @param wasCompleting true if the previous key was also Tab
+     */
+    private void complete(boolean wasCompleting) {
+
+        if (mCompleter == null) {
+            bell();
+            return;
+        }
+
+        List<String> candidates = new ArrayList<String>();
+        int wordStart = mCompleter.complete(mLine.toString(), mCursor, candidates);
+        if (candidates.isEmpty()) {
+            bell();
+            return;
+        }
+
+        String word = mLine.substring(wordStart, mCursor);
+        if (candidates.size() == 1) {
+            String candidate = candidates.get(0);
+            replaceChars(wordStart, mCursor, candidate.endsWith("}") ? candidate : candidate + " ");
+            return;
+        }
+
+        String commonPrefix = candidates.get(0);
+        for (String candidate : candidates) {
+            int i = 0;
+            while(i < commonPrefix.length() && i < candidate.length()
+                    && commonPrefix.charAt(i) == candidate.charAt(i)) {
+                i++;
+            }
+            commonPrefix = commonPrefix.substring(0, i);
+        }
+        if (commonPrefix.length() > word.length() && commonPrefix.startsWith(word)) {
+            replaceChars(wordStart, mCursor, commonPrefix);
+            mIsCompleting = true;
+            return;
+        }
+
+        if (!wasCompleting) {
+            bell();
+            mIsCompleting = true;
+            return;
+        }
+
+        // list the completions in columns
+        int width = 0;
+        for (String candidate : candidates) {
+            width = Math.max(width, candidate.length() + 2);
+        }
+        int columns = Math.max(1, 80 / width);
+        mWriter.println();
+        for (int i = 0; i < candidates.size(); i++) {
+            String candidate = candidates.get(i);
+            boolean isLastInRow = (i % columns == columns - 1) || (i == candidates.size() - 1);
+            mWriter.print(candidate);
+            if (isLastInRow) {
+                mWriter.println();
+            } else {
+                for (int j = candidate.length(); j < width; j++) {
+                    mWriter.print(' ');
+                }
+            }
+        }
+        mWriter.print(mPrompt);
+        redraw();
+    }
+
+    /**
+     * @param start position of the first character to replace
+     * @param end position after the last character to replace
+     * @param replacement replacement of the characters, after which the cursor is placed
+     */
+    private void replaceChars(int start, int end, String replacement) {
+        mLine.replace(start, end, replacement);
+        mCursor = start + replacement.length();
+        redraw();
+    }
+
+    /**
+     * @param start position of the first character to delete
+     * @param end position after the last character to delete
+     */
+    private void deleteChars(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(mLine.length(), end);
+        if (start >= end) {
+            bell();
+            return;
+        }
+        mLine.delete(start, end);
+        mCursor = start;
+        redraw();
+    }
+
+    /**
+     * @param line line to be edited instead, with the cursor at its end
+     */
+    private void setLine(String line) {
+        mLine.setLength(0);
+        mLine.append(line);
+        mCursor = mLine.length();
+        redraw();
+    }
+
+    /**
+     * @param cursor new position of the cursor
+     */
+    private void moveCursor(int cursor) {
+        if (cursor < 0 || cursor > mLine.length()) {
+            bell();
+            return;
+        }
+        if (cursor < mCursor) {
+            mWriter.print(CSI + (mCursor - cursor) + "D");
+        } else if (cursor > mCursor) {
+            mWriter.print(CSI + (cursor - mCursor) + "C");
+        }
+        mCursor = cursor;
+        mWriter.flush();
+    }
+
+    /**
+     * Rewrites the prompt and the line, leaving the cursor in place
+     */
+    private void redraw() {
+        mWriter.print("\r" + mPrompt + mLine + CSI + "K");
+        if (mCursor < mLine.length()) {
+            mWriter.print(CSI + (mLine.length() - mCursor) + "D");
+        }
+        mWriter.flush();
+    }
+
+    /**
+     * Rings the terminal's bell (e.g., for a key that can't be acted upon)
+     */
+    private void bell() {
+        mWriter.print((char) 7);
+        mWriter.flush();
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param arguments arguments of <code>stty</code>, applying to the terminal
+     * @return output of <code>stty</code>, trimmed, or <code>null</code> if it failed
+     * (e.g., not on a system having it, or not connected to a terminal)
+     */
+    private static String stty(String arguments) {
+        try {
+            Process process = new ProcessBuilder("sh", "-c", "stty " + arguments + " < /dev/tty")
+                .redirectErrorStream(true).start();
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            InputStream processOutput = process.getInputStream();
+            try {
+                processOutput.transferTo(output);
+            } finally {
+                processOutput.close();
+            }
+            return (process.waitFor() == 0) ? output.toString().trim() : null;
+        } catch(IOException ioex) {
+            return null;
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+}
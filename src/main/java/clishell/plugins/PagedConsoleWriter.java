@@ -17,6 +17,9 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Writer;
 
+import clishell.CliRunner;
+import clishell.util.SharedInputStream;
+
 
 /**
  *
@@ -41,7 +44,7 @@ public class PagedConsoleWriter extends Writer {
 
     /** buffered reader device used for obtaining user's go-ahead to continue */
     private final BufferedReader mInputReader
-        = new BufferedReader(new InputStreamReader(System.in));
+        = new BufferedReader(new InputStreamReader(SharedInputStream.getStandardInput()));
 
     /** suppresses all remaining output for current page if this flag is set */
     private boolean mSuppressPageOutput;
@@ -168,7 +171,8 @@ public class PagedConsoleWriter extends Writer {
      * Optionally prints a prompt string, and waits for user to press Enter.
      * If user enters a word starting with 'q' before pressing enter, then
      * sets the "suppress page output" flag, thereby suppressing all further
-     * output which may be generated for the current page.
+     * output which may be generated for the current page, and cancels the
+     * command generating the output (so that it stops working for nothing).
      * @param prompt prompt to display to user, indicating we're waiting for input
      * @throws IOException
      */
@@ -180,6 +184,7 @@ public class PagedConsoleWriter extends Writer {
         if (mInputReader.readLine().trim().startsWith("q")) {
             // mark signal if user wants to "quit" the rest of this page
             mSuppressPageOutput = true;
+            CliRunner.getInstance().getCancellationToken().cancel("output paging quit");
         }
     }
 }
@@ -0,0 +1,532 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ *
+ * Runs a list of system commands (e.g., the same tool over many files),
+ * up to a given number of them at a time, in the manner of
+ * "<code>xargs -P</code>".
+ *
+ * No thread is used per process, or per stream: the processes' output
+ * is redirected (by the operating system) into temporary files, and the
+ * exits of the processes are noted by callbacks on <code>Process.onExit()</code>,
+ * so that a single thread (the one calling {@link #run(OutputStream, OutputStream)})
+ * starts the processes, and copies their output as directed by the
+ * {@link OutputMode}.
+ *
+ */
+public class ParallelSysCommandRunner {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * How the output of the commands is written
+     */
+    public enum OutputMode {
+
+        /** as it's produced, mixing the output of all running commands */
+        INTERLEAVED,
+
+        /** all at once for each command, in the order the commands finish */
+        GROUPED,
+
+        /** all at once for each command, in the order the commands were given */
+        ORDERED;
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /**
+     * number of milliseconds between checks for output when following the
+     * output of the running commands (in {@link OutputMode#INTERLEAVED} mode)
+     */
+    private static final long FOLLOW_INTERVAL_MILLIS = 50;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** maximum number of commands run at a time */
+    private final int mMaxProcesses;
+
+    /** how the output of the commands is written */
+    private final OutputMode mOutputMode;
+
+    /** if set, no more commands are started after one fails */
+    private final boolean mFailFast;
+
+    /** the commands, in the order given */
+    private final List<Job> mJobs = new ArrayList<Job>();
+
+    /** commands that have exited (or failed to start), in the order they did */
+    private final BlockingQueue<Job> mExitedJobs = new LinkedBlockingQueue<Job>();
+
+    /** set once no more commands are to be started */
+    private volatile boolean mStopped;
+
+    /** time the commands started running */
+    private long mStartTime;
+
+    /** time the commands finished running */
+    private long mEndTime;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param commands commands & their arguments, in the order given
+     * @param maxProcesses maximum number of commands run at a time
+     * @param outputMode how the output of the commands is written
+     * @param failFast if set, no more commands are started after one fails,
+     * and those still running are destroyed
+     */
+    public ParallelSysCommandRunner(List<String[]> commands, int maxProcesses,
+            OutputMode outputMode, boolean failFast) {
+        for (String[] command : commands) {
+            mJobs.add(new Job(mJobs.size() + 1, command));
+        }
+        mMaxProcesses = Math.max(1, maxProcesses);
+        mOutputMode = outputMode;
+        mFailFast = failFast;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Runs the commands, returning once they've all finished (or been stopped)
+     * @param out output stream to which the commands' "stdout" is written
+     * @param err output stream to which the commands' "stderr" is written
+     * @throws IOException error creating or copying temporary files
+     */
+    public void run(OutputStream out, OutputStream err) throws IOException {
+
+        mStartTime = System.currentTimeMillis();
+
+        // in "interleaved" mode, all commands write to the same (pair of) files,
+        // which are followed while they run
+        File sharedOutputFile = null;
+        File sharedErrorFile = null;
+        InputStream sharedOutput = null;
+        InputStream sharedError = null;
+        if (mOutputMode == OutputMode.INTERLEAVED) {
+            sharedOutputFile = createTempFile();
+            sharedErrorFile = createTempFile();
+            sharedOutput = new FileInputStream(sharedOutputFile);
+            sharedError = new FileInputStream(sharedErrorFile);
+        }
+
+        boolean interrupted = false;
+        int nextJobIndex = 0;
+        int nextJobToCopyIndex = 0;
+        int nRunning = 0;
+
+        try {
+
+            while(nRunning > 0 || (nextJobIndex < mJobs.size() && !mStopped)) {
+
+                // start as many commands as allowed
+                while(nRunning < mMaxProcesses && nextJobIndex < mJobs.size() && !mStopped) {
+                    mJobs.get(nextJobIndex++).start(sharedOutputFile, sharedErrorFile);
+                    nRunning++;
+                }
+
+                // wait for one to exit
+                Job exitedJob;
+                try {
+                    exitedJob = (mOutputMode == OutputMode.INTERLEAVED)
+                        ? mExitedJobs.poll(FOLLOW_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)
+                        : mExitedJobs.take();
+                } catch(InterruptedException ie) {
+                    // stop, but still wait for the commands to go away
+                    interrupted = true;
+                    stop();
+                    continue;
+                }
+
+                if (mOutputMode == OutputMode.INTERLEAVED) {
+                    copyAvailable(sharedOutput, out);
+                    copyAvailable(sharedError, err);
+                }
+
+                if (exitedJob == null) {
+                    continue;
+                }
+
+                nRunning--;
+                exitedJob.finished();
+                if (mFailFast && exitedJob.isFailed()) {
+                    stop();
+                }
+
+                if (mOutputMode == OutputMode.GROUPED) {
+                    exitedJob.copyOutput(out, err);
+                } else if (mOutputMode == OutputMode.ORDERED) {
+                    while(nextJobToCopyIndex < nextJobIndex
+                            && mJobs.get(nextJobToCopyIndex).isFinished()) {
+                        mJobs.get(nextJobToCopyIndex++).copyOutput(out, err);
+                    }
+                }
+
+            }
+
+            if (mOutputMode == OutputMode.INTERLEAVED) {
+                copyAvailable(sharedOutput, out);
+                copyAvailable(sharedError, err);
+            }
+
+        } finally {
+
+            // NOTE: only if something went wrong can commands still be running
+            for (Job job : mJobs) {
+                job.destroy();
+                job.deleteOutput();
+            }
+
+            if (sharedOutput != null) {
+                closeAndDelete(sharedOutput, sharedOutputFile);
+                closeAndDelete(sharedError, sharedErrorFile);
+            }
+
+            mEndTime = System.currentTimeMillis();
+
+        }
+
+        // let the caller know it was interrupted
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+    }
+
+    /**
+     * Stops starting commands, and destroys those running (along with
+     * any children they created).  May be called from any thread.
+     */
+    public void stop() {
+        mStopped = true;
+        for (Job job : mJobs) {
+            job.destroy();
+        }
+    }
+
+    /**
+     * @return number of commands that failed (exited with a nonzero status,
+     * couldn't be started, or were stopped)
+     */
+    public int getFailedCount() {
+        int nFailed = 0;
+        for (Job job : mJobs) {
+            if (job.isFinished() && job.isFailed()) {
+                nFailed++;
+            }
+        }
+        return nFailed;
+    }
+
+    /**
+     * Writes a summary of the commands' failures and timings
+     * @param writer writer to receive the summary
+     */
+    public void printSummary(PrintWriter writer) {
+
+        int nFinished = 0;
+        long totalMillis = 0;
+        Job slowestJob = null;
+        List<Job> failedJobs = new ArrayList<Job>();
+        for (Job job : mJobs) {
+            if (!job.isFinished()) {
+                continue;
+            }
+            nFinished++;
+            totalMillis += job.getElapsedMillis();
+            if (slowestJob == null || job.getElapsedMillis() > slowestJob.getElapsedMillis()) {
+                slowestJob = job;
+            }
+            if (job.isFailed()) {
+                failedJobs.add(job);
+            }
+        }
+
+        writer.println(nFinished + " of " + mJobs.size() + " command(s) run in "
+            + (mEndTime - mStartTime) + "ms"
+            + " (at most " + mMaxProcesses + " at a time), "
+            + failedJobs.size() + " failed"
+            + ((nFinished < mJobs.size()) ? (", " + (mJobs.size() - nFinished) + " not run") : ""));
+        if (nFinished > 0) {
+            writer.println("  average " + (totalMillis / nFinished) + "ms, slowest " + slowestJob);
+        }
+        for (Job failedJob : failedJobs) {
+            writer.println("  failed " + failedJob);
+        }
+        writer.flush();
+
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @return new, empty temporary file to receive output; it's deleted
+     * once its output is copied (or the commands are stopped)
+     * @throws IOException error creating the file
+     */
+    private static File createTempFile() throws IOException {
+        return File.createTempFile("clishell-parallel-", ".out");
+    }
+
+    /**
+     * Copies whatever is available in a file being followed
+     * @param inputStream stream reading the file
+     * @param outputStream stream receiving the copy
+     * @throws IOException error copying
+     */
+    private static void copyAvailable(InputStream inputStream, OutputStream outputStream)
+            throws IOException {
+        byte[] buffer = new byte[8 * 1024];
+        int len;
+        boolean isCopied = false;
+        // NOTE: reaching the (current) end of a file doesn't stop later reads
+        while((len = inputStream.read(buffer)) > 0) {
+            outputStream.write(buffer, 0, len);
+            isCopied = true;
+        }
+        if (isCopied) {
+            outputStream.flush();
+        }
+    }
+
+    /**
+     * @param inputStream stream to close
+     * @param file file to delete
+     */
+    private static void closeAndDelete(InputStream inputStream, File file) {
+        try {
+            inputStream.close();
+        } catch(IOException ioex) {
+            // "old college try" ;-)
+        }
+        file.delete();
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * One of the commands being run
+     */
+    private class Job {
+
+        /** number of the command, from 1, in the order given */
+        private final int mNumber;
+
+        /** command & its arguments */
+        private final String[] mCommand;
+
+        /** process running the command, or <code>null</code> if not (yet) started */
+        private volatile Process mProcess;
+
+        /** file receiving the command's "stdout", unless shared */
+        private File mOutputFile;
+
+        /** file receiving the command's "stderr", unless shared */
+        private File mErrorFile;
+
+        /** time the command started */
+        private long mJobStartTime;
+
+        /** time the command finished, or zero if it hasn't */
+        private long mJobEndTime;
+
+        /** exit status of the command */
+        private int mExitStatus;
+
+        /** reason the command couldn't be started, or <code>null</code> */
+        private String mStartFailure;
+
+        /**
+         * @param number number of the command, from 1, in the order given
+         * @param command command & its arguments
+         */
+        Job(int number, String[] command) {
+            mNumber = number;
+            mCommand = command;
+        }
+
+        /**
+         * Starts the command; its exit (or failure to start) is
+         * noted on the queue of exited commands
+         * @param sharedOutputFile file receiving the "stdout" of all commands,
+         * or <code>null</code> if each has its own
+         * @param sharedErrorFile file receiving the "stderr" of all commands,
+         * or <code>null</code> if each has its own
+         */
+        void start(File sharedOutputFile, File sharedErrorFile) {
+
+            mJobStartTime = System.currentTimeMillis();
+
+            try {
+
+                ProcessBuilder processBuilder = new ProcessBuilder(mCommand);
+                if (sharedOutputFile != null) {
+                    processBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(sharedOutputFile));
+                    processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(sharedErrorFile));
+                } else {
+                    mOutputFile = createTempFile();
+                    mErrorFile = createTempFile();
+                    processBuilder.redirectOutput(mOutputFile);
+                    processBuilder.redirectError(mErrorFile);
+                }
+
+                Process process = processBuilder.start();
+                // the commands don't read any input
+                process.getOutputStream().close();
+                mProcess = process;
+                if (mStopped) {
+                    // stopped while starting
+                    destroy();
+                }
+
+                process.onExit().thenRun(new Runnable() {
+                    public void run() {
+                        mExitedJobs.add(Job.this);
+                    }
+                });
+
+            } catch(IOException ioex) {
+
+                mStartFailure = ioex.getMessage();
+                deleteOutput();
+                mExitedJobs.add(this);
+
+            }
+        }
+
+        /**
+         * Notes that the command has exited (or failed to start)
+         */
+        void finished() {
+            mJobEndTime = System.currentTimeMillis();
+            mExitStatus = (mProcess != null) ? mProcess.exitValue() : -1;
+        }
+
+        /**
+         * @return true if the command has exited (or failed to start)
+         */
+        boolean isFinished() {
+            return mJobEndTime != 0;
+        }
+
+        /**
+         * @return true if the command failed to start, or exited with
+         * a nonzero status
+         */
+        boolean isFailed() {
+            return mExitStatus != 0;
+        }
+
+        /**
+         * @return number of milliseconds the command ran
+         */
+        long getElapsedMillis() {
+            return mJobEndTime - mJobStartTime;
+        }
+
+        /**
+         * Destroys the command's process (along with any children
+         * it created), if running
+         */
+        void destroy() {
+            Process process = mProcess;
+            if (process != null && process.isAlive()) {
+                SysCommandInvoker.destroyProcessTree(process);
+            }
+        }
+
+        /**
+         * Copies the command's output (unless it's shared), then deletes it
+         * @param out output stream receiving the command's "stdout"
+         * @param err output stream receiving the command's "stderr"
+         * @throws IOException error copying
+         */
+        void copyOutput(OutputStream out, OutputStream err) throws IOException {
+            if (mOutputFile != null) {
+                Files.copy(mOutputFile.toPath(), out);
+                out.flush();
+                Files.copy(mErrorFile.toPath(), err);
+                err.flush();
+            }
+            deleteOutput();
+        }
+
+        /**
+         * Deletes the command's output (unless it's shared)
+         */
+        void deleteOutput() {
+            // NOTE: the second file may not have been created
+            if (mOutputFile != null) {
+                mOutputFile.delete();
+                mOutputFile = null;
+            }
+            if (mErrorFile != null) {
+                mErrorFile.delete();
+                mErrorFile = null;
+            }
+        }
+
+        /**
+         * @return human-readable description of the command
+         */
+        @Override
+        public String toString() {
+            return "[" + mNumber + "] "
+                + ((mStartFailure != null) ? ("not started (" + mStartFailure + ")")
+                    : ("exit " + mExitStatus))
+                + " after " + getElapsedMillis() + "ms: "
+                + String.join(" ", Arrays.asList(mCommand));
+        }
+
+    }
+
+}
@@ -0,0 +1,275 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.w3c.dom.ls.LSInput;
+import org.w3c.dom.ls.LSResourceResolver;
+import org.xml.sax.SAXException;
+
+/**
+ *
+ * Bounded, least-recently-used cache of compiled (W3C XML) schemas, so
+ * that validating many documents against the same schema compiles it
+ * only once.
+ *
+ * A schema is identified by its (canonical) path, and is compiled again
+ * if its modification time or size has changed, or those of any schema
+ * document it includes or imports (from a file).
+ *
+ * Compiled schemas may be used by several threads at once, though each
+ * thread needs its own <code>Validator</code>.
+ *
+ */
+public class SchemaCache {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Description of a cached schema
+     */
+    public static class Entry {
+
+        /** file containing the schema */
+        private final File mFile;
+
+        /** the schema and the files it includes or imports, with their state when compiled */
+        private final List<FileState> mDependencies;
+
+        /** compiled schema */
+        private final Schema mSchema;
+
+        /** number of milliseconds taken to compile the schema */
+        private final long mCompileMillis;
+
+        /**
+         * @param file file containing the schema
+         * @param dependencies the schema and the files it includes or imports
+         * @param schema compiled schema
+         * @param compileMillis number of milliseconds taken to compile the schema
+         */
+        Entry(File file, List<FileState> dependencies, Schema schema, long compileMillis) {
+            mFile = file;
+            mDependencies = dependencies;
+            mSchema = schema;
+            mCompileMillis = compileMillis;
+        }
+
+        /**
+         * @return file containing the schema
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return compiled schema
+         */
+        public Schema getSchema() {
+            return mSchema;
+        }
+
+        /**
+         * @return number of files the schema includes or imports
+         */
+        public int getDependencyCount() {
+            return mDependencies.size() - 1;
+        }
+
+        /**
+         * @return number of milliseconds taken to compile the schema
+         */
+        public long getCompileMillis() {
+            return mCompileMillis;
+        }
+
+        /**
+         * @return true if none of the files the schema was compiled
+         * from has changed since
+         */
+        boolean isCurrent() {
+            for (FileState dependency : mDependencies) {
+                if (!dependency.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+
+    //
+    //  Private instance data
+    //
+
+    /** maximum number of compiled schemas kept */
+    private final int mMaxEntries;
+
+    /** factory compiling the schemas */
+    private final SchemaFactory mSchemaFactory;
+
+    /**
+     * Maps (canonical) schema files to their compiled schemas
+     * NOTE: use of access-ordered <code>LinkedHashMap</code> to evict
+     * the least recently used
+     */
+    private final Map<File, Entry> mEntries;
+
+    /**
+     * files included or imported by the schema being compiled
+     * NOTE: only used while holding the lock on the cache
+     */
+    private List<FileState> mCompileDependencies;
+
+    /** number of times a compiled schema was found in the cache */
+    private long mHitCount;
+
+    /** number of times a schema had to be compiled */
+    private long mMissCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param maxEntries maximum number of compiled schemas kept
+     */
+    public SchemaCache(int maxEntries) {
+
+        mMaxEntries = Math.max(1, maxEntries);
+        mEntries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+
+        mSchemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        mSchemaFactory.setResourceResolver(new DependencyNotingResolver());
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @param file file containing the schema
+     * @return the cached schema, compiled again first if it isn't current
+     * @throws SAXException error compiling the schema
+     */
+    public synchronized Entry getEntry(File file) throws SAXException {
+
+        File canonicalFile;
+        try {
+            canonicalFile = file.getCanonicalFile();
+        } catch(IOException ioex) {
+            canonicalFile = file.getAbsoluteFile();
+        }
+
+        Entry entry = mEntries.get(canonicalFile);
+        if (entry != null) {
+            if (entry.isCurrent()) {
+                mHitCount++;
+                return entry;
+            }
+            mEntries.remove(canonicalFile);
+        }
+
+        mMissCount++;
+        mCompileDependencies = new ArrayList<FileState>();
+        mCompileDependencies.add(new FileState(canonicalFile));
+        try {
+            long startTime = System.currentTimeMillis();
+            Schema schema = mSchemaFactory.newSchema(canonicalFile);
+            entry = new Entry(canonicalFile, mCompileDependencies, schema,
+                System.currentTimeMillis() - startTime);
+        } finally {
+            mCompileDependencies = null;
+        }
+
+        mEntries.put(canonicalFile, entry);
+        return entry;
+    }
+
+    /**
+     * @return number of times a compiled schema was found in the cache
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of times a schema had to be compiled
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Notes the files included or imported by the schema being compiled,
+     * leaving their resolution to the schema factory
+     */
+    private class DependencyNotingResolver implements LSResourceResolver {
+
+        /**
+         * @see LSResourceResolver#resolveResource(String, String, String, String, String)
+         */
+        public LSInput resolveResource(String type, String namespaceUri, String publicId,
+                String systemId, String baseUri) {
+
+            if (systemId == null || mCompileDependencies == null) {
+                return null;
+            }
+
+            try {
+                URI uri = (baseUri != null) ? new URI(baseUri).resolve(systemId) : new URI(systemId);
+                if ("file".equals(uri.getScheme())) {
+                    mCompileDependencies.add(new FileState(new File(uri)));
+                }
+            } catch(URISyntaxException use) {
+                // not a file, then
+            } catch(IllegalArgumentException iae) {
+                // not a file, then
+            }
+
+            // NOTE: null lets the schema factory resolve it as usual
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,398 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import clishell.CliProperties;
+import clishell.CliRunner;
+import clishell.CommandLimits;
+import clishell.db.CliBuffer;
+import clishell.db.CliBufferDb;
+import clishell.ex.CliCommandCancelledException;
+import clishell.ex.CliCommandResolutionException;
+import clishell.ex.CliPluginMethodException;
+import clishell.ex.CliRejectedInputException;
+import clishell.ex.CliRunnerException;
+
+/**
+ *
+ * Object given to scripts (as the global variable "shell") through which
+ * they use the shell directly: dispatching commands and getting their
+ * output, status and return value back as a {@link CommandResult}, rather
+ * than capturing the output into a buffer and parsing it; reading
+ * properties as typed values; and reading buffers as streams, rather than
+ * as (possibly large) strings.
+ *
+ */
+public class ScriptBridge {
+
+
+    //
+    //  Public class constants
+    //
+
+    /** status of a command that completed */
+    public static final int STATUS_OK = 0;
+
+    /** status of a command that failed */
+    public static final int STATUS_FAILED = 1;
+
+    /** status of a command that was rejected (unknown, or invalid input) */
+    public static final int STATUS_REJECTED = 2;
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Outcome of a command dispatched by a script
+     */
+    public static class CommandResult {
+
+        /** message output of the command */
+        private final String mOutput;
+
+        /** error output of the command */
+        private final String mErrorOutput;
+
+        /** status of the command; see <code>STATUS_xxx</code> */
+        private final int mStatus;
+
+        /** failure of the command, or <code>null</code> if it completed */
+        private final CliRunnerException mError;
+
+        /** object returned by the command method, or <code>null</code> if none */
+        private final Object mValue;
+
+        /**
+         * @param output message output of the command
+         * @param errorOutput error output of the command
+         * @param status status of the command
+         * @param error failure of the command, or <code>null</code> if it completed
+         * @param value object returned by the command method, or <code>null</code>
+         */
+        CommandResult(String output, String errorOutput, int status,
+                CliRunnerException error, Object value) {
+            mOutput = output;
+            mErrorOutput = errorOutput;
+            mStatus = status;
+            mError = error;
+            mValue = value;
+        }
+
+        /**
+         * @return message output of the command
+         */
+        public String getOutput() {
+            return mOutput;
+        }
+
+        /**
+         * @return error output of the command
+         */
+        public String getErrorOutput() {
+            return mErrorOutput;
+        }
+
+        /**
+         * @return status of the command: {@link ScriptBridge#STATUS_OK},
+         * {@link ScriptBridge#STATUS_FAILED} or {@link ScriptBridge#STATUS_REJECTED}
+         */
+        public int getStatus() {
+            return mStatus;
+        }
+
+        /**
+         * @return true if the command completed
+         */
+        public boolean isOk() {
+            return mStatus == STATUS_OK;
+        }
+
+        /**
+         * @return description of the failure of the command, or <code>null</code>
+         * if it completed
+         */
+        public String getError() {
+            return (mError == null) ? null : mError.getMessage();
+        }
+
+        /**
+         * @return object returned by the command method, or <code>null</code>
+         * if none (e.g., the method is <code>void</code>, or the command failed)
+         */
+        public Object getValue() {
+            return mValue;
+        }
+
+        /**
+         * @see Object#toString()
+         */
+        @Override
+        public String toString() {
+            return mOutput;
+        }
+
+    }
+
+
+    //
+    //  Private instance data
+    //
+
+    /** buffers readable by the scripts */
+    private final CliBufferDb mBufferDb;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param bufferDb buffers readable by the scripts
+     */
+    public ScriptBridge(CliBufferDb bufferDb) {
+        mBufferDb = bufferDb;
+    }
+
+
+    //
+    //  Public instance methods - commands
+    //
+
+    /**
+     * Dispatches a command, capturing its output
+     * @param commandTokens tokenized command (e.g., "list", "buffers", "-v")
+     * @return outcome of the command
+     * @throws CliRunnerException the command (or the script) was cancelled,
+     * or the shell failed to dispatch it
+     */
+    public CommandResult dispatch(String... commandTokens) throws CliRunnerException {
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        StringWriter output = new StringWriter();
+        StringWriter errorOutput = new StringWriter();
+        PrintWriter messageConsole = new PrintWriter(output);
+        PrintWriter errorConsole = new PrintWriter(errorOutput);
+
+        Object value = null;
+        int status = STATUS_OK;
+        CliRunnerException error = null;
+        cliRunner.setMessageConsole(messageConsole);
+        cliRunner.setErrorConsole(errorConsole);
+        try {
+            value = cliRunner.dispatchCommandForResult(commandTokens);
+        } catch(CliCommandCancelledException cce) {
+            throw cce;
+        } catch(CliPluginMethodException pme) {
+            status = STATUS_FAILED;
+            error = pme;
+        } catch(CliRejectedInputException rie) {
+            status = STATUS_REJECTED;
+            error = rie;
+        } catch(CliCommandResolutionException cre) {
+            status = STATUS_REJECTED;
+            error = cre;
+        } finally {
+            messageConsole.flush();
+            errorConsole.flush();
+            cliRunner.unsetErrorConsole(errorConsole);
+            cliRunner.unsetMessageConsole(messageConsole);
+        }
+
+        return new CommandResult(output.toString(), errorOutput.toString(),
+            status, error, value);
+    }
+
+
+    //
+    //  Public instance methods - properties
+    //
+
+    /**
+     * @param name name of property
+     * @return value of the property, or <code>null</code> if not set
+     */
+    public String getProperty(String name) {
+        return getProperties().getProperty(name);
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value if the property isn't set
+     * @return value of the property, or <code>defaultValue</code> if not set
+     */
+    public String getProperty(String name, String defaultValue) {
+        return getProperties().getProperty(name, defaultValue);
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value if the property isn't set
+     * @return value of the property as an integer
+     * @throws CliRejectedInputException invalid property value
+     */
+    public int getIntProperty(String name, int defaultValue)
+        throws CliRejectedInputException {
+        long value = getLongProperty(name, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw newInvalidPropertyException(name, String.valueOf(value), null);
+        }
+        return (int) value;
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value if the property isn't set
+     * @return value of the property as a long integer
+     * @throws CliRejectedInputException invalid property value
+     */
+    public long getLongProperty(String name, long defaultValue)
+        throws CliRejectedInputException {
+        String valueString = getPropertyValue(name);
+        if (valueString == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(valueString);
+        } catch(NumberFormatException nfe) {
+            throw newInvalidPropertyException(name, valueString, nfe);
+        }
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value if the property isn't set
+     * @return value of the property as a boolean ("true" or "false")
+     * @throws CliRejectedInputException invalid property value
+     */
+    public boolean getBooleanProperty(String name, boolean defaultValue)
+        throws CliRejectedInputException {
+        String valueString = getPropertyValue(name);
+        if (valueString == null) {
+            return defaultValue;
+        }
+        if (valueString.equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (valueString.equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw newInvalidPropertyException(name, valueString, null);
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value (in bytes) if the property isn't set
+     * @return value of the property as a size in bytes (e.g., "64m")
+     * @throws CliRejectedInputException invalid property value
+     */
+    public long getSizeProperty(String name, long defaultValue)
+        throws CliRejectedInputException {
+        return CliPluginUtil.getSizeProperty(getProperties(), name, defaultValue);
+    }
+
+    /**
+     * @param name name of property
+     * @param defaultValue value (in milliseconds) if the property isn't set
+     * @return value of the property as a duration in milliseconds (e.g., "30s")
+     * @throws CliRejectedInputException invalid property value
+     */
+    public long getDurationProperty(String name, long defaultValue)
+        throws CliRejectedInputException {
+        String valueString = getPropertyValue(name);
+        if (valueString == null) {
+            return defaultValue;
+        }
+        try {
+            return CommandLimits.parseDuration(valueString);
+        } catch(NumberFormatException nfe) {
+            throw newInvalidPropertyException(name, valueString, nfe);
+        }
+    }
+
+
+    //
+    //  Public instance methods - buffers
+    //
+
+    /**
+     * @param bufferName name of buffer
+     * @return reader of the contents of the buffer (as text, whatever its
+     * type), to be closed by the caller, or <code>null</code> if the named
+     * buffer was not found
+     * @throws IOException error reading buffer
+     */
+    public BufferedReader getBufferReader(String bufferName) throws IOException {
+        CliBuffer buffer = mBufferDb.getBuffer(bufferName);
+        return (buffer == null) ? null : new BufferedReader(buffer.getReader());
+    }
+
+    /**
+     * @param bufferName name of buffer
+     * @return stream of the contents of the buffer, to be closed by the
+     * caller, or <code>null</code> if the named buffer was not found
+     * @throws IOException error reading buffer
+     */
+    public InputStream getBufferInputStream(String bufferName) throws IOException {
+        CliBuffer buffer = mBufferDb.getBuffer(bufferName);
+        return (buffer == null) ? null : buffer.getInputStream();
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @return properties of the shell
+     */
+    private CliProperties getProperties() {
+        return CliRunner.getInstance().getProperties();
+    }
+
+    /**
+     * @param name name of property
+     * @return value of the property, trimmed, or <code>null</code> if
+     * not set (or blank)
+     */
+    private String getPropertyValue(String name) {
+        String valueString = getProperties().getProperty(name);
+        if (valueString == null || valueString.trim().length() == 0) {
+            return null;
+        }
+        return valueString.trim();
+    }
+
+    /**
+     * @param name name of property
+     * @param valueString invalid value of the property
+     * @param cause cause of the error, or <code>null</code>
+     * @return exception reporting the invalid value
+     */
+    private CliRejectedInputException newInvalidPropertyException(String name,
+        String valueString, Throwable cause) {
+        return new CliRejectedInputException("invalid value for property '"
+            + name
+            + "': '"
+            + valueString
+            + "'", cause);
+    }
+
+}
@@ -12,34 +12,47 @@
 
 package clishell.plugins;
 
-import java.io.FileReader;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.Reader;
-import java.io.StringReader;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import org.apache.tools.ant.util.ReaderInputStream;
 import clishell.CliCommandOptions;
+import clishell.CliProperties;
 import clishell.CliRunner;
+import clishell.CommandLimits;
 import clishell.anno.CliPlugin;
 import clishell.anno.CliPluginCommand;
+import clishell.anno.CliPluginFinalizer;
 import clishell.anno.CliPluginInitializer;
+import clishell.db.CliBuffer;
+import clishell.db.CliBufferDb;
+import clishell.ex.CliPluginMethodException;
 import clishell.ex.CliRejectedInputException;
 import clishell.ex.CliRunnerException;
-import clishell.net.UrlResourceInputStream;
+import clishell.net.SegmentedDownloader;
+import clishell.net.UrlResourceCache;
 import clishell.script.Scripter;
 import clishell.script.ScripterException;
+import clishell.script.ScripterPool;
+import clishell.util.BatchUtil;
 
 @CliPlugin(
      name = "scripting"
@@ -48,15 +61,52 @@ import clishell.script.ScripterException;
 public class ScriptingPlugin {
 
 
+    //
+    //  Public class data
+    //
+
+    /** property limiting the memory used by all buffers (e.g., "64m"; 0 for no limit) */
+    public static final String PROPERTY_BUFFER_MEMORY_BUDGET = "buffer-memory-budget";
+
+    /** property limiting the memory used by any one buffer before it's spilled to disk */
+    public static final String PROPERTY_BUFFER_SPILL_THRESHOLD = "buffer-spill-threshold";
+
+    /** property naming the directory into which buffers are spilled */
+    public static final String PROPERTY_BUFFER_SPILL_DIRECTORY = "buffer-spill-directory";
+
+    /** property limiting the number of scripts run concurrently (each by its own engine) */
+    public static final String PROPERTY_SCRIPT_ENGINE_POOL_SIZE = "script-engine-pool-size";
+
+
+    //
+    //  Private class data
+    //
+
+    /** default value of {@link #PROPERTY_BUFFER_MEMORY_BUDGET} */
+    private static final long DEFAULT_BUFFER_MEMORY_BUDGET = 64L * 1024 * 1024;
+
+    /** default value of {@link #PROPERTY_BUFFER_SPILL_THRESHOLD} */
+    private static final long DEFAULT_BUFFER_SPILL_THRESHOLD = 16L * 1024 * 1024;
+
+    /** default value of {@link #PROPERTY_SCRIPT_ENGINE_POOL_SIZE} */
+    private static final int DEFAULT_SCRIPT_ENGINE_POOL_SIZE = 4;
+
+    /** default maximum number of requests in flight of "get resources" */
+    private static final int DEFAULT_FETCH_REQUESTS = 8;
+
+    /** default time each request of "get resources" may take */
+    private static final long DEFAULT_FETCH_TIMEOUT_MILLIS = 30 * 1000L;
+
+
     //
     //  Private instance data
     //
 
     /** IPC buffers for capturing CLI command output */
-    private Map<String, String> mStringBuffers;
+    private CliBufferDb mBufferDb;
 
-    /** Scripting engine - script context */
-    private Scripter mScripter;
+    /** Scripting engines - script contexts, one per script running concurrently */
+    private ScripterPool mScripterPool;
 
 
     //
@@ -64,9 +114,16 @@ public class ScriptingPlugin {
     //
 
     @CliPluginInitializer
-    public void init() throws ScripterException {
-        mStringBuffers = new HashMap<String, String>();
-        resetContext();
+    public void init() throws ScripterException, CliRejectedInputException {
+        mBufferDb = newBufferDb(CliRunner.getInstance().getProperties());
+        mScripterPool = newScripterPool(CliRunner.getInstance().getProperties(),
+            new ScriptBridge(mBufferDb));
+    }
+
+    @CliPluginFinalizer
+    public void fini() {
+        // delete any spill files
+        mBufferDb.clear();
     }
 
 
@@ -78,27 +135,50 @@ public class ScriptingPlugin {
          names = { "javascript", "jscript" }
     ,   syntax = "[-r] <script-filename>"
     ,  options = "r"
-    , helptext = "use the '-r' option if you need to run the script in a new scripting context"
+    , helptext = {
+        "Runs the script in <script-filename>, seeing the global variables defined"
+      , "by the scripts run before it (unless they're still running); the script is"
+      , "compiled only the first time it's run, or when it's changed since"
+      , "Scripts use the shell through the global variable 'shell', e.g.:"
+      , "  shell.dispatch(\"list\", \"buffers\")  runs a command; the result has"
+      , "      getOutput(), getErrorOutput(), getStatus() (0 if ok), getError()"
+      , "      and getValue() (the object returned by the command, if any)"
+      , "  shell.getIntProperty(<name>, <default>)  (also Long, Boolean, Size, Duration)"
+      , "  shell.getBufferReader(<buffer-name>)  reads a buffer as a stream"
+      , "Options:"
+      , "  -r  forgets the global variables defined by the scripts run before"
+      }
     , ordering = "a"
     )
     public void runScript(CliCommandOptions options, String scriptFilename)
-        throws ScripterException, IOException {
+        throws CliRunnerException, ScripterException, IOException {
 
-        FileReader fileReader = new FileReader(scriptFilename);
-        StringBuffer stringBuffer = new StringBuffer();
-        int len;
-        char[] buffer = new char[4096];
-        while((len = fileReader.read(buffer))> 0) {
-            stringBuffer.append(buffer, 0, len);
+        File scriptFile = new File(scriptFilename);
+        if (!scriptFile.isFile()) {
+            throw new FileNotFoundException(scriptFilename);
         }
-        fileReader.close();
 
-        // run in new context if option set
-        if (options.isOptionSet('r')) {
-            resetContext();
+        Scripter scripter;
+        try {
+            scripter = mScripterPool.acquire();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            CliRunner.getInstance().getCancellationToken().throwIfCancelled();
+            return;
         }
 
-        mScripter.executeScript(stringBuffer.toString());
+        try {
+
+            // run in new context if option set
+            if (options.isOptionSet('r')) {
+                mScripterPool.resetBindings(scripter);
+            }
+
+            scripter.executeScript(scriptFile);
+
+        } finally {
+            mScripterPool.release(scripter);
+        }
     }
 
     @CliPluginCommand(
@@ -108,11 +188,12 @@ public class ScriptingPlugin {
     , helptext = {
         "Captures output from <command> and writes it to the buffer specified by <buffer-name>,"
       , "so that it may be fed to another command as input (using the \"feed buffer\" command),"
-      , "or retrieved from a script (such as javascript) using the getBuffer(<buffer-name>)"
-      , "method of this CliShell plugin"
+      , "or read from a script (such as javascript) using shell.getBufferReader(<buffer-name>)"
       ,   "Options:"
       ,   "  -q  (quiet) suppress echoing the output to the current message console"
       ,   "  -e  (errors) also captures error message(s) into the buffer"
+      , "Large buffers are moved to temporary files, as limited by the properties"
+      , "'" + PROPERTY_BUFFER_MEMORY_BUDGET + "' and '" + PROPERTY_BUFFER_SPILL_THRESHOLD + "'"
       }
     ,  minargs = 2
     , ordering = "b"
@@ -120,19 +201,124 @@ public class ScriptingPlugin {
     public void captureBuffer(CliCommandOptions options, String... args)
         throws CliRunnerException {
 
-        // allocate a string buffer to capture console output
-        StringWriter bufferWriter = new StringWriter();
+        // allocate a buffer to capture console output
+        CliBuffer buffer = mBufferDb.newBuffer(args[0], CliBuffer.Type.CHAR);
 
-        // setup to write output to specified file
-        PrintWriter messageConsole = new PrintWriter(bufferWriter);
+        // setup to write output to the buffer
+        // (with -q, system commands may append to it directly)
+        PrintWriter messageConsole = new BufferConsoleWriter(buffer);
 
-        // dispatch the command in args[1..n] using the new message console
-        CliPluginUtil.dispatchCommand(options, null, messageConsole,
-            Arrays.copyOfRange(args, 1, args.length));
+        boolean captured = false;
+        try {
+
+            // dispatch the command in args[1..n] using the new message console
+            CliPluginUtil.dispatchCommand(options, null, messageConsole,
+                Arrays.copyOfRange(args, 1, args.length));
+
+            // seal the buffer
+            messageConsole.close();
+            if (messageConsole.checkError()) {
+                throw new CliRunnerException("error writing buffer '" + args[0] + "'");
+            }
+            captured = true;
+
+        } finally {
+
+            if (captured) {
+                // store buffer
+                mBufferDb.putBuffer(buffer);
+            } else {
+                mBufferDb.discardBuffer(buffer);
+            }
+
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "load buffer"
+    ,   syntax = "[-b] [-P <segments>] <buffer-name> <resource-identifier>"
+    ,  options = "bP:"
+    , helptext = {
+        "Loads the resource data indicated by <resource-identifier>, which may"
+      , "be a URL or a filename, into the buffer specified by <buffer-name>"
+      , "Options:"
+      , "  -b             (binary) loads the data as-is, rather than as text"
+      , "  -P <segments>  downloads the resource first, retrieving up to <segments>"
+      , "                 ranges of it concurrently (if the server supports ranges)"
+      }
+    , ordering = "b2"
+    )
+    public void loadBuffer(CliCommandOptions options, String bufferName,
+        String resourceIdentifier)
+        throws CliRunnerException, MalformedURLException, IOException {
+
+        File downloadFile = null;
+        InputStream inputStream;
+        if (options.isOptionSet('P')) {
+            downloadFile = File.createTempFile("download", ".tmp");
+            boolean isDownloaded = false;
+            try {
+                downloadResource(options, getResourceUrl(resourceIdentifier), downloadFile);
+                isDownloaded = true;
+            } finally {
+                if (!isDownloaded) {
+                    downloadFile.delete();
+                }
+            }
+            inputStream = new FileInputStream(downloadFile);
+        } else {
+            inputStream = CliPluginUtil.newUrlResourceInputStream(
+                getResourceUrl(resourceIdentifier));
+        }
+
+        boolean isBinary = options.isOptionSet('b');
+        CliBuffer buffer = mBufferDb.newBuffer(bufferName,
+            isBinary ? CliBuffer.Type.BYTE : CliBuffer.Type.CHAR);
+
+        boolean loaded = false;
+
+        try {
 
-        // store buffer
-        mStringBuffers.put(args[0], bufferWriter.toString());
+            if (isBinary) {
+                OutputStream outputStream = buffer.getOutputStream();
+                inputStream.transferTo(outputStream);
+                outputStream.close();
+            } else {
+                // NOTE: decode using the platform encoding, as "get resource" does
+                Reader inputReader = new InputStreamReader(inputStream);
+                Writer outputWriter = buffer.getWriter();
+                char[] chars = new char[4096];
+                int length;
+                while((length = inputReader.read(chars)) > 0) {
+                    outputWriter.write(chars, 0, length);
+                }
+                outputWriter.close();
+            }
+            loaded = true;
+
+        } finally {
 
+            try {
+                inputStream.close();
+            } catch(Throwable t) {
+                // "old college try" ;-)
+            }
+
+            if (downloadFile != null) {
+                downloadFile.delete();
+            }
+
+            if (loaded) {
+                mBufferDb.putBuffer(buffer);
+            } else {
+                mBufferDb.discardBuffer(buffer);
+            }
+
+        }
+
+        CliRunner.getInstance().getMessageConsole().println("buffer '"
+            + bufferName + "' loaded: (" + buffer + ")");
     }
 
     // TODO: should this command get moved up to the "builtin" (or another) plugin?
@@ -146,26 +332,60 @@ public class ScriptingPlugin {
               "get resource"
           ,   "get url"
           }
-    ,   syntax = "<resource-identifier>"
+    ,   syntax = "[-o <filename> [-P <segments>]] <resource-identifier>"
+    ,  options = "o:P:"
     , helptext = {
         "Retrieves the resource data indicated by <resource-identifier>, which may"
       , "be a URL or a filename."
+      , "Options:"
+      , "  -o <filename>  saves the data (as-is) into <filename>, rather than"
+      , "                 printing it"
+      , "  -P <segments>  retrieves up to <segments> ranges of the resource concurrently"
+      , "                 (if the server supports ranges), retrying failed ranges"
       }
     , ordering = "c"
     )
     public void getResource(CliCommandOptions options, String resourceIdentifier)
         throws CliRunnerException, MalformedURLException, IOException {
 
-        URL urlToLoad;
-        if (!resourceIdentifier.contains("://")) {
-            urlToLoad = new URL("file://" + resourceIdentifier);
-        } else {
-            urlToLoad = new URL(resourceIdentifier);
+        if (options.isOptionSet('o')) {
+            File outputFile = new File(options.getOptionValue('o'));
+            if (options.isOptionSet('P')) {
+                SegmentedDownloader.Result result = downloadResource(options,
+                    getResourceUrl(resourceIdentifier), outputFile);
+                CliRunner.getInstance().getMessageConsole().println("'"
+                    + outputFile + "' saved: " + result);
+                return;
+            }
+            InputStream inputStream = CliPluginUtil.newUrlResourceInputStream(
+                getResourceUrl(resourceIdentifier));
+            try {
+                OutputStream outputStream = new FileOutputStream(outputFile);
+                try {
+                    CliRunner.getInstance().getMessageConsole().println("'"
+                        + outputFile + "' saved: " + inputStream.transferTo(outputStream)
+                        + " bytes");
+                } finally {
+                    outputStream.close();
+                }
+            } finally {
+                try {
+                    inputStream.close();
+                } catch(Throwable t) {
+                    // "old college try" ;-)
+                }
+            }
+            return;
+        }
+
+        if (options.isOptionSet('P')) {
+            throw new CliRejectedInputException("option -P requires option -o");
         }
 
         Writer outputWriter = CliRunner.getInstance().getMessageConsole();
 
-        UrlResourceInputStream inputStream = new UrlResourceInputStream(urlToLoad);
+        InputStream inputStream = CliPluginUtil.newUrlResourceInputStream(
+            getResourceUrl(resourceIdentifier));
         Reader inputReader = new InputStreamReader(inputStream);
 
         try {
@@ -189,6 +409,178 @@ public class ScriptingPlugin {
 
     }
 
+    @CliPluginCommand(
+          name = "get resources"
+    ,   syntax = "[-b] [-d <directory>] [-P <requests>] [-t <timeout>] <name>=<resource-identifier>"
+                 + " [<name>=<resource-identifier> [...]]"
+    ,  options = "bd:P:t:"
+    ,  minargs = 1
+    , helptext = {
+        "Retrieves several resources concurrently, each indicated by a"
+      , "<resource-identifier> (a URL or a filename), loading each into the"
+      , "buffer specified by its <name>, then summarizes the status, size and"
+      , "latency of each request.  Connections to the same server are reused."
+      , "Options:"
+      , "  -b              (binary) loads the data as-is, rather than as text"
+      , "  -d <directory>  saves each resource (as-is) into the file <name> in"
+      , "                  <directory>, rather than into a buffer"
+      , "  -P <requests>   maximum number of requests in flight (default: 8)"
+      , "  -t <timeout>    time each request may take, e.g. \"500ms\", \"30s\""
+      , "                  (default: 30s; 0 for no limit)"
+      }
+    , ordering = "c1"
+    )
+    public void getResources(CliCommandOptions options, String... args)
+        throws CliRunnerException, MalformedURLException {
+
+        int requestCount = options.isOptionSet('P')
+            ? BatchUtil.parseRequestCount(options.getOptionValue('P'), "requests")
+            : DEFAULT_FETCH_REQUESTS;
+
+        long timeoutMillis = DEFAULT_FETCH_TIMEOUT_MILLIS;
+        if (options.isOptionSet('t')) {
+            try {
+                timeoutMillis = CommandLimits.parseDuration(options.getOptionValue('t'));
+            } catch(NumberFormatException nfe) {
+                throw new CliRejectedInputException("invalid timeout: "
+                    + options.getOptionValue('t'), nfe);
+            }
+        }
+
+        final File directory = options.isOptionSet('d')
+            ? new File(options.getOptionValue('d')) : null;
+        if (directory != null && !directory.isDirectory()) {
+            throw new CliRejectedInputException("not a directory: '" + directory + "'");
+        }
+
+        Map<String, URL> resources = new LinkedHashMap<String, URL>();
+        for (String arg : args) {
+            int equalsIndex = arg.indexOf('=');
+            if (equalsIndex < 1 || equalsIndex == arg.length() - 1) {
+                throw new CliRejectedInputException("expected <name>=<resource-identifier>: '"
+                    + arg + "'");
+            }
+            String name = arg.substring(0, equalsIndex);
+            if (resources.put(name, getResourceUrl(arg.substring(equalsIndex + 1))) != null) {
+                throw new CliRejectedInputException("name given more than once: '" + name + "'");
+            }
+        }
+
+        final boolean isBinary = options.isOptionSet('b');
+        BatchFetcher.Receiver receiver = new BatchFetcher.Receiver() {
+            public void receive(String name, InputStream inputStream) throws IOException {
+                if (directory != null) {
+                    receiveFile(new File(directory, name), inputStream);
+                } else {
+                    receiveBuffer(name, isBinary, inputStream);
+                }
+            }
+        };
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        BatchFetcher batchFetcher = new BatchFetcher(CliPluginUtil.getUrlTransport(),
+            requestCount, timeoutMillis);
+        long startTime = System.currentTimeMillis();
+        List<BatchFetcher.Result> results;
+        try {
+            results = batchFetcher.fetch(resources, receiver);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cliRunner.getCancellationToken().throwIfCancelled();
+            return;
+        }
+        long elapsedMillis = System.currentTimeMillis() - startTime;
+
+        // summarize the requests, as a table
+        int nameWidth = "NAME".length();
+        for (BatchFetcher.Result result : results) {
+            nameWidth = Math.max(nameWidth, result.getName().length());
+        }
+        String rowFormat = "%-" + nameWidth + "s  %6s  %12s  %8s  %s";
+        PrintWriter messageConsole = cliRunner.getMessageConsole();
+        messageConsole.println(String.format(rowFormat, "NAME", "STATUS", "BYTES", "MS", "RESULT"));
+        int failureCount = 0;
+        long byteCount = 0;
+        for (BatchFetcher.Result result : results) {
+            if (!result.isRetrieved()) {
+                failureCount++;
+            }
+            byteCount += result.getByteCount();
+            messageConsole.println(String.format(rowFormat, result.getName(),
+                (result.getStatusCode() < 0) ? "-" : String.valueOf(result.getStatusCode()),
+                result.getByteCount(), result.getMillis(),
+                result.isRetrieved() ? "ok" : result.getError()));
+        }
+        messageConsole.println(results.size() + " resource(s), " + byteCount + " bytes in "
+            + elapsedMillis + "ms");
+
+        if (failureCount > 0) {
+            throw new CliPluginMethodException(failureCount + " of " + results.size()
+                + " resource(s) not retrieved");
+        }
+    }
+
+    @CliPluginCommand(
+          name = "resource cache"
+    ,   syntax = "[-v] [-c] [-p <url-pattern>]"
+    ,  options = "vcp:"
+    , helptext = {
+        "Shows how well the on-disk cache of HTTP resources (see the"
+      , "'resource-cache-*' properties) is doing, and manages its entries"
+      , "Options:"
+      , "  -v                Also lists the cached resources, least recently used first"
+      , "  -c                Clears the statistics after showing them"
+      , "  -p <url-pattern>  Purges the resources whose URLs match <url-pattern>,"
+      , "                    in which '*' matches any characters"
+      }
+    , ordering = "c2"
+    )
+    public void resourceCache(CliCommandOptions options)
+        throws CliRunnerException, IOException {
+
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+
+        UrlResourceCache resourceCache = CliPluginUtil.getResourceCache();
+        if (resourceCache == null) {
+            messageConsole.println("resource cache is disabled ('"
+                + CliPluginUtil.PROPERTY_RESOURCE_CACHE_SIZE + "' is 0)");
+            return;
+        }
+
+        if (options.isOptionSet('p')) {
+            String urlPattern = options.getOptionValue('p');
+            messageConsole.println(resourceCache.purge(urlPattern)
+                + " resource(s) purged matching '" + urlPattern + "'");
+        }
+
+        long hitCount = resourceCache.getHitCount();
+        long revalidatedCount = resourceCache.getRevalidatedCount();
+        long staleHitCount = resourceCache.getStaleHitCount();
+        long missCount = resourceCache.getMissCount();
+        long requestCount = hitCount + revalidatedCount + staleHitCount + missCount;
+        List<UrlResourceCache.Entry> entries = resourceCache.getEntries();
+
+        messageConsole.println("resource cache '" + resourceCache.getDirectory() + "': "
+            + entries.size() + " resource(s), "
+            + resourceCache.getTotalBytes() + " of " + resourceCache.getMaxBytes() + " bytes");
+        messageConsole.println(String.format("%d request(s): %d hit(s), %d revalidated,"
+                + " %d stale (offline), %d miss(es); hit ratio %.1f%%; %d eviction(s)",
+            requestCount, hitCount, revalidatedCount, staleHitCount, missCount,
+            (requestCount == 0) ? 0.0
+                : (hitCount + revalidatedCount + staleHitCount) * 100.0 / requestCount,
+            resourceCache.getEvictionCount()));
+
+        if (options.isOptionSet('v')) {
+            for (UrlResourceCache.Entry entry : entries) {
+                messageConsole.println("    " + entry);
+            }
+        }
+
+        if (options.isOptionSet('c')) {
+            resourceCache.clearStatistics();
+        }
+    }
+
     @CliPluginCommand(
           name = "feed buffer"
     ,   syntax = "<buffer-name> <command> [<command-arg> [<command-arg> [...]]"
@@ -206,17 +598,22 @@ public class ScriptingPlugin {
             throws CliRunnerException {
 
         String bufferName = args[0];
-        String bufferContents = mStringBuffers.get(bufferName);
+        CliBuffer buffer = mBufferDb.getBuffer(bufferName);
 
-        if (bufferContents == null) {
+        if (buffer == null) {
             throw new CliRejectedInputException("buffer '"
                 + bufferName
                 + "' not found");
         }
 
         // allocate a input stream to read the buffer as console input
-        InputStream bufferInputStream = new ReaderInputStream(
-            new StringReader(bufferContents));
+        InputStream bufferInputStream;
+        try {
+            bufferInputStream = buffer.getInputStream();
+        } catch(IOException ioex) {
+            throw new CliRunnerException("error reading buffer '"
+                + bufferName + "': " + ioex.getMessage(), ioex);
+        }
 
         // dispatch the command in args[1..n] using the new input console
         CliPluginUtil.dispatchCommand(options, bufferInputStream, null,
@@ -228,40 +625,40 @@ public class ScriptingPlugin {
     ,   syntax = "[-v] [<buffer-name> [<buffer-name> [...]]]"
     ,  options = "v"
     , helptext = {
-        "Lists the currently defined buffers"
+        "Lists the currently defined buffers, with their size and where they're held"
       , "Options:"
-      , "  -v   Also prints out the contents (value) of each buffer"
+      , "  -v   Also prints out the contents (value) of each text buffer"
       }
     , ordering = "e"
     )
-    public void listBuffers(CliCommandOptions options, String... bufferNames) {
+    public void listBuffers(CliCommandOptions options, String... bufferNames)
+        throws IOException {
 
-        Set<String> bufferNameSet;
+        List<String> bufferNameList;
         if (bufferNames.length == 0) {
-            bufferNameSet = mStringBuffers.keySet();
+            bufferNameList = mBufferDb.getBufferNames();
         } else {
-            bufferNameSet = new HashSet<String>();
-            for (String bufferName : bufferNames) {
-                bufferNameSet.add(bufferName);
-            }
+            bufferNameList = Arrays.asList(bufferNames);
         }
 
         PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
-        for (String bufferName : bufferNameSet) {
-            String bufferContents = mStringBuffers.get(bufferName);
-            String bufferStatus = (bufferContents == null)
+        for (String bufferName : bufferNameList) {
+            CliBuffer buffer = mBufferDb.getBuffer(bufferName);
+            String bufferStatus = (buffer == null)
                 ? "not found"
-                : ("" + bufferContents.length() + " characters");
+                : ((buffer.getType() == CliBuffer.Type.BYTE ? "binary; " : "") + buffer);
             messageConsole.println(bufferName + ": (" + bufferStatus + ")");
-            if (bufferContents != null) {
-                if (bufferNameSet.contains(bufferName)) {
-                    if (options.isOptionSet('v')) {
-                        printMultilineStringWithPrefix(messageConsole,
-                            "    ", bufferContents);
-                    }
+            if (buffer != null && buffer.getType() == CliBuffer.Type.CHAR) {
+                if (options.isOptionSet('v')) {
+                    printLinesWithPrefix(messageConsole, "    ", buffer.getReader());
                 }
             }
         }
+
+        if (bufferNames.length == 0) {
+            messageConsole.println("(" + mBufferDb.getInMemoryBytes()
+                + " bytes of buffer memory in use)");
+        }
     }
 
     @CliPluginCommand(
@@ -275,14 +672,14 @@ public class ScriptingPlugin {
     )
     public void deleteBuffers(CliCommandOptions options, String... bufferNames) {
 
-        Set<String> bufferNameSet = new HashSet<String>();
+        Set<String> bufferNameSet = new LinkedHashSet<String>();
         for (String bufferName : bufferNames) {
             bufferNameSet.add(bufferName);
         }
 
         PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
         for (String bufferName : bufferNameSet) {
-            String bufferStatus = (mStringBuffers.remove(bufferName) != null)
+            String bufferStatus = (mBufferDb.removeBuffer(bufferName) != null)
                 ? "deleted" : "not found";
             messageConsole.println("buffer '" + bufferName + "' " + bufferStatus);
         }
@@ -299,9 +696,18 @@ public class ScriptingPlugin {
      * @param bufferName name of buffer
      * @return value of the specified string buffer, or <code>null</code>
      * if the named buffer was not found
+     * @throws IOException error reading buffer
+     */
+    public String getBuffer(String bufferName) throws IOException {
+        CliBuffer buffer = mBufferDb.getBuffer(bufferName);
+        return (buffer == null) ? null : buffer.getContents();
+    }
+
+    /**
+     * @return names of the buffers currently defined
      */
-    public String getBuffer(String bufferName) {
-        return mStringBuffers.get(bufferName);
+    public List<String> getBufferNames() {
+        return mBufferDb.getBufferNames();
     }
 
 
@@ -310,22 +716,209 @@ public class ScriptingPlugin {
     //
 
     /**
-     * @throws ScripterException unhandled exception while resetting scripting context
+     * @param properties properties configuring the scripting engines
+     * @param scriptBridge object given to the scripts, as the global variable "shell"
+     * @return new pool of scripting engines, as configured by <code>properties</code>
+     * @throws ScripterException no scripting engine found
+     * @throws CliRejectedInputException invalid property value
      */
-    private void resetContext() throws ScripterException {
-        mScripter = new Scripter("JavaScript");
+    private ScripterPool newScripterPool(CliProperties properties, ScriptBridge scriptBridge)
+        throws ScripterException, CliRejectedInputException {
+
+        String poolSizeString = properties.getProperty(PROPERTY_SCRIPT_ENGINE_POOL_SIZE,
+            String.valueOf(DEFAULT_SCRIPT_ENGINE_POOL_SIZE));
+        int poolSize;
+        try {
+            poolSize = Integer.parseInt(poolSizeString.trim());
+        } catch(NumberFormatException nfe) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_SCRIPT_ENGINE_POOL_SIZE
+                + "': '"
+                + poolSizeString
+                + "'", nfe);
+        }
+        if (poolSize < 1) {
+            throw new CliRejectedInputException("invalid value for property '"
+                + PROPERTY_SCRIPT_ENGINE_POOL_SIZE
+                + "': must be at least 1");
+        }
+
+        return new ScripterPool("JavaScript", poolSize,
+            Collections.<String, Object>singletonMap("shell", scriptBridge));
     }
 
     /**
-     * @param printWriter writer on which to output formatted string
+     * @param printWriter writer on which to output formatted text
      * @param linePrefix prefix for each line outputted
-     * @param string string text to present, each line prefixed by <code>linePrefix</code>
+     * @param reader text to present, each line prefixed by <code>linePrefix</code>
+     * @throws IOException error reading text
+     */
+    private void printLinesWithPrefix(PrintWriter printWriter,
+        String prefix, Reader reader) throws IOException {
+
+        BufferedReader lineReader = new BufferedReader(reader);
+        try {
+            String line;
+            while((line = lineReader.readLine()) != null) {
+                printWriter.println(prefix + line);
+            }
+        } finally {
+            lineReader.close();
+        }
+
+    }
+
+    /**
+     * @param resourceIdentifier URL or filename
+     * @return URL of resource
+     * @throws MalformedURLException invalid URL
+     */
+    private URL getResourceUrl(String resourceIdentifier) throws MalformedURLException {
+        if (!resourceIdentifier.contains("://")) {
+            return new URL("file://" + resourceIdentifier);
+        }
+        return new URL(resourceIdentifier);
+    }
+
+    /**
+     * Loads content into a (new) buffer, replacing any of the same name
+     * only once all of it is loaded
+     * @param bufferName name of the buffer
+     * @param isBinary if set, the content is loaded as-is, rather than as text
+     * @param inputStream the content (not closed)
+     * @throws IOException error reading the content
      */
-    private void printMultilineStringWithPrefix(PrintWriter printWriter,
-        String prefix, String string) {
+    private void receiveBuffer(String bufferName, boolean isBinary, InputStream inputStream)
+        throws IOException {
+
+        CliBuffer buffer = mBufferDb.newBuffer(bufferName,
+            isBinary ? CliBuffer.Type.BYTE : CliBuffer.Type.CHAR);
+        boolean loaded = false;
+        try {
+            if (isBinary) {
+                OutputStream outputStream = buffer.getOutputStream();
+                inputStream.transferTo(outputStream);
+                outputStream.close();
+            } else {
+                // NOTE: decode using the platform encoding, as "load buffer" does
+                Writer outputWriter = buffer.getWriter();
+                new InputStreamReader(inputStream).transferTo(outputWriter);
+                outputWriter.close();
+            }
+            loaded = true;
+        } finally {
+            if (loaded) {
+                mBufferDb.putBuffer(buffer);
+            } else {
+                mBufferDb.discardBuffer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Saves content into a file, removing it if not all of it is saved
+     * @param file the file
+     * @param inputStream the content (not closed)
+     * @throws IOException error reading the content, or writing the file
+     */
+    private static void receiveFile(File file, InputStream inputStream) throws IOException {
+
+        boolean saved = false;
+        OutputStream outputStream = new FileOutputStream(file);
+        try {
+            inputStream.transferTo(outputStream);
+            saved = true;
+        } finally {
+            try {
+                outputStream.close();
+            } catch(Throwable t) {
+                // "old college try" ;-)
+            }
+            if (!saved) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Downloads a resource into a file, in segments retrieved concurrently
+     * @param options options of the command: 'P' gives the number of segments
+     * @param url URL of the resource
+     * @param file file receiving the resource
+     * @return outcome of the download
+     * @throws CliRejectedInputException invalid number of segments, or property value
+     * @throws IOException error downloading the resource
+     */
+    private SegmentedDownloader.Result downloadResource(CliCommandOptions options, URL url,
+            File file) throws CliRejectedInputException, IOException {
+
+        int segmentCount = BatchUtil.parseRequestCount(options.getOptionValue('P'), "segments");
+
+        return new SegmentedDownloader(url, CliPluginUtil.getUrlTransport(), segmentCount,
+            SegmentedDownloader.DEFAULT_MAX_RETRIES).download(file);
+    }
+
+    /**
+     * @param properties properties configuring the buffers
+     * @return new buffer database, as configured by <code>properties</code>
+     * @throws CliRejectedInputException invalid property value
+     */
+    private CliBufferDb newBufferDb(CliProperties properties)
+        throws CliRejectedInputException {
+
+        long memoryBudget = CliPluginUtil.getSizeProperty(properties,
+            PROPERTY_BUFFER_MEMORY_BUDGET, DEFAULT_BUFFER_MEMORY_BUDGET);
+        long spillThreshold = CliPluginUtil.getSizeProperty(properties,
+            PROPERTY_BUFFER_SPILL_THRESHOLD, DEFAULT_BUFFER_SPILL_THRESHOLD);
+
+        File spillDirectory = null;
+        String spillDirectoryName = properties.getProperty(PROPERTY_BUFFER_SPILL_DIRECTORY);
+        if (spillDirectoryName != null && spillDirectoryName.trim().length() > 0) {
+            spillDirectory = new File(spillDirectoryName.trim());
+        }
+
+        return new CliBufferDb(memoryBudget, spillThreshold, spillDirectory);
+    }
+
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * Message console writing into a buffer, which child processes may
+     * append to directly (see {@link FileBackedConsole})
+     */
+    private static class BufferConsoleWriter extends PrintWriter implements FileBackedConsole {
+
+        /** buffer being written */
+        private final CliBuffer mBuffer;
+
+        /**
+         * @param buffer buffer to write
+         */
+        BufferConsoleWriter(CliBuffer buffer) {
+            super(buffer.getWriter());
+            mBuffer = buffer;
+        }
+
+        /**
+         * @see FileBackedConsole#beginAppend()
+         */
+        public File beginAppend() throws IOException {
+            flush();
+            if (checkError()) {
+                throw new IOException("error writing buffer '" + mBuffer.getName() + "'");
+            }
+            return mBuffer.beginExternalAppend();
+        }
 
-        for (String line : string.split("(\\r\\n|\\n)")) {
-            printWriter.println(prefix + line);
+        /**
+         * @see FileBackedConsole#endAppend()
+         */
+        public void endAppend() {
+            mBuffer.endExternalAppend();
         }
 
     }
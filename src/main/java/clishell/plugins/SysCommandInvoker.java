@@ -1,21 +1,83 @@
 package clishell.plugins;
 
-import java.io.FilterInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import clishell.util.SharedInputStream;
 
 public class SysCommandInvoker {
 
 
+    //
+    //  Private class data
+    //
+
+    /** size of the buffers used to copy the processes' I/O */
+    private static final int PUMP_BUFFER_SIZE = 64 * 1024;
+
+    /** buffer used by each thread to copy the processes' I/O */
+    private static final ThreadLocal<byte[]> sPumpBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[PUMP_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * number of milliseconds a process in a pipeline is given to exit
+     * on its own once the process reading its output has exited
+     */
+    private static final long PIPE_READER_EXIT_GRACE_MILLIS = 200;
+
+    /** number of pump threads created, used to name them */
+    private static final AtomicInteger sPumpThreadCount = new AtomicInteger();
+
+    /** (daemon) threads copying the processes' I/O, shared by all invokers */
+    private static final ExecutorService sPumpExecutor = Executors.newCachedThreadPool(
+        new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable,
+                    "process-io-" + sPumpThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }
+    );
+
+
     //
     //  Private instance data
     //
 
     /** flag that can be set in order to abort "forever" waits */
-    private boolean mAbortWaitFlag;
+    private volatile boolean mAbortWaitFlag;
+
+    /** processes currently being executed (empty if none) */
+    private volatile List<Process> mProcesses = Collections.<Process>emptyList();
+
+    /** file to which "stdout" is appended directly, or <code>null</code> */
+    private File mOutputFile;
+
+    /** file to which "stderr" is appended directly, or <code>null</code> */
+    private File mErrorFile;
 
 
     //
@@ -113,10 +175,16 @@ public class SysCommandInvoker {
     /**
      * Sets the flag that will cause "waits" done by the
      * {@link #system(OutputStream, OutputStream, InputStream, String...)}
-     * call (and its derivatives) to abort.
+     * call (and its derivatives) to abort, and destroys the process
+     * being executed (along with any children it created), if any;
+     * for a pipeline, all of its processes are destroyed.
+     * May be called from any thread.
      */
     public void abortWait() {
         mAbortWaitFlag = true;
+        for (Process process : mProcesses) {
+            destroyProcessTree(process);
+        }
     }
 
     /**
@@ -129,16 +197,45 @@ public class SysCommandInvoker {
         return system(null, null, null, args);
     }
 
+    /**
+     * Appends the "stdout" of the next process(es) executed (for a pipeline,
+     * of its last process) directly to a file (without passing it through
+     * the JVM), instead of routing it to the output stream passed to
+     * {@link #system(OutputStream, OutputStream, InputStream, String...)}
+     * @param file file to append to, or <code>null</code> to route "stdout"
+     * to the output stream
+     */
+    public void redirectOutput(File file) {
+        mOutputFile = file;
+    }
+
+    /**
+     * Appends the "stderr" of the next process(es) executed directly to a file
+     * (without passing it through the JVM), instead of routing it to the
+     * error stream passed to {@link #system(OutputStream, OutputStream, InputStream, String...)};
+     * if it's the file given to {@link #redirectOutput(File)}, "stderr" is
+     * merged with "stdout"
+     * @param file file to append to, or <code>null</code> to route "stderr"
+     * to the error stream
+     */
+    public void redirectError(File file) {
+        mErrorFile = file;
+    }
+
     /**
      * Execute system command; note this command will block until the
      * specified system command / process (and any children it creates)
      * has (have) terminated.
+     * The process's "stdout" is copied by the calling thread; its "stderr"
+     * and "stdin" are copied by threads from a pool shared by all invokers.
      * @param out output stream to which processes "stdout" will be routed;
      * if <code>null</code> is passed, will use <code>System.out</code>
      * @param err output stream to which processes "stderr" will be routed
      * if <code>null</code> is passed, will use <code>System.err</code>
      * @param in input stream from which processes "stdin" will be routed
-     * if <code>null</code> is passed, will use <code>System.in</code>
+     * if <code>null</code> is passed, will use the (shared) standard input
+     * (see {@link SharedInputStream#getStandardInput()}); the process's "stdin"
+     * is closed when <code>in</code> reaches "end of stream"
      * @param args array of system command & its arguments (must not be
      * <code>null</code> and length of this array must be greater than zero)
      * @return return code from system command
@@ -150,223 +247,311 @@ public class SysCommandInvoker {
     public int system(OutputStream out, OutputStream err, InputStream in,
             String... args) throws IOException {
 
-        // validate user arguments passed...
-
         if (args == null) {
             throw new NullPointerException("null args parameter");
         }
 
-        if (args.length == 0) {
-            throw new IOException("empty args parameter");
+        return system(out, err, in, Collections.<String[]>singletonList(args))[0];
+    }
+
+    /**
+     * Execute a pipeline of system commands, the "stdout" of each of which
+     * is piped directly (i.e., by the operating system, not through the JVM)
+     * to the "stdin" of the next (see <code>ProcessBuilder.startPipeline()</code>);
+     * note this command will block until all the processes (and any children
+     * they create) have terminated.
+     * The "stdin" of the first process and the "stdout" of the last are routed
+     * as for {@link #system(OutputStream, OutputStream, InputStream, String...)},
+     * as is the "stderr" of every process.
+     * @param out output stream to which the last process's "stdout" will be routed;
+     * if <code>null</code> is passed, will use <code>System.out</code>
+     * @param err output stream to which the processes' "stderr" will be routed
+     * if <code>null</code> is passed, will use <code>System.err</code>
+     * @param in input stream from which the first process's "stdin" will be routed
+     * if <code>null</code> is passed, will use the (shared) standard input
+     * @param stages list of system commands & their arguments, in pipeline
+     * order (must not be <code>null</code> and must contain at least one command)
+     * @return return codes from the system commands, in pipeline order; -1
+     * for any process that couldn't be waited for
+     * @throws IOException unhandled exception generated while executing
+     * method, or invalid argument(s) were passed to it
+     * @throws NullPointerException <code>stages</code> parameter passed
+     * was <code>null</code> or contained <code>null</code> value(s)
+     */
+    public int[] system(OutputStream out, OutputStream err, InputStream in,
+            List<String[]> stages) throws IOException {
+
+        // validate user arguments passed...
+
+        if (stages == null) {
+            throw new NullPointerException("null stages parameter");
         }
 
-        for (String arg : args) {
-            if (arg == null) {
-                throw new NullPointerException("null args entry");
-            }
+        if (stages.size() == 0) {
+            throw new IOException("empty stages parameter");
         }
 
-        // reset the wait flag so that we will do
-        // waits - forever if necessary - to achieve our goals
-        mAbortWaitFlag = false;
+        for (String[] args : stages) {
 
-        ProcessBuilder processBuilder = new ProcessBuilder(args);
+            if (args == null) {
+                throw new NullPointerException("null args parameter");
+            }
 
-        Process process = processBuilder.start();
+            if (args.length == 0) {
+                throw new IOException("empty args parameter");
+            }
 
-        Thread errThread = newPipeThread(process.getErrorStream(),
-                (err != null) ? err : System.err);
+            for (String arg : args) {
+                if (arg == null) {
+                    throw new NullPointerException("null args entry");
+                }
+            }
+        }
 
-        Thread outThread = newPipeThread(process.getInputStream(),
-                (out != null) ? out : System.out);
+        // reset the wait flag so that we will do
+        // waits - forever if necessary - to achieve our goals
+        mAbortWaitFlag = false;
 
-        InputStream consoleInput = new NonCloseableInputStream(
-                (in != null) ? in : System.in);
+        List<ProcessBuilder> processBuilders = new ArrayList<ProcessBuilder>();
+        for (String[] args : stages) {
+            ProcessBuilder processBuilder = new ProcessBuilder(args);
+            if (mErrorFile != null) {
+                processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(mErrorFile));
+            }
+            processBuilders.add(processBuilder);
+        }
+        ProcessBuilder lastProcessBuilder = processBuilders.get(processBuilders.size() - 1);
+        if (mOutputFile != null) {
+            lastProcessBuilder.redirectOutput(ProcessBuilder.Redirect.appendTo(mOutputFile));
+            if (mOutputFile.equals(mErrorFile)) {
+                lastProcessBuilder.redirectErrorStream(true);
+            }
+        }
 
-        Thread inThread = newPipeThread(consoleInput, process.getOutputStream());
+        // NOTE: a single command needn't be a pipeline
+        List<Process> processes = (processBuilders.size() == 1)
+            ? Collections.<Process>singletonList(lastProcessBuilder.start())
+            : ProcessBuilder.startPipeline(processBuilders);
+        mProcesses = processes;
+        if (mAbortWaitFlag) {
+            // aborted while starting
+            abortWait();
+        }
+        Process firstProcess = processes.get(0);
+        Process lastProcess = processes.get(processes.size() - 1);
+
+        List<Future<?>> errPumps = new ArrayList<Future<?>>();
+        if (mErrorFile == null) {
+            for (Process process : processes) {
+                errPumps.add(startPump(process.getErrorStream(),
+                    (err != null) ? err : System.err, false));
+            }
+        }
 
-        // look at the loop logic below; this initial
-        // value will never be returned
-        int rc = -1;
+        // NOTE: the standard input is shared with the CLI, so the process
+        // reads it through a view we can close when the process exits
+        InputStream processInput = (in != null) ? in
+            : SharedInputStream.getStandardInput().newView();
+        Future<?> inPump = startPump(processInput, firstProcess.getOutputStream(), true);
 
-        // wait for process to finish
-        for (boolean waiting = true; waiting && !mAbortWaitFlag;) {
-            try {
-                rc = process.waitFor();
-                waiting = false;
-            } catch(InterruptedException ie) {
-                ;   // nothing to do here
-            }
+        // copy the last process's "stdout" on this thread
+        if (mOutputFile == null) {
+            pump(lastProcess.getInputStream(), (out != null) ? out : System.out, false);
         }
 
-        // "close" the stdin filter
-        consoleInput.close();
+        // wait for the processes to finish; if interrupted (e.g., because the
+        // command was cancelled), destroy them and keep waiting for them
+        // to go away
+        // NOTE: the JVM holds on to the pipes between processes, so a process
+        // writing into a pipe whose reader has exited isn't stopped by SIGPIPE
+        // (as it would be by a shell); so, it's stopped if it doesn't exit
+        // on its own shortly after the process reading its output
+        boolean interrupted = waitForExit(lastProcess, 0);
+        for (int i = processes.size() - 2; i >= 0; i--) {
+            interrupted |= waitForExit(processes.get(i), PIPE_READER_EXIT_GRACE_MILLIS);
+        }
+        mProcesses = Collections.<Process>emptyList();
+
+        // stop feeding the first process's stdin
+        if (in == null) {
+            // wakes up the pump if it's waiting for input
+            processInput.close();
+        } else {
+            // stop a read that's blocked waiting for input (e.g., from a pipe)
+            inPump.cancel(true);
+        }
 
-        // wait for the I/O threads to terminate
-        waitForThreadToDie(outThread);
-        waitForThreadToDie(errThread);
-        waitForThreadToDie(inThread);
+        // wait for the I/O to finish
+        boolean pumpsRemain = false;
+        for (Future<?> errPump : errPumps) {
+            waitForPump(errPump);
+            pumpsRemain |= !errPump.isDone();
+        }
+        waitForPump(inPump);
+        pumpsRemain |= !inPump.isDone();
 
-        // notify the user if any of the threads are still alive
-        if (outThread.isAlive() || errThread.isAlive() || inThread.isAlive()) {
-            new PrintStream(err).println("WARNING: "
+        // notify the user if any of the pumps are still running
+        if (pumpsRemain) {
+            new PrintStream((err != null) ? err : System.err, true).println("WARNING: "
                 + getClass().getName()
                 + ".system() aborted wait; thread(s) remain");
         }
 
-        // return process return code to caller
-        return rc;
+        // let the caller know it was interrupted
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        // return processes' return codes to caller
+        int[] rcs = new int[processes.size()];
+        for (int i = 0; i < rcs.length; i++) {
+            Process process = processes.get(i);
+            rcs[i] = process.isAlive() ? -1 : process.exitValue();
+        }
+        return rcs;
     }
 
 
     //
-    //  Private class methods
+    //  Package-private class methods
     //
 
     /**
-     * Wait (forever if necessary unless the <code>mAbortWaitFlag</code>
-     * has been set) for the thread indicated by <code>thread</code> to die.
-     * @param thread thread to wait for its termination
+     * Destroys a process, along with any children it created
+     * @param process process to destroy
      */
-    private void waitForThreadToDie(Thread thread) {
-        while(thread.isAlive() && !mAbortWaitFlag) {
-            try {
-                thread.join();
-            } catch(InterruptedException ie) {
-                ;   // no action required, just continue to loop
+    static void destroyProcessTree(Process process) {
+        process.descendants().forEach(new Consumer<ProcessHandle>() {
+            public void accept(ProcessHandle processHandle) {
+                processHandle.destroy();
             }
-        }
+        });
+        process.destroy();
     }
 
     /**
-     * Creates and starts a thread that will copy the input stream specified by
-     * <code>src</code> to the output stream specified by <code>dest</code>.
-     * The thread will terminate when either: (1) the input stream reaches an
-     * "end of stream" condition; or, (2) there is an I/O error reading from
-     * the input stream or writing to the output stream.
-     * @param src
-     * @param dest
-     * @return
+     * Runs a task copying processes' I/O, using a thread from the pool
+     * shared by all invokers
+     * @param task task to run
+     * @return the task's future
      */
-    private Thread newPipeThread(final InputStream src, final OutputStream dest) {
-        Thread thread = new Thread(new Runnable() {
-            public void run() {
-                try {
-                    byte[] buffer = new byte[1024];
-                    int read;
-                    while((read = src.read(buffer)) >= 0) {
-                        dest.write(buffer, 0, read);
-                        dest.flush();
-                    }
-                } catch (IOException e) {
-                    ;   // nothing to do, just let the thread die
-                }
-            }
-        });
-        thread.start();
-        return thread;
+    static Future<?> startIoTask(Runnable task) {
+        return sPumpExecutor.submit(task);
     }
 
 
     //
-    //  Private class classes
+    //  Private class methods
     //
 
     /**
-     * Input stream filter which uses polling technique to simulate
-     * non-blocking input stream (I've spent WAY too long trying to
-     * develop a non-blocking reader for Stdin, so this is what you
-     * get ;-), and which will <u>not</u> close the underlying stream
-     * when the {@link #close()} method is called.
+     * Copies the input stream specified by <code>src</code> to the output
+     * stream specified by <code>dest</code>, until either: (1) the input
+     * stream reaches an "end of stream" condition; or, (2) there is an
+     * I/O error reading from the input stream or writing to the output stream.
+     * The output stream is flushed whenever no more input is immediately
+     * available, so that interactive output isn't held up, yet bulk output
+     * isn't flushed after every read.
+     * @param src stream to copy
+     * @param dest stream receiving the copy
+     * @param closeDest if true, <code>dest</code> is closed when done
      */
-    private static class NonCloseableInputStream extends FilterInputStream {
-
-
-        //
-        //  Private class data
-        //
-
-        /** number of milliseconds to wait before "polling" for input */
-        private static final int POLL_MILLISECONDS = 100;
-
-
-        //
-        //  Private instance data
-        //
-
-        /** this flag is set when this input stream filter is "closed" */
-        private boolean mClosedFlag;
-
-
-        //
-        //  Public instance constructors
-        //
-
-        /**
-         * @param wrapped input stream to be wrapped by this one
-         */
-        public NonCloseableInputStream(InputStream wrapped) {
-            super(wrapped);
-        }
-
-
-        //
-        //  Public instance methods
-        //
-
-        /**
-         * @see InputStream#read(byte[], int, int)
-         */
-        @Override
-        public int read(byte[] buf, int off, int len) throws IOException {
-            if (!streamHasData()) {
-                return -1;
+    private static void pump(InputStream src, OutputStream dest, boolean closeDest) {
+        byte[] buffer = sPumpBuffers.get();
+        try {
+            int read;
+            while((read = src.read(buffer)) >= 0) {
+                dest.write(buffer, 0, read);
+                if (src.available() == 0) {
+                    dest.flush();
+                }
             }
-            return in.read(buf, off, len);
-        }
-
-        /**
-         * @see InputStream#read()
-         */
-        @Override
-        public int read() throws IOException {
-            if (!streamHasData()) {
-                return -1;
+            dest.flush();
+        } catch (IOException e) {
+            ;   // nothing to do, just stop copying
+        } finally {
+            if (closeDest) {
+                try {
+                    dest.close();
+                } catch(IOException ioex) {
+                    // "old college try" ;-)
+                }
             }
-            return in.read();
-        }
-
-        /**
-         * NOTE: does not close wrapped stream, by design!
-         * @see InputStream#close()
-         */
-        @Override
-        public void close() {
-            mClosedFlag = true;
         }
+    }
 
+    /**
+     * Copies a stream (see {@link #pump(InputStream, OutputStream, boolean)})
+     * using a thread from the shared pool
+     * @param src stream to copy
+     * @param dest stream receiving the copy
+     * @param closeDest if true, <code>dest</code> is closed when done
+     * @return the pump's future
+     */
+    private static Future<?> startPump(final InputStream src, final OutputStream dest,
+            final boolean closeDest) {
+        return startIoTask(new Runnable() {
+            public void run() {
+                pump(src, dest, closeDest);
+            }
+        });
+    }
 
-        //
-        //  Private instance methods
-        //
 
-        /**
-         * @return true if data is present on input stream,
-         * or false means input stream was "closed"
-         */
-        private boolean streamHasData() throws IOException {
+    //
+    //  Private instance methods
+    //
 
-            while(!mClosedFlag && available() == 0) {
-                try {
-                    Thread.sleep(POLL_MILLISECONDS);
-                } catch(InterruptedException ie) {
-                    ;
+    /**
+     * Waits (forever if necessary unless the <code>mAbortWaitFlag</code>
+     * has been set) for a process to exit
+     * @param process process to wait for
+     * @param timeoutMillis number of milliseconds after which the process
+     * is destroyed if it hasn't exited, or zero to wait for it indefinitely
+     * @return true if the current thread was interrupted while waiting
+     * (in which case the process was destroyed)
+     */
+    private boolean waitForExit(Process process, long timeoutMillis) {
+        CompletableFuture<Process> exit = process.onExit();
+        boolean interrupted = false;
+        while(!mAbortWaitFlag) {
+            try {
+                if (timeoutMillis > 0) {
+                    exit.get(timeoutMillis, TimeUnit.MILLISECONDS);
+                } else {
+                    exit.get();
                 }
+                break;
+            } catch(InterruptedException ie) {
+                interrupted = true;
+                destroyProcessTree(process);
+            } catch(TimeoutException te) {
+                timeoutMillis = 0;
+                destroyProcessTree(process);
+            } catch(ExecutionException ee) {
+                break;
             }
-
-            return mClosedFlag ? false : true;
         }
+        return interrupted;
+    }
 
+    /**
+     * Wait (forever if necessary unless the <code>mAbortWaitFlag</code>
+     * has been set) for a pump to finish.
+     * @param pump pump to wait for, or <code>null</code> if none
+     */
+    private void waitForPump(Future<?> pump) {
+        while(pump != null && !pump.isDone() && !mAbortWaitFlag) {
+            try {
+                pump.get();
+            } catch(InterruptedException ie) {
+                ;   // no action required, just continue to loop
+            } catch(ExecutionException ee) {
+                break;
+            } catch(CancellationException ce) {
+                break;
+            }
+        }
     }
 
 }
@@ -0,0 +1,387 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ *
+ * A long-lived (POSIX) system shell, to which commands are sent one at a
+ * time over its "stdin", so that running a command doesn't cost starting
+ * a process (and a shell), and so that changes to the shell's working
+ * directory and environment persist from one command to the next.
+ *
+ * Each command is followed by a "sentinel" (unique to the command)
+ * written by the shell to its "stdout" (along with the command's exit
+ * status) and "stderr", marking the end of the command's output on each.
+ *
+ * Commands don't read the shell's "stdin" (which carries the commands):
+ * they read from a file, or from <code>/dev/null</code>.
+ *
+ * If the shell exits (e.g., a command ran "exit"), it's started again
+ * when the next command is executed.
+ *
+ */
+public class SysShellCoprocess {
+
+
+    //
+    //  Private class data
+    //
+
+    /** character set of the commands sent to the shell */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /**
+     * number of milliseconds a cancelled command is given to finish once
+     * the processes it started have been destroyed, before the shell itself
+     * is destroyed (e.g., if the command was a loop running in the shell)
+     */
+    private static final long CANCEL_GRACE_MILLIS = 1000;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** command starting the shell */
+    private final String mShellCommand;
+
+    /** shell process, or <code>null</code> if not started (or exited) */
+    private volatile Process mProcess;
+
+    /** shell's "stdout" */
+    private InputStream mShellOutput;
+
+    /** shell's "stderr" */
+    private InputStream mShellError;
+
+    /** number of commands executed */
+    private long mCommandCount;
+
+    /** number of the command running, or zero if none */
+    private volatile long mRunningCommandNumber;
+
+    /** number of times the shell has been started */
+    private int mStartCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param shellCommand command starting the shell; it must read
+     * commands from its "stdin" (as POSIX shells do when it isn't a terminal)
+     */
+    public SysShellCoprocess(String shellCommand) {
+        mShellCommand = shellCommand;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return number of times the shell has been started
+     */
+    public synchronized int getStartCount() {
+        return mStartCount;
+    }
+
+    /**
+     * Executes a command in the shell (starting it if needed), blocking
+     * until the command completes; commands sent by several threads are
+     * executed one at a time
+     * @param commandLine command to execute, in the shell's syntax
+     * @param out output stream to which the command's "stdout" is routed
+     * @param err output stream to which the command's "stderr" is routed
+     * @param inputFile file from which the command's "stdin" is read,
+     * or <code>null</code> to read from <code>/dev/null</code>
+     * @param outputFile file to which the command's "stdout" is appended
+     * directly (instead of routing it to <code>out</code>), or <code>null</code>
+     * @param isErrorMerged if set, the command's "stderr" is merged with its
+     * "stdout" (e.g., appended to <code>outputFile</code> too)
+     * @return exit status of the command; if the shell itself exited, its
+     * exit status
+     * @throws IOException error starting or communicating with the shell
+     */
+    public synchronized int execute(String commandLine, OutputStream out, OutputStream err,
+            File inputFile, File outputFile, boolean isErrorMerged) throws IOException {
+
+        if (mProcess == null || !mProcess.isAlive()) {
+            start();
+        }
+
+        mRunningCommandNumber = ++mCommandCount;
+        String sentinel = "__clishell_" + UUID.randomUUID().toString().replace("-", "") + "__";
+
+        // NOTE: the command is run by "eval" so that it runs in the shell
+        // itself (e.g., "cd" persists), and to delimit it from the sentinels
+        StringBuilder script = new StringBuilder();
+        script.append("eval ").append(quote(commandLine));
+        script.append(" <").append((inputFile != null) ? quote(inputFile.getPath()) : "/dev/null");
+        if (outputFile != null) {
+            script.append(" >>").append(quote(outputFile.getPath()));
+        }
+        if (isErrorMerged) {
+            script.append(" 2>&1");
+        }
+        script.append("\n");
+        script.append("printf '\\n%s %d\\n' ").append(sentinel).append(" \"$?\"\n");
+        script.append("printf '\\n%s' ").append(sentinel).append(" >&2\n");
+
+        final Process process = mProcess;
+        final byte[] marker = ("\n" + sentinel).getBytes(CHARSET);
+        final OutputStream errStream = err;
+        Future<?> errReader = SysCommandInvoker.startIoTask(new Runnable() {
+            public void run() {
+                try {
+                    copyUntilMarker(mShellError, errStream, marker);
+                } catch(IOException ioex) {
+                    // stop copying; the shell went away
+                }
+            }
+        });
+
+        boolean isCompleted = false;
+        boolean interrupted = false;
+        int exitStatus = -1;
+        try {
+
+            OutputStream shellInput = process.getOutputStream();
+            shellInput.write(script.toString().getBytes(CHARSET));
+            shellInput.flush();
+
+            if (copyUntilMarker(mShellOutput, out, marker)) {
+                exitStatus = readExitStatus(mShellOutput);
+                isCompleted = true;
+            }
+
+        } catch(IOException ioex) {
+            // the shell went away; see below
+        } finally {
+
+            // wait for the end of the command's "stderr"
+            while(true) {
+                try {
+                    errReader.get();
+                    break;
+                } catch(InterruptedException ie) {
+                    interrupted = true;
+                    cancel();
+                } catch(ExecutionException ee) {
+                    break;
+                }
+            }
+
+        }
+
+        if (!isCompleted) {
+            // the shell exited (or was destroyed); it'll be restarted next time
+            exitStatus = destroyAndWaitFor(process);
+            mProcess = null;
+            new PrintStream(err, true).println("WARNING: system shell exited with status "
+                + exitStatus + "; it will be restarted");
+        }
+
+        mRunningCommandNumber = 0;
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        return exitStatus;
+    }
+
+    /**
+     * Cancels the command running in the shell, if any, by destroying the
+     * processes it started; if it doesn't finish shortly thereafter, the
+     * shell itself is destroyed.  May be called from any thread.
+     */
+    public void cancel() {
+
+        // NOTE: not synchronized, since the running command holds the lock
+        final Process process = mProcess;
+        final long commandNumber = mRunningCommandNumber;
+        if (process == null || commandNumber == 0) {
+            return;
+        }
+
+        process.descendants().forEach(new Consumer<ProcessHandle>() {
+            public void accept(ProcessHandle processHandle) {
+                processHandle.destroy();
+            }
+        });
+
+        CompletableFuture.delayedExecutor(CANCEL_GRACE_MILLIS, TimeUnit.MILLISECONDS).execute(
+            new Runnable() {
+                public void run() {
+                    if (mRunningCommandNumber == commandNumber && process.isAlive()) {
+                        SysCommandInvoker.destroyProcessTree(process);
+                    }
+                }
+            }
+        );
+    }
+
+    /**
+     * Destroys the shell (along with any processes it started), if running;
+     * it'll be started again when the next command is executed.
+     * May be called from any thread.
+     */
+    public void close() {
+        Process process = mProcess;
+        if (process != null) {
+            SysCommandInvoker.destroyProcessTree(process);
+        }
+    }
+
+
+    //
+    //  Package-private class methods
+    //
+
+    /**
+     * @param text text to quote
+     * @return <code>text</code> quoted for the shell, i.e., as a single
+     * word without any substitutions
+     */
+    static String quote(String text) {
+        return "'" + text.replace("'", "'\\''") + "'";
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * Copies a stream until a marker is found in it
+     * @param src stream to copy
+     * @param dest stream receiving the copy (without the marker)
+     * @param marker bytes marking the end of the data to copy; the first
+     * byte of the marker mustn't appear elsewhere in it
+     * @return true if the marker was found; false if <code>src</code>
+     * reached "end of stream" first
+     * @throws IOException error reading or writing
+     */
+    private static boolean copyUntilMarker(InputStream src, OutputStream dest, byte[] marker)
+            throws IOException {
+
+        int nMatched = 0;
+        try {
+            int b;
+            while((b = src.read()) >= 0) {
+
+                if (b == (marker[nMatched] & 0xff)) {
+                    if (++nMatched == marker.length) {
+                        return true;
+                    }
+                    continue;
+                }
+
+                // not the marker after all; copy what was held back
+                if (nMatched > 0) {
+                    dest.write(marker, 0, nMatched);
+                    nMatched = 0;
+                }
+                if (b == (marker[0] & 0xff)) {
+                    nMatched = 1;
+                } else {
+                    dest.write(b);
+                }
+
+                if (src.available() == 0) {
+                    dest.flush();
+                }
+            }
+            return false;
+        } finally {
+            dest.flush();
+        }
+    }
+
+    /**
+     * @param src shell's "stdout", positioned after a sentinel
+     * @return the exit status following the sentinel
+     * @throws IOException error reading, or the exit status is missing
+     */
+    private static int readExitStatus(InputStream src) throws IOException {
+        StringBuilder exitStatus = new StringBuilder();
+        int b;
+        while((b = src.read()) >= 0 && b != '\n') {
+            exitStatus.append((char) b);
+        }
+        try {
+            return Integer.parseInt(exitStatus.toString().trim());
+        } catch(NumberFormatException nfe) {
+            throw new IOException("invalid exit status from system shell: " + exitStatus);
+        }
+    }
+
+    /**
+     * Destroys a process (along with any children it created), if it's
+     * still running, and waits for it to exit
+     * @param process process to destroy
+     * @return exit status of the process
+     */
+    private static int destroyAndWaitFor(Process process) {
+        SysCommandInvoker.destroyProcessTree(process);
+        boolean interrupted = false;
+        int exitStatus;
+        while(true) {
+            try {
+                exitStatus = process.waitFor();
+                break;
+            } catch(InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return exitStatus;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Starts the shell
+     * @throws IOException error starting the shell
+     */
+    private void start() throws IOException {
+        Process process = new ProcessBuilder(mShellCommand).start();
+        mShellOutput = new BufferedInputStream(process.getInputStream());
+        mShellError = new BufferedInputStream(process.getErrorStream());
+        mProcess = process;
+        mStartCount++;
+    }
+
+}
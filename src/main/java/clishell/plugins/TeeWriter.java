@@ -25,6 +25,11 @@ import java.util.LinkedList;
  * will send everything written to it to any number
  * of other writers that are registered with it.
  *
+ * Writers added using {@link #addAsyncWriter(String, boolean, Writer,
+ * AsyncSinkWriter.OverflowPolicy, int)} are written to asynchronously
+ * (see {@link AsyncSinkWriter}), so that a slow writer does not hold
+ * up the others.
+ *
  * @author mross
  *
  */
@@ -169,6 +174,33 @@ public class TeeWriter extends Writer {
         }
     }
 
+    /**
+     * Adds an underlying writer that will be written to asynchronously, from
+     * its own queue, by its own drain thread; {@link #flush()} and
+     * {@link #close()} wait until everything queued has been written to it.
+     * @param name user-visible name of the writer (used for reporting)
+     * @param owned true if this <code>TeeWriter</code> instance is to
+     * "own" <code>writer</code>, meaning it will be closed when
+     * {@link #close()} is called
+     * @param writer underlying writer to add to this instance of
+     * <code>TeeWriter</code>
+     * @param policy what to do with new output when the queue for
+     * <code>writer</code> is full
+     * @param maxQueuedChunks maximum number of chunks (of
+     * {@link AsyncSinkWriter#CHUNK_SIZE} characters each) queued for
+     * <code>writer</code>
+     * @return asynchronous writer wrapping <code>writer</code>
+     */
+    public AsyncSinkWriter addAsyncWriter(String name, boolean owned, Writer writer,
+            AsyncSinkWriter.OverflowPolicy policy, int maxQueuedChunks) {
+        AsyncSinkWriter asyncWriter = new AsyncSinkWriter(name, writer, owned,
+            policy, maxQueuedChunks);
+        // the asynchronous wrapper itself is always "owned", since its
+        // drain thread must be stopped when we're closed
+        addWriter(new WriterInfo(true, asyncWriter));
+        return asyncWriter;
+    }
+
     /**
      * @param writers zero or more writer(s) previously added
      * using {@link #addWriter(boolean, Writer...)}
@@ -179,12 +211,26 @@ public class TeeWriter extends Writer {
         for (Iterator<WriterInfo> i = mWriters.iterator(); i.hasNext();) {
             WriterInfo currentWriterInfo = i.next();
             Writer currentWriter = currentWriterInfo.getWriter();
+            AsyncSinkWriter asyncWriter = null;
+            if (currentWriter instanceof AsyncSinkWriter) {
+                // asynchronous writers are known by what they wrap
+                asyncWriter = (AsyncSinkWriter) currentWriter;
+                currentWriter = asyncWriter.getSink();
+            }
             // loop over all writers user wants to remove
             for (Writer writer : writers) {
                 // if one of the user's writers is managed by us now,
                 if (writer == currentWriter) {
                     // remove it from our management
                     i.remove();
+                    // let an asynchronous writer finish up & stop its thread
+                    if (asyncWriter != null) {
+                        try {
+                            asyncWriter.close();
+                        } catch(IOException ioex) {
+                            // "old college try" ;-)
+                        }
+                    }
                     // go onto considering our next writer
                     break;
                 }
@@ -194,6 +240,20 @@ public class TeeWriter extends Writer {
     }
 
 
+    /**
+     * @return true iff any of the underlying writers was added using
+     * {@link #addAsyncWriter(String, boolean, Writer, AsyncSinkWriter.OverflowPolicy, int)}
+     */
+    public boolean hasAsyncWriters() {
+        for (WriterInfo writerInfo : mWriters) {
+            if (writerInfo.getWriter() instanceof AsyncSinkWriter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
     //
     //  Public implementations / overrides of base class methods
     //
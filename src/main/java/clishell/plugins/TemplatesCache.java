@@ -0,0 +1,499 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamSource;
+
+import org.w3c.dom.Document;
+
+/**
+ *
+ * Bounded, least-recently-used cache of compiled stylesheets
+ * (<code>Templates</code>), so that running the same stylesheet over many
+ * documents compiles it only once.
+ *
+ * A stylesheet is identified by its (canonical) path, and is compiled again
+ * if its modification time or size has changed, or those of any stylesheet
+ * it imports or includes (from a file).  Imported and included stylesheets
+ * are parsed once (see {@link #getUriResolver()}), even when used by several
+ * stylesheets; documents read by a stylesheet as it runs (e.g., by
+ * <code>document()</code>) aren't cached.
+ *
+ * All compilation uses a single <code>TransformerFactory</code>; compiled
+ * stylesheets may be used by several threads at once.
+ *
+ */
+public class TemplatesCache {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Description of a cached stylesheet
+     */
+    public static class Entry {
+
+        /** file containing the stylesheet */
+        private final File mFile;
+
+        /** files the stylesheet imports or includes, with their state when compiled */
+        private final List<FileState> mDependencies;
+
+        /** compiled stylesheet */
+        private final Templates mTemplates;
+
+        /** number of milliseconds taken to compile the stylesheet */
+        private final long mCompileMillis;
+
+        /** number of times the compiled stylesheet has been used from the cache */
+        private long mHitCount;
+
+        /**
+         * @param file file containing the stylesheet
+         * @param dependencies the stylesheet and the files it imports or includes
+         * @param templates compiled stylesheet
+         * @param compileMillis number of milliseconds taken to compile the stylesheet
+         */
+        Entry(File file, List<FileState> dependencies, Templates templates, long compileMillis) {
+            mFile = file;
+            mDependencies = dependencies;
+            mTemplates = templates;
+            mCompileMillis = compileMillis;
+        }
+
+        /**
+         * @return file containing the stylesheet
+         */
+        public File getFile() {
+            return mFile;
+        }
+
+        /**
+         * @return number of files the stylesheet imports or includes
+         */
+        public int getDependencyCount() {
+            return mDependencies.size() - 1;
+        }
+
+        /**
+         * @return number of milliseconds taken to compile the stylesheet
+         */
+        public long getCompileMillis() {
+            return mCompileMillis;
+        }
+
+        /**
+         * @return number of times the compiled stylesheet has been used from the cache
+         */
+        public synchronized long getHitCount() {
+            return mHitCount;
+        }
+
+        /**
+         * @return human-readable description of the entry
+         */
+        @Override
+        public String toString() {
+            return mFile.getPath()
+                + " (" + getDependencyCount() + " import(s)/include(s)"
+                + ", compiled in " + mCompileMillis + "ms"
+                + ", " + getHitCount() + " hit(s))";
+        }
+
+        /**
+         * @return true if none of the files the stylesheet was compiled
+         * from has changed since
+         */
+        boolean isCurrent() {
+            for (FileState dependency : mDependencies) {
+                if (!dependency.isCurrent()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Notes that the compiled stylesheet was used from the cache
+         */
+        synchronized void hit() {
+            mHitCount++;
+        }
+
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * An imported or included stylesheet, as parsed
+     */
+    private static class ParsedDocument {
+
+        /** state of the file when parsed */
+        private final FileState mFileState;
+
+        /** parsed stylesheet */
+        private final Document mDocument;
+
+        /**
+         * @param fileState state of the file when parsed
+         * @param document parsed stylesheet
+         */
+        ParsedDocument(FileState fileState, Document document) {
+            mFileState = fileState;
+            mDocument = document;
+        }
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** number of parsed imported or included stylesheets kept per compiled stylesheet */
+    private static final int PARSED_DOCUMENTS_PER_ENTRY = 4;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** maximum number of compiled stylesheets kept */
+    private final int mMaxEntries;
+
+    /** factory compiling the stylesheets */
+    private final TransformerFactory mTransformerFactory;
+
+    /** builder parsing imported and included stylesheets */
+    private final DocumentBuilder mDocumentBuilder;
+
+    /**
+     * Maps (canonical) stylesheet files to their compiled stylesheets
+     * NOTE: use of access-ordered <code>LinkedHashMap</code> to evict
+     * the least recently used
+     */
+    private final Map<File, Entry> mEntries;
+
+    /** maps (canonical) files to imported or included stylesheets, as parsed */
+    private final Map<File, ParsedDocument> mParsedDocuments = new HashMap<File, ParsedDocument>();
+
+    /**
+     * files imported or included by the stylesheet being compiled
+     * NOTE: only used while holding the lock on the cache
+     */
+    private List<FileState> mCompileDependencies;
+
+    /** number of times a compiled stylesheet was found in the cache */
+    private long mHitCount;
+
+    /** number of times a stylesheet had to be compiled */
+    private long mMissCount;
+
+    /** number of the misses that were due to a changed stylesheet */
+    private long mStaleCount;
+
+    /** number of compiled stylesheets evicted to stay within bounds */
+    private long mEvictionCount;
+
+    /** number of times a parsed imported or included stylesheet was reused */
+    private long mParsedDocumentHitCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param maxEntries maximum number of compiled stylesheets kept
+     * @throws TransformerConfigurationException no XSLT implementation available
+     */
+    public TemplatesCache(int maxEntries) throws TransformerConfigurationException {
+
+        mMaxEntries = Math.max(1, maxEntries);
+        mEntries = new LinkedHashMap<File, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, Entry> eldest) {
+                if (size() > mMaxEntries) {
+                    mEvictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+        documentBuilderFactory.setNamespaceAware(true);
+        try {
+            mDocumentBuilder = documentBuilderFactory.newDocumentBuilder();
+        } catch(ParserConfigurationException pce) {
+            throw new TransformerConfigurationException(pce);
+        }
+
+        mTransformerFactory = TransformerFactory.newInstance();
+        mTransformerFactory.setURIResolver(new CachingUriResolver());
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @param file file containing the stylesheet
+     * @return compiled stylesheet, from the cache if it's current
+     * @throws TransformerException error compiling the stylesheet
+     */
+    public synchronized Templates getTemplates(File file) throws TransformerException {
+
+        File canonicalFile = getCanonicalFile(file);
+
+        Entry entry = mEntries.get(canonicalFile);
+        if (entry != null) {
+            if (entry.isCurrent()) {
+                mHitCount++;
+                entry.hit();
+                return entry.mTemplates;
+            }
+            mStaleCount++;
+            mEntries.remove(canonicalFile);
+        }
+
+        mMissCount++;
+        mCompileDependencies = new ArrayList<FileState>();
+        mCompileDependencies.add(new FileState(canonicalFile));
+        try {
+            long startTime = System.currentTimeMillis();
+            Templates templates = mTransformerFactory.newTemplates(new StreamSource(canonicalFile));
+            entry = new Entry(canonicalFile, mCompileDependencies, templates,
+                System.currentTimeMillis() - startTime);
+        } finally {
+            mCompileDependencies = null;
+        }
+
+        mEntries.put(canonicalFile, entry);
+        return entry.mTemplates;
+    }
+
+    /**
+     * @param file file containing the stylesheet
+     * @return new transformer for the compiled stylesheet (see
+     * {@link #getTemplates(File)})
+     * @throws TransformerException error compiling the stylesheet
+     */
+    public Transformer newTransformer(File file) throws TransformerException {
+        return getTemplates(file).newTransformer();
+    }
+
+    /**
+     * @param file file containing the stylesheet
+     * @return new SAX handler transforming the events it receives using the
+     * compiled stylesheet (see {@link #getTemplates(File)}), e.g., so that
+     * stylesheets can be chained without serializing between them
+     * @throws TransformerException error compiling the stylesheet, or the
+     * XSLT implementation doesn't support SAX
+     */
+    public synchronized TransformerHandler newTransformerHandler(File file)
+            throws TransformerException {
+        if (!mTransformerFactory.getFeature(SAXTransformerFactory.FEATURE)) {
+            throw new TransformerConfigurationException("XSLT implementation doesn't support SAX");
+        }
+        return ((SAXTransformerFactory) mTransformerFactory).newTransformerHandler(getTemplates(file));
+    }
+
+    /**
+     * @return resolver used when compiling stylesheets, which parses each
+     * imported or included stylesheet file only once (unless it changes);
+     * it's inherited by the transformers, for which it leaves resolution
+     * to the processor
+     */
+    public URIResolver getUriResolver() {
+        return mTransformerFactory.getURIResolver();
+    }
+
+    /**
+     * @return the compiled stylesheets, least recently used first
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<Entry>(mEntries.values());
+    }
+
+    /**
+     * @return maximum number of compiled stylesheets kept
+     */
+    public int getMaxEntries() {
+        return mMaxEntries;
+    }
+
+    /**
+     * @return number of times a compiled stylesheet was found in the cache
+     */
+    public synchronized long getHitCount() {
+        return mHitCount;
+    }
+
+    /**
+     * @return number of times a stylesheet had to be compiled
+     */
+    public synchronized long getMissCount() {
+        return mMissCount;
+    }
+
+    /**
+     * @return number of times a stylesheet had to be compiled again
+     * because it (or a file it imports or includes) changed
+     */
+    public synchronized long getStaleCount() {
+        return mStaleCount;
+    }
+
+    /**
+     * @return number of compiled stylesheets evicted to stay within bounds
+     */
+    public synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * @return number of times a parsed imported or included stylesheet was reused
+     */
+    public synchronized long getParsedDocumentHitCount() {
+        return mParsedDocumentHitCount;
+    }
+
+    /**
+     * Forgets all compiled and parsed stylesheets, and the statistics
+     */
+    public synchronized void clear() {
+        mEntries.clear();
+        mParsedDocuments.clear();
+        mHitCount = 0;
+        mMissCount = 0;
+        mStaleCount = 0;
+        mEvictionCount = 0;
+        mParsedDocumentHitCount = 0;
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param file a file
+     * @return canonical form of <code>file</code>, or its absolute
+     * form if it can't be determined
+     */
+    private static File getCanonicalFile(File file) {
+        try {
+            return file.getCanonicalFile();
+        } catch(IOException ioex) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Resolves imported and included stylesheets, parsing each file only
+     * once, and noting them as dependencies of the stylesheet being compiled
+     * NOTE: documents are only resolved while compiling, i.e., by the thread
+     * holding the lock on the cache; the parsed documents are never shared
+     * by running transformers (which may read them concurrently)
+     */
+    private class CachingUriResolver implements URIResolver {
+
+        /**
+         * @see URIResolver#resolve(String, String)
+         */
+        public Source resolve(String href, String base) throws TransformerException {
+
+            if (!Thread.holdsLock(TemplatesCache.this) || mCompileDependencies == null) {
+                // not compiling; let the processor resolve it
+                return null;
+            }
+
+            File file;
+            try {
+                URI uri = (base != null) ? new URI(base).resolve(href) : new URI(href);
+                if (!"file".equals(uri.getScheme())) {
+                    // let the processor resolve it
+                    return null;
+                }
+                file = getCanonicalFile(new File(uri));
+            } catch(URISyntaxException use) {
+                // let the processor resolve it
+                return null;
+            } catch(IllegalArgumentException iae) {
+                // not a file after all (e.g., an opaque "file:" URI); let the processor resolve it
+                return null;
+            }
+
+            FileState fileState = new FileState(file);
+            mCompileDependencies.add(fileState);
+
+            ParsedDocument parsedDocument = mParsedDocuments.get(file);
+            if (parsedDocument != null && parsedDocument.mFileState.isSameAs(fileState)) {
+                mParsedDocumentHitCount++;
+            } else {
+                try {
+                    parsedDocument = new ParsedDocument(fileState, mDocumentBuilder.parse(file));
+                } catch(Exception ex) {
+                    throw new TransformerException("can't parse '" + file + "': "
+                        + ex.getMessage(), ex);
+                }
+                if (mParsedDocuments.size() >= PARSED_DOCUMENTS_PER_ENTRY * mMaxEntries) {
+                    // keep it bounded, simply
+                    mParsedDocuments.clear();
+                }
+                mParsedDocuments.put(file, parsedDocument);
+            }
+
+            return new DOMSource(parsedDocument.mDocument, file.toURI().toString());
+        }
+
+    }
+
+}
@@ -12,26 +12,48 @@
 
 package clishell.plugins;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.PrintWriter;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.TransformerHandler;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
+import clishell.CliCommandOptions;
 import clishell.CliRunner;
+import clishell.CommandLimits;
 import clishell.anno.CliPlugin;
 import clishell.anno.CliPluginCommand;
 import clishell.anno.CliPluginFinalizer;
 import clishell.anno.CliPluginInitializer;
-import clishell.net.UrlResourceInputStream;
+import clishell.ex.CliPluginMethodException;
+import clishell.ex.CliRejectedInputException;
+import clishell.ex.CliRunnerException;
+import clishell.util.BatchUtil;
 import org.mortbay.util.WriterOutputStream;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 @CliPlugin(
      name = "transformer"
@@ -40,10 +62,36 @@ import org.mortbay.util.WriterOutputStream;
 public class TransformerPlugin {
 
 
+    //
+    // Private class data
+    //
+
+    /** property naming the maximum number of compiled stylesheets kept */
+    private static final String PROPERTY_TRANSFORM_CACHE_SIZE = "transform-cache-size";
+
+    /** default value of {@link #PROPERTY_TRANSFORM_CACHE_SIZE} */
+    private static final int DEFAULT_TRANSFORM_CACHE_SIZE = 32;
+
+    /** property naming the maximum number of compiled schemas kept */
+    private static final String PROPERTY_SCHEMA_CACHE_SIZE = "schema-cache-size";
+
+    /** default value of {@link #PROPERTY_SCHEMA_CACHE_SIZE} */
+    private static final int DEFAULT_SCHEMA_CACHE_SIZE = 16;
+
+    /** size of the buffer used reading files for "xml select" */
+    private static final int XML_SELECT_BUFFER_SIZE = 64 * 1024;
+
+
     //
     // Private instance data
     //
 
+    /** compiled stylesheets */
+    private TemplatesCache mTemplatesCache;
+
+    /** compiled schemas */
+    private SchemaCache mSchemaCache;
+
 
     //
     //  Public plugin "main" methods
@@ -51,10 +99,14 @@ public class TransformerPlugin {
 
     /**
      * Plugin initialization
+     * @throws TransformerConfigurationException no XSLT implementation available
      */
     @CliPluginInitializer
-    public void init() {
-        // nothing to do - yet!
+    public void init() throws TransformerConfigurationException {
+        mTemplatesCache = new TemplatesCache(
+            getIntProperty(PROPERTY_TRANSFORM_CACHE_SIZE, DEFAULT_TRANSFORM_CACHE_SIZE));
+        mSchemaCache = new SchemaCache(
+            getIntProperty(PROPERTY_SCHEMA_CACHE_SIZE, DEFAULT_SCHEMA_CACHE_SIZE));
     }
 
     /**
@@ -72,17 +124,31 @@ public class TransformerPlugin {
 
     @CliPluginCommand(
           name = "transform"
-    ,   syntax = "<stylesheet> [<input-filename-or-url> [<output-filename>]]"
+    ,   syntax = "[-P <n>] <stylesheet> [<input-filename-or-url> [<output-filename>]]"
+    ,  options = "P:"
     , helptext = {
-            "Transforms input to output using specified stylesheet."
+            "Transforms input to output using specified stylesheet; compiled"
+          , "stylesheets are kept (see 'list transform cache')."
+          , "Options:"
+          , "  -P  transforms a batch of documents, <n> at a time; the input is then"
+          , "      '@<file>' (listing the documents' files), a glob pattern (e.g.,"
+          , "      'docs/**/*.xml') or a directory (of '.xml' files), and the output"
+          , "      is a directory, receiving each document's output under the name of"
+          , "      its file (or its path below the pattern's first wildcard directory);"
+          , "      documents that fail don't stop the batch"
             }
     ,  minargs = 1
     ,  maxargs = 3
     )
-    public void performTransformation(String styleSheetFilename, String inputFilenameOrUrl,
-            String outputFilename) throws IOException, TransformerException {
+    public void performTransformation(CliCommandOptions options, String styleSheetFilename,
+            String inputFilenameOrUrl, String outputFilename)
+            throws IOException, TransformerException, CliRunnerException {
 
-        InputStream styleSheetInputStream = null;
+        if (options.isOptionSet('P')) {
+            performBatchTransformation(options.getOptionValue('P'), styleSheetFilename,
+                inputFilenameOrUrl, outputFilename);
+            return;
+        }
 
         InputStream inputStream = null;
         boolean isInputStreamOurs = true;
@@ -90,20 +156,15 @@ public class TransformerPlugin {
         OutputStream outputStream = null;
         boolean isOutputStreamOurs = true;
 
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-
         try {
 
-            styleSheetInputStream = new FileInputStream(styleSheetFilename);
-
-            Transformer transformer = transformerFactory
-                .newTransformer(new StreamSource(styleSheetInputStream));
+            Transformer transformer = mTemplatesCache.newTransformer(new File(styleSheetFilename));
 
             if (inputFilenameOrUrl == null) {
                 inputStream = CliRunner.getInstance().getInputConsole();
                 isInputStreamOurs = false;
             } else if (inputFilenameOrUrl.contains("://")) {
-                inputStream = new UrlResourceInputStream(new URL(inputFilenameOrUrl));
+                inputStream = CliPluginUtil.newUrlResourceInputStream(new URL(inputFilenameOrUrl));
             } else {
                 inputStream = new FileInputStream(inputFilenameOrUrl);
             }
@@ -133,9 +194,210 @@ public class TransformerPlugin {
                     // "old college try" ;-)
                 }
             }
-            if (styleSheetInputStream != null) {
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "transform chain"
+    ,   syntax = "<stylesheet> [<stylesheet> [...]] <input-filename-or-url> [<output-filename>]"
+    , helptext = {
+            "Transforms input to output using each stylesheet in turn, passing the"
+          , "output of each directly (as SAX events, without serializing it) to the next."
+          , "Stylesheets are the arguments ending in '.xsl' or '.xslt'; an input of '-' is"
+          , "read from the console.  The time taken and the memory allocated by the chain"
+          , "(where the JVM counts it) are reported (on the error console, unless the output"
+          , "is written to a file)."
+            }
+    ,  minargs = 2
+    )
+    public void performChainedTransformation(String... args)
+            throws IOException, TransformerException, SAXException, CliRunnerException {
+
+        // the leading stylesheets, then the input and (maybe) output
+        int nStyleSheets = 0;
+        while(nStyleSheets < args.length && args[nStyleSheets].toLowerCase().matches(".*\\.xslt?")) {
+            nStyleSheets++;
+        }
+        if (nStyleSheets == 0 || args.length - nStyleSheets < 1 || args.length - nStyleSheets > 2) {
+            throw new CliRejectedInputException(
+                "expected stylesheet(s) ending in '.xsl' or '.xslt', then input and (optional) output");
+        }
+        String inputFilenameOrUrl = args[nStyleSheets];
+        String outputFilename = (args.length - nStyleSheets == 2) ? args[nStyleSheets + 1] : null;
+
+        CliRunner cliRunner = CliRunner.getInstance();
+
+        InputStream inputStream = null;
+        boolean isInputStreamOurs = true;
+
+        OutputStream outputStream = null;
+        boolean isOutputStreamOurs = true;
+
+        // NOTE: the stages all run on this thread, so what it allocates is the chain's
+        long startTime = System.currentTimeMillis();
+        com.sun.management.ThreadMXBean allocationCounter = CommandLimits.getAllocationCounter();
+        long threadId = Thread.currentThread().getId();
+        long startAllocatedBytes = (allocationCounter != null)
+            ? allocationCounter.getThreadAllocatedBytes(threadId) : 0;
+
+        try {
+
+            // wire each stage's output to the next stage's input
+            TransformerHandler[] handlers = new TransformerHandler[nStyleSheets];
+            for (int i = 0; i < nStyleSheets; i++) {
+                handlers[i] = mTemplatesCache.newTransformerHandler(new File(args[i]));
+                if (i > 0) {
+                    handlers[i - 1].setResult(new SAXResult(handlers[i]));
+                }
+            }
+
+            String inputSystemId = null;
+            if (inputFilenameOrUrl.equals("-")) {
+                inputStream = cliRunner.getInputConsole();
+                isInputStreamOurs = false;
+            } else if (inputFilenameOrUrl.contains("://")) {
+                inputStream = CliPluginUtil.newUrlResourceInputStream(new URL(inputFilenameOrUrl));
+                inputSystemId = inputFilenameOrUrl;
+            } else {
+                inputStream = new FileInputStream(inputFilenameOrUrl);
+                inputSystemId = new File(inputFilenameOrUrl).toURI().toString();
+            }
+
+            if (outputFilename == null) {
+                outputStream = new WriterOutputStream(cliRunner.getMessageConsole());
+                isOutputStreamOurs = false;
+            } else {
+                outputStream = new FileOutputStream(outputFilename);
+            }
+            handlers[nStyleSheets - 1].setResult(new StreamResult(outputStream));
+
+            // parse the input straight into the first stage
+            SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+            saxParserFactory.setNamespaceAware(true);
+            XMLReader xmlReader;
+            try {
+                xmlReader = saxParserFactory.newSAXParser().getXMLReader();
+            } catch(ParserConfigurationException pce) {
+                throw new TransformerConfigurationException(pce);
+            }
+            xmlReader.setContentHandler(handlers[0]);
+            xmlReader.setDTDHandler(handlers[0]);
+            xmlReader.setProperty("http://xml.org/sax/properties/lexical-handler", handlers[0]);
+            InputSource inputSource = new InputSource(inputStream);
+            if (inputSystemId != null) {
+                inputSource.setSystemId(inputSystemId);
+                handlers[0].setSystemId(inputSystemId);
+            }
+            xmlReader.parse(inputSource);
+            outputStream.flush();
+
+        } finally {
+
+            if (outputStream != null && isOutputStreamOurs) {
+                try {
+                    outputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+            if (inputStream != null && isInputStreamOurs) {
+                try {
+                    inputStream.close();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+
+        }
+
+        String report = nStyleSheets + " stylesheet(s) chained in "
+            + (System.currentTimeMillis() - startTime) + "ms";
+        if (allocationCounter != null) {
+            long allocatedBytes = allocationCounter.getThreadAllocatedBytes(threadId)
+                - startAllocatedBytes;
+            report += "; " + (allocatedBytes / (1024 * 1024)) + "MB allocated";
+        }
+        PrintWriter reportConsole = (outputFilename != null)
+            ? cliRunner.getMessageConsole() : cliRunner.getErrorConsole();
+        reportConsole.println(report);
+
+    }
+
+    @CliPluginCommand(
+          name = "xml select"
+    ,   syntax = "[-xc] [-m <n>] <path-expression> [<input-filename-or-url>]"
+    ,  options = "xcm:"
+    , helptext = {
+            "Writes the parts of the input selected by <path-expression>, one per line, reading"
+          , "the input as a stream (so that inputs of any size can be used).  Path expressions are"
+          , "the subset of XPath made of child ('/') and descendant ('//') steps with name tests"
+          , "(e.g., 'a', 'p:a', '*'), predicates [@name], [@name='value'], [@name!='value'] and"
+          , "[<position>], ending with an element step, '@name' or 'text()'; e.g.,"
+          , "'//order[@status='open']/item[1]/@sku'.  Selected elements are written as their text."
+          , "The input is read from the console if omitted or '-'.  Use 'capture buffer' to keep"
+          , "the output."
+          , "Options:"
+          , "  -x  writes selected elements as XML"
+          , "  -c  writes the number of parts selected, instead of the parts"
+          , "  -m  stops reading the input once <n> parts are selected"
+            }
+    ,  minargs = 1
+    ,  maxargs = 2
+    )
+    public void selectXml(CliCommandOptions options, String pathExpression,
+            String inputFilenameOrUrl) throws IOException, XMLStreamException, CliRunnerException {
+
+        XmlStreamSelector xmlStreamSelector = new XmlStreamSelector(pathExpression);
+
+        long maxMatches = 0;
+        if (options.isOptionSet('m')) {
+            try {
+                maxMatches = Long.parseLong(options.getOptionValue('m'));
+            } catch(NumberFormatException nfe) {
+                maxMatches = 0;
+            }
+            if (maxMatches < 1) {
+                throw new CliRejectedInputException("invalid number of parts: "
+                    + options.getOptionValue('m'));
+            }
+        }
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        PrintWriter messageConsole = cliRunner.getMessageConsole();
+
+        InputStream inputStream = null;
+        boolean isInputStreamOurs = true;
+        String inputSystemId = null;
+
+        try {
+
+            if (inputFilenameOrUrl == null || inputFilenameOrUrl.equals("-")) {
+                inputStream = cliRunner.getInputConsole();
+                isInputStreamOurs = false;
+            } else if (inputFilenameOrUrl.contains("://")) {
+                inputStream = CliPluginUtil.newUrlResourceInputStream(new URL(inputFilenameOrUrl));
+                inputSystemId = inputFilenameOrUrl;
+            } else {
+                inputStream = new BufferedInputStream(new FileInputStream(inputFilenameOrUrl),
+                    XML_SELECT_BUFFER_SIZE);
+                inputSystemId = new File(inputFilenameOrUrl).toURI().toString();
+            }
+
+            long matchCount = xmlStreamSelector.select(inputStream, inputSystemId,
+                options.isOptionSet('c') ? null : messageConsole,
+                options.isOptionSet('x') ? XmlStreamSelector.Output.XML : XmlStreamSelector.Output.TEXT,
+                maxMatches, cliRunner.getCancellationToken());
+            if (options.isOptionSet('c')) {
+                messageConsole.println(matchCount);
+            }
+            messageConsole.flush();
+
+        } finally {
+
+            if (inputStream != null && isInputStreamOurs) {
                 try {
-                    styleSheetInputStream.close();
+                    inputStream.close();
                 } catch(Throwable ex) {
                     // "old college try" ;-)
                 }
@@ -145,4 +407,190 @@ public class TransformerPlugin {
 
     }
 
+    @CliPluginCommand(
+          name = "xml validate"
+    ,   syntax = "[-P <n>] <schema> [<input-filename-or-url> [<input-filename-or-url> [...]]]"
+    ,  options = "P:"
+    , helptext = {
+            "Validates the input(s) against the (W3C XML) schema, reporting the errors found in"
+          , "each invalid input, and the throughput.  Inputs are validated <n> at a time (by"
+          , "default, one per processor); an input of '-' (or none) is read from the console."
+          , "Compiled schemas are kept, up to the number set by the property"
+          , "'" + PROPERTY_SCHEMA_CACHE_SIZE + "', until they (or schemas they include or import) change."
+          , "Options:"
+          , "  -P  number of inputs validated at a time"
+            }
+    ,  minargs = 1
+    )
+    public void validateXml(CliCommandOptions options, String... args)
+            throws SAXException, CliRunnerException {
+
+        int workerCount = options.isOptionSet('P')
+            ? BatchUtil.parseRequestCount(options.getOptionValue('P'), "inputs")
+            : Runtime.getRuntime().availableProcessors();
+
+        List<String> inputs = new ArrayList<String>(Arrays.asList(args).subList(1, args.length));
+        if (inputs.size() == 0) {
+            inputs.add(BatchValidator.CONSOLE_INPUT);
+        }
+        if (inputs.indexOf(BatchValidator.CONSOLE_INPUT)
+                != inputs.lastIndexOf(BatchValidator.CONSOLE_INPUT)) {
+            throw new CliRejectedInputException("the console can only be read once");
+        }
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        PrintWriter messageConsole = cliRunner.getMessageConsole();
+
+        long hitCount = mSchemaCache.getHitCount();
+        SchemaCache.Entry schemaEntry = mSchemaCache.getEntry(new File(args[0]));
+        messageConsole.println("schema " + schemaEntry.getFile()
+            + ((mSchemaCache.getHitCount() > hitCount) ? " (cached)"
+                : (" compiled in " + schemaEntry.getCompileMillis() + "ms")));
+
+        BatchValidator batchValidator = new BatchValidator(schemaEntry.getSchema(), workerCount);
+        List<BatchValidator.Result> results;
+        try {
+            results = batchValidator.validate(inputs, cliRunner.getInputConsole(), messageConsole);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cliRunner.getCancellationToken().throwIfCancelled();
+            return;
+        }
+
+        // summarize the errors of each invalid input
+        PrintWriter errorConsole = cliRunner.getErrorConsole();
+        int invalidCount = 0;
+        for (BatchValidator.Result result : results) {
+            if (result.isValid()) {
+                continue;
+            }
+            invalidCount++;
+            errorConsole.println(result.getInput() + ": " + result.getErrorCount() + " error(s)");
+            for (String error : result.getErrors()) {
+                errorConsole.println("    " + error);
+            }
+            if (result.getErrorCount() > result.getErrors().size()) {
+                errorConsole.println("    ...");
+            }
+        }
+        messageConsole.println(batchValidator.getProgress());
+
+        if (invalidCount > 0) {
+            throw new CliPluginMethodException(invalidCount + " of " + results.size()
+                + " input(s) invalid");
+        }
+
+    }
+
+    @CliPluginCommand(
+          name = "list transform cache"
+    ,   syntax = "[-c]"
+    ,  options = "c"
+    ,  maxargs = 0
+    , helptext = {
+            "Lists the compiled stylesheets kept by 'transform' (least recently used first),"
+        ,   "with the cache's hit and miss counts.  A stylesheet is compiled again when it, or a"
+        ,   "stylesheet it imports or includes, changes.  The number of compiled stylesheets kept"
+        ,   "is set by the property '" + PROPERTY_TRANSFORM_CACHE_SIZE + "'."
+        ,   "Options:"
+        ,   "  -c  clears the cache (and its counts) after listing it"
+        }
+    )
+    public void listTransformCache(CliCommandOptions options) {
+
+        PrintWriter messageConsole = CliRunner.getInstance().getMessageConsole();
+        for (TemplatesCache.Entry entry : mTemplatesCache.getEntries()) {
+            messageConsole.println(entry);
+        }
+        messageConsole.println(mTemplatesCache.getEntries().size()
+            + " of " + mTemplatesCache.getMaxEntries() + " compiled stylesheet(s) kept; "
+            + mTemplatesCache.getHitCount() + " hit(s), "
+            + mTemplatesCache.getMissCount() + " miss(es) ("
+            + mTemplatesCache.getStaleCount() + " changed), "
+            + mTemplatesCache.getEvictionCount() + " eviction(s), "
+            + mTemplatesCache.getParsedDocumentHitCount() + " import/include reuse(s)");
+
+        if (options.isOptionSet('c')) {
+            mTemplatesCache.clear();
+        }
+
+    }
+
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * @param propertyName name of a (numeric) property
+     * @param defaultValue value used if the property isn't set, or isn't numeric
+     * @return value of the property
+     */
+    private static int getIntProperty(String propertyName, int defaultValue) {
+        try {
+            return Integer.parseInt(CliRunner.getInstance().getProperties().getProperty(
+                propertyName, String.valueOf(defaultValue)).trim());
+        } catch(NumberFormatException nfe) {
+            return defaultValue;
+        }
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * Transforms a batch of documents (see "transform -P")
+     * @param workerCountString number of documents to transform at a time
+     * @param styleSheetFilename file containing the stylesheet
+     * @param inputSpec documents to transform (see {@link BatchTransformer#findDocuments(String)})
+     * @param outputDirectoryName directory receiving the output
+     * @throws TransformerException error compiling the stylesheet
+     * @throws IOException error finding the documents
+     * @throws CliRunnerException invalid arguments, or documents failed to transform
+     */
+    private void performBatchTransformation(String workerCountString, String styleSheetFilename,
+            String inputSpec, String outputDirectoryName)
+            throws TransformerException, IOException, CliRunnerException {
+
+        int workerCount = BatchUtil.parseRequestCount(workerCountString, "documents");
+        if (outputDirectoryName == null) {
+            throw new CliRejectedInputException("input and output directory required");
+        }
+
+        Templates templates = mTemplatesCache.getTemplates(new File(styleSheetFilename));
+        Path outputDirectory = Paths.get(outputDirectoryName);
+        List<BatchTransformer.Document> documents;
+        try {
+            documents = BatchTransformer.findDocuments(inputSpec);
+            BatchTransformer.checkOutputDirectory(documents, outputDirectory);
+        } catch(IllegalArgumentException iae) {
+            throw new CliRejectedInputException(iae.getMessage());
+        }
+
+        CliRunner cliRunner = CliRunner.getInstance();
+        PrintWriter messageConsole = cliRunner.getMessageConsole();
+        BatchTransformer batchTransformer = new BatchTransformer(templates, workerCount);
+        try {
+            batchTransformer.transform(documents, outputDirectory, messageConsole);
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            cliRunner.getCancellationToken().throwIfCancelled();
+        }
+        messageConsole.println(batchTransformer.getProgress());
+
+        List<String> failures = batchTransformer.getFailures();
+        if (failures.size() > 0) {
+            PrintWriter errorConsole = cliRunner.getErrorConsole();
+            for (String failure : failures) {
+                errorConsole.println(failure);
+            }
+            throw new CliPluginMethodException(failures.size() + " of " + documents.size()
+                + " document(s) failed to transform");
+        }
+
+    }
+
 }
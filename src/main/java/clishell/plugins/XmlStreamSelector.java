@@ -0,0 +1,794 @@
+/**
+ *
+ *
+ * CliShell Plugin - Transformations
+ *
+ * $Id$
+ * $URL$
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.plugins;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import clishell.CancellationToken;
+import clishell.ex.CliCommandCancelledException;
+import clishell.ex.CliRejectedInputException;
+
+/**
+ *
+ * Selects the parts of an XML document matching a path expression while
+ * reading it (using StAX), without building a tree of the document, so
+ * that memory used doesn't depend upon the size of the document.
+ *
+ * Path expressions are the subset of XPath that can be decided as each
+ * element starts:
+ * <ul>
+ * <li>child (<code>/</code>) and descendant (<code>//</code>) steps;</li>
+ * <li>name tests: <code>name</code>, <code>prefix:name</code>,
+ * <code>*</code> or <code>prefix:*</code> (a name without a prefix matches
+ * elements of any namespace; a prefix is compared as written in the document);</li>
+ * <li>predicates <code>[@name]</code>, <code>[@name='value']</code>,
+ * <code>[@name!='value']</code> and (at most one per step) <code>[n]</code>;</li>
+ * <li>a final <code>@name</code> (or <code>@*</code>) step selecting
+ * attribute values, or <code>text()</code> step selecting an element's own text.</li>
+ * </ul>
+ *
+ * Each selected element is written as its text (or, optionally, as XML)
+ * followed by a new line; elements nested within a selected element are
+ * written only as part of it.
+ *
+ */
+public class XmlStreamSelector {
+
+
+    //
+    //  Public class data
+    //
+
+    /** how selected elements are written */
+    public enum Output {
+        /** text contained by the element */
+        TEXT
+        /** the element, as XML */
+    ,   XML
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** maximum number of steps in a path expression */
+    private static final int MAX_STEPS = Long.SIZE - 1;
+
+    /** number of parse events between checks for cancellation */
+    private static final int CANCELLATION_CHECK_INTERVAL = 4096;
+
+    /** name test (e.g., <code>name</code>, <code>p:name</code>, <code>*</code>) */
+    private static final Pattern NAME_TEST_PATTERN
+        = Pattern.compile("(?:([^\\s:/\\[\\]@()='\"!*]+):)?(\\*|[^\\s:/\\[\\]@()='\"!*]+)");
+
+    /** attribute predicate (e.g., <code>@name</code>, <code>@name='value'</code>) */
+    private static final Pattern ATTRIBUTE_PREDICATE_PATTERN
+        = Pattern.compile("@([^\\s=!\\]]+)\\s*(?:(!?=)\\s*(?:'([^']*)'|\"([^\"]*)\"))?");
+
+    /** positional predicate */
+    private static final Pattern POSITION_PREDICATE_PATTERN = Pattern.compile("[1-9][0-9]*");
+
+    /** what the path expression selects */
+    private enum Target {
+        ELEMENT
+    ,   ATTRIBUTE
+    ,   TEXT
+    }
+
+
+    //
+    //  Private instance data
+    //
+
+    /** the path expression */
+    private final String mPathExpression;
+
+    /** steps selecting elements */
+    private final Step[] mSteps;
+
+    /** what's selected from the elements matching the last step */
+    private final Target mTarget;
+
+    /** name test of the attribute(s) selected, if {@link Target#ATTRIBUTE} */
+    private final NameTest mAttributeNameTest;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param pathExpression path expression (see class description)
+     * @throws CliRejectedInputException <code>pathExpression</code>
+     * is invalid, or isn't in the supported subset of XPath
+     */
+    public XmlStreamSelector(String pathExpression) throws CliRejectedInputException {
+
+        mPathExpression = pathExpression;
+
+        List<String> segments = splitPath(pathExpression);
+        List<Step> steps = new ArrayList<Step>();
+        Target target = Target.ELEMENT;
+        NameTest attributeNameTest = null;
+
+        // NOTE: paths without a leading slash are relative to the document, too
+        int i = (segments.size() > 1 && segments.get(0).length() == 0) ? 1 : 0;
+        boolean isDescendant = false;
+        for (; i < segments.size(); i++) {
+            String segment = segments.get(i);
+            if (segment.length() == 0) {
+                // the second slash of "//"
+                if (isDescendant || i == segments.size() - 1) {
+                    throw newRejection("unexpected '/'");
+                }
+                isDescendant = true;
+                continue;
+            }
+            boolean isLast = (i == segments.size() - 1);
+            if (segment.startsWith("@") || segment.equals("text()")) {
+                if (!isLast) {
+                    throw newRejection("'" + segment + "' must be the last step");
+                }
+                if (isDescendant) {
+                    // i.e., "//@name" is "//*/@name"
+                    steps.add(new Step(true, new NameTest(null, null)));
+                    isDescendant = false;
+                }
+                if (segment.equals("text()")) {
+                    target = Target.TEXT;
+                } else {
+                    target = Target.ATTRIBUTE;
+                    attributeNameTest = parseNameTest(segment.substring(1));
+                }
+                break;
+            }
+            steps.add(parseStep(segment, isDescendant));
+            isDescendant = false;
+        }
+
+        if (isDescendant || steps.size() == 0) {
+            throw newRejection("expected a step");
+        }
+        if (steps.size() > MAX_STEPS) {
+            throw newRejection("more than " + MAX_STEPS + " steps");
+        }
+
+        mSteps = steps.toArray(new Step[steps.size()]);
+        mTarget = target;
+        mAttributeNameTest = attributeNameTest;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * Writes the parts of a document selected by the path expression
+     * @param inputStream stream containing the document
+     * @param systemId system identifier of the document (used to resolve
+     * relative references), or <code>null</code>
+     * @param out writer receiving the selected parts, each followed by a
+     * new line, or <code>null</code> to just count them (including selected
+     * elements nested within others)
+     * @param output how selected elements are written
+     * @param maxMatches number of parts after which to stop reading the
+     * document, or zero to read all of it
+     * @param cancellationToken token checked while reading, or <code>null</code>
+     * @return number of parts selected
+     * @throws XMLStreamException error parsing the document
+     * @throws IOException error writing
+     * @throws CliCommandCancelledException <code>cancellationToken</code> was cancelled
+     */
+    public long select(InputStream inputStream, String systemId, Writer out, Output output,
+            long maxMatches, CancellationToken cancellationToken)
+            throws XMLStreamException, IOException, CliCommandCancelledException {
+
+        XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        XMLStreamReader reader = (systemId != null)
+            ? inputFactory.createXMLStreamReader(systemId, inputStream)
+            : inputFactory.createXMLStreamReader(inputStream);
+
+        XMLStreamWriter xmlWriter = null;
+        if (out != null && output == Output.XML && mTarget == Target.ELEMENT) {
+            XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+            outputFactory.setProperty(XMLOutputFactory.IS_REPAIRING_NAMESPACES, Boolean.TRUE);
+            xmlWriter = outputFactory.createXMLStreamWriter(out);
+        }
+
+        try {
+
+            List<Frame> frames = new ArrayList<Frame>();
+            frames.add(newDocumentFrame());
+            long lastStepBit = 1L << (mSteps.length - 1);
+
+            long matchCount = 0;
+            int matchDepth = 0;             // depth of the element being written, if any
+            StringBuilder pendingWhiteSpace = new StringBuilder();
+            boolean isMatchTextWritten = false;
+            int eventCount = 0;
+
+            while(reader.hasNext()) {
+
+                int event = reader.next();
+                if (cancellationToken != null && ++eventCount % CANCELLATION_CHECK_INTERVAL == 0) {
+                    cancellationToken.throwIfCancelled();
+                }
+
+                switch(event) {
+
+                    case XMLStreamConstants.START_ELEMENT: {
+                        Frame parentFrame = frames.get(frames.size() - 1);
+                        Frame frame = (matchDepth == 0) ? newFrame(parentFrame, reader) : null;
+                        frames.add(frame);
+                        if (matchDepth > 0) {
+                            if (xmlWriter != null) {
+                                copyStartElement(reader, xmlWriter);
+                            }
+                            break;
+                        }
+                        if ((frame.mMatched & lastStepBit) == 0) {
+                            break;
+                        }
+                        if (mTarget == Target.ATTRIBUTE) {
+                            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                                if (mAttributeNameTest.matches(reader.getAttributePrefix(i),
+                                        reader.getAttributeLocalName(i))) {
+                                    if (out != null) {
+                                        out.write(reader.getAttributeValue(i));
+                                        out.write('\n');
+                                    }
+                                    matchCount++;
+                                    if (matchCount == maxMatches) {
+                                        return matchCount;
+                                    }
+                                }
+                            }
+                            break;
+                        }
+                        if (out == null && mTarget == Target.ELEMENT) {
+                            // just counting; nested elements may be selected, too
+                            matchCount++;
+                            if (matchCount == maxMatches) {
+                                return matchCount;
+                            }
+                            break;
+                        }
+                        matchDepth = frames.size() - 1;
+                        isMatchTextWritten = false;
+                        pendingWhiteSpace.setLength(0);
+                        if (xmlWriter != null) {
+                            copyStartElement(reader, xmlWriter);
+                        }
+                        break;
+                    }
+
+                    case XMLStreamConstants.END_ELEMENT: {
+                        if (matchDepth > 0 && xmlWriter != null) {
+                            xmlWriter.writeEndElement();
+                        }
+                        if (frames.size() - 1 == matchDepth) {
+                            matchDepth = 0;
+                            if (out != null) {
+                                if (xmlWriter != null) {
+                                    xmlWriter.flush();
+                                }
+                                if (mTarget == Target.ELEMENT || isMatchTextWritten) {
+                                    out.write('\n');
+                                }
+                            }
+                            if (mTarget == Target.ELEMENT || isMatchTextWritten) {
+                                matchCount++;
+                                if (matchCount == maxMatches) {
+                                    return matchCount;
+                                }
+                            }
+                        }
+                        frames.remove(frames.size() - 1);
+                        break;
+                    }
+
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE: {
+                        if (matchDepth == 0) {
+                            break;
+                        }
+                        if (xmlWriter != null) {
+                            if (event == XMLStreamConstants.CDATA) {
+                                xmlWriter.writeCData(reader.getText());
+                            } else {
+                                xmlWriter.writeCharacters(reader.getTextCharacters(),
+                                    reader.getTextStart(), reader.getTextLength());
+                            }
+                            break;
+                        }
+                        if (mTarget == Target.TEXT) {
+                            if (frames.size() - 1 != matchDepth) {
+                                break;
+                            }
+                            if (reader.isWhiteSpace()) {
+                                // only write white space between the element's other text
+                                pendingWhiteSpace.append(reader.getTextCharacters(),
+                                    reader.getTextStart(), reader.getTextLength());
+                                break;
+                            }
+                            isMatchTextWritten = true;
+                        }
+                        if (out != null) {
+                            if (pendingWhiteSpace.length() > 0) {
+                                out.append(pendingWhiteSpace);
+                                pendingWhiteSpace.setLength(0);
+                            }
+                            out.write(reader.getTextCharacters(), reader.getTextStart(),
+                                reader.getTextLength());
+                        }
+                        break;
+                    }
+
+                    case XMLStreamConstants.COMMENT: {
+                        if (matchDepth > 0 && xmlWriter != null) {
+                            xmlWriter.writeComment(reader.getText());
+                        }
+                        break;
+                    }
+
+                    case XMLStreamConstants.PROCESSING_INSTRUCTION: {
+                        if (matchDepth > 0 && xmlWriter != null) {
+                            xmlWriter.writeProcessingInstruction(reader.getPITarget(),
+                                reader.getPIData());
+                        }
+                        break;
+                    }
+
+                    default: {
+                        break;
+                    }
+
+                }
+
+            }
+
+            return matchCount;
+
+        } finally {
+
+            if (xmlWriter != null) {
+                try {
+                    xmlWriter.flush();
+                } catch(Throwable ex) {
+                    // "old college try" ;-)
+                }
+            }
+            try {
+                reader.close();
+            } catch(Throwable ex) {
+                // "old college try" ;-)
+            }
+
+        }
+
+    }
+
+    /**
+     * @return the path expression
+     */
+    public String toString() {
+        return mPathExpression;
+    }
+
+
+    //
+    //  Private class methods
+    //
+
+    /**
+     * Writes the start of an element (with its namespace declarations and
+     * attributes) read from a document
+     * @param reader reader positioned at the start of an element
+     * @param xmlWriter writer (which must repair namespaces)
+     * @throws XMLStreamException error writing
+     */
+    private static void copyStartElement(XMLStreamReader reader, XMLStreamWriter xmlWriter)
+            throws XMLStreamException {
+        String namespaceUri = reader.getNamespaceURI();
+        if (namespaceUri == null || namespaceUri.length() == 0) {
+            xmlWriter.writeStartElement(reader.getLocalName());
+        } else {
+            xmlWriter.writeStartElement(nonNull(reader.getPrefix()), reader.getLocalName(),
+                namespaceUri);
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            String declaredUri = reader.getNamespaceURI(i);
+            if (declaredUri != null && declaredUri.length() > 0) {
+                xmlWriter.writeNamespace(nonNull(reader.getNamespacePrefix(i)), declaredUri);
+            }
+        }
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attributeNamespace = reader.getAttributeNamespace(i);
+            if (attributeNamespace == null || attributeNamespace.length() == 0) {
+                xmlWriter.writeAttribute(reader.getAttributeLocalName(i),
+                    reader.getAttributeValue(i));
+            } else {
+                xmlWriter.writeAttribute(nonNull(reader.getAttributePrefix(i)), attributeNamespace,
+                    reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    /**
+     * @param text text, or <code>null</code>
+     * @return <code>text</code>, or the empty string if <code>null</code>
+     */
+    private static String nonNull(String text) {
+        return (text != null) ? text : "";
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param pathExpression path expression
+     * @return the segments of <code>pathExpression</code> between slashes
+     * (outside of predicates); an empty segment marks a leading slash, or
+     * the second slash of "//"
+     * @throws CliRejectedInputException unbalanced brackets or quotes
+     */
+    private List<String> splitPath(String pathExpression) throws CliRejectedInputException {
+        List<String> segments = new ArrayList<String>();
+        StringBuilder segment = new StringBuilder();
+        int bracketDepth = 0;
+        char quote = 0;
+        for (int i = 0; i < pathExpression.length(); i++) {
+            char c = pathExpression.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == '[') {
+                bracketDepth++;
+            } else if (c == ']') {
+                if (--bracketDepth < 0) {
+                    throw new CliRejectedInputException("invalid path expression '"
+                        + pathExpression + "': unbalanced ']'");
+                }
+            } else if (c == '/' && bracketDepth == 0) {
+                segments.add(segment.toString().trim());
+                segment.setLength(0);
+                continue;
+            }
+            segment.append(c);
+        }
+        if (quote != 0 || bracketDepth != 0) {
+            throw new CliRejectedInputException("invalid path expression '"
+                + pathExpression + "': unterminated predicate or string");
+        }
+        segments.add(segment.toString().trim());
+        return segments;
+    }
+
+    /**
+     * @param segment text of a step (name test and predicates)
+     * @param isDescendant true if the step is preceded by "//"
+     * @return the step
+     * @throws CliRejectedInputException the step is invalid or unsupported
+     */
+    private Step parseStep(String segment, boolean isDescendant) throws CliRejectedInputException {
+
+        int predicatesStart = segment.indexOf('[');
+        String nameTestText = (predicatesStart < 0) ? segment : segment.substring(0, predicatesStart);
+        Step step = new Step(isDescendant, parseNameTest(nameTestText.trim()));
+
+        int i = predicatesStart;
+        while(i >= 0 && i < segment.length()) {
+            if (segment.charAt(i) != '[') {
+                throw newRejection("unexpected '" + segment.substring(i) + "'");
+            }
+            int end = findPredicateEnd(segment, i);
+            String predicate = segment.substring(i + 1, end).trim();
+            Matcher matcher;
+            if (POSITION_PREDICATE_PATTERN.matcher(predicate).matches()) {
+                if (step.mPosition != 0) {
+                    throw newRejection("more than one position in step '" + segment + "'");
+                }
+                step.mPosition = Integer.parseInt(predicate);
+                step.mPositionPredicateIndex = step.mAttributePredicates.size();
+            } else if ((matcher = ATTRIBUTE_PREDICATE_PATTERN.matcher(predicate)).matches()) {
+                AttributePredicate attributePredicate = new AttributePredicate();
+                attributePredicate.mNameTest = parseNameTest(matcher.group(1));
+                if (matcher.group(2) != null) {
+                    attributePredicate.mIsEqual = matcher.group(2).equals("=");
+                    attributePredicate.mValue = (matcher.group(3) != null)
+                        ? matcher.group(3) : matcher.group(4);
+                }
+                step.mAttributePredicates.add(attributePredicate);
+            } else {
+                throw newRejection("unsupported predicate '[" + predicate + "]'");
+            }
+            i = end + 1;
+            while(i < segment.length() && Character.isWhitespace(segment.charAt(i))) {
+                i++;
+            }
+        }
+
+        return step;
+    }
+
+    /**
+     * @param segment text of a step
+     * @param start index of a predicate's opening bracket in <code>segment</code>
+     * @return index of the predicate's closing bracket
+     */
+    private int findPredicateEnd(String segment, int start) {
+        char quote = 0;
+        for (int i = start + 1; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (c == ']') {
+                return i;
+            }
+        }
+        // NOTE: can't happen, since the path expression's brackets are balanced
+        return segment.length();
+    }
+
+    /**
+     * @param nameTestText text of a name test
+     * @return the name test
+     * @throws CliRejectedInputException the name test is invalid
+     */
+    private NameTest parseNameTest(String nameTestText) throws CliRejectedInputException {
+        Matcher matcher = NAME_TEST_PATTERN.matcher(nameTestText);
+        if (!matcher.matches()) {
+            throw newRejection("unsupported name test '" + nameTestText + "'");
+        }
+        String localName = matcher.group(2);
+        return new NameTest(matcher.group(1), localName.equals("*") ? null : localName);
+    }
+
+    /**
+     * @param reason why the path expression is rejected
+     * @return exception rejecting the path expression
+     */
+    private CliRejectedInputException newRejection(String reason) {
+        return new CliRejectedInputException("unsupported path expression '"
+            + mPathExpression + "': " + reason);
+    }
+
+    /**
+     * @return frame of the document itself (i.e., the parent of its root element)
+     */
+    private Frame newDocumentFrame() {
+        Frame frame = new Frame();
+        if (mSteps[0].mIsDescendant) {
+            frame.mDescendantCandidates = 1L;
+        } else {
+            frame.mChildCandidates = 1L;
+        }
+        return frame;
+    }
+
+    /**
+     * @param parentFrame frame of the parent of the element
+     * @param reader reader positioned at the start of an element
+     * @return frame of the element, noting the steps it matches
+     */
+    private Frame newFrame(Frame parentFrame, XMLStreamReader reader) {
+
+        Frame frame = new Frame();
+        frame.mDescendantCandidates = parentFrame.mDescendantCandidates;
+
+        long candidates = parentFrame.mChildCandidates | parentFrame.mDescendantCandidates;
+        String prefix = reader.getPrefix();
+        String localName = reader.getLocalName();
+        for (int i = 0; candidates != 0; i++, candidates >>>= 1) {
+            if ((candidates & 1) == 0 || !mSteps[i].matches(parentFrame, i, prefix, localName, reader)) {
+                continue;
+            }
+            frame.mMatched |= 1L << i;
+            if (i + 1 < mSteps.length) {
+                if (mSteps[i + 1].mIsDescendant) {
+                    frame.mDescendantCandidates |= 1L << (i + 1);
+                } else {
+                    frame.mChildCandidates |= 1L << (i + 1);
+                }
+            }
+        }
+
+        return frame;
+    }
+
+
+    //
+    //  Private classes
+    //
+
+    /**
+     * Test of an element's or attribute's name
+     */
+    private static class NameTest {
+
+        /** prefix required, or <code>null</code> for any */
+        private final String mPrefix;
+
+        /** local name required, or <code>null</code> for any */
+        private final String mLocalName;
+
+        /**
+         * @param prefix prefix required, or <code>null</code> for any
+         * @param localName local name required, or <code>null</code> for any
+         */
+        NameTest(String prefix, String localName) {
+            mPrefix = prefix;
+            mLocalName = localName;
+        }
+
+        /**
+         * @param prefix prefix of the name, or <code>null</code> (or empty) if none
+         * @param localName local name of the name
+         * @return true if the name passes the test
+         */
+        boolean matches(String prefix, String localName) {
+            return (mLocalName == null || mLocalName.equals(localName))
+                && (mPrefix == null || mPrefix.equals(prefix));
+        }
+
+    }
+
+    /**
+     * Predicate testing an element's attribute
+     */
+    private static class AttributePredicate {
+
+        /** name of the attribute */
+        NameTest mNameTest;
+
+        /** value compared, or <code>null</code> to test that the attribute exists */
+        String mValue;
+
+        /** true if the attribute's value must equal {@link #mValue} (vs. differ from it) */
+        boolean mIsEqual;
+
+        /**
+         * @param reader reader positioned at the start of an element
+         * @return true if the element passes the predicate
+         */
+        boolean matches(XMLStreamReader reader) {
+            for (int i = 0; i < reader.getAttributeCount(); i++) {
+                if (mNameTest.matches(reader.getAttributePrefix(i), reader.getAttributeLocalName(i))) {
+                    return mValue == null || mValue.equals(reader.getAttributeValue(i)) == mIsEqual;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    /**
+     * Location step selecting elements
+     */
+    private static class Step {
+
+        /** true if the step selects descendants (vs. children) */
+        final boolean mIsDescendant;
+
+        /** test of the element's name */
+        final NameTest mNameTest;
+
+        /** attribute predicates, in order */
+        final List<AttributePredicate> mAttributePredicates = new ArrayList<AttributePredicate>();
+
+        /** position required among the siblings passing the predicates before it, or zero */
+        int mPosition;
+
+        /** number of attribute predicates before the position predicate */
+        int mPositionPredicateIndex;
+
+        /**
+         * @param isDescendant true if the step selects descendants (vs. children)
+         * @param nameTest test of the element's name
+         */
+        Step(boolean isDescendant, NameTest nameTest) {
+            mIsDescendant = isDescendant;
+            mNameTest = nameTest;
+        }
+
+        /**
+         * @param parentFrame frame of the parent of the element, counting
+         * the siblings for the position predicate
+         * @param stepIndex index of this step
+         * @param prefix prefix of the element's name
+         * @param localName local name of the element
+         * @param reader reader positioned at the start of the element
+         * @return true if the element passes the name test and predicates
+         */
+        boolean matches(Frame parentFrame, int stepIndex, String prefix, String localName,
+                XMLStreamReader reader) {
+
+            if (!mNameTest.matches(prefix, localName)) {
+                return false;
+            }
+            for (int i = 0; i < mAttributePredicates.size(); i++) {
+                if (mPosition != 0 && i == mPositionPredicateIndex
+                        && parentFrame.incrementCount(stepIndex) != mPosition) {
+                    return false;
+                }
+                if (!mAttributePredicates.get(i).matches(reader)) {
+                    return false;
+                }
+            }
+            return mPosition == 0 || mPositionPredicateIndex < mAttributePredicates.size()
+                || parentFrame.incrementCount(stepIndex) == mPosition;
+        }
+
+    }
+
+    /**
+     * State kept for each open element (and the document itself)
+     */
+    private static class Frame {
+
+        /** steps matched by the element */
+        long mMatched;
+
+        /** steps that children of the element may match */
+        long mChildCandidates;
+
+        /** steps that descendants of the element may match */
+        long mDescendantCandidates;
+
+        /** counts of the children passing each step's predicates before its position */
+        int[] mCounts;
+
+        /**
+         * @param stepIndex index of a step
+         * @return count of the children passing the step's predicates
+         * before its position, including the current one
+         */
+        int incrementCount(int stepIndex) {
+            if (mCounts == null || mCounts.length <= stepIndex) {
+                mCounts = (mCounts == null)
+                    ? new int[stepIndex + 1] : Arrays.copyOf(mCounts, stepIndex + 1);
+            }
+            return ++mCounts[stepIndex];
+        }
+
+    }
+
+}
@@ -12,7 +12,18 @@
 
 package clishell.script;
 
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.Invocable;
+import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.script.ScriptException;
@@ -23,18 +34,56 @@ import javax.script.ScriptException;
  * Uses Java 6's scripting engine;
  * @see <a href="http://java.sun.com/developer/technicalArticles/J2SE/Desktop/scripting/">Article: Scripting for the Java Platform</a>
  *
+ * Script files are compiled (if the engine supports it) only once, and
+ * compiled again only when they change.  A scripter is meant to be used
+ * by one thread at a time (see {@link ScripterPool}).
+ *
  */
 public class Scripter {
 
+    /** maximum number of compiled script files kept */
+    private static final int MAX_COMPILED_SCRIPTS = 32;
+
     /** */
     private final ScriptEngine mScriptEngine;
 
+    /**
+     * Maps (canonical) script files to their compiled scripts
+     * NOTE: use of access-ordered <code>LinkedHashMap</code> to evict
+     * the least recently used
+     */
+    private final Map<File, CompiledScriptFile> mCompiledScripts
+        = new LinkedHashMap<File, CompiledScriptFile>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<File, CompiledScriptFile> eldest) {
+                return size() > MAX_COMPILED_SCRIPTS;
+            }
+        };
+
+    /** number of times a script file was executed without compiling it again */
+    private long mCompiledHitCount;
+
+    /** objects given to the scripts by the host, by (global variable) name */
+    private final Map<String, Object> mHostBindings = new LinkedHashMap<String, Object>();
+
     /**
      * @param scriptLanguageName
      * @throws ScripterException
      */
     public Scripter(String scriptLanguageName) throws ScripterException{
-        mScriptEngine = new ScriptEngineManager().getEngineByName(scriptLanguageName);
+        this(new ScriptEngineManager(), scriptLanguageName);
+    }
+
+    /**
+     * @param scriptEngineManager manager (shared by all scripters of a session,
+     * since creating one discovers all engines anew) supplying the engine
+     * @param scriptLanguageName
+     * @throws ScripterException
+     */
+    public Scripter(ScriptEngineManager scriptEngineManager, String scriptLanguageName)
+            throws ScripterException {
+        mScriptEngine = scriptEngineManager.getEngineByName(scriptLanguageName);
         if (mScriptEngine == null) {
             throw new ScripterException("no scripting engine found for: '"
                 + scriptLanguageName
@@ -55,6 +104,57 @@ public class Scripter {
           }
     }
 
+    /**
+     * Executes a script file, compiling it first only if it hasn't been
+     * yet, or has changed since
+     * @param scriptFile file containing the script
+     * @throws ScripterException error compiling or executing the script
+     * @throws IOException error reading the script
+     */
+    public void executeScript(File scriptFile) throws ScripterException, IOException {
+
+        if (!(mScriptEngine instanceof Compilable)) {
+            Reader reader = new BufferedReader(new FileReader(scriptFile));
+            try {
+                mScriptEngine.eval(reader);
+            } catch (ScriptException ex) {
+                ex.printStackTrace();
+                throw new ScripterException(ex);
+            } finally {
+                reader.close();
+            }
+            return;
+        }
+
+        File canonicalFile = scriptFile.getCanonicalFile();
+        CompiledScriptFile compiledScriptFile = mCompiledScripts.get(canonicalFile);
+        if (compiledScriptFile != null && compiledScriptFile.isCurrent()) {
+            mCompiledHitCount++;
+        } else {
+            // NOTE: note the file's state before reading it, so a change while reading is seen
+            long lastModified = canonicalFile.lastModified();
+            long length = canonicalFile.length();
+            Reader reader = new BufferedReader(new FileReader(canonicalFile));
+            try {
+                compiledScriptFile = new CompiledScriptFile(canonicalFile, lastModified, length,
+                    ((Compilable) mScriptEngine).compile(reader));
+            } catch (ScriptException ex) {
+                ex.printStackTrace();
+                throw new ScripterException(ex);
+            } finally {
+                reader.close();
+            }
+            mCompiledScripts.put(canonicalFile, compiledScriptFile);
+        }
+
+        try {
+            compiledScriptFile.mCompiledScript.eval(mScriptEngine.getContext());
+        } catch (ScriptException ex) {
+            ex.printStackTrace();
+            throw new ScripterException(ex);
+        }
+    }
+
     /**
      * @param functionName
      * @throws ScripterException
@@ -69,4 +169,79 @@ public class Scripter {
         }
     }
 
+    /**
+     * Gives an object to the scripts, as a global variable which remains
+     * defined when the bindings are reset
+     * @param name name of the global variable
+     * @param value the object
+     */
+    public void putHostBinding(String name, Object value) {
+        mHostBindings.put(name, value);
+        mScriptEngine.put(name, value);
+    }
+
+    /**
+     * Forgets the (global) variables defined by the scripts executed so far,
+     * keeping the engine (and the scripts compiled by it), and the objects
+     * given to the scripts by the host
+     */
+    public void resetBindings() {
+        mScriptEngine.setBindings(mScriptEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
+        for (Map.Entry<String, Object> hostBinding : mHostBindings.entrySet()) {
+            mScriptEngine.put(hostBinding.getKey(), hostBinding.getValue());
+        }
+    }
+
+    /**
+     * @return number of times a script file was executed without compiling it again
+     */
+    public long getCompiledHitCount() {
+        return mCompiledHitCount;
+    }
+
+
+    //
+    //  Private class classes
+    //
+
+    /**
+     * A script file compiled, with the state of the file when compiled
+     */
+    private static class CompiledScriptFile {
+
+        /** the file */
+        private final File mFile;
+
+        /** modification time of the file when compiled */
+        private final long mLastModified;
+
+        /** size of the file when compiled */
+        private final long mLength;
+
+        /** the compiled script */
+        private final CompiledScript mCompiledScript;
+
+        /**
+         * @param file the file
+         * @param lastModified modification time of the file when compiled
+         * @param length size of the file when compiled
+         * @param compiledScript the compiled script
+         */
+        CompiledScriptFile(File file, long lastModified, long length,
+                CompiledScript compiledScript) {
+            mFile = file;
+            mLastModified = lastModified;
+            mLength = length;
+            mCompiledScript = compiledScript;
+        }
+
+        /**
+         * @return true if the file hasn't changed since compiled
+         */
+        boolean isCurrent() {
+            return mFile.lastModified() == mLastModified && mFile.length() == mLength;
+        }
+
+    }
+
 }
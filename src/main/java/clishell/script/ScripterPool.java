@@ -0,0 +1,191 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.script;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.ScriptEngineManager;
+
+/**
+ *
+ * Pool of scripters (each with its own engine, so its own global state),
+ * so that scripts can run concurrently (e.g., from background jobs)
+ * without sharing state.
+ *
+ * The scripter released last is the one acquired next, so scripts run one
+ * after another keep using the same scripter (and see the global variables
+ * their predecessors defined), as they would without a pool.  Scripters
+ * are created when needed, up to a limit; beyond it, acquiring a scripter
+ * waits for one to be released.
+ *
+ */
+public class ScripterPool {
+
+
+    //
+    //  Private instance data
+    //
+
+    /** manager supplying the engines, created once, since creating one is costly */
+    private final ScriptEngineManager mScriptEngineManager;
+
+    /** name of the language of the scripts */
+    private final String mScriptLanguageName;
+
+    /** maximum number of scripters */
+    private final int mMaxScripters;
+
+    /** objects given to the scripts by the host, by (global variable) name */
+    private final Map<String, Object> mHostBindings;
+
+    /** scripters not in use, the one released last first */
+    private final Deque<Scripter> mIdleScripters = new ArrayDeque<Scripter>();
+
+    /** scripters in use */
+    private final Set<Scripter> mBusyScripters = new HashSet<Scripter>();
+
+    /** scripters in use whose global variables are to be forgotten once released */
+    private final Set<Scripter> mStaleScripters = new HashSet<Scripter>();
+
+    /** number of scripters created */
+    private int mScripterCount;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param scriptLanguageName name of the language of the scripts
+     * @param maxScripters maximum number of scripters (i.e., of scripts
+     * running concurrently)
+     * @param hostBindings objects given to the scripts of every scripter
+     * (see {@link Scripter#putHostBinding(String, Object)}), by name, or
+     * <code>null</code> if none
+     * @throws ScripterException no engine found for the language
+     */
+    public ScripterPool(String scriptLanguageName, int maxScripters,
+            Map<String, Object> hostBindings) throws ScripterException {
+        mScriptEngineManager = new ScriptEngineManager();
+        mScriptLanguageName = scriptLanguageName;
+        mMaxScripters = Math.max(1, maxScripters);
+        mHostBindings = (hostBindings != null)
+            ? hostBindings : Collections.<String, Object>emptyMap();
+        // NOTE: fail now, rather than when a script is first run, if there's no engine
+        mIdleScripters.push(newScripter());
+        mScripterCount = 1;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return a scripter for the use of the calling thread, until released
+     * @throws ScripterException error creating a scripter
+     * @throws InterruptedException interrupted waiting for a scripter
+     */
+    public Scripter acquire() throws ScripterException, InterruptedException {
+
+        synchronized(this) {
+            while(mIdleScripters.isEmpty() && mScripterCount >= mMaxScripters) {
+                wait();
+            }
+            if (!mIdleScripters.isEmpty()) {
+                Scripter scripter = mIdleScripters.pop();
+                mBusyScripters.add(scripter);
+                return scripter;
+            }
+            mScripterCount++;
+        }
+
+        // NOTE: created without holding the lock, since creating an engine can be slow
+        try {
+            Scripter scripter = newScripter();
+            synchronized(this) {
+                mBusyScripters.add(scripter);
+            }
+            return scripter;
+        } catch(ScripterException se) {
+            synchronized(this) {
+                mScripterCount--;
+                notify();
+            }
+            throw se;
+        }
+    }
+
+    /**
+     * @param scripter scripter acquired, no longer in use
+     */
+    public synchronized void release(Scripter scripter) {
+        mBusyScripters.remove(scripter);
+        if (mStaleScripters.remove(scripter)) {
+            scripter.resetBindings();
+        }
+        mIdleScripters.push(scripter);
+        notify();
+    }
+
+    /**
+     * Forgets the (global) variables defined by the scripts executed so far
+     * by every scripter of the pool (see {@link Scripter#resetBindings()}):
+     * at once by those not in use, and by the others (still running scripts)
+     * once they're released
+     * @param scripter scripter acquired by the caller, whose variables are
+     * forgotten at once
+     */
+    public synchronized void resetBindings(Scripter scripter) {
+        scripter.resetBindings();
+        mStaleScripters.remove(scripter);
+        for (Scripter idleScripter : mIdleScripters) {
+            idleScripter.resetBindings();
+        }
+        for (Scripter busyScripter : mBusyScripters) {
+            if (busyScripter != scripter) {
+                mStaleScripters.add(busyScripter);
+            }
+        }
+    }
+
+    /**
+     * @return number of scripters created
+     */
+    public synchronized int getScripterCount() {
+        return mScripterCount;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @return new scripter, with the objects given to the scripts by the host
+     * @throws ScripterException no engine found for the language
+     */
+    private Scripter newScripter() throws ScripterException {
+        Scripter scripter = new Scripter(mScriptEngineManager, mScriptLanguageName);
+        for (Map.Entry<String, Object> hostBinding : mHostBindings.entrySet()) {
+            scripter.putHostBinding(hostBinding.getKey(), hostBinding.getValue());
+        }
+        return scripter;
+    }
+
+}
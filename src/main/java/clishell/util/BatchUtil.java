@@ -0,0 +1,201 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import clishell.ex.CliRejectedInputException;
+
+/**
+ *
+ * Common methods of the commands doing many things at a time (e.g.,
+ * validating, transforming or fetching documents) on pools of worker threads
+ *
+ */
+public final class BatchUtil {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Counts the bytes read from a stream, without closing it
+     */
+    public static class CountingInputStream extends FilterInputStream {
+
+        /** set if reading stops once the reading thread is interrupted */
+        private final boolean mIsInterruptible;
+
+        /** number of bytes read */
+        private long mByteCount;
+
+        /**
+         * @param in stream to read
+         * @param isInterruptible true to stop reading once the reading thread
+         * is interrupted (e.g., a slowly arriving response exceeding its time
+         * limit), as a blocked read isn't always interruptible
+         */
+        public CountingInputStream(InputStream in, boolean isInterruptible) {
+            super(in);
+            mIsInterruptible = isInterruptible;
+        }
+
+        /**
+         * @return number of bytes read
+         */
+        public long getByteCount() {
+            return mByteCount;
+        }
+
+        /**
+         * @see FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            checkInterrupted();
+            int b = super.read();
+            if (b >= 0) {
+                mByteCount++;
+            }
+            return b;
+        }
+
+        /**
+         * @see FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkInterrupted();
+            int nRead = super.read(b, off, len);
+            if (nRead > 0) {
+                mByteCount += nRead;
+            }
+            return nRead;
+        }
+
+        /**
+         * @see FilterInputStream#close()
+         */
+        @Override
+        public void close() {
+            // NOTE: the underlying stream is closed by its owner
+        }
+
+        /**
+         * @throws InterruptedIOException the reading thread was interrupted
+         */
+        private void checkInterrupted() throws InterruptedIOException {
+            if (mIsInterruptible && Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("interrupted after " + mByteCount + " bytes");
+            }
+        }
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** number of worker threads created, used to name them */
+    private static final AtomicInteger sWorkerThreadCount = new AtomicInteger();
+
+
+    //
+    //  Private constructors
+    //
+
+    /**
+     * Not instantiated
+     */
+    private BatchUtil() {
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @param name name of the worker threads, to which their number is appended
+     * @return factory of daemon worker threads (which don't keep the JVM running)
+     */
+    public static ThreadFactory newWorkerThreadFactory(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name + "-" + sWorkerThreadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @param throwable exception, maybe wrapping others
+     * @return the underlying exception, not the wrappers around it
+     */
+    public static Throwable unwrapCause(Throwable throwable) {
+        Throwable cause = throwable;
+        while(cause.getCause() != null && cause.getCause() != cause) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    /**
+     * @param countString number of things to do at a time (e.g., the value of
+     * a "-P" option)
+     * @param what what's counted (e.g., "requests"), describing an invalid number
+     * @return the number
+     * @throws CliRejectedInputException not a positive number
+     */
+    public static int parseRequestCount(String countString, String what)
+        throws CliRejectedInputException {
+        int count;
+        try {
+            count = Integer.parseInt(countString.trim());
+        } catch(NumberFormatException nfe) {
+            count = 0;
+        }
+        if (count < 1) {
+            throw new CliRejectedInputException("invalid number of " + what + ": " + countString);
+        }
+        return count;
+    }
+
+    /**
+     * @param documentCount number of documents done
+     * @param doneVerb what was done to them (e.g., "validated")
+     * @param failedCount number of documents that failed
+     * @param failedAdjective what those that failed are (e.g., "invalid")
+     * @param byteCount number of bytes of the documents
+     * @param startTime time the batch started
+     * @return human-readable report of the progress of a batch, with its throughput
+     */
+    public static String formatProgress(int documentCount, String doneVerb, int failedCount,
+            String failedAdjective, long byteCount, long startTime) {
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        return String.format("%d document(s) %s (%d %s) in %.1fs:"
+                + " %.1f document(s)/s, %.2f MB/s",
+            documentCount, doneVerb, failedCount, failedAdjective, elapsedMillis / 1000.0,
+            documentCount * 1000.0 / elapsedMillis,
+            byteCount * 1000.0 / elapsedMillis / (1024 * 1024));
+    }
+
+}
@@ -0,0 +1,320 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+
+/**
+ *
+ * In-memory pipe of bytes between a writing thread and a reading thread,
+ * using a fixed-size ring buffer (so its memory use doesn't depend upon
+ * how much data passes through it).
+ *
+ * The writer blocks while the buffer is full, and the reader while it's
+ * empty.  Closing the output side signals "end of stream" to the reader
+ * once it has drained the buffer; closing the input side (e.g., because
+ * the reader exited early) makes further writes fail with an
+ * <code>IOException</code>, so that the writer learns to stop.
+ *
+ * Unlike <code>java.io.PipedInputStream</code>, the pipe doesn't track
+ * which threads are using it, so either side may be used (or closed)
+ * from any thread; blocked reads and writes respond to interrupts.
+ *
+ */
+public class BoundedPipe {
+
+
+    //
+    //  Public class data
+    //
+
+    /** default number of bytes the pipe can hold */
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** ring buffer */
+    private final byte[] mBuffer;
+
+    /** offset of the next byte to read */
+    private int mReadOffset;
+
+    /** number of bytes in the buffer */
+    private int mCount;
+
+    /** true once the output side has been closed */
+    private boolean mWriterClosed;
+
+    /** true once the input side has been closed */
+    private boolean mReaderClosed;
+
+    /** input side of the pipe */
+    private final InputStream mInputStream = new PipeInputStream();
+
+    /** output side of the pipe */
+    private final OutputStream mOutputStream = new PipeOutputStream();
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * Construct pipe of default capacity
+     */
+    public BoundedPipe() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of bytes the pipe can hold
+     */
+    public BoundedPipe(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("invalid capacity: " + capacity);
+        }
+        mBuffer = new byte[capacity];
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return input (reading) side of the pipe
+     */
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    /**
+     * @return output (writing) side of the pipe
+     */
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    /**
+     * @return true once the input side has been closed
+     */
+    public synchronized boolean isReaderClosed() {
+        return mReaderClosed;
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param b buffer to receive data
+     * @param off offset into <code>b</code>
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, or -1 at end of stream
+     * @throws IOException input side closed, or interrupted while waiting
+     */
+    private synchronized int read(byte[] b, int off, int len) throws IOException {
+
+        if (len == 0) {
+            return 0;
+        }
+
+        while(mCount == 0) {
+            if (mReaderClosed) {
+                throw new IOException("pipe closed");
+            }
+            if (mWriterClosed) {
+                return -1;
+            }
+            waitForPipe();
+        }
+
+        if (mReaderClosed) {
+            throw new IOException("pipe closed");
+        }
+
+        int readLen = Math.min(len, mCount);
+        int firstLen = Math.min(readLen, mBuffer.length - mReadOffset);
+        System.arraycopy(mBuffer, mReadOffset, b, off, firstLen);
+        if (firstLen < readLen) {
+            System.arraycopy(mBuffer, 0, b, off + firstLen, readLen - firstLen);
+        }
+        mReadOffset = (mReadOffset + readLen) % mBuffer.length;
+        mCount -= readLen;
+
+        notifyAll();
+        return readLen;
+    }
+
+    /**
+     * @param b data to write
+     * @param off offset into <code>b</code>
+     * @param len number of bytes to write
+     * @throws IOException either side closed, or interrupted while waiting
+     */
+    private synchronized void write(byte[] b, int off, int len) throws IOException {
+
+        int leftOff = off;
+        int fence = off + len;
+        while(leftOff < fence) {
+
+            if (mWriterClosed) {
+                throw new IOException("pipe closed");
+            }
+            if (mReaderClosed) {
+                throw new IOException("pipe closed by reader");
+            }
+
+            if (mCount == mBuffer.length) {
+                waitForPipe();
+                continue;
+            }
+
+            int writeOffset = (mReadOffset + mCount) % mBuffer.length;
+            int writeLen = Math.min(fence - leftOff, Math.min(mBuffer.length - mCount,
+                mBuffer.length - writeOffset));
+            System.arraycopy(b, leftOff, mBuffer, writeOffset, writeLen);
+            mCount += writeLen;
+            leftOff += writeLen;
+
+            notifyAll();
+        }
+    }
+
+    /**
+     * Waits for the other side of the pipe to change its state
+     * @throws InterruptedIOException interrupted while waiting
+     */
+    private void waitForPipe() throws InterruptedIOException {
+        try {
+            wait();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting on pipe");
+        }
+    }
+
+    /**
+     * Closes the input side of the pipe, discarding unread data
+     */
+    private synchronized void closeReader() {
+        mReaderClosed = true;
+        mCount = 0;
+        notifyAll();
+    }
+
+    /**
+     * Closes the output side of the pipe
+     */
+    private synchronized void closeWriter() {
+        mWriterClosed = true;
+        notifyAll();
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * Input side of the pipe
+     */
+    private class PipeInputStream extends InputStream {
+
+        /** buffer for single-byte reads */
+        private final byte[] mByte = new byte[1];
+
+        /**
+         * @see InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return BoundedPipe.this.read(b, off, len);
+        }
+
+        /**
+         * @see InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            synchronized(BoundedPipe.this) {
+                return (BoundedPipe.this.read(mByte, 0, 1) < 0) ? -1 : (mByte[0] & 0xff);
+            }
+        }
+
+        /**
+         * @see InputStream#available()
+         */
+        @Override
+        public int available() {
+            synchronized(BoundedPipe.this) {
+                return mCount;
+            }
+        }
+
+        /**
+         * @see InputStream#close()
+         */
+        @Override
+        public void close() {
+            closeReader();
+        }
+
+    }
+
+    /**
+     * Output side of the pipe
+     */
+    private class PipeOutputStream extends OutputStream {
+
+        /** buffer for single-byte writes */
+        private final byte[] mByte = new byte[1];
+
+        /**
+         * @see OutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            BoundedPipe.this.write(b, off, len);
+        }
+
+        /**
+         * @see OutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            synchronized(BoundedPipe.this) {
+                mByte[0] = (byte) b;
+                BoundedPipe.this.write(mByte, 0, 1);
+            }
+        }
+
+        /**
+         * @see OutputStream#close()
+         */
+        @Override
+        public void close() {
+            closeWriter();
+        }
+
+    }
+
+}
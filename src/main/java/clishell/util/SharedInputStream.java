@@ -0,0 +1,334 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+
+/**
+ *
+ * Input stream shared by several readers (e.g., the CLI's command loop and
+ * the child processes it runs) which, unlike the stream it wraps, lets a
+ * reader give up waiting for input without closing the stream, and without
+ * losing input to a reader that's gone away.
+ *
+ * A single (daemon) thread reads the wrapped stream, but only while some
+ * reader is waiting for input; what it reads is kept until some reader
+ * takes it.  Each reader that needs to stop waiting uses its own "view"
+ * (see {@link #newView()}): closing the view makes a read blocked on it
+ * return "end of stream" right away, without polling.
+ *
+ * The standard input of the JVM, shared this way, is available using
+ * {@link #getStandardInput()}; everything reading <code>System.in</code>
+ * should read it instead.
+ *
+ */
+public class SharedInputStream extends InputStream {
+
+
+    //
+    //  Private class data
+    //
+
+    /** number of bytes held for readers */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /** shared standard input, created when first needed */
+    private static SharedInputStream sStandardInput;
+
+
+    //
+    //  Private instance data
+    //
+
+    /** stream being shared */
+    private final InputStream mSource;
+
+    /** name of thread reading the stream */
+    private final String mThreadName;
+
+    /** data read but not yet taken by a reader */
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    /** offset of the next byte to take */
+    private int mOffset;
+
+    /** number of bytes held */
+    private int mCount;
+
+    /** number of readers waiting for input */
+    private int mWaitingReaders;
+
+    /** set once the stream being shared reaches "end of stream" */
+    private boolean mEndOfStream;
+
+    /** error reading the stream being shared, if any */
+    private IOException mReadException;
+
+    /** thread reading the stream, or <code>null</code> if not started yet */
+    private Thread mReaderThread;
+
+
+    //
+    //  Public constructors
+    //
+
+    /**
+     * @param source stream to share
+     * @param threadName name of the thread that will read <code>source</code>
+     */
+    public SharedInputStream(InputStream source, String threadName) {
+        mSource = source;
+        mThreadName = threadName;
+    }
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @return the JVM's standard input, shared
+     */
+    public static synchronized SharedInputStream getStandardInput() {
+        if (sStandardInput == null) {
+            sStandardInput = new SharedInputStream(System.in, "stdin-reader");
+        }
+        return sStandardInput;
+    }
+
+
+    //
+    //  Public instance methods
+    //
+
+    /**
+     * @return new view of the stream; closing it stops reads on it, but
+     * doesn't close this stream
+     */
+    public InputStream newView() {
+        return new View();
+    }
+
+    /**
+     * @see InputStream#read(byte[], int, int)
+     */
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return read(null, b, off, len);
+    }
+
+    /**
+     * @see InputStream#read()
+     */
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return (read(null, b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+    }
+
+    /**
+     * @see InputStream#available()
+     */
+    @Override
+    public synchronized int available() {
+        return mCount;
+    }
+
+    /**
+     * NOTE: does not close the stream being shared, by design!
+     * @see InputStream#close()
+     */
+    @Override
+    public void close() {
+        // nothing to do
+    }
+
+
+    //
+    //  Private instance methods
+    //
+
+    /**
+     * @param view view being read, or <code>null</code> if reading the
+     * shared stream itself
+     * @param b buffer to receive data
+     * @param off offset into <code>b</code>
+     * @param len maximum number of bytes to read
+     * @return number of bytes read, or -1 at end of stream (or if
+     * <code>view</code> was closed)
+     * @throws IOException error reading the stream being shared, or
+     * interrupted while waiting
+     */
+    private synchronized int read(View view, byte[] b, int off, int len) throws IOException {
+
+        if (view != null && view.mClosed) {
+            return -1;
+        }
+
+        if (len == 0) {
+            return 0;
+        }
+
+        mWaitingReaders++;
+        try {
+            while(mCount == 0) {
+                if (view != null && view.mClosed) {
+                    return -1;
+                }
+                if (mEndOfStream) {
+                    return -1;
+                }
+                if (mReadException != null) {
+                    IOException readException = mReadException;
+                    mReadException = null;
+                    throw readException;
+                }
+                startReaderThread();
+                notifyAll();
+                try {
+                    wait();
+                } catch(InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for input");
+                }
+            }
+        } finally {
+            mWaitingReaders--;
+        }
+
+        int readLen = Math.min(len, mCount);
+        System.arraycopy(mBuffer, mOffset, b, off, readLen);
+        mOffset += readLen;
+        mCount -= readLen;
+        notifyAll();
+        return readLen;
+    }
+
+    /**
+     * Starts the thread reading the stream being shared, if not already started
+     */
+    private void startReaderThread() {
+        if (mReaderThread != null) {
+            return;
+        }
+        mReaderThread = new Thread(new Runnable() {
+            public void run() {
+                readSource();
+            }
+        }, mThreadName);
+        mReaderThread.setDaemon(true);
+        mReaderThread.start();
+    }
+
+    /**
+     * Body of the thread reading the stream being shared
+     */
+    private void readSource() {
+
+        byte[] readBuffer = new byte[BUFFER_SIZE];
+        while(true) {
+
+            // read only when there's room, and someone wants it
+            synchronized(this) {
+                while(mCount > 0 || mWaitingReaders == 0) {
+                    try {
+                        wait();
+                    } catch(InterruptedException ie) {
+                        // nobody interrupts this thread; keep going
+                    }
+                }
+            }
+
+            // NOTE: not holding our lock while blocked reading
+            int len;
+            try {
+                len = mSource.read(readBuffer, 0, readBuffer.length);
+            } catch(IOException ioex) {
+                synchronized(this) {
+                    mReadException = ioex;
+                    notifyAll();
+                }
+                continue;
+            }
+
+            synchronized(this) {
+                if (len < 0) {
+                    mEndOfStream = true;
+                    notifyAll();
+                    return;
+                }
+                System.arraycopy(readBuffer, 0, mBuffer, 0, len);
+                mOffset = 0;
+                mCount = len;
+                notifyAll();
+            }
+        }
+    }
+
+
+    //
+    //  Private instance classes
+    //
+
+    /**
+     * View of the shared stream, which can be closed independently of it
+     */
+    private class View extends InputStream {
+
+        /** set once the view is closed */
+        private boolean mClosed;
+
+        /**
+         * @see InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return SharedInputStream.this.read(this, b, off, len);
+        }
+
+        /**
+         * @see InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+        }
+
+        /**
+         * @see InputStream#available()
+         */
+        @Override
+        public int available() throws IOException {
+            synchronized(SharedInputStream.this) {
+                return mClosed ? 0 : mCount;
+            }
+        }
+
+        /**
+         * @see InputStream#close()
+         */
+        @Override
+        public void close() {
+            synchronized(SharedInputStream.this) {
+                mClosed = true;
+                SharedInputStream.this.notifyAll();
+            }
+        }
+
+    }
+
+}
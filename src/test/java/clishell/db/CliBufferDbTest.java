@@ -0,0 +1,147 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.db;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.Arrays;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+
+/**
+ *
+ * Tests of the memory-bounded buffer store
+ *
+ */
+public class CliBufferDbTest {
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        CliBufferDb cliBufferDb = new CliBufferDb(0, 0, null);
+        String expected = writeTextBuffer(cliBufferDb, "b1", 1000);
+        CliBuffer buffer = cliBufferDb.getBuffer("b1");
+        Assert.assertEquals(expected, buffer.getContents());
+        Assert.assertEquals(expected.length(), buffer.getCharCount());
+        Assert.assertFalse(buffer.isSpilled());
+        Assert.assertEquals(buffer.getInMemoryBytes(), cliBufferDb.getInMemoryBytes());
+        cliBufferDb.clear();
+        Assert.assertEquals(0, cliBufferDb.getInMemoryBytes());
+    }
+
+    @Test
+    public void testSpillThreshold() throws IOException {
+        CliBufferDb cliBufferDb = new CliBufferDb(0, 2 * CliBuffer.CHUNK_SIZE, null);
+        String expected = writeTextBuffer(cliBufferDb, "big", 20000);
+        CliBuffer buffer = cliBufferDb.getBuffer("big");
+        Assert.assertTrue(buffer.isSpilled());
+        Assert.assertEquals(0, buffer.getInMemoryBytes());
+        Assert.assertEquals(expected.length(), buffer.getSpilledBytes());
+        Assert.assertEquals(0, cliBufferDb.getInMemoryBytes());
+        Assert.assertEquals(expected, buffer.getContents());
+        cliBufferDb.clear();
+    }
+
+    @Test
+    public void testLruEviction() throws IOException {
+        CliBufferDb cliBufferDb = new CliBufferDb(3 * CliBuffer.CHUNK_SIZE, 0, null);
+        String first = writeTextBuffer(cliBufferDb, "first", 1000);
+        writeTextBuffer(cliBufferDb, "second", 1000);
+        cliBufferDb.getBuffer("first");
+        writeTextBuffer(cliBufferDb, "third", 4000);
+        Assert.assertFalse(cliBufferDb.getBuffer("first").isSpilled());
+        Assert.assertTrue(cliBufferDb.getBuffer("second").isSpilled());
+        Assert.assertTrue(cliBufferDb.getInMemoryBytes() <= 3 * CliBuffer.CHUNK_SIZE);
+        Assert.assertEquals(first, cliBufferDb.getBuffer("first").getContents());
+        Assert.assertNotNull(cliBufferDb.removeBuffer("second"));
+        Assert.assertEquals(2, cliBufferDb.getBufferNames().size());
+        cliBufferDb.clear();
+    }
+
+    @Test
+    public void testBinaryData() throws IOException {
+        CliBufferDb cliBufferDb = new CliBufferDb(0, CliBuffer.CHUNK_SIZE, null);
+        CliBuffer buffer = cliBufferDb.newBuffer("bin", CliBuffer.Type.BYTE);
+        byte[] expected = new byte[3 * CliBuffer.CHUNK_SIZE + 17];
+        for (int i = 0; i < expected.length; i++) {
+            expected[i] = (byte) i;
+        }
+        OutputStream outputStream = buffer.getOutputStream();
+        outputStream.write(expected, 0, 10);
+        outputStream.write(expected, 10, expected.length - 10);
+        outputStream.close();
+        cliBufferDb.putBuffer(buffer);
+        Assert.assertTrue(buffer.isSpilled());
+        Assert.assertEquals(expected.length, buffer.getLength());
+        InputStream inputStream = buffer.getInputStream();
+        ByteArrayOutputStream actual = new ByteArrayOutputStream();
+        int b;
+        while((b = inputStream.read()) >= 0) {
+            actual.write(b);
+        }
+        inputStream.close();
+        Assert.assertTrue(Arrays.equals(expected, actual.toByteArray()));
+        cliBufferDb.clear();
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        CliBufferDb cliBufferDb = new CliBufferDb(0, 0, null);
+        String expected = writeTextBuffer(cliBufferDb, "mem", 20000);
+        CliBufferDb spillingBufferDb = new CliBufferDb(0, CliBuffer.CHUNK_SIZE, null);
+        writeTextBuffer(spillingBufferDb, "spilled", 20000);
+        for (CliBuffer buffer : Arrays.asList(cliBufferDb.getBuffer("mem"),
+                spillingBufferDb.getBuffer("spilled"))) {
+            String contents = buffer.getContents().replace("spilled", "mem");
+            Assert.assertEquals(expected, contents);
+            long offset = CliBuffer.CHUNK_SIZE + 5;
+            InputStream inputStream = buffer.getInputStream();
+            Assert.assertEquals(offset, inputStream.skip(offset));
+            Assert.assertEquals(buffer.getContents().charAt((int) offset), inputStream.read());
+            Assert.assertEquals(10, inputStream.skip(10));
+            Assert.assertEquals(buffer.getLength() - offset - 11,
+                inputStream.skip(buffer.getLength()));
+            Assert.assertEquals(-1, inputStream.read());
+            inputStream.close();
+        }
+        cliBufferDb.clear();
+        spillingBufferDb.clear();
+    }
+
+    /**
+     * @param cliBufferDb database in which to create the buffer
+     * @param bufferName name of buffer
+     * @param n number of lines to write
+     * @return what was written
+     */
+    private String writeTextBuffer(CliBufferDb cliBufferDb, String bufferName, int n)
+        throws IOException {
+        CliBuffer buffer = cliBufferDb.newBuffer(bufferName, CliBuffer.Type.CHAR);
+        Writer writer = buffer.getWriter();
+        StringBuffer expected = new StringBuffer();
+        for (int i = 0; i < n; i++) {
+            String line = "line " + i + " of buffer " + bufferName + "\n";
+            writer.write(line);
+            expected.append(line);
+        }
+        writer.close();
+        cliBufferDb.putBuffer(buffer);
+        return expected.toString();
+    }
+
+}
@@ -34,6 +34,22 @@ public class CliPluginDbTest {
         Assert.assertEquals(cliPluginDb.getPluginCount(), 0);
     }
 
+    @Test
+    public void testSnapshot() throws CliRejectedInputException {
+        CliPluginDb<NamedPluginTest> cliPluginDb = createCliPluginDb(new String[] {"hi", "there" });
+        Iterable<String> pluginNames = cliPluginDb.cliPluginNames();
+        cliPluginDb.removePlugin("hi");
+        cliPluginDb.addPlugin("again", new NamedPluginTest("again"));
+        // listed as loaded when asked for, in order
+        StringBuilder names = new StringBuilder();
+        for (String pluginName : pluginNames) {
+            names.append(pluginName).append(' ');
+        }
+        Assert.assertEquals("hi there ", names.toString());
+        Assert.assertNull(cliPluginDb.removePlugin("hi"));
+        Assert.assertEquals(cliPluginDb.getPluginCount(), 2);
+    }
+
 
     /**
      * @return
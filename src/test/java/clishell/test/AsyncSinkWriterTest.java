@@ -0,0 +1,163 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import junit.framework.Assert;
+
+import clishell.plugins.AsyncSinkWriter;
+import clishell.plugins.AsyncSinkWriter.OverflowPolicy;
+import clishell.plugins.TeeWriter;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of asynchronous tee sinks
+ *
+ */
+public class AsyncSinkWriterTest {
+
+    @Test
+    public void testBlockPreservesOutput() throws IOException {
+        StringWriter sink = new StringWriter();
+        AsyncSinkWriter writer = new AsyncSinkWriter("test", new SlowWriter(sink),
+            true, OverflowPolicy.BLOCK, 1);
+        String expected = writeLines(writer, 2000);
+        writer.flush();
+        Assert.assertEquals(expected, sink.toString());
+        Assert.assertEquals(0, writer.getLagChars());
+        writer.close();
+    }
+
+    @Test
+    public void testSpillPreservesOrder() throws IOException {
+        StringWriter sink = new StringWriter();
+        AsyncSinkWriter writer = new AsyncSinkWriter("test", new SlowWriter(sink),
+            true, OverflowPolicy.SPILL, 1);
+        String expected = writeLines(writer, 5000);
+        writer.close();
+        Assert.assertEquals(expected, sink.toString());
+        Assert.assertTrue(writer.getSpilledChars() > 0);
+    }
+
+    @Test
+    public void testDropOldestNeverBlocks() throws IOException {
+        StringWriter sink = new StringWriter();
+        AsyncSinkWriter writer = new AsyncSinkWriter("test", new SlowWriter(sink),
+            true, OverflowPolicy.DROP_OLDEST, 1);
+        String expected = writeLines(writer, 5000);
+
+        // NOTE: what's kept of a chunk split by a write may not be contiguous, so
+        // the last line is written once the others have been drained (or dropped)
+        writer.flush();
+        expected += writeLines(writer, 1);
+        writer.close();
+        Assert.assertEquals(expected.length(),
+            sink.toString().length() + writer.getDroppedChars());
+        Assert.assertTrue(sink.toString().endsWith("line 0 of the test output\n"));
+    }
+
+    @Test
+    public void testTeeWithAsyncWriter() throws IOException {
+        StringWriter syncSink = new StringWriter();
+        StringWriter asyncSink = new StringWriter();
+        TeeWriter teeWriter = new TeeWriter(false, syncSink);
+        AsyncSinkWriter asyncWriter = teeWriter.addAsyncWriter("async", false, asyncSink,
+            OverflowPolicy.BLOCK, 4);
+        Assert.assertTrue(teeWriter.hasAsyncWriters());
+        Assert.assertTrue(AsyncSinkWriter.getOpenWriters().contains(asyncWriter));
+        String expected = writeLines(teeWriter, 100);
+        teeWriter.close();
+        Assert.assertEquals(expected, syncSink.toString());
+        Assert.assertEquals(expected, asyncSink.toString());
+        Assert.assertFalse(AsyncSinkWriter.getOpenWriters().contains(asyncWriter));
+    }
+
+    @Test
+    public void testSinkErrorIsReported() throws IOException {
+        AsyncSinkWriter writer = new AsyncSinkWriter("test", new Writer() {
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+            public void flush() {
+                // nothing to do
+            }
+            public void close() {
+                // nothing to do
+            }
+        }, true, OverflowPolicy.BLOCK, 4);
+        try {
+            writer.write("hello");
+            writer.flush();
+            Assert.fail("expected exception");
+        } catch(IOException ioex) {
+            Assert.assertEquals("disk full", ioex.getCause().getMessage());
+        }
+        try {
+            writer.close();
+            Assert.fail("expected exception");
+        } catch(IOException ioex) {
+            Assert.assertEquals("disk full", ioex.getCause().getMessage());
+        }
+        Assert.assertFalse(AsyncSinkWriter.getOpenWriters().contains(writer));
+    }
+
+    /**
+     * @param writer destination
+     * @param n number of lines to write
+     * @return what was written
+     */
+    private String writeLines(Writer writer, int n) throws IOException {
+        StringBuffer expected = new StringBuffer();
+        for (int i = 0; i < n; i++) {
+            String line = "line " + i + " of the test output\n";
+            writer.write(line);
+            expected.append(line);
+        }
+        return expected.toString();
+    }
+
+    /**
+     * Writer that's slow to write to
+     */
+    private static class SlowWriter extends Writer {
+
+        private final Writer mWriter;
+
+        public SlowWriter(Writer writer) {
+            mWriter = writer;
+        }
+
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            try {
+                Thread.sleep(1);
+            } catch(InterruptedException ie) {
+                // nothing to do
+            }
+            mWriter.write(cbuf, off, len);
+        }
+
+        public void flush() throws IOException {
+            mWriter.flush();
+        }
+
+        public void close() throws IOException {
+            mWriter.close();
+        }
+
+    }
+
+}
@@ -0,0 +1,119 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import clishell.net.UrlResourceInputStream;
+import clishell.plugins.BatchFetcher;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of retrieving batches of resources concurrently, using a local server
+ *
+ */
+public class BatchFetcherTest {
+
+    @Test
+    public void testFetch() throws Exception {
+
+        final Set<String> clientAddresses = Collections.synchronizedSet(new HashSet<String>());
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/missing")) {
+                    exchange.sendResponseHeaders(404, -1);
+                    exchange.close();
+                    return;
+                }
+                clientAddresses.add(exchange.getRemoteAddress().toString());
+                byte[] content = path.getBytes();
+                exchange.sendResponseHeaders(200, content.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                if (path.equals("/slow")) {
+                    try {
+                        Thread.sleep(2000);
+                    } catch(InterruptedException ie) {
+                        // send it, then
+                    }
+                }
+                responseBody.write(content);
+                responseBody.close();
+            }
+        });
+
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            Map<String, URL> resources = new LinkedHashMap<String, URL>();
+            for (int i = 0; i < 20; i++) {
+                resources.put("r" + i, new URL(baseUrl + "/r" + i));
+            }
+            resources.put("missing", new URL(baseUrl + "/missing"));
+            resources.put("slow", new URL(baseUrl + "/slow"));
+
+            final Map<String, String> received
+                = Collections.synchronizedMap(new HashMap<String, String>());
+            List<BatchFetcher.Result> results = new BatchFetcher(
+                UrlResourceInputStream.Transport.HTTP_CLIENT, 1, 500).fetch(resources,
+                    new BatchFetcher.Receiver() {
+                        public void receive(String name, InputStream inputStream)
+                                throws IOException {
+                            ByteArrayOutputStream content = new ByteArrayOutputStream();
+                            inputStream.transferTo(content);
+                            received.put(name, content.toString());
+                        }
+                    });
+
+            // results come in the order requested, with their outcome
+            Assert.assertEquals(22, results.size());
+            for (int i = 0; i < 20; i++) {
+                BatchFetcher.Result result = results.get(i);
+                Assert.assertEquals("r" + i, result.getName());
+                Assert.assertTrue(result.isRetrieved());
+                Assert.assertEquals(200, result.getStatusCode());
+                Assert.assertEquals(("/r" + i).length(), result.getByteCount());
+                Assert.assertEquals("/r" + i, received.get("r" + i));
+            }
+            Assert.assertEquals(404, results.get(20).getStatusCode());
+            Assert.assertFalse(results.get(20).isRetrieved());
+            Assert.assertFalse(results.get(21).isRetrieved());
+            Assert.assertTrue(results.get(21).getError().startsWith("timed out"));
+            Assert.assertFalse(received.containsKey("slow"));
+
+            // one request at a time, over (mostly) reused connections
+            Assert.assertTrue(clientAddresses.size() < 10);
+
+        } finally {
+            server.stop(0);
+        }
+    }
+
+}
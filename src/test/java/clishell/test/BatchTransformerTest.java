@@ -0,0 +1,200 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import clishell.CliRunner;
+import clishell.plugins.BatchTransformer;
+import clishell.plugins.TransformerPlugin;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>BatchTransformer</code></li>
+ *   <li><code>TransformerPlugin</code> ("transform -P")</li>
+ * </ol>
+ *
+ */
+public class BatchTransformerTest {
+
+    @Test
+    public void testFindDocuments() throws Exception {
+
+        Path directory = createDocuments("a.xml", "b.txt", "sub/c.xml", "sub/deep/d.xml");
+
+        // "**/" matches no directory too
+        Assert.assertEquals(Arrays.asList("a.xml", "sub/c.xml", "sub/deep/d.xml"),
+            getOutputPaths(directory + "/**/*.xml"));
+        Assert.assertEquals(Arrays.asList("c.xml", "deep/d.xml"),
+            getOutputPaths(directory + "/sub/**/*.xml"));
+        Assert.assertEquals(Arrays.asList("sub/deep/d.xml"),
+            getOutputPaths(directory + "/*/**/deep/*.xml"));
+
+        Assert.assertEquals(Arrays.asList("a.xml"), getOutputPaths(directory + "/*.xml"));
+        Assert.assertEquals(Arrays.asList("a.xml"), getOutputPaths(directory.toString()));
+        Assert.assertEquals(Arrays.asList("c.xml"),
+            getOutputPaths(directory.resolve("sub/c.xml").toString()));
+
+        // a list of files is output by their names, which mustn't collide
+        Path listFile = directory.resolve("list");
+        writeLines(listFile, directory.resolve("a.xml"), directory.resolve("sub/deep/d.xml"));
+        Assert.assertEquals(Arrays.asList("a.xml", "d.xml"), getOutputPaths("@" + listFile));
+        Files.copy(directory.resolve("a.xml"), directory.resolve("sub/a.xml"));
+        writeLines(listFile, directory.resolve("a.xml"), directory.resolve("sub/a.xml"));
+        try {
+            BatchTransformer.findDocuments("@" + listFile);
+            Assert.fail("colliding output accepted");
+        } catch(IllegalArgumentException iae) {
+            Assert.assertTrue(iae.getMessage(), iae.getMessage().endsWith(
+                "would both be written to 'a.xml'"));
+        }
+    }
+
+    @Test
+    public void testTransform() throws Exception {
+
+        final Path directory = createDocuments("a.xml", "sub/b.xml", "sub/deep/c.xml", "sub/bad.xml");
+        Files.write(directory.resolve("sub/bad.xml"), "<doc>".getBytes());
+        final Path styleSheet = directory.resolve("style.xsl");
+        Files.write(styleSheet, ("<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:output method='text'/>"
+            + "<xsl:template match='/'>[<xsl:value-of select='doc'/>]</xsl:template>"
+            + "</xsl:stylesheet>").getBytes());
+        final Path outputDirectory = directory.resolve("out");
+
+        CliRunnerFixture.run(TransformerPlugin.class.getName(), new CliRunnerFixture.Body() {
+            public void run(CliRunner cliRunner) throws Exception {
+
+                StringWriter errors = new StringWriter();
+                PrintWriter errorConsole = new PrintWriter(errors, true);
+                cliRunner.setErrorConsole(errorConsole);
+                try {
+                    cliRunner.dispatchCommand("transform -P 2 " + styleSheet + " "
+                        + directory + "/**/*.xml " + outputDirectory);
+                } finally {
+                    cliRunner.unsetErrorConsole(errorConsole);
+                }
+
+                // the failure is collected, without stopping the batch
+                String output = CliRunnerFixture.getOutput();
+                Assert.assertTrue(output, output.contains("4 document(s) transformed (1 failed)"));
+                Assert.assertTrue(output, output.contains(
+                    "Command Exception: 1 of 4 document(s) failed to transform"));
+                Assert.assertTrue(errors.toString(), errors.toString().startsWith(
+                    directory.resolve("sub/bad.xml") + ": "));
+
+                // the output mirrors the input's layout, without that of the failure
+                Assert.assertEquals("[a.xml]", read(outputDirectory.resolve("a.xml")));
+                Assert.assertEquals("[sub/b.xml]", read(outputDirectory.resolve("sub/b.xml")));
+                Assert.assertEquals("[sub/deep/c.xml]",
+                    read(outputDirectory.resolve("sub/deep/c.xml")));
+                Assert.assertFalse(Files.exists(outputDirectory.resolve("sub/bad.xml")));
+
+                // documents whose output would collide are rejected
+                Path listFile = directory.resolve("list");
+                writeLines(listFile, directory.resolve("sub/b.xml"), directory.resolve("sub/bad.xml"),
+                    directory.resolve("sub/deep/../b.xml"));
+                cliRunner.dispatchCommand("transform -P 2 " + styleSheet + " @" + listFile
+                    + " " + outputDirectory);
+                output = CliRunnerFixture.getOutput();
+                Assert.assertTrue(output, output.startsWith("illegal argument: ")
+                    && output.contains("would both be written to 'b.xml'"));
+
+                // as are documents that their output would replace, which are left intact
+                cliRunner.dispatchCommand("transform -P 2 " + styleSheet + " "
+                    + directory + "/sub/*.xml " + directory + "/sub/deep/..");
+                output = CliRunnerFixture.getOutput();
+                Assert.assertTrue(output, output.startsWith("illegal argument: ")
+                    && output.contains("would be replaced by the output of"));
+                Assert.assertEquals("<doc>sub/b.xml</doc>", read(directory.resolve("sub/b.xml")));
+
+                // and a document that fails leaves its previous output in place
+                Files.write(directory.resolve("sub/b.xml"), "<doc>".getBytes());
+                cliRunner.dispatchCommand("transform -P 2 " + styleSheet + " "
+                    + directory + "/sub/b.xml " + outputDirectory.resolve("sub"));
+                output = CliRunnerFixture.getOutput();
+                Assert.assertTrue(output, output.contains("1 document(s) transformed (1 failed)"));
+                Assert.assertEquals("[sub/b.xml]", read(outputDirectory.resolve("sub/b.xml")));
+                String[] names = outputDirectory.resolve("sub").toFile().list();
+                Arrays.sort(names);
+                Assert.assertEquals(Arrays.asList("b.xml", "deep"), Arrays.asList(names));
+
+            }
+        });
+    }
+
+    /**
+     * @param inputSpec input specification
+     * @return paths of the output of the documents found
+     * @throws Exception error finding the documents
+     */
+    private static List<String> getOutputPaths(String inputSpec) throws Exception {
+        List<String> outputPaths = new ArrayList<String>();
+        for (BatchTransformer.Document document : BatchTransformer.findDocuments(inputSpec)) {
+            outputPaths.add(document.getOutputPath().toString().replace(File.separatorChar, '/'));
+        }
+        return outputPaths;
+    }
+
+    /**
+     * @param names paths of the documents to create, each containing its path
+     * @return new directory, containing the documents
+     * @throws Exception error creating the documents
+     */
+    private static Path createDocuments(String... names) throws Exception {
+        Path directory = Files.createTempDirectory("batch-transformer-test").toRealPath();
+        directory.toFile().deleteOnExit();
+        for (String name : names) {
+            Path path = directory.resolve(name);
+            Files.createDirectories(path.getParent());
+            Files.write(path, ("<doc>" + name + "</doc>").getBytes());
+        }
+        return directory;
+    }
+
+    /**
+     * @param file file to write
+     * @param lines lines to write
+     * @throws Exception error writing the file
+     */
+    private static void writeLines(Path file, Path... lines) throws Exception {
+        StringBuilder text = new StringBuilder();
+        for (Path line : lines) {
+            text.append(line).append('\n');
+        }
+        Files.write(file, text.toString().getBytes());
+    }
+
+    /**
+     * @param file file to read
+     * @return text of the file
+     * @throws Exception error reading the file
+     */
+    private static String read(Path file) throws Exception {
+        return new String(Files.readAllBytes(file));
+    }
+
+}
@@ -0,0 +1,68 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import junit.framework.Assert;
+
+import clishell.CancellationToken;
+import clishell.ex.CliCommandCancelledException;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of cooperative command cancellation
+ *
+ */
+public class CancellationTokenTest {
+
+    @Test
+    public void testCallbacks() {
+        final int[] nCalls = new int[1];
+        Runnable callback = new Runnable() {
+            public void run() {
+                nCalls[0]++;
+            }
+        };
+        CancellationToken token = new CancellationToken();
+        token.addCallback(callback);
+        Assert.assertFalse(token.isCancelled());
+        token.cancel("test");
+        token.cancel("again");
+        Assert.assertTrue(token.isCancelled());
+        Assert.assertEquals("test", token.getReason());
+        Assert.assertEquals(1, nCalls[0]);
+        token.addCallback(callback);
+        Assert.assertEquals(2, nCalls[0]);
+    }
+
+    @Test
+    public void testChildren() {
+        CancellationToken parent = new CancellationToken();
+        CancellationToken child = parent.newChild();
+        CancellationToken releasedChild = parent.newChild();
+        releasedChild.release();
+        child.newChild().cancel("grandchild only");
+        Assert.assertFalse(child.isCancelled());
+        parent.cancel("parent");
+        Assert.assertTrue(child.isCancelled());
+        Assert.assertEquals("parent", child.getReason());
+        Assert.assertFalse(releasedChild.isCancelled());
+        try {
+            child.throwIfCancelled();
+            Assert.fail("expected exception");
+        } catch(CliCommandCancelledException ccce) {
+            Assert.assertEquals("parent", ccce.getMessage());
+        }
+    }
+
+}
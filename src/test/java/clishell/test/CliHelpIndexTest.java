@@ -0,0 +1,111 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.util.List;
+
+import junit.framework.Assert;
+
+import clishell.CliPluginLoader;
+import clishell.CliPluginMetadata;
+import clishell.CommandName;
+import clishell.anno.CliPlugin;
+import clishell.anno.CliPluginCommand;
+import clishell.db.CliHelpIndex;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>CliHelpIndex</code></li>
+ * </ol>
+ *
+ */
+public class CliHelpIndexTest {
+
+    @CliPlugin
+    public static class SamplePlugin {
+
+        @CliPluginCommand(
+              name = "list buffers"
+        ,   syntax = "[-v]"
+        , helptext = { "Lists the buffers" }
+        )
+        public void listBuffers(String[] args) {
+        }
+
+        @CliPluginCommand(
+              name = "delete buffers"
+        ,   syntax = "<buffer-name>"
+        , helptext = { "Deletes buffers, and their spill files" }
+        )
+        public void deleteBuffers(String[] args) {
+        }
+
+        @CliPluginCommand(
+              name = "get resource"
+        ,   syntax = "<resource-identifier>"
+        , helptext = { "Retrieves a resource into a buffer" }
+        )
+        public void getResource(String arg) {
+        }
+
+        @CliPluginCommand(
+              name = "get resources"
+        ,   syntax = "<name>=<resource-identifier>"
+        , helptext = { "Retrieves resources concurrently" }
+        )
+        public void getResources(String[] args) {
+        }
+
+    }
+
+    @Test
+    public void testIndex() throws Exception {
+
+        CliPluginMetadata pluginMetadata = new CliPluginLoader().loadFromClassName(
+            SamplePlugin.class.getName(), "sample");
+        CliHelpIndex helpIndex = new CliHelpIndex();
+        helpIndex.addCommands("sample", pluginMetadata.getCommands());
+        Assert.assertEquals(4, helpIndex.getEntries().size());
+
+        // names are found by prefix
+        Assert.assertEquals(2, helpIndex.getEntriesByNamePrefix("get res").size());
+        Assert.assertEquals(0, helpIndex.getEntriesByNamePrefix("resource").size());
+
+        // the commands matching the most terms, in their names, rank first
+        List<CliHelpIndex.HelpEntry> entries = helpIndex.search("buffer", "spill");
+        Assert.assertEquals(3, entries.size());
+        Assert.assertEquals("delete buffers", entries.get(0).getDisplayName());
+        Assert.assertEquals("list buffers", entries.get(1).getDisplayName());
+
+        // mistyped (and abbreviated) words suggest the commands they're like
+        List<CommandName> suggestions = helpIndex.suggest(
+            new String[] { "gte", "resorce", "http://x" }, 3);
+        Assert.assertEquals(2, suggestions.size());
+        Assert.assertEquals("get resource", suggestions.get(0).toString());
+        Assert.assertEquals("get resources", suggestions.get(1).toString());
+        suggestions = helpIndex.suggest(new String[] { "dleete", "buf" }, 3);
+        Assert.assertEquals(1, suggestions.size());
+        Assert.assertEquals("delete buffers", suggestions.get(0).toString());
+        Assert.assertEquals(0, helpIndex.suggest(new String[] { "zzz" }, 3).size());
+
+        // removing the plugin removes its commands
+        helpIndex.removeCommands("sample");
+        Assert.assertEquals(0, helpIndex.getEntries().size());
+        Assert.assertEquals(0, helpIndex.search("buffer").size());
+        Assert.assertEquals(0, helpIndex.suggest(new String[] { "get" }, 3).size());
+    }
+
+}
@@ -0,0 +1,138 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import clishell.db.CliHistoryDb;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>CliHistoryDb</code></li>
+ * </ol>
+ *
+ */
+public class CliHistoryDbTest {
+
+    @Test
+    public void testHistory() throws Exception {
+
+        File file = File.createTempFile("clishell-history", ".log");
+        try {
+
+            CliHistoryDb historyDb = new CliHistoryDb(file, 100, 1000);
+            historyDb.add("list buffers");
+            historyDb.add("get resource http://example.com/a");
+            historyDb.add("get resource http://example.com/a");
+            historyDb.add("  ");
+            historyDb.add("set property x=1");
+            historyDb.add("list buffers");
+            Assert.assertEquals(4, historyDb.size());
+            historyDb.close();
+
+            // the commands are kept by the log, and found once it's opened again
+            historyDb = new CliHistoryDb(file, 100, 1000);
+            Assert.assertEquals(4, historyDb.size());
+            Assert.assertEquals("list buffers", historyDb.get(1));
+            Assert.assertEquals("get resource http://example.com/a", historyDb.get(2));
+            Assert.assertNull(historyDb.get(5));
+            historyDb.add("get resource http://example.com/b");
+
+            Assert.assertEquals(5, historyDb.findLatest("get"));
+            Assert.assertEquals(0, historyDb.findLatest("resource"));
+
+            // distinct commands containing all the terms, latest first
+            List<Integer> numbers = historyDb.search(new String[] { "EXAMPLE", "get" }, 10);
+            Assert.assertEquals(2, numbers.size());
+            Assert.assertEquals(5, numbers.get(0).intValue());
+            Assert.assertEquals(2, numbers.get(1).intValue());
+            Assert.assertEquals(1, historyDb.search(new String[] { "li" }, 10).size());
+            Assert.assertEquals(0, historyDb.search(new String[] { "example", "x=1" }, 10).size());
+
+            Assert.assertEquals(4, historyDb.searchBackward("buf", 6));
+            Assert.assertEquals(1, historyDb.searchBackward("buf", 4));
+            Assert.assertEquals(0, historyDb.searchBackward("buf", 1));
+            historyDb.close();
+
+            // the log is rewritten with only the latest commands, once it's too long
+            historyDb = new CliHistoryDb(file, 2, 1000);
+            Assert.assertEquals(5, historyDb.size());
+            historyDb.add("list properties");
+            historyDb.close();
+            historyDb = new CliHistoryDb(file, 2, 1000);
+            Assert.assertEquals(2, historyDb.size());
+            Assert.assertEquals("get resource http://example.com/b", historyDb.get(1));
+            Assert.assertEquals("list properties", historyDb.get(2));
+            historyDb.close();
+
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testSharedLog() throws Exception {
+
+        File directory = Files.createTempDirectory("clishell-history").toFile();
+        File file = new File(directory, "history.log");
+        try {
+
+            CliHistoryDb firstSession = new CliHistoryDb(file, 4, 60000);
+            CliHistoryDb secondSession = new CliHistoryDb(file, 4, 60000);
+            if (file.toPath().getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                Assert.assertEquals("rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(file.toPath())));
+            }
+
+            firstSession.add("first 1");
+            firstSession.add("first 2");
+            firstSession.add("first 3");
+            firstSession.sync();
+            secondSession.add("second 1");
+            secondSession.add("second 2");
+            secondSession.sync();
+
+            // the log's rewritten keeping the commands of the other session
+            firstSession.add("first 4");
+            firstSession.add("first 5");
+            firstSession.add("first 6");
+            firstSession.close();
+
+            // which then appends to the new log
+            secondSession.add("second 3");
+            secondSession.close();
+
+            CliHistoryDb historyDb = new CliHistoryDb(file, 4, 60000);
+            Assert.assertEquals(5, historyDb.size());
+            Assert.assertEquals("second 2", historyDb.get(1));
+            Assert.assertEquals("first 6", historyDb.get(4));
+            Assert.assertEquals("second 3", historyDb.get(5));
+            historyDb.close();
+
+        } finally {
+            for (File leftFile : directory.listFiles()) {
+                leftFile.delete();
+            }
+            directory.delete();
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+import clishell.CliCommandOptions;
+import clishell.CliOptionParser;
+import clishell.CliRunner;
+import clishell.anno.CliPlugin;
+import clishell.anno.CliPluginMain;
+
+/**
+ *
+ * Runs tests of commands within a CLI runner, which has only the plugins
+ * the test asks for (and this one) loaded: the test is run by this
+ * plugin's "main" method, in place of the console command loop.
+ *
+ */
+@CliPlugin(name = "test-fixture")
+public class CliRunnerFixture {
+
+
+    //
+    //  Public class classes
+    //
+
+    /**
+     * Test run within the CLI runner
+     */
+    public interface Body {
+
+        /**
+         * @param cliRunner CLI runner, whose message console is captured
+         * by <code>getOutput()</code>
+         * @throws Exception test failure
+         */
+        void run(CliRunner cliRunner) throws Exception;
+
+    }
+
+
+    //
+    //  Private class data
+    //
+
+    /** test being run */
+    private static Body sBody;
+
+    /** failure of the test being run, if any */
+    private static Throwable sFailure;
+
+    /** output of the commands run by the test */
+    private static StringWriter sOutput;
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @param pluginClassNames comma-separated class names of the plugins to load
+     * @param body test to run once the plugins are loaded
+     * @throws Exception test failure
+     */
+    public static synchronized void run(String pluginClassNames, Body body) throws Exception {
+
+        sBody = body;
+        sFailure = null;
+        sOutput = new StringWriter();
+
+        CliCommandOptions options = new CliCommandOptions();
+        new CliOptionParser("hu:p:vxes").parseOptions(options, 0, new String[] {
+            "-x", "-p", pluginClassNames + "," + CliRunnerFixture.class.getName()
+        });
+
+        // NOTE: the CLI runner redirects the standard streams to its consoles
+        PrintStream systemOut = System.out;
+        PrintStream systemErr = System.err;
+        try {
+            new CliRunner().run(options);
+        } finally {
+            System.out.flush();
+            System.err.flush();
+            System.setOut(systemOut);
+            System.setErr(systemErr);
+        }
+
+        if (sFailure instanceof Exception) {
+            throw (Exception) sFailure;
+        }
+        if (sFailure instanceof Error) {
+            throw (Error) sFailure;
+        }
+    }
+
+    /**
+     * @return output of the commands run by the test so far, which is then cleared
+     */
+    public static String getOutput() {
+        synchronized(sOutput) {
+            String output = sOutput.toString();
+            sOutput.getBuffer().setLength(0);
+            return output;
+        }
+    }
+
+
+    //
+    //  Public plugin "main" methods
+    //
+
+    /**
+     * Runs the test, capturing the message console
+     */
+    @CliPluginMain
+    public void main() {
+        CliRunner cliRunner = CliRunner.getInstance();
+        PrintWriter messageConsole = new PrintWriter(sOutput, true);
+        cliRunner.setMessageConsole(messageConsole);
+        try {
+            sBody.run(cliRunner);
+        } catch(Throwable t) {
+            sFailure = t;
+        } finally {
+            try {
+                cliRunner.unsetMessageConsole(messageConsole);
+            } catch(Throwable t) {
+                // "old college try" ;-)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import junit.framework.Assert;
+
+import clishell.CommandLimits;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of command limit parsing and combination
+ *
+ */
+public class CommandLimitsTest {
+
+    @Test
+    public void testParse() {
+        Assert.assertEquals(500, CommandLimits.parseDuration("500ms"));
+        Assert.assertEquals(30000, CommandLimits.parseDuration("30s"));
+        Assert.assertEquals(30000, CommandLimits.parseDuration("30"));
+        Assert.assertEquals(120000, CommandLimits.parseDuration("2m"));
+        Assert.assertEquals(64 * 1024, CommandLimits.parseSize("64k"));
+        Assert.assertEquals(100, CommandLimits.parseSize("100"));
+        Assert.assertFalse(CommandLimits.parse("", "", " ").isLimited());
+        CommandLimits limits = CommandLimits.parse("1s", "", "1m");
+        Assert.assertEquals(1000, limits.getTimeoutMillis());
+        Assert.assertEquals(0, limits.getMaxOutputBytes());
+        Assert.assertEquals(1024 * 1024, limits.getMaxAllocatedBytes());
+        try {
+            CommandLimits.parseDuration("soon");
+            Assert.fail("expected exception");
+        } catch(NumberFormatException nfe) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testCombine() {
+        CommandLimits declared = new CommandLimits(5000, 0, 1000);
+        CommandLimits requested = new CommandLimits(10000, 200, 500);
+        CommandLimits combined = declared.combine(requested);
+        Assert.assertEquals(5000, combined.getTimeoutMillis());
+        Assert.assertEquals(200, combined.getMaxOutputBytes());
+        Assert.assertEquals(500, combined.getMaxAllocatedBytes());
+        Assert.assertSame(declared, declared.combine(CommandLimits.NONE));
+        Assert.assertSame(requested, CommandLimits.NONE.combine(requested));
+    }
+
+}
@@ -68,6 +68,27 @@ public class CommandManagerTest {
         testBasicFindCommandsSubtest(fullCommandNameNode, "l fa n", "[load faq now]");
     }
 
+    @Test
+    public void testCompletions() {
+        FullCommandNameTree fullCommandNameNode = newFullCommandNameTree(FULLCOMMANDSTRINGS_ONE);
+
+        Assert.assertEquals("[lane, lo, load]",
+            fullCommandNameNode.getCompletions(new String[] {}, "l").toString());
+        Assert.assertEquals("[fiasfd, file, filx]",
+            fullCommandNameNode.getCompletions(new String[] {"load"}, "fi").toString());
+
+        // abbreviated preceding words complete across all the commands they match
+        Assert.assertEquals("[later, no, november, now, noy]",
+            fullCommandNameNode.getCompletions(new String[] {"l", "fi"}, "").toString());
+        Assert.assertEquals("[]",
+            fullCommandNameNode.getCompletions(new String[] {"help"}, "").toString());
+
+        // removed commands no longer complete
+        fullCommandNameNode.removeCommandName(new CommandName(new String[] {"lane", "file", "now"}));
+        Assert.assertEquals("[lo, load]",
+            fullCommandNameNode.getCompletions(new String[] {}, "l").toString());
+    }
+
     @Test
     public void testBasicAbbreviations() {
         FullCommandNameTree fullCommandNameNode = newFullCommandNameTree(FULLCOMMANDSTRINGS_ONE);
@@ -0,0 +1,203 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+import junit.framework.Assert;
+
+import clishell.CliRunner;
+import clishell.anno.CliPlugin;
+import clishell.anno.CliPluginCommand;
+import clishell.ex.CliCommandCancelledException;
+import clishell.util.BoundedPipe;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>CommandPipeline</code></li>
+ *   <li><code>BoundedPipe</code></li>
+ * </ol>
+ *
+ */
+public class CommandPipelineTest {
+
+    @CliPlugin(name = "stages")
+    public static class StagePlugin {
+
+        @CliPluginCommand(
+              name = "emit"
+        ,   syntax = "{ <n> | forever }"
+        , helptext = { "Writes <n> numbered lines (or until cancelled)" }
+        )
+        public void emit(String count) throws CliCommandCancelledException {
+            CliRunner cliRunner = CliRunner.getInstance();
+            PrintWriter messageConsole = cliRunner.getMessageConsole();
+            long n = count.equals("forever") ? Long.MAX_VALUE : Long.parseLong(count);
+            for (long i = 0; i < n; i++) {
+                cliRunner.getCancellationToken().throwIfCancelled();
+                messageConsole.println("line " + i);
+            }
+            messageConsole.flush();
+        }
+
+        @CliPluginCommand(
+              name = "count lines"
+        , helptext = { "Counts the lines of its input" }
+        )
+        public void countLines() throws IOException {
+            CliRunner cliRunner = CliRunner.getInstance();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(cliRunner.getInputConsole()));
+            int n = 0;
+            while(reader.readLine() != null) {
+                n++;
+            }
+            cliRunner.getMessageConsole().println("counted " + n);
+        }
+
+        @CliPluginCommand(
+              name = "head"
+        ,   syntax = "<n>"
+        , helptext = { "Copies the first <n> lines of its input" }
+        )
+        public void head(String count) throws IOException {
+            CliRunner cliRunner = CliRunner.getInstance();
+            BufferedReader reader = new BufferedReader(
+                new InputStreamReader(cliRunner.getInputConsole()));
+            for (int i = Integer.parseInt(count); i > 0; i--) {
+                cliRunner.getMessageConsole().println(reader.readLine());
+            }
+        }
+
+    }
+
+    @Test
+    public void testPipeline() throws Exception {
+        CliRunnerFixture.run(StagePlugin.class.getName(), new CliRunnerFixture.Body() {
+            public void run(CliRunner cliRunner) throws Exception {
+
+                // far more than the pipes between the stages hold
+                cliRunner.dispatchCommand("emit 100000 | count lines");
+                Assert.assertEquals("counted 100000\n", CliRunnerFixture.getOutput());
+
+                cliRunner.dispatchCommand("emit 10 | head 3 | count lines");
+                Assert.assertEquals("counted 3\n", CliRunnerFixture.getOutput());
+
+            }
+        });
+    }
+
+    @Test
+    public void testCancellation() throws Exception {
+        CliRunnerFixture.run(StagePlugin.class.getName(), new CliRunnerFixture.Body() {
+            public void run(final CliRunner cliRunner) throws Exception {
+
+                // a stage whose output is no longer read is stopped quietly
+                cliRunner.dispatchCommand("emit forever | head 2");
+                Assert.assertEquals("line 0\nline 1\n", CliRunnerFixture.getOutput());
+
+                // cancelling the pipeline stops all of its stages
+                Thread canceller = new Thread() {
+                    public void run() {
+                        try {
+                            while(cliRunner.cancelCommands("test") == 0) {
+                                Thread.sleep(10);
+                            }
+                        } catch(InterruptedException ie) {
+                            // done
+                        }
+                    }
+                };
+                canceller.start();
+                cliRunner.dispatchCommand("emit forever | count lines");
+                canceller.join();
+                String output = CliRunnerFixture.getOutput();
+                Assert.assertTrue(output, output.contains("Command cancelled: test"));
+
+            }
+        });
+    }
+
+    @Test
+    public void testBackPressure() throws Exception {
+
+        final BoundedPipe pipe = new BoundedPipe(16);
+        final int[] nWritten = new int[1];
+        Thread writer = new Thread() {
+            public void run() {
+                OutputStream outputStream = pipe.getOutputStream();
+                try {
+                    for (int i = 0; i < 64; i++) {
+                        outputStream.write(i);
+                        synchronized(nWritten) {
+                            nWritten[0]++;
+                        }
+                    }
+                    outputStream.close();
+                } catch(IOException ioex) {
+                    // reported by the count written
+                }
+            }
+        };
+        writer.start();
+
+        // the writer blocks once the pipe is full
+        Thread.sleep(200);
+        Assert.assertTrue(writer.isAlive());
+        synchronized(nWritten) {
+            Assert.assertEquals(16, nWritten[0]);
+        }
+
+        // and resumes as it's drained, in order
+        InputStream inputStream = pipe.getInputStream();
+        for (int i = 0; i < 64; i++) {
+            Assert.assertEquals(i, inputStream.read());
+        }
+        Assert.assertEquals(-1, inputStream.read());
+        writer.join();
+    }
+
+    @Test
+    public void testReaderClosed() throws Exception {
+
+        final BoundedPipe pipe = new BoundedPipe(16);
+        final IOException[] writeException = new IOException[1];
+        Thread writer = new Thread() {
+            public void run() {
+                try {
+                    pipe.getOutputStream().write(new byte[64]);
+                } catch(IOException ioex) {
+                    writeException[0] = ioex;
+                }
+            }
+        };
+        writer.start();
+
+        // a writer blocked on a full pipe learns that nobody reads it anymore
+        Thread.sleep(100);
+        pipe.getInputStream().close();
+        writer.join(5000);
+        Assert.assertFalse(writer.isAlive());
+        Assert.assertEquals("pipe closed by reader", writeException[0].getMessage());
+        Assert.assertTrue(pipe.isReaderClosed());
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ *
+ * Serves tests of retrieving resources over HTTP from a local server.
+ *
+ */
+public class HttpFixture {
+
+
+    //
+    //  Public class methods
+    //
+
+    /**
+     * @param handler handler of all requests, which may be handled concurrently
+     * @return server listening on an ephemeral port of the loopback interface
+     * @throws IOException error starting the server
+     */
+    public static HttpServer startServer(HttpHandler handler) throws IOException {
+        HttpServer server = HttpServer.create(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", handler);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        return server;
+    }
+
+    /**
+     * @param server server started by {@link #startServer(HttpHandler)}
+     * @return URL of its root, without the trailing '/'
+     */
+    public static String getBaseUrl(HttpServer server) {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    /**
+     * @param inputStream stream to read, then close
+     * @return content of <code>inputStream</code>
+     * @throws IOException error reading the stream
+     */
+    public static byte[] read(InputStream inputStream) throws IOException {
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            inputStream.transferTo(content);
+            return content.toByteArray();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * @param length number of bytes
+     * @return content that's compressible, yet different at every position
+     * of a range (i.e., a sequence of numbered lines)
+     */
+    public static byte[] newContent(int length) {
+        StringBuilder content = new StringBuilder(length + 32);
+        for (int i = 0; content.length() < length; i++) {
+            content.append("<item>").append(i).append("</item>\n");
+        }
+        content.setLength(length);
+        return content.toString().getBytes();
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import clishell.plugins.ParallelSysCommandRunner;
+import clishell.plugins.ParallelSysCommandRunner.OutputMode;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>ParallelSysCommandRunner</code></li>
+ * </ol>
+ *
+ */
+public class ParallelSysCommandRunnerTest {
+
+    @Test
+    public void testOrdered() throws Exception {
+        // the first command finishes last, but its output comes first
+        Assert.assertEquals("slow\nfast\n", run(Arrays.asList(
+            sh("sleep 0.5; echo slow"),
+            sh("echo fast")
+        ), 2, OutputMode.ORDERED));
+    }
+
+    @Test
+    public void testGrouped() throws Exception {
+        // each command's output is kept together, in the order they finish
+        Assert.assertEquals("fast\nslow 1\nslow 2\n", run(Arrays.asList(
+            sh("echo slow 1; sleep 0.5; echo slow 2"),
+            sh("echo fast")
+        ), 2, OutputMode.GROUPED));
+    }
+
+    @Test
+    public void testInterleaved() throws Exception {
+        // output is written as it's produced
+        Assert.assertEquals("slow 1\nfast\nslow 2\n", run(Arrays.asList(
+            sh("echo slow 1; sleep 1; echo slow 2"),
+            sh("sleep 0.5; echo fast")
+        ), 2, OutputMode.INTERLEAVED));
+    }
+
+    @Test
+    public void testErrorOutput() throws Exception {
+        ParallelSysCommandRunner runner = new ParallelSysCommandRunner(Arrays.asList(
+            sh("echo out 1; echo err 1 >&2"),
+            sh("sleep 0.2; echo out 2; echo err 2 >&2")
+        ), 2, OutputMode.ORDERED, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        runner.run(out, err);
+        Assert.assertEquals("out 1\nout 2\n", out.toString());
+        Assert.assertEquals("err 1\nerr 2\n", err.toString());
+    }
+
+    @Test
+    public void testSummary() throws Exception {
+        ParallelSysCommandRunner runner = new ParallelSysCommandRunner(Arrays.asList(
+            sh("exit 0"),
+            sh("exit 3"),
+            new String[] { "clishell-no-such-command" },
+            sh("exit 0")
+        ), 2, OutputMode.GROUPED, false);
+        runner.run(new ByteArrayOutputStream(), new ByteArrayOutputStream());
+        Assert.assertEquals(2, runner.getFailedCount());
+
+        String summary = summarize(runner);
+        Assert.assertTrue(summary, summary.startsWith("4 of 4 command(s) run in "));
+        Assert.assertTrue(summary, summary.contains("(at most 2 at a time), 2 failed\n"));
+        Assert.assertTrue(summary, summary.contains("  failed [2] exit 3 after "));
+        Assert.assertTrue(summary, summary.contains("  failed [3] not started ("));
+        Assert.assertFalse(summary, summary.contains("failed [1]"));
+        Assert.assertFalse(summary, summary.contains("failed [4]"));
+    }
+
+    @Test
+    public void testFailFast() throws Exception {
+
+        // no more commands are started after one fails
+        ParallelSysCommandRunner runner = new ParallelSysCommandRunner(Arrays.asList(
+            sh("echo one"),
+            sh("exit 1"),
+            sh("echo three"),
+            sh("echo four")
+        ), 1, OutputMode.ORDERED, true);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        runner.run(out, new ByteArrayOutputStream());
+        Assert.assertEquals("one\n", out.toString());
+        Assert.assertEquals(1, runner.getFailedCount());
+        String summary = summarize(runner);
+        Assert.assertTrue(summary, summary.startsWith("2 of 4 command(s) run in "));
+        Assert.assertTrue(summary, summary.contains(", 1 failed, 2 not run\n"));
+
+        // and those still running are destroyed
+        runner = new ParallelSysCommandRunner(Arrays.asList(
+            sh("sleep 30"),
+            sh("sleep 0.2; exit 2")
+        ), 2, OutputMode.GROUPED, true);
+        long startTime = System.currentTimeMillis();
+        runner.run(new ByteArrayOutputStream(), new ByteArrayOutputStream());
+        Assert.assertTrue(System.currentTimeMillis() - startTime < 10000);
+        Assert.assertEquals(2, runner.getFailedCount());
+    }
+
+    /**
+     * @param commands commands to run
+     * @param maxProcesses maximum number of commands run at a time
+     * @param outputMode how the output of the commands is written
+     * @return the commands' "stdout"
+     * @throws Exception error running the commands
+     */
+    private static String run(List<String[]> commands, int maxProcesses, OutputMode outputMode)
+            throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new ParallelSysCommandRunner(commands, maxProcesses, outputMode, false)
+            .run(out, new ByteArrayOutputStream());
+        return out.toString();
+    }
+
+    /**
+     * @param runner runner that has run its commands
+     * @return its summary
+     */
+    private static String summarize(ParallelSysCommandRunner runner) {
+        StringWriter summary = new StringWriter();
+        runner.printSummary(new PrintWriter(summary));
+        return summary.toString();
+    }
+
+    /**
+     * @param script shell script
+     * @return command running <code>script</code>
+     */
+    private static String[] sh(String script) {
+        return new String[] { "sh", "-c", script };
+    }
+
+}
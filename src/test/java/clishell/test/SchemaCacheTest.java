@@ -0,0 +1,78 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.Assert;
+
+import clishell.plugins.SchemaCache;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of the compiled schema cache
+ *
+ */
+public class SchemaCacheTest {
+
+    @Test
+    public void testCachedUntilChanged() throws Exception {
+
+        File directory = File.createTempFile("schema-cache-test", "");
+        directory.delete();
+        directory.mkdir();
+        directory.deleteOnExit();
+
+        File includedFile = new File(directory, "included.xsd");
+        File schemaFile = new File(directory, "main.xsd");
+        writeFile(includedFile, schema("<xs:simpleType name='t'><xs:restriction base='xs:int'/></xs:simpleType>"));
+        writeFile(schemaFile, schema("<xs:include schemaLocation='included.xsd'/>"
+            + "<xs:element name='a' type='t'/>"));
+
+        SchemaCache schemaCache = new SchemaCache(4);
+        SchemaCache.Entry entry = schemaCache.getEntry(schemaFile);
+        Assert.assertSame(entry, schemaCache.getEntry(schemaFile));
+        Assert.assertEquals(1, schemaCache.getHitCount());
+        Assert.assertEquals(1, schemaCache.getMissCount());
+        Assert.assertEquals(1, entry.getDependencyCount());
+
+        // changing an included schema compiles the schema again
+        writeFile(includedFile, schema("<xs:simpleType name='t'><xs:restriction base='xs:string'/>"
+            + "</xs:simpleType><!-- changed -->"));
+        Assert.assertTrue(entry != schemaCache.getEntry(schemaFile));
+        Assert.assertEquals(2, schemaCache.getMissCount());
+    }
+
+    /**
+     * @param body body of the schema
+     * @return text of the schema
+     */
+    private String schema(String body) {
+        return "<xs:schema xmlns:xs='http://www.w3.org/2001/XMLSchema'>" + body + "</xs:schema>";
+    }
+
+    /**
+     * @param file file to write, deleted on exit
+     * @param text text to write
+     */
+    private void writeFile(File file, String text) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+        file.deleteOnExit();
+    }
+
+}
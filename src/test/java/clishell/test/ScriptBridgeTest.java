@@ -0,0 +1,109 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import junit.framework.Assert;
+
+import clishell.CliRunner;
+import clishell.anno.CliPlugin;
+import clishell.anno.CliPluginCommand;
+import clishell.db.CliBufferDb;
+import clishell.ex.CliPluginMethodException;
+import clishell.ex.CliRejectedInputException;
+import clishell.plugins.ScriptBridge;
+import clishell.plugins.ScriptBridge.CommandResult;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>ScriptBridge</code> ("dispatch")</li>
+ * </ol>
+ *
+ */
+public class ScriptBridgeTest {
+
+    @CliPlugin(name = "bridged")
+    public static class BridgedPlugin {
+
+        @CliPluginCommand(
+              name = "add"
+        ,   syntax = "<a> <b>"
+        , helptext = { "Returns (and reports) the sum of <a> and <b>" }
+        )
+        public Integer add(String a, String b) throws CliRejectedInputException {
+            int sum;
+            try {
+                sum = Integer.parseInt(a) + Integer.parseInt(b);
+            } catch(NumberFormatException nfe) {
+                throw new CliRejectedInputException("not a number", nfe);
+            }
+            CliRunner cliRunner = CliRunner.getInstance();
+            cliRunner.getMessageConsole().println("sum " + sum);
+            cliRunner.getErrorConsole().println("added " + a + " and " + b);
+            return Integer.valueOf(sum);
+        }
+
+        @CliPluginCommand(
+              name = "fail"
+        , helptext = { "Reports, then fails" }
+        )
+        public void fail() throws CliPluginMethodException {
+            CliRunner.getInstance().getMessageConsole().println("failing");
+            throw new CliPluginMethodException("failed on purpose");
+        }
+
+    }
+
+    @Test
+    public void testDispatch() throws Exception {
+        CliRunnerFixture.run(BridgedPlugin.class.getName(), new CliRunnerFixture.Body() {
+            public void run(CliRunner cliRunner) throws Exception {
+
+                ScriptBridge bridge = new ScriptBridge(new CliBufferDb(0, 0, null));
+
+                // the output and value of a command that completes
+                CommandResult result = bridge.dispatch("add", "2", "3");
+                Assert.assertEquals(ScriptBridge.STATUS_OK, result.getStatus());
+                Assert.assertTrue(result.isOk());
+                Assert.assertNull(result.getError());
+                Assert.assertEquals("sum 5\n", result.getOutput());
+                Assert.assertEquals("added 2 and 3\n", result.getErrorOutput());
+                Assert.assertEquals(Integer.valueOf(5), result.getValue());
+
+                // a command that fails keeps the output it produced
+                result = bridge.dispatch("fail");
+                Assert.assertEquals(ScriptBridge.STATUS_FAILED, result.getStatus());
+                Assert.assertFalse(result.isOk());
+                Assert.assertEquals("failing\n", result.getOutput());
+                Assert.assertTrue(result.getError(), result.getError().contains("failed on purpose"));
+                Assert.assertNull(result.getValue());
+
+                // invalid input, and unknown commands, are rejected
+                result = bridge.dispatch("add", "2", "three");
+                Assert.assertEquals(ScriptBridge.STATUS_REJECTED, result.getStatus());
+                Assert.assertTrue(result.getError(), result.getError().contains("not a number"));
+                Assert.assertNull(result.getValue());
+                result = bridge.dispatch("no-such-command");
+                Assert.assertEquals(ScriptBridge.STATUS_REJECTED, result.getStatus());
+                Assert.assertNotNull(result.getError());
+
+                // none of which reaches the shell's own console
+                Assert.assertEquals("", CliRunnerFixture.getOutput());
+
+            }
+        });
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import junit.framework.Assert;
+
+import clishell.net.SegmentedDownloader;
+import clishell.net.UrlResourceInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of downloading resources in concurrently retrieved ranges, using
+ * a local server
+ *
+ */
+public class SegmentedDownloaderTest {
+
+    /** content served */
+    private static final byte[] CONTENT = HttpFixture.newContent(1024 * 1024 + 17);
+
+    /** "Range" header of a request */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    @Test
+    public void testDownload() throws Exception {
+
+        // counts of requests for the "ranged" resource, and of ranges cut short (once)
+        final AtomicInteger rangeCount = new AtomicInteger();
+        final AtomicInteger failureCount = new AtomicInteger();
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                String range = exchange.getRequestHeaders().getFirst("Range");
+                Matcher matcher = (range != null) ? RANGE_PATTERN.matcher(range) : null;
+                OutputStream responseBody;
+                if ((path.equals("/ranged") || path.equals("/misplaced"))
+                        && matcher != null && matcher.matches()) {
+                    // NOTE: "misplaced" ranges always start at the beginning
+                    int start = path.equals("/misplaced") ? 0 : Integer.parseInt(matcher.group(1));
+                    int end = Integer.parseInt(matcher.group(2));
+                    if (path.equals("/ranged")) {
+                        // NOTE: not those of a misplaced download, which may still arrive
+                        rangeCount.incrementAndGet();
+                    }
+                    exchange.getResponseHeaders().add("ETag", "\"v1\"");
+                    exchange.getResponseHeaders().add("Content-Range",
+                        "bytes " + start + "-" + end + "/" + CONTENT.length);
+                    exchange.sendResponseHeaders(206, end - start + 1);
+                    responseBody = exchange.getResponseBody();
+                    if (start > 0 && path.equals("/ranged") && failureCount.compareAndSet(0, 1)) {
+                        // send part of the range, then drop the connection
+                        responseBody.write(CONTENT, start, (end - start + 1) / 2);
+                        responseBody.flush();
+                        exchange.close();
+                        return;
+                    }
+                    responseBody.write(CONTENT, start, end - start + 1);
+                } else if (path.equals("/empty")) {
+                    // NOTE: an empty resource has no range to send
+                    if (range != null) {
+                        exchange.getResponseHeaders().add("Content-Range", "bytes */0");
+                        exchange.sendResponseHeaders(416, -1);
+                    } else {
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                    exchange.close();
+                    return;
+                } else {
+                    exchange.sendResponseHeaders(200, CONTENT.length);
+                    responseBody = exchange.getResponseBody();
+                    responseBody.write(CONTENT);
+                }
+                responseBody.close();
+            }
+        });
+
+        File file = Files.createTempFile("segmented-download-test", ".tmp").toFile();
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            for (UrlResourceInputStream.Transport transport : UrlResourceInputStream.Transport.values()) {
+
+                // ranges are retrieved concurrently, and a failed one retried
+                rangeCount.set(0);
+                failureCount.set(0);
+                SegmentedDownloader.Result result = new SegmentedDownloader(
+                    new URL(baseUrl + "/ranged"), transport, 4, 2).download(file);
+                Assert.assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+                Assert.assertEquals(CONTENT.length, result.getLength());
+                Assert.assertEquals(4, result.getSegmentCount());
+                Assert.assertEquals(1, result.getRetryCount());
+                Assert.assertEquals(1 + 4 + 1, rangeCount.get());
+
+                // without ranges, the resource is downloaded as a whole
+                result = new SegmentedDownloader(new URL(baseUrl + "/whole"), transport, 4, 2)
+                    .download(file);
+                Assert.assertTrue(Arrays.equals(CONTENT, Files.readAllBytes(file.toPath())));
+                Assert.assertEquals(1, result.getSegmentCount());
+
+                // nor is an empty resource, whose first byte can't be sent
+                result = new SegmentedDownloader(new URL(baseUrl + "/empty"), transport, 4, 2)
+                    .download(file);
+                Assert.assertEquals(0, file.length());
+                Assert.assertEquals(0, result.getLength());
+                Assert.assertEquals(1, result.getSegmentCount());
+
+                // a range other than the one requested isn't written into the file
+                try {
+                    new SegmentedDownloader(new URL(baseUrl + "/misplaced"), transport, 4, 2)
+                        .download(file);
+                    Assert.fail("accepted a misplaced range using " + transport);
+                } catch(IOException ioex) {
+                    Assert.assertTrue(ioex.getMessage(), ioex.getMessage().startsWith("requested range "));
+                }
+                Assert.assertFalse(file.exists());
+                file.createNewFile();
+            }
+
+        } finally {
+            server.stop(0);
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+
+import junit.framework.Assert;
+
+import clishell.util.SharedInputStream;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of input shared between the command loop and child processes
+ *
+ */
+public class SharedInputStreamTest {
+
+    @Test
+    public void testClosingViewWakesReader() throws Exception {
+
+        PipedOutputStream source = new PipedOutputStream();
+        SharedInputStream sharedInputStream = new SharedInputStream(
+            new PipedInputStream(source), "test-reader");
+        final InputStream view = sharedInputStream.newView();
+
+        final int[] result = { 0 };
+        Thread readerThread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    result[0] = view.read();
+                } catch(IOException ioex) {
+                    result[0] = -2;
+                }
+            }
+        });
+        readerThread.start();
+        Thread.sleep(100);
+        Assert.assertTrue(readerThread.isAlive());
+
+        view.close();
+        readerThread.join(5000);
+        Assert.assertFalse(readerThread.isAlive());
+        Assert.assertEquals(-1, result[0]);
+
+        // input arriving after the view went away isn't lost
+        writeAndClose(source, "abc");
+        byte[] b = new byte[10];
+        Assert.assertEquals(3, sharedInputStream.read(b, 0, b.length));
+        Assert.assertEquals("abc", new String(b, 0, 3));
+        Assert.assertEquals(-1, sharedInputStream.read());
+    }
+
+    /**
+     * @param outputStream stream to write
+     * @param text text to write
+     */
+    private void writeAndClose(OutputStream outputStream, String text) throws IOException {
+        outputStream.write(text.getBytes());
+        outputStream.close();
+    }
+
+}
@@ -12,6 +12,9 @@
 
 package clishell.test;
 
+import java.util.List;
+
+import clishell.CliCommandParser;
 import clishell.StringListParser;
 import org.junit.Assert;
 import org.junit.Test;
@@ -62,4 +65,20 @@ public class StringListParserTest {
 
 
     }
+
+    @Test
+    public void testPipelineStages() {
+
+        List<String[]> stages = CliCommandParser.parsePipelineStages(
+            "help capture | feed \"|\" 'x|y' z|echo");
+        Assert.assertEquals(3, stages.size());
+        Assert.assertArrayEquals(new String[] {"help", "capture" }, stages.get(0));
+        Assert.assertArrayEquals(new String[] {"feed", "|", "x|y", "z" }, stages.get(1));
+        Assert.assertArrayEquals(new String[] {"echo" }, stages.get(2));
+
+        stages = CliCommandParser.parsePipelineStages("help");
+        Assert.assertEquals(1, stages.size());
+        Assert.assertArrayEquals(new String[] {"help" }, stages.get(0));
+
+    }
 }
@@ -0,0 +1,126 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+
+import junit.framework.Assert;
+
+import clishell.plugins.SysShellCoprocess;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>SysShellCoprocess</code></li>
+ * </ol>
+ *
+ */
+public class SysShellCoprocessTest {
+
+    @Test
+    public void testExitStatus() throws Exception {
+        SysShellCoprocess shell = new SysShellCoprocess("sh");
+        try {
+            Assert.assertEquals(0, execute(shell, "true", null, null));
+            Assert.assertEquals(3, execute(shell, "(exit 3)", null, null));
+            Assert.assertEquals(1, execute(shell, "false", null, null));
+            Assert.assertEquals(1, shell.getStartCount());
+        } finally {
+            shell.close();
+        }
+    }
+
+    @Test
+    public void testWorkingDirectoryPersists() throws Exception {
+        File dir = Files.createTempDirectory("clishell-shell").toFile();
+        SysShellCoprocess shell = new SysShellCoprocess("sh");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Assert.assertEquals(0, execute(shell, "cd '" + dir.getPath() + "'", null, null));
+            Assert.assertEquals(0, execute(shell, "X=kept; pwd", out, null));
+            Assert.assertEquals(dir.getCanonicalPath() + "\n", out.toString());
+            out.reset();
+            Assert.assertEquals(0, execute(shell, "echo $X", out, null));
+            Assert.assertEquals("kept\n", out.toString());
+        } finally {
+            shell.close();
+            dir.delete();
+        }
+    }
+
+    @Test
+    public void testErrorSeparated() throws Exception {
+        SysShellCoprocess shell = new SysShellCoprocess("sh");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            Assert.assertEquals(0, execute(shell, "echo to-out; echo to-err >&2; echo more-out",
+                out, err));
+            Assert.assertEquals("to-out\nmore-out\n", out.toString());
+            Assert.assertEquals("to-err\n", err.toString());
+
+            // unless merged
+            out.reset();
+            err.reset();
+            Assert.assertEquals(0, shell.execute("echo to-out; echo to-err >&2", out, err,
+                null, null, true));
+            Assert.assertEquals("to-out\nto-err\n", out.toString());
+            Assert.assertEquals("", err.toString());
+        } finally {
+            shell.close();
+        }
+    }
+
+    @Test
+    public void testRestartAfterExit() throws Exception {
+        SysShellCoprocess shell = new SysShellCoprocess("sh");
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ByteArrayOutputStream err = new ByteArrayOutputStream();
+            Assert.assertEquals(0, execute(shell, "X=lost", null, null));
+
+            // the shell's own exit status is returned, and a warning given
+            Assert.assertEquals(7, execute(shell, "exit 7", out, err));
+            Assert.assertTrue(err.toString(), err.toString().contains("will be restarted"));
+
+            // the next command starts a new shell, without the old one's state
+            out.reset();
+            Assert.assertEquals(0, execute(shell, "echo \"[$X]\"", out, null));
+            Assert.assertEquals("[]\n", out.toString());
+            Assert.assertEquals(2, shell.getStartCount());
+        } finally {
+            shell.close();
+        }
+    }
+
+    /**
+     * @param shell shell in which to execute the command
+     * @param commandLine command to execute
+     * @param out stream receiving the command's "stdout", or <code>null</code> to discard it
+     * @param err stream receiving the command's "stderr", or <code>null</code> to discard it
+     * @return exit status of the command
+     * @throws Exception error executing the command
+     */
+    private static int execute(SysShellCoprocess shell, String commandLine,
+            ByteArrayOutputStream out, ByteArrayOutputStream err) throws Exception {
+        return shell.execute(commandLine,
+            (out != null) ? out : new ByteArrayOutputStream(),
+            (err != null) ? err : new ByteArrayOutputStream(),
+            null, null, false);
+    }
+
+}
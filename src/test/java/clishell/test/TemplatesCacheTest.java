@@ -0,0 +1,169 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.Assert;
+
+import clishell.plugins.TemplatesCache;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of the compiled stylesheet cache
+ *
+ */
+public class TemplatesCacheTest {
+
+    @Test
+    public void testCachedUntilChanged() throws Exception {
+
+        File directory = createTempDirectory();
+        File includedFile = new File(directory, "included.xsl");
+        File styleSheetFile = new File(directory, "main.xsl");
+        writeFile(includedFile, styleSheet("<xsl:template match='/'>one</xsl:template>"));
+        writeFile(styleSheetFile, styleSheet("<xsl:include href='included.xsl'/>"));
+
+        TemplatesCache templatesCache = new TemplatesCache(4);
+        Templates templates = templatesCache.getTemplates(styleSheetFile);
+        Assert.assertEquals("one", transform(templates));
+        Assert.assertSame(templates, templatesCache.getTemplates(styleSheetFile));
+        Assert.assertEquals(1, templatesCache.getHitCount());
+        Assert.assertEquals(1, templatesCache.getMissCount());
+        Assert.assertEquals(1, templatesCache.getEntries().get(0).getDependencyCount());
+
+        // changing an included stylesheet recompiles the stylesheet
+        writeFile(includedFile, styleSheet("<xsl:template match='/'>three</xsl:template>"));
+        templates = templatesCache.getTemplates(styleSheetFile);
+        Assert.assertEquals("three", transform(templates));
+        Assert.assertEquals(2, templatesCache.getMissCount());
+        Assert.assertEquals(1, templatesCache.getStaleCount());
+
+        templatesCache.clear();
+        Assert.assertEquals(0, templatesCache.getEntries().size());
+        Assert.assertEquals(0, templatesCache.getHitCount());
+    }
+
+    @Test
+    public void testOpaqueFileUriResolvedByProcessor() throws Exception {
+
+        File directory = createTempDirectory();
+        File includedFile = new File(directory, "included.xsl");
+        File styleSheetFile = new File(directory, "main.xsl");
+        writeFile(includedFile, styleSheet("<xsl:template match='/'>one</xsl:template>"));
+        writeFile(styleSheetFile, styleSheet("<xsl:include href='file:included.xsl'/>"));
+
+        // not a file the cache can note as a dependency; the processor resolves it
+        TemplatesCache templatesCache = new TemplatesCache(4);
+        Templates templates = templatesCache.getTemplates(styleSheetFile);
+        Assert.assertEquals("one", transform(templates));
+        Assert.assertEquals(0, templatesCache.getEntries().get(0).getDependencyCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() throws Exception {
+
+        File directory = createTempDirectory();
+        File[] styleSheetFiles = new File[3];
+        for (int i = 0; i < styleSheetFiles.length; i++) {
+            styleSheetFiles[i] = new File(directory, i + ".xsl");
+            writeFile(styleSheetFiles[i], styleSheet("<xsl:template match='/'>" + i + "</xsl:template>"));
+        }
+
+        TemplatesCache templatesCache = new TemplatesCache(2);
+        templatesCache.getTemplates(styleSheetFiles[0]);
+        templatesCache.getTemplates(styleSheetFiles[1]);
+        templatesCache.getTemplates(styleSheetFiles[0]);
+        templatesCache.getTemplates(styleSheetFiles[2]);
+
+        Assert.assertEquals(1, templatesCache.getEvictionCount());
+        Assert.assertEquals(2, templatesCache.getEntries().size());
+        Assert.assertEquals(styleSheetFiles[0].getCanonicalFile(),
+            templatesCache.getEntries().get(0).getFile());
+        Assert.assertEquals(styleSheetFiles[2].getCanonicalFile(),
+            templatesCache.getEntries().get(1).getFile());
+    }
+
+    @Test
+    public void testRunTimeDocumentsNotCached() throws Exception {
+
+        File directory = createTempDirectory();
+        File dataFile = new File(directory, "data.xml");
+        File styleSheetFile = new File(directory, "main.xsl");
+        writeFile(dataFile, "<data>one</data>");
+        writeFile(styleSheetFile, styleSheet(
+            "<xsl:template match='/'><xsl:value-of select=\"document('data.xml')\"/></xsl:template>"));
+
+        // documents read as the stylesheet runs are the processor's to resolve
+        TemplatesCache templatesCache = new TemplatesCache(4);
+        Templates templates = templatesCache.getTemplates(styleSheetFile);
+        Assert.assertEquals("one", transform(templates));
+        Assert.assertEquals("one", transform(templates));
+        Assert.assertEquals(0, templatesCache.getParsedDocumentHitCount());
+        Assert.assertEquals(0, templatesCache.getEntries().get(0).getDependencyCount());
+    }
+
+    /**
+     * @param body body of the stylesheet
+     * @return text of the stylesheet
+     */
+    private String styleSheet(String body) {
+        return "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:output method='text'/>"
+            + body
+            + "</xsl:stylesheet>";
+    }
+
+    /**
+     * @param templates compiled stylesheet
+     * @return output of the stylesheet for a trivial document
+     */
+    private String transform(Templates templates) throws Exception {
+        StringWriter output = new StringWriter();
+        templates.newTransformer().transform(new StreamSource(new StringReader("<a/>")),
+            new StreamResult(output));
+        return output.toString();
+    }
+
+    /**
+     * @return new, empty directory, deleted on exit
+     */
+    private File createTempDirectory() throws IOException {
+        File directory = File.createTempFile("templates-cache-test", "");
+        directory.delete();
+        directory.mkdir();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    /**
+     * @param file file to write, deleted on exit
+     * @param text text to write
+     */
+    private void writeFile(File file, String text) throws IOException {
+        FileWriter writer = new FileWriter(file);
+        writer.write(text);
+        writer.close();
+        file.deleteOnExit();
+    }
+
+}
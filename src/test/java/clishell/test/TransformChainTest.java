@@ -0,0 +1,116 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import junit.framework.Assert;
+
+import clishell.CliRunner;
+import clishell.plugins.TransformerPlugin;
+import org.junit.Test;
+
+/**
+ *
+ * Classes under test:
+ * <ol>
+ *   <li><code>TransformerPlugin</code> ("transform chain")</li>
+ * </ol>
+ *
+ */
+public class TransformChainTest {
+
+    @Test
+    public void testChain() throws Exception {
+
+        final Path directory = Files.createTempDirectory("transform-chain-test");
+        directory.toFile().deleteOnExit();
+
+        // the first stage's output (elements) is the second stage's input
+        final Path firstStyleSheet = write(directory.resolve("first.xsl"),
+            "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:template match='/doc'>"
+            + "<items><xsl:for-each select='item'>"
+            + "<item n='{position()}'><xsl:value-of select='.'/></item>"
+            + "</xsl:for-each></items>"
+            + "</xsl:template>"
+            + "</xsl:stylesheet>");
+        final Path secondStyleSheet = write(directory.resolve("second.xslt"),
+            "<xsl:stylesheet version='1.0' xmlns:xsl='http://www.w3.org/1999/XSL/Transform'>"
+            + "<xsl:output method='text'/>"
+            + "<xsl:template match='/items'>"
+            + "<xsl:for-each select='item'><xsl:value-of select='@n'/>=<xsl:value-of select='.'/>;"
+            + "</xsl:for-each>"
+            + "</xsl:template>"
+            + "</xsl:stylesheet>");
+        final Path input = write(directory.resolve("input.xml"),
+            "<doc><item>a</item><item>b</item></doc>");
+        final Path output = directory.resolve("output.txt");
+        output.toFile().deleteOnExit();
+
+        CliRunnerFixture.run(TransformerPlugin.class.getName(), new CliRunnerFixture.Body() {
+            public void run(CliRunner cliRunner) throws Exception {
+
+                // from a file to a file, reporting on the message console
+                cliRunner.dispatchCommand("transform chain " + firstStyleSheet + " "
+                    + secondStyleSheet + " " + input + " " + output);
+                Assert.assertEquals("1=a;2=b;", new String(Files.readAllBytes(output)));
+                String report = CliRunnerFixture.getOutput();
+                Assert.assertTrue(report, report.startsWith("2 stylesheet(s) chained in "));
+                Assert.assertTrue(report, report.trim().endsWith("MB allocated"));
+
+                // from the console to the console, reporting on the error console
+                InputStream inputConsole = new ByteArrayInputStream(
+                    "<doc><item>c</item></doc>".getBytes());
+                StringWriter errors = new StringWriter();
+                PrintWriter errorConsole = new PrintWriter(errors, true);
+                cliRunner.setInputConsole(inputConsole);
+                cliRunner.setErrorConsole(errorConsole);
+                try {
+                    cliRunner.dispatchCommand("transform chain " + firstStyleSheet + " "
+                        + secondStyleSheet + " -");
+                } finally {
+                    cliRunner.unsetErrorConsole(errorConsole);
+                    cliRunner.unsetInputConsole(inputConsole);
+                }
+                Assert.assertEquals("1=c;", CliRunnerFixture.getOutput());
+                Assert.assertTrue(errors.toString(),
+                    errors.toString().startsWith("2 stylesheet(s) chained in "));
+
+                // the stylesheets come first
+                cliRunner.dispatchCommand("transform chain " + input + " " + firstStyleSheet);
+                report = CliRunnerFixture.getOutput();
+                Assert.assertTrue(report, report.startsWith("illegal argument: expected stylesheet(s)"));
+
+            }
+        });
+    }
+
+    /**
+     * @param file file to write, deleted on exit
+     * @param text text to write
+     * @return <code>file</code>
+     * @throws Exception error writing the file
+     */
+    private static Path write(Path file, String text) throws Exception {
+        Files.write(file, text.getBytes());
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+}
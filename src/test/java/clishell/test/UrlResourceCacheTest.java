@@ -0,0 +1,248 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import clishell.net.UrlResourceCache;
+import clishell.net.UrlResourceInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of the on-disk cache of HTTP resources, using a local server
+ *
+ */
+public class UrlResourceCacheTest {
+
+    /** content served */
+    private static final byte[] CONTENT = "<doc><item>cached</item></doc>\n".getBytes();
+
+    /** entity tag of the content */
+    private static final String ETAG = "\"v1\"";
+
+    /** means by which resources are retrieved */
+    private static final UrlResourceInputStream.Transport TRANSPORT
+        = UrlResourceInputStream.Transport.URL_CONNECTION;
+
+    @Test
+    public void testRevalidationAndEviction() throws Exception {
+
+        // counts of responses with, and without (304), a body
+        final AtomicInteger bodyCount = new AtomicInteger();
+        final AtomicInteger notModifiedCount = new AtomicInteger();
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.startsWith("/fresh")) {
+                    exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+                } else if (path.startsWith("/private")) {
+                    exchange.getResponseHeaders().add("Cache-Control", "no-store");
+                } else {
+                    exchange.getResponseHeaders().add("Cache-Control", "no-cache");
+                }
+                exchange.getResponseHeaders().add("ETag", ETAG);
+                if (ETAG.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                    notModifiedCount.incrementAndGet();
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.close();
+                    return;
+                }
+                bodyCount.incrementAndGet();
+                exchange.sendResponseHeaders(200, CONTENT.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                responseBody.write(CONTENT);
+                responseBody.close();
+            }
+        });
+
+        File directory = Files.createTempDirectory("resource-cache-test").toFile();
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            UrlResourceCache cache = new UrlResourceCache(directory, 1024);
+
+            // a stale resource is revalidated, and its body served from the cache
+            URL url = new URL(baseUrl + "/data");
+            for (int i = 0; i < 3; i++) {
+                Assert.assertTrue(Arrays.equals(CONTENT, HttpFixture.read(cache.open(url, null, null, TRANSPORT, false))));
+            }
+            Assert.assertEquals(1, bodyCount.get());
+            Assert.assertEquals(2, notModifiedCount.get());
+            Assert.assertEquals(2, cache.getRevalidatedCount());
+
+            // a fresh resource is served without contacting the server
+            URL freshUrl = new URL(baseUrl + "/fresh");
+            HttpFixture.read(cache.open(freshUrl, null, null, TRANSPORT, false));
+            HttpFixture.read(cache.open(freshUrl, null, null, TRANSPORT, false));
+            Assert.assertEquals(2, bodyCount.get());
+            Assert.assertEquals(1, cache.getHitCount());
+
+            // a resource not to be stored isn't
+            HttpFixture.read(cache.open(new URL(baseUrl + "/private"), null, null, TRANSPORT, false));
+            Assert.assertEquals(2, cache.getEntries().size());
+
+            // entries survive in the directory, and are served (stale) when offline
+            cache = new UrlResourceCache(directory, 1024);
+            Assert.assertEquals(2, cache.getEntries().size());
+            Assert.assertTrue(Arrays.equals(CONTENT, HttpFixture.read(cache.open(url, null, null, TRANSPORT, true))));
+            Assert.assertEquals(1, cache.getStaleHitCount());
+            try {
+                cache.open(new URL(baseUrl + "/other"), null, null, TRANSPORT, true);
+                Assert.fail("retrieved a resource while offline");
+            } catch(IOException ioex) {
+                // expected
+            }
+
+            // the least recently used are evicted to stay within bounds
+            cache = new UrlResourceCache(directory, CONTENT.length * 2);
+            cache.open(new URL(baseUrl + "/data3"), null, null, TRANSPORT, false).close();
+            Assert.assertEquals(2, cache.getEntries().size());
+            Assert.assertEquals(1, cache.getEvictionCount());
+            Assert.assertEquals(url.toString(), cache.getEntries().get(0).getUrl());
+
+            // purged entries are gone, files and all
+            Assert.assertEquals(2, cache.purge(baseUrl + "/*"));
+            Assert.assertEquals(0, cache.getTotalBytes());
+            Assert.assertEquals(0, directory.list().length);
+
+        } finally {
+            server.stop(0);
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testCredentialsNotCached() throws Exception {
+
+        final AtomicInteger bodyCount = new AtomicInteger();
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                bodyCount.incrementAndGet();
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+                exchange.sendResponseHeaders(200, CONTENT.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                responseBody.write(CONTENT);
+                responseBody.close();
+            }
+        });
+
+        File directory = Files.createTempDirectory("resource-cache-test").toFile();
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            UrlResourceCache cache = new UrlResourceCache(directory, 1024);
+
+            // whether given in the URL, or separately
+            URL url = new URL(baseUrl.replace("://", "://user:pw@") + "/data");
+            for (int i = 0; i < 2; i++) {
+                Assert.assertTrue(Arrays.equals(CONTENT, HttpFixture.read(
+                    cache.open(url, null, null, TRANSPORT, false))));
+                Assert.assertTrue(Arrays.equals(CONTENT, HttpFixture.read(
+                    cache.open(new URL(baseUrl + "/data"), "user", "pw", TRANSPORT, false))));
+            }
+            Assert.assertEquals(4, bodyCount.get());
+            Assert.assertEquals(0, cache.getEntries().size());
+            Assert.assertEquals(0, directory.list().length);
+
+            // nor is a resource cached without them served to a request with them
+            HttpFixture.read(cache.open(new URL(baseUrl + "/data"), null, null, TRANSPORT, false));
+            Assert.assertEquals(5, bodyCount.get());
+            HttpFixture.read(cache.open(url, null, null, TRANSPORT, false));
+            Assert.assertEquals(6, bodyCount.get());
+            try {
+                cache.open(url, null, null, TRANSPORT, true);
+                Assert.fail("served a resource requested with credentials while offline");
+            } catch(IOException ioex) {
+                Assert.assertFalse(ioex.getMessage(), ioex.getMessage().contains("pw"));
+            }
+
+        } finally {
+            server.stop(0);
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+        }
+    }
+
+    @Test
+    public void testPrivateDirectory() throws Exception {
+
+        if (!Files.getFileStore(new File(System.getProperty("java.io.tmpdir")).toPath())
+                .supportsFileAttributeView("posix")) {
+            // no permissions to check
+            return;
+        }
+
+        File parentDirectory = Files.createTempDirectory("resource-cache-test").toFile();
+        File directory = new File(parentDirectory, "cache");
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                exchange.getResponseHeaders().add("Cache-Control", "max-age=3600");
+                exchange.sendResponseHeaders(200, CONTENT.length);
+                OutputStream responseBody = exchange.getResponseBody();
+                responseBody.write(CONTENT);
+                responseBody.close();
+            }
+        });
+        try {
+
+            // the directory, and the entries' files, are the user's alone
+            UrlResourceCache cache = new UrlResourceCache(directory, 1024);
+            Assert.assertEquals("rwx------", PosixFilePermissions.toString(
+                Files.getPosixFilePermissions(directory.toPath())));
+            HttpFixture.read(cache.open(new URL(HttpFixture.getBaseUrl(server) + "/data"),
+                null, null, TRANSPORT, false));
+            Assert.assertEquals(2, directory.list().length);
+            for (File file : directory.listFiles()) {
+                Assert.assertEquals(file.getName(), "rw-------", PosixFilePermissions.toString(
+                    Files.getPosixFilePermissions(file.toPath())));
+            }
+
+            // a directory others can write to isn't used
+            Files.setPosixFilePermissions(directory.toPath(),
+                PosixFilePermissions.fromString("rwxrwxrwx"));
+            try {
+                new UrlResourceCache(directory, 1024);
+                Assert.fail("used a directory writable by others");
+            } catch(IOException ioex) {
+                Assert.assertTrue(ioex.getMessage(), ioex.getMessage().endsWith("writable by others"));
+            }
+
+        } finally {
+            server.stop(0);
+            for (File file : directory.listFiles()) {
+                file.delete();
+            }
+            directory.delete();
+            parentDirectory.delete();
+        }
+    }
+
+}
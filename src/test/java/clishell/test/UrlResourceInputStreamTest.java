@@ -0,0 +1,183 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.Assert;
+
+import clishell.net.UrlResourceInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of retrieving resources over HTTP, using a local server
+ *
+ */
+public class UrlResourceInputStreamTest {
+
+    /** content served */
+    private static final byte[] CONTENT = HttpFixture.newContent(256 * 1024);
+
+    /** "Authorization" header value for user "user", password "pw" */
+    private static final String AUTHORIZATION = "Basic dXNlcjpwdw==";
+
+    @Test
+    public void testTransports() throws Exception {
+
+        final Set<String> clientAddresses = Collections.synchronizedSet(new HashSet<String>());
+        final boolean[] isGzipped = new boolean[1];
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                clientAddresses.add(exchange.getRemoteAddress().toString());
+                if (exchange.getRequestURI().getPath().equals("/secret")
+                        && !AUTHORIZATION.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                    exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"test\"");
+                    exchange.sendResponseHeaders(401, -1);
+                    exchange.close();
+                    return;
+                }
+                String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+                OutputStream responseBody;
+                if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+                    isGzipped[0] = true;
+                    exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+                    exchange.sendResponseHeaders(200, 0);
+                    responseBody = new GZIPOutputStream(exchange.getResponseBody());
+                } else {
+                    exchange.sendResponseHeaders(200, CONTENT.length);
+                    responseBody = exchange.getResponseBody();
+                }
+                responseBody.write(CONTENT);
+                responseBody.close();
+            }
+        });
+
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            for (UrlResourceInputStream.Transport transport : UrlResourceInputStream.Transport.values()) {
+                Assert.assertTrue(Arrays.equals(CONTENT,
+                    HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/data"), null, null, transport))));
+                Assert.assertTrue(Arrays.equals(CONTENT,
+                    HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/secret"), "user", "pw", transport))));
+                try {
+                    HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/secret"), "user", "no", transport));
+                    Assert.fail("accepted wrong credentials using " + transport);
+                } catch(IOException ioex) {
+                    // expected
+                }
+            }
+
+            // the shared client asked for compressed content, and reuses its connection
+            Assert.assertTrue(isGzipped[0]);
+            clientAddresses.clear();
+            for (int i = 0; i < 5; i++) {
+                HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/data"), null, null,
+                    UrlResourceInputStream.Transport.HTTP_CLIENT));
+            }
+            Assert.assertEquals(1, clientAddresses.size());
+
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void testRedirects() throws Exception {
+
+        // another origin, which asks for credentials
+        final Set<String> otherAuthorizations = Collections.synchronizedSet(new HashSet<String>());
+        final HttpServer otherServer = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+                if (authorization != null) {
+                    otherAuthorizations.add(authorization);
+                }
+                exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"test\"");
+                exchange.sendResponseHeaders(401, -1);
+                exchange.close();
+            }
+        });
+
+        HttpServer server = HttpFixture.startServer(new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                if (path.equals("/secret")) {
+                    if (!AUTHORIZATION.equals(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                        exchange.getResponseHeaders().add("WWW-Authenticate", "Basic realm=\"test\"");
+                        exchange.sendResponseHeaders(401, -1);
+                        exchange.close();
+                        return;
+                    }
+                    exchange.sendResponseHeaders(200, CONTENT.length);
+                    OutputStream responseBody = exchange.getResponseBody();
+                    responseBody.write(CONTENT);
+                    responseBody.close();
+                    return;
+                }
+                String location = path.equals("/moved") ? "/secret"
+                    : path.equals("/away") ? HttpFixture.getBaseUrl(otherServer) + "/secret"
+                    : path;
+                exchange.getResponseHeaders().add("Location", location);
+                exchange.sendResponseHeaders(302, -1);
+                exchange.close();
+            }
+        });
+
+        try {
+
+            String baseUrl = HttpFixture.getBaseUrl(server);
+            for (UrlResourceInputStream.Transport transport : UrlResourceInputStream.Transport.values()) {
+
+                // the credentials follow a redirect to the same origin
+                Assert.assertTrue(Arrays.equals(CONTENT, HttpFixture.read(new UrlResourceInputStream(
+                    new URL(baseUrl + "/moved"), "user", "pw", transport))));
+
+                // but not one to another origin
+                try {
+                    HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/away"),
+                        "user", "pw", transport));
+                    Assert.fail("other origin accepted missing credentials using " + transport);
+                } catch(IOException ioex) {
+                    // expected
+                }
+                Assert.assertTrue(otherAuthorizations.toString(), otherAuthorizations.isEmpty());
+
+                // nor are redirects followed forever
+                try {
+                    HttpFixture.read(new UrlResourceInputStream(new URL(baseUrl + "/loop"),
+                        null, null, transport));
+                    Assert.fail("redirect loop followed using " + transport);
+                } catch(IOException ioex) {
+                    // expected
+                }
+            }
+
+        } finally {
+            server.stop(0);
+            otherServer.stop(0);
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ *
+ *
+ * Command Line Interface Harness
+ *
+ *
+ *
+ *
+ * @author MRoss
+ *
+ */
+
+package clishell.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+
+import junit.framework.Assert;
+
+import clishell.ex.CliRejectedInputException;
+import clishell.plugins.XmlStreamSelector;
+import org.junit.Test;
+
+/**
+ *
+ * Tests of the streaming path expression selector
+ *
+ */
+public class XmlStreamSelectorTest {
+
+    private static final String DOCUMENT
+        = "<orders xmlns:x='urn:x'>"
+        +   "<order id='1' status='open'><item sku='a'>A1</item><item sku='b'>B1</item></order>"
+        +   "<order id='2' status='closed'><item sku='c'>C2</item></order>"
+        +   "<order id='3' status='open'>note<x:item sku='d'>D3</x:item> more</order>"
+        + "</orders>";
+
+    @Test
+    public void testSteps() throws Exception {
+        Assert.assertEquals("A1\nB1\nC2\nD3\n", select("/orders/order/item"));
+        Assert.assertEquals("A1\nB1\nC2\nD3\n", select("//item"));
+        Assert.assertEquals("D3\n", select("//x:item"));
+        Assert.assertEquals("A1\nB1\nD3\n", select("//order[@status='open']/*"));
+        Assert.assertEquals("C2\n", select("orders/order[@status!='open']/item"));
+    }
+
+    @Test
+    public void testPositions() throws Exception {
+        Assert.assertEquals("A1\nC2\nD3\n", select("//order/*[1]"));
+        Assert.assertEquals("B1\n", select("//item[2]"));
+        Assert.assertEquals("D3\n", select("/orders/order[@status='open'][2]/*"));
+        Assert.assertEquals("", select("/orders/order[3][@status='closed']"));
+    }
+
+    @Test
+    public void testAttributesAndText() throws Exception {
+        Assert.assertEquals("1\n2\n3\n", select("//order/@id"));
+        Assert.assertEquals("a\nb\nc\nd\n", select("//@sku"));
+        Assert.assertEquals("note more\n", select("//order/text()"));
+    }
+
+    @Test
+    public void testOutput() throws Exception {
+        XmlStreamSelector xmlStreamSelector = new XmlStreamSelector("//order[@id='3']");
+        StringWriter out = new StringWriter();
+        xmlStreamSelector.select(new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null,
+            out, XmlStreamSelector.Output.XML, 0, null);
+        Assert.assertEquals("<order id=\"3\" status=\"open\">note"
+            + "<x:item xmlns:x=\"urn:x\" sku=\"d\">D3</x:item> more</order>\n", out.toString());
+
+        // counts, stopping early
+        xmlStreamSelector = new XmlStreamSelector("//item");
+        Assert.assertEquals(2, xmlStreamSelector.select(
+            new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null,
+            null, XmlStreamSelector.Output.TEXT, 2, null));
+        Assert.assertEquals(8, new XmlStreamSelector("//*").select(
+            new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null,
+            null, XmlStreamSelector.Output.TEXT, 0, null));
+    }
+
+    @Test
+    public void testRejected() {
+        String[] pathExpressions = {
+            "", "/", "//", "a//", "a/@b/c", "a[last()]", "a[1][2]", "a[@b='c'", "a[text()='b']"
+        };
+        for (String pathExpression : pathExpressions) {
+            try {
+                new XmlStreamSelector(pathExpression);
+                Assert.fail("accepted '" + pathExpression + "'");
+            } catch(CliRejectedInputException crie) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * @param pathExpression path expression
+     * @return text of the parts of {@link #DOCUMENT} selected
+     */
+    private String select(String pathExpression) throws Exception {
+        StringWriter out = new StringWriter();
+        new XmlStreamSelector(pathExpression).select(
+            new ByteArrayInputStream(DOCUMENT.getBytes("UTF-8")), null,
+            out, XmlStreamSelector.Output.TEXT, 0, null);
+        return out.toString();
+    }
+
+}